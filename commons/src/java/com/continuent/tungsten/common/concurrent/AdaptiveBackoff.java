@@ -0,0 +1,99 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.common.concurrent;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a thread that polls for something, such as data appended to a file.
+ * Pauses start short, so that data that arrive soon after the last data are
+ * seen with little delay, and double on each pause up to a maximum, so that a
+ * thread that polls for a long time uses little CPU. Callers reset the back-off
+ * once they find what they poll for.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class AdaptiveBackoff
+{
+    private final long minPauseNanos;
+    private final long maxPauseNanos;
+    private long       pauseNanos;
+
+    /**
+     * Creates a new back-off.
+     *
+     * @param minPauseMicros Length of the first pause in microseconds
+     * @param maxPauseMillis Maximum length of a pause in milliseconds
+     */
+    public AdaptiveBackoff(long minPauseMicros, long maxPauseMillis)
+    {
+        this.minPauseNanos = minPauseMicros * 1000;
+        this.maxPauseNanos = Math.max(minPauseNanos, maxPauseMillis * 1000000);
+        this.pauseNanos = minPauseNanos;
+    }
+
+    /**
+     * Pauses the current thread, doubling the next pause up to the maximum.
+     *
+     * @param remainingMillis Upper bound on the pause, for callers that wait
+     *            until a deadline
+     * @throws InterruptedException Thrown if the thread is interrupted
+     */
+    public void pause(long remainingMillis) throws InterruptedException
+    {
+        long nanos = Math.min(pauseNanos, Math.max(0, remainingMillis) * 1000000);
+        if (nanos > 0)
+            LockSupport.parkNanos(nanos);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        pauseNanos = Math.min(pauseNanos * 2, maxPauseNanos);
+    }
+
+    /**
+     * Pauses the current thread without a deadline.
+     *
+     * @see #pause(long)
+     */
+    public void pause() throws InterruptedException
+    {
+        pause(Long.MAX_VALUE / 1000000);
+    }
+
+    /**
+     * Makes the next pause the shortest one.
+     */
+    public void reset()
+    {
+        pauseNanos = minPauseNanos;
+    }
+
+    /**
+     * Returns the length of the next pause in nanoseconds.
+     */
+    public long getPauseNanos()
+    {
+        return pauseNanos;
+    }
+}
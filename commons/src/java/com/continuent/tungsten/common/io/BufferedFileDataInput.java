@@ -33,6 +33,8 @@ import java.nio.channels.FileChannel;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.common.concurrent.AdaptiveBackoff;
+
 /**
  * Merges the capabilities of the following stream classes into a single class:
  * FileInputStream, BufferedInputStream, and DataInputStream. This allows us to
@@ -56,6 +58,10 @@ public class BufferedFileDataInput
     private long                available;
     private FileChannel         fileChannel;
 
+    // Paces polling for data appended to the file. Pauses start well below a
+    // millisecond after data arrive and grow to 50ms while the file is idle.
+    private AdaptiveBackoff     backoff = new AdaptiveBackoff(100, 50);
+
     /**
      * Creates instance positioned on start of file.
      * 
@@ -133,16 +139,15 @@ public class BufferedFileDataInput
         // or exceed the timeout.
         long timeoutMillis = System.currentTimeMillis() + waitMillis;
         long nextReportMillis = System.currentTimeMillis() + 1000;
-        while (available() < requested
-                && System.currentTimeMillis() < timeoutMillis)
+        while (available() < requested)
         {
-            // We might get interrupted, in which case we want to terminate
-            // the loop.
-            if (Thread.interrupted())
-                throw new InterruptedException();
+            long remainingMillis = timeoutMillis - System.currentTimeMillis();
+            if (remainingMillis <= 0)
+                break;
 
-            // Now bide a wee.
-            Thread.sleep(50);
+            // Now bide a wee. The back-off also terminates the loop if we
+            // are interrupted.
+            backoff.pause(remainingMillis);
             if (System.currentTimeMillis() > nextReportMillis)
             {
                 if (logger.isDebugEnabled())
@@ -151,6 +156,10 @@ public class BufferedFileDataInput
             }
         }
 
+        // Data arrived, so poll quickly for the next data.
+        if (available >= requested)
+            backoff.reset();
+
         // Return number of bytes available for non-blocking read.
         return available;
     }
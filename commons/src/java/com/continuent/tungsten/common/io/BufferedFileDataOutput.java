@@ -149,6 +149,19 @@ public class BufferedFileDataOutput
         offset += bytes.length;
     }
 
+    /**
+     * Writes part of a byte array completely. Writes at least as large as the
+     * buffer go straight to the file in a single call rather than being copied
+     * through the buffer.
+     * 
+     * @throws IOException Thrown if bytes cannot be written
+     */
+    public void write(byte[] bytes, int off, int len) throws IOException
+    {
+        dataOutput.write(bytes, off, len);
+        offset += len;
+    }
+
     /**
      * Flush buffered data to stream. This does not guarantee persistence, only
      * that lower streams can see it.
@@ -170,6 +183,18 @@ public class BufferedFileDataOutput
         //fileOutput.getFD().sync();
     }
 
+    /**
+     * Forces data already written to the operating system onto the storage
+     * device. Unlike other methods this may be called from a thread other
+     * than the writer; it does not flush the write buffer.
+     */
+    public void force() throws IOException
+    {
+        FileOutputStream out = fileOutput;
+        if (out != null)
+            out.getChannel().force(false);
+    }
+
     /**
      * Truncate the file to the provided length. Performs an automatic fsync and
      * reopens the file.
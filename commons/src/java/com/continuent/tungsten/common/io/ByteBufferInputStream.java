@@ -0,0 +1,135 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.common.io;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Implements an InputStream on top of a ByteBuffer. Reads start at the current
+ * buffer position and end at the buffer limit. The stream consumes the buffer
+ * it is given, so callers that want to reread contents should pass in a
+ * duplicate.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ByteBufferInputStream extends InputStream
+{
+    private final ByteBuffer buffer;
+    private int              markPosition = -1;
+
+    /**
+     * Creates a new stream on the buffer.
+     *
+     * @param buffer Buffer positioned on the first byte to read
+     */
+    public ByteBufferInputStream(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read()
+     */
+    public int read()
+    {
+        if (!buffer.hasRemaining())
+            return -1;
+        else
+            return buffer.get() & 0xff;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] bytes, int off, int len)
+    {
+        if (len == 0)
+            return 0;
+        int remaining = buffer.remaining();
+        if (remaining == 0)
+            return -1;
+        int toRead = Math.min(len, remaining);
+        buffer.get(bytes, off, toRead);
+        return toRead;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#skip(long)
+     */
+    public long skip(long n)
+    {
+        if (n <= 0)
+            return 0;
+        int toSkip = (int) Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + toSkip);
+        return toSkip;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#available()
+     */
+    public int available()
+    {
+        return buffer.remaining();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#markSupported()
+     */
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#mark(int)
+     */
+    public void mark(int readLimit)
+    {
+        markPosition = buffer.position();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#reset()
+     */
+    public void reset()
+    {
+        if (markPosition >= 0)
+            buffer.position(markPosition);
+    }
+}
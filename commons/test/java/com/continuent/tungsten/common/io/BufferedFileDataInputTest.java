@@ -404,6 +404,48 @@ public class BufferedFileDataInputTest extends TestCase
         bfdi.close();
     }
 
+    /**
+     * Confirm that a wait ends as soon as another thread appends enough data
+     * rather than at the timeout.
+     */
+    public void testInputWaitAvailableAppend() throws Exception
+    {
+        File f = this.initFile("testInputWaitAvailableAppend");
+        final DataOutputStream dos = new DataOutputStream(
+                new FileOutputStream(f));
+        BufferedFileDataInput bfdi = new BufferedFileDataInput(f);
+
+        // Let the wait back off for a while before data appear.
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(200);
+                    dos.writeInt(1);
+                    dos.flush();
+                }
+                catch (Exception e)
+                {
+                    logger.error("Unable to write test data", e);
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        writer.start();
+        assertEquals("data appended", 4, bfdi.waitAvailable(4, 10000));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("wait ends before timeout: elapsed=" + elapsed,
+                elapsed < 5000);
+        assertEquals("read appended data", 1, bfdi.readInt());
+
+        // Clean up.
+        writer.join();
+        dos.close();
+        bfdi.close();
+    }
+
     /**
      * Confirm that if we interrupt waiting for input an InterruptedException is
      * returned. This is important because underlying Java NIO routines may turn
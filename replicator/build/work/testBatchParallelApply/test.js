@@ -0,0 +1,22 @@
+function prepare() {
+  dir = runtime.getContext().getServiceName();
+  runtime.exec('echo prepare >> ' + dir + '/prepare.stat');
+}
+function begin() {
+  runtime.exec('echo begin >> ' + dir + '/begin.stat');
+}
+function apply(csvinfo) {
+  logger.info('Applying csv: table=' + csvinfo.baseTableMetadata.getName());  if (csvinfo.key == '') {
+    output_csv = csvinfo.baseTableMetadata.getName() + '.data';
+  } else {
+    output_csv = csvinfo.baseTableMetadata.getName() + '-' + csvinfo.key + '.data';
+  }
+  runtime.exec('echo ' + csvinfo.file.getName() + '>> ' + dir + '/apply.stat');
+  runtime.exec('cat ' + csvinfo.file.getAbsolutePath() + ' >> '     + dir + '/' + output_csv);
+}
+function commit() {
+  runtime.exec('echo commit >> ' + dir + '/commit.stat');
+}
+function release() {
+  runtime.exec('echo release >> ' + dir + '/release.stat');
+}
\ No newline at end of file
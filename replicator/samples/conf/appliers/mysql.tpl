@@ -5,6 +5,21 @@ replicator.applier.dbms.ignoreSessionVars=autocommit
 replicator.applier.dbms.getColumnMetadataFromDB=true
 replicator.applier.dbms.optimizeRowEvents=@{REPL_SVC_APPLIER_OPTIMIZE_ROW_EVENTS}
 
+# Maximum size in bytes of the multi-row INSERT and DELETE statements that
+# optimizeRowEvents generates. 0 uses the server max_allowed_packet.
+replicator.applier.dbms.maxStatementBytes=0
+
+# Maximum number of rows of a row change sent to the server in one JDBC
+# batch, which saves a round trip per row for bulk updates and deletes.
+# Values of 1 or less apply each row with its own statement. Drivers that
+# rewrite batches do not report row counts, so unless 0-row updates are
+# ignored rows are applied one at a time after the first such batch.
+replicator.applier.dbms.rowBatchSize=1
+
+# Number of prepared statements for row changes kept open for reuse, one for
+# each table, action and form of the statement. 0 turns the cache off.
+replicator.applier.dbms.rowStatementCacheSize=500
+
 # If true, similate time-zone unaware operation to process events from older
 # Tungsten masters that do not extract events in a time zone-aware manner. 
 # This option should only be enabled for upgrades if there is a chance of 
@@ -22,6 +22,33 @@ replicator.extractor.dbms.usingBytesForString=@{REPL_MYSQL_USE_BYTES_FOR_STRING}
 # will occur.  1M bytes is a good size for most installations.
 replicator.extractor.dbms.transaction_frag_size=1000000
 
+# Number of threads that decode row images of row-based events in parallel
+# while the extractor reads on through the binlog.  Row changes still appear
+# in binlog order.  Helps with wide tables and large row-based transactions
+# on hosts with several cores.  0 decodes rows on the extractor thread.
+# Decoding errors show up once the transaction or fragment is read, so with
+# extractorFailurePolicy=warn the whole transaction or fragment is skipped
+# rather than only the events read before the failing one.
+replicator.extractor.dbms.decodeThreads=0
+
+# If true, row images are decoded from the raw binlog data only when filters
+# or the log first use them, so that changes to tables that filters drop are
+# never decoded.  Decoding errors then show up after extraction, where
+# extractorFailurePolicy does not apply and they stop the pipeline, so this
+# setting is ignored with extractorFailurePolicy=warn.  Overrides
+# decodeThreads.
+replicator.extractor.dbms.lazyRowDecoding=false
+
+# Table metadata needed to decode MariaDB 10 temporal types are fetched on a
+# background connection and kept in this file across restarts.  If unset, the
+# file is kept in the relay log directory when relay logs are used.  Cached
+# metadata are refreshed only when DDL on the table is extracted.
+#replicator.extractor.dbms.metadataCacheFile=
+
+# If true, fetch metadata for the other tables of a schema in the background
+# once one of them is used, and for tables again after DDL on them.
+replicator.extractor.dbms.metadataPrefetch=true
+
 # When using relay logs we download from the master into binlog_dir.  This
 # is used for off-board replication.
 replicator.extractor.dbms.useRelayLogs=@{EXTRACTOR.REPL_DISABLE_RELAY_LOGS}
@@ -44,6 +71,14 @@ replicator.extractor.dbms.relayLogReadTimeout=30
 # them automatically.
 replicator.extractor.dbms.relayLogRetention=10
 
+# When relayLogDirect is true, relay logs hand downloaded binlog data to the
+# extractor through a memory buffer of up to relayLogBufferBytes instead of
+# relay log files.  Relay log files are then only written, in the
+# background, if relayLogDirectFiles is true.  Requires useRelayLogs.
+replicator.extractor.dbms.relayLogDirect=false
+replicator.extractor.dbms.relayLogBufferBytes=16777216
+replicator.extractor.dbms.relayLogDirectFiles=false
+
 # The serverId is the ID used when logging into MySQL to download binlog 
 # data.  MySQL requires all clients to use a unique value.  If multiple
 # replicators or MySQL slaves read from the same master, you must ensure
@@ -25,6 +25,7 @@ package com.continuent.tungsten.replicator.applier;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -51,6 +52,8 @@ import com.continuent.tungsten.replicator.consistency.ConsistencyTable;
 import com.continuent.tungsten.replicator.database.Column;
 import com.continuent.tungsten.replicator.database.Database;
 import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
+import com.continuent.tungsten.replicator.database.PreparedStatementCache;
+import com.continuent.tungsten.replicator.database.PreparedStatementHolder;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
@@ -126,6 +129,10 @@ public class JdbcApplier implements RawApplier
 
     private TableMetadataCache        tableMetadataCache;
 
+    // Prepared statements for row changes, keyed by statement shape.
+    private PreparedStatementCache    rowStatementCache;
+    protected int                     rowStatementCacheSize      = 0;
+
     private boolean                   transactionStarted         = false;
 
     private ReplDBMSHeader            lastProcessedEvent         = null;
@@ -142,6 +149,14 @@ public class JdbcApplier implements RawApplier
     // deletes) -- only supported by MySQL appliers for now
     protected boolean                 optimizeRowEvents          = false;
 
+    // Maximum number of rows of a row change sent to the server in one JDBC
+    // batch. Values of 1 or less apply each row with its own statement.
+    protected int                     rowBatchSize               = 1;
+
+    // Cleared once the driver fails to report the row counts of a batch,
+    // which the failure policy on 0-row updates needs.
+    private boolean                   batchCountsReported        = true;
+
     // Generic formatter for date-time values. This can safely be set without a
     // time zone, as it will pick up the default replicator time zone.
     protected final SimpleDateFormat  dateTimeFormatter          = new SimpleDateFormat(
@@ -160,6 +175,34 @@ public class JdbcApplier implements RawApplier
         this.optimizeRowEvents = optimizeRowEvents;
     }
 
+    /**
+     * Sets the maximum number of rows of a row change that are sent to the
+     * server in one JDBC batch. Batches save a round trip per row for bulk
+     * updates and deletes. Values of 1 or less turn batching off. If the
+     * failure policy on 0-row updates is not ignore and the driver does not
+     * report row counts for batches, rows are applied one at a time after the
+     * first such batch.
+     * 
+     * @param rowBatchSize The rowBatchSize to set.
+     */
+    public void setRowBatchSize(int rowBatchSize)
+    {
+        this.rowBatchSize = rowBatchSize;
+    }
+
+    /**
+     * Sets the number of prepared statements for row changes that are kept
+     * open on the connection for reuse. Statements are looked up by table,
+     * action, columns and NULL values, so the SQL text is built and parsed
+     * only once for each form of statement. 0 turns the cache off.
+     * 
+     * @param rowStatementCacheSize The rowStatementCacheSize to set.
+     */
+    public void setRowStatementCacheSize(int rowStatementCacheSize)
+    {
+        this.rowStatementCacheSize = rowStatementCacheSize;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -563,6 +606,28 @@ public class JdbcApplier implements RawApplier
         logger.warn("No applier for rowid data specified");
     }
 
+    /**
+     * Drops cached row statements after DDL that may change tables, as the
+     * table metadata cache does. DDL is rare, so all statements are dropped.
+     */
+    private void invalidateRowStatements(SqlOperation sqlOperation)
+    {
+        if (rowStatementCache == null || rowStatementCache.size() == 0)
+            return;
+        int operation = sqlOperation.getOperation();
+        int objectType = sqlOperation.getObjectType();
+        if (operation == SqlOperation.ALTER
+                || operation == SqlOperation.RENAME
+                || (operation == SqlOperation.DROP
+                        && (objectType == SqlOperation.TABLE || objectType == SqlOperation.SCHEMA)))
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Row statement invalidation: statements="
+                        + rowStatementCache.size());
+            rowStatementCache.invalidateAll();
+        }
+    }
+
     protected void applyStatementData(StatementData data)
             throws ReplicatorException
     {
@@ -969,15 +1034,21 @@ public class JdbcApplier implements RawApplier
             throws ReplicatorException
     {
         PreparedStatement prepStatement = null;
+        String stmtKey = null;
+        boolean applied = false;
 
         getColumnInfomation(oneRowChange);
 
-        StringBuffer stmt = null;
+        String stmt = null;
 
         ArrayList<OneRowChange.ColumnSpec> key = oneRowChange.getKeySpec();
         ArrayList<OneRowChange.ColumnSpec> columns = oneRowChange
                 .getColumnSpec();
 
+        // First row of the current batch and number of rows in it.
+        int batchStart = 0;
+        int batchRows = 0;
+
         try
         {
             ArrayList<ArrayList<OneRowChange.ColumnVal>> keyValues = oneRowChange
@@ -993,6 +1064,17 @@ public class JdbcApplier implements RawApplier
                         || needNewSQLStatement(row, keyValues, key,
                                 columnValues, columns))
                 {
+                    // Rows batched so far belong to the previous statement.
+                    if (batchRows > 0)
+                    {
+                        updateCount += executeRowBatch(prepStatement, stmt,
+                                oneRowChange, batchStart);
+                        batchRows = 0;
+                    }
+                    if (prepStatement != null && stmtKey == null)
+                        prepStatement.close();
+                    prepStatement = null;
+
                     ArrayList<OneRowChange.ColumnVal> keyValuesOfThisRow = null;
                     if (keyValues.size() > 0)
                         keyValuesOfThisRow = keyValues.get(row);
@@ -1004,13 +1086,34 @@ public class JdbcApplier implements RawApplier
                     if (columnValues.size() > 0)
                         colValuesOfThisRow = columnValues.get(row);
 
-                    stmt = constructStatement(oneRowChange.getAction(),
-                            oneRowChange.getSchemaName(),
-                            oneRowChange.getTableName(), columns, key,
-                            keyValuesOfThisRow, colValuesOfThisRow);
-
                     runtime.getMonitor().incrementEvents(columnValues.size());
-                    prepStatement = conn.prepareStatement(stmt.toString());
+
+                    // Reuse a cached statement of the same shape if we can.
+                    stmtKey = null;
+                    if (rowStatementCache != null)
+                    {
+                        stmtKey = rowStatementKey(oneRowChange, columns, key,
+                                keyValuesOfThisRow, colValuesOfThisRow);
+                        PreparedStatementHolder holder = rowStatementCache
+                                .retrieveExtended(stmtKey);
+                        if (holder != null)
+                        {
+                            stmt = holder.getQuery();
+                            prepStatement = holder.getPreparedStatement();
+                        }
+                    }
+                    if (prepStatement == null)
+                    {
+                        stmt = constructStatement(oneRowChange.getAction(),
+                                oneRowChange.getSchemaName(),
+                                oneRowChange.getTableName(), columns, key,
+                                keyValuesOfThisRow, colValuesOfThisRow)
+                                .toString();
+                        prepStatement = conn.prepareStatement(stmt);
+                        if (stmtKey != null)
+                            rowStatementCache.store(stmtKey, prepStatement,
+                                    stmt);
+                    }
                 }
 
                 int bindLoc = 1; /* Start binding at index 1 */
@@ -1032,42 +1135,64 @@ public class JdbcApplier implements RawApplier
                             keyValues.get(row), bindLoc, key, true);
                 }
 
-                try
+                if (rowBatchSize > 1 && batchCountsReported)
                 {
-                    int oneChangeCount = prepStatement.executeUpdate();
-                    if (oneChangeCount == 0)
+                    // Queue the row and send the batch once it is full.
+                    if (batchRows == 0)
+                        batchStart = row;
+                    prepStatement.addBatch();
+                    batchRows++;
+                    if (batchRows >= rowBatchSize)
                     {
-                        if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.WARN)
-                            logger.warn("UPDATE or DELETE statement did not process any row"
-                                    + logFailedRowChangeSQL(stmt, oneRowChange,
-                                            row));
-                        else if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.STOP)
-                        {
-                            ReplicatorException replicatorException = new ReplicatorException(
-                                    "UPDATE or DELETE statement did not process any row");
-                            replicatorException
-                                    .setExtraData(logFailedRowChangeSQL(stmt,
-                                            oneRowChange, row));
-                            throw replicatorException;
-                        }
-                        // else IGNORE
+                        updateCount += executeRowBatch(prepStatement, stmt,
+                                oneRowChange, batchStart);
+                        batchRows = 0;
                     }
+                    continue;
+                }
+
+                try
+                {
+                    int oneChangeCount = prepStatement.executeUpdate();
+                    checkRowUpdateCount(oneChangeCount, stmt, oneRowChange,
+                            row);
                     updateCount += oneChangeCount;
                 }
                 catch (SQLWarning e)
                 {
-                    String msg = "While applying SQL event:\n"
-                            + stmt.toString() + "\nWarning: " + e.getMessage();
+                    String msg = "While applying SQL event:\n" + stmt
+                            + "\nWarning: " + e.getMessage();
                     logger.warn(msg);
                 }
             }
 
+            if (batchRows > 0)
+            {
+                updateCount += executeRowBatch(prepStatement, stmt,
+                        oneRowChange, batchStart);
+            }
+            applied = true;
+
             if (logger.isDebugEnabled())
             {
                 logger.debug("Applied event (update count " + updateCount
-                        + "): " + stmt.toString());
+                        + "): " + stmt);
             }
         }
+        catch (BatchUpdateException e)
+        {
+            // Drivers that stop at the first failing row return counts for
+            // the rows before it, which tells us which row failed.
+            ApplierException applierException = new ApplierException(e);
+            int[] counts = e.getUpdateCounts();
+            if (counts != null && counts.length < batchRows)
+                applierException.setExtraData(logFailedRowChangeSQL(stmt,
+                        oneRowChange, batchStart + counts.length));
+            else
+                applierException.setExtraData(logFailedRowChangeSQL(stmt,
+                        oneRowChange));
+            throw applierException;
+        }
         catch (SQLException e)
         {
             ApplierException applierException = new ApplierException(e);
@@ -1077,7 +1202,13 @@ public class JdbcApplier implements RawApplier
         }
         finally
         {
-            if (prepStatement != null)
+            if (stmtKey != null)
+            {
+                // Drop a cached statement that may still hold batched rows.
+                if (!applied)
+                    rowStatementCache.invalidate(stmtKey);
+            }
+            else if (prepStatement != null)
             {
                 try
                 {
@@ -1090,6 +1221,132 @@ public class JdbcApplier implements RawApplier
         }
     }
 
+    /**
+     * Returns the key of the prepared statement for a row in the row statement
+     * cache. The key holds everything constructStatement() uses to build the
+     * SQL text, including the placeholder of each value, which differs for
+     * NULL values and for some types.
+     */
+    private String rowStatementKey(OneRowChange oneRowChange,
+            ArrayList<OneRowChange.ColumnSpec> columns,
+            ArrayList<OneRowChange.ColumnSpec> keys,
+            ArrayList<OneRowChange.ColumnVal> keyValues,
+            ArrayList<OneRowChange.ColumnVal> colValues)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(oneRowChange.getSchemaName()).append('.');
+        sb.append(oneRowChange.getTableName()).append('.');
+        sb.append(oneRowChange.getAction());
+        for (int i = 0; i < columns.size(); i++)
+        {
+            OneRowChange.ColumnSpec col = columns.get(i);
+            sb.append('|').append(col.getName()).append('=');
+            sb.append(conn.getPlaceHolder(col, colValues == null
+                    ? null
+                    : colValues.get(i).getValue(), col.getTypeDescription()));
+        }
+        if (oneRowChange.getAction() != RowChangeData.ActionType.INSERT)
+        {
+            for (int i = 0; i < keys.size(); i++)
+            {
+                OneRowChange.ColumnSpec col = keys.get(i);
+                sb.append("|k:").append(col.getName()).append('=');
+                if (keyValues == null)
+                    sb.append(conn.getPlaceHolder(col, colValues.get(i)
+                            .getValue(), col.getTypeDescription()));
+                else if (keyValues.get(i).getValue() == null)
+                    sb.append("NULL");
+                else
+                    sb.append(conn.getPlaceHolder(col, keyValues.get(i)
+                            .getValue(), col.getTypeDescription()));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Executes the rows batched on a prepared statement and checks the update
+     * count of each row.
+     * 
+     * @param prepStatement Statement with batched rows
+     * @param stmt SQL text of the statement, for logging
+     * @param oneRowChange Row change the rows belong to
+     * @param batchStart Index of the first batched row in the row change
+     * @return Sum of the update counts reported by the server
+     */
+    private int executeRowBatch(PreparedStatement prepStatement,
+            String stmt, OneRowChange oneRowChange, int batchStart)
+            throws SQLException, ReplicatorException
+    {
+        int[] counts;
+        try
+        {
+            counts = prepStatement.executeBatch();
+        }
+        catch (SQLWarning e)
+        {
+            String msg = "While applying SQL event:\n" + stmt + "\nWarning: "
+                    + e.getMessage();
+            logger.warn(msg);
+            batchCountsUnreported(stmt);
+            return 0;
+        }
+
+        int updateCount = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            // Drivers that rewrite batches may not report per-row counts.
+            if (counts[i] == Statement.SUCCESS_NO_INFO)
+            {
+                batchCountsUnreported(stmt);
+                continue;
+            }
+            checkRowUpdateCount(counts[i], stmt, oneRowChange, batchStart + i);
+            updateCount += counts[i];
+        }
+        return updateCount;
+    }
+
+    /**
+     * Stops batching rows if the failure policy on 0-row updates needs row
+     * counts that the driver did not report. Rows of the batch that ran are
+     * not checked, so this warns once.
+     */
+    private void batchCountsUnreported(String stmt)
+    {
+        if (!batchCountsReported
+                || runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.IGNORE)
+            return;
+        batchCountsReported = false;
+        logger.warn("JDBC driver did not report row counts for a batch; rows "
+                + "of this batch were not checked for 0-row updates and rows "
+                + "will be applied one at a time from now on: statement="
+                + stmt);
+    }
+
+    /**
+     * Applies the failure policy for statements that update no rows.
+     */
+    private void checkRowUpdateCount(int count, String stmt,
+            OneRowChange oneRowChange, int row) throws ReplicatorException
+    {
+        if (count == 0)
+        {
+            if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.WARN)
+                logger.warn("UPDATE or DELETE statement did not process any row"
+                        + logFailedRowChangeSQL(stmt, oneRowChange, row));
+            else if (runtime.getApplierFailurePolicyOn0RowUpdates() == FailurePolicy.STOP)
+            {
+                ReplicatorException replicatorException = new ReplicatorException(
+                        "UPDATE or DELETE statement did not process any row");
+                replicatorException.setExtraData(logFailedRowChangeSQL(stmt,
+                        oneRowChange, row));
+                throw replicatorException;
+            }
+            // else IGNORE
+        }
+    }
+
     /**
      * Gets column information (name, etc) from database depending on the
      * getColumnMetadataFromDB setting
@@ -1118,7 +1375,7 @@ public class JdbcApplier implements RawApplier
         }
     }
 
-    private String logFailedRowChangeSQL(StringBuffer stmt,
+    private String logFailedRowChangeSQL(CharSequence stmt,
             OneRowChange oneRowChange, int row)
     {
         try
@@ -1156,7 +1413,7 @@ public class JdbcApplier implements RawApplier
      * @see #maxSQLLogLength
      * @param stmt SQL template for PreparedStatement
      */
-    protected String logFailedRowChangeSQL(StringBuffer stmt,
+    protected String logFailedRowChangeSQL(CharSequence stmt,
             OneRowChange oneRowChange)
     {
         try
@@ -1406,6 +1663,7 @@ public class JdbcApplier implements RawApplier
                                 logger.debug("Table metadata invalidation: stmt="
                                         + query + " invalidated=" + invalidated);
                         }
+                        invalidateRowStatements(sqlOperation);
                     }
                     else if (dataElem instanceof RowIdData)
                     {
@@ -1830,6 +2088,9 @@ public class JdbcApplier implements RawApplier
             }
 
             tableMetadataCache = new TableMetadataCache(5000);
+            if (rowStatementCacheSize > 0)
+                rowStatementCache = new PreparedStatementCache(
+                        rowStatementCacheSize);
 
             // Set up heartbeat table.
             heartbeatTable = new HeartbeatTable(
@@ -1883,6 +2144,11 @@ public class JdbcApplier implements RawApplier
         currentOptions = null;
 
         statement = null;
+        if (rowStatementCache != null)
+        {
+            rowStatementCache.invalidateAll();
+            rowStatementCache = null;
+        }
         if (conn != null)
         {
             conn.close();
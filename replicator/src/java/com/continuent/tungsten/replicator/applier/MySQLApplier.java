@@ -94,6 +94,12 @@ public class MySQLApplier extends JdbcApplier
     protected final SimpleDateFormat mysqlDatetimeFormatter = new SimpleDateFormat(
                                                                     "yyyy-MM-dd HH:mm:ss");
 
+    // Limits on optimized multi-row statements. Unless set, the byte limit
+    // is derived from max_allowed_packet on first use. Server-side prepared
+    // statements accept at most 65535 placeholders.
+    private static final int         MAX_PLACEHOLDERS       = 65535;
+    protected long                   maxStatementBytes      = 0;
+
     /**
      * Host name or IP address.
      */
@@ -118,6 +124,16 @@ public class MySQLApplier extends JdbcApplier
         this.urlOptions = urlOptions;
     }
 
+    /**
+     * Maximum size in bytes of multi-row statements generated when
+     * optimizeRowEvents is true. 0 means slightly less than the server
+     * max_allowed_packet.
+     */
+    public void setMaxStatementBytes(long maxStatementBytes)
+    {
+        this.maxStatementBytes = maxStatementBytes;
+    }
+
     /**
      * If set to true, time stamp-aware unaware events will be processed with
      * old replicator settings. If false, settings will not be altered.
@@ -348,10 +364,21 @@ public class MySQLApplier extends JdbcApplier
                 // optimize inserts
                 getColumnInfomation(oneRowChange);
 
-                executePreparedStatement(oneRowChange,
-                        prepareOptimizedInsertStatement(oneRowChange),
-                        oneRowChange.getColumnSpec(),
-                        oneRowChange.getColumnValues());
+                ArrayList<ColumnSpec> spec = oneRowChange.getColumnSpec();
+                ArrayList<ArrayList<ColumnVal>> values = oneRowChange
+                        .getColumnValues();
+                long headerBytes = estimateHeaderBytes(oneRowChange, spec);
+                int start = 0;
+                while (start < values.size())
+                {
+                    int end = nextStatementEnd(values, start, headerBytes);
+                    ArrayList<ArrayList<ColumnVal>> rows = subList(values,
+                            start, end);
+                    executePreparedStatement(oneRowChange,
+                            prepareOptimizedInsertStatement(oneRowChange,
+                                    rows), spec, rows);
+                    start = end;
+                }
                 return;
             }
             else if (oneRowChange.getAction() == RowChangeData.ActionType.DELETE
@@ -373,19 +400,44 @@ public class MySQLApplier extends JdbcApplier
                 }
 
                 // This can only be applied if table has a single column primary
-                // key
+                // key whose values are in the key images.
+                int keyIndex = -1;
                 if (t.getPrimaryKey() != null
                         && t.getPrimaryKey().getColumns() != null
                         && t.getPrimaryKey().getColumns().size() == 1)
                 {
                     String keyName = t.getPrimaryKey().getColumns().get(0)
                             .getName();
+                    keyIndex = findKeyValues(oneRowChange, keyName);
+                }
 
-                    executePreparedStatement(
-                            oneRowChange,
-                            prepareOptimizedDeleteStatement(oneRowChange,
-                                    keyName), oneRowChange.getKeySpec(),
-                            oneRowChange.getKeyValues());
+                if (keyIndex >= 0)
+                {
+                    // Bind only the primary key value of each row.
+                    ArrayList<ColumnSpec> spec = new ArrayList<ColumnSpec>();
+                    spec.add(oneRowChange.getKeySpec().get(keyIndex));
+                    ArrayList<ArrayList<ColumnVal>> values = new ArrayList<ArrayList<ColumnVal>>();
+                    for (ArrayList<ColumnVal> oneKeyValues : oneRowChange
+                            .getKeyValues())
+                    {
+                        ArrayList<ColumnVal> keyValue = new ArrayList<ColumnVal>(
+                                1);
+                        keyValue.add(oneKeyValues.get(keyIndex));
+                        values.add(keyValue);
+                    }
+
+                    long headerBytes = estimateHeaderBytes(oneRowChange, spec);
+                    int start = 0;
+                    while (start < values.size())
+                    {
+                        int end = nextStatementEnd(values, start, headerBytes);
+                        ArrayList<ArrayList<ColumnVal>> rows = subList(values,
+                                start, end);
+                        executePreparedStatement(oneRowChange,
+                                prepareOptimizedDeleteStatement(oneRowChange,
+                                        spec, rows), spec, rows);
+                        start = end;
+                    }
                     return;
                 }
                 else if (logger.isDebugEnabled())
@@ -398,6 +450,137 @@ public class MySQLApplier extends JdbcApplier
         super.applyOneRowChangePrepared(oneRowChange);
     }
 
+    /**
+     * Returns the index of a key column in the key images of a row change or
+     * -1 if the column is not there or has NULL values.
+     */
+    private int findKeyValues(OneRowChange oneRowChange, String keyName)
+    {
+        ArrayList<ColumnSpec> keySpec = oneRowChange.getKeySpec();
+        for (int i = 0; i < keySpec.size(); i++)
+        {
+            if (keyName.equalsIgnoreCase(keySpec.get(i).getName()))
+            {
+                for (ArrayList<ColumnVal> oneKeyValues : oneRowChange
+                        .getKeyValues())
+                {
+                    if (oneKeyValues.get(i).getValue() == null)
+                        return -1;
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the largest statement size we may send, which unless set
+     * explicitly is a bit less than the server max_allowed_packet. The server
+     * value is fetched on first use.
+     */
+    protected long getMaxStatementBytes()
+    {
+        if (maxStatementBytes <= 0)
+        {
+            long maxAllowedPacket = 1024 * 1024;
+            try
+            {
+                // MySQLDatabase selects @ plus the name, which makes this a
+                // system variable.
+                String value = conn.getSessionVariable("@max_allowed_packet");
+                if (value != null)
+                    maxAllowedPacket = Long.parseLong(value);
+            }
+            catch (Exception e)
+            {
+                logger.warn("Unable to fetch max_allowed_packet, using default: "
+                        + maxAllowedPacket + " bytes: " + e.getMessage());
+            }
+            // Leave room for the packet header; value estimates are already
+            // generous.
+            maxStatementBytes = maxAllowedPacket - 1024;
+        }
+        return maxStatementBytes;
+    }
+
+    // Estimates the size of an optimized statement apart from its values.
+    private long estimateHeaderBytes(OneRowChange oneRowChange,
+            ArrayList<ColumnSpec> spec)
+    {
+        long bytes = 64 + oneRowChange.getSchemaName().length()
+                + oneRowChange.getTableName().length();
+        for (ColumnSpec col : spec)
+        {
+            if (col.getName() != null)
+                bytes += col.getName().length();
+            bytes += 4;
+        }
+        return bytes;
+    }
+
+    // Returns the index after the last row that fits into one statement that
+    // starts with the given row. A statement always holds at least one row.
+    int nextStatementEnd(ArrayList<ArrayList<ColumnVal>> values,
+            int start, long headerBytes)
+    {
+        long maxBytes = getMaxStatementBytes();
+        long bytes = headerBytes;
+        int placeholders = 0;
+        int end = start;
+        while (end < values.size())
+        {
+            ArrayList<ColumnVal> row = values.get(end);
+            long rowBytes = 4;
+            for (ColumnVal value : row)
+                rowBytes += estimateValueBytes(value.getValue()) + 3;
+            if (end > start
+                    && (bytes + rowBytes > maxBytes || placeholders
+                            + row.size() > MAX_PLACEHOLDERS))
+                break;
+            bytes += rowBytes;
+            placeholders += row.size();
+            end++;
+        }
+        return end;
+    }
+
+    // Estimates the bytes a value takes in statement text, allowing for
+    // escapes and multi-byte characters. Blobs of unknown length count as
+    // more than any packet, so that they go into a statement of their own.
+    static long estimateValueBytes(Object value)
+    {
+        if (value == null)
+            return 4;
+        else if (value instanceof String)
+            return 3L * ((String) value).length() + 2;
+        else if (value instanceof byte[])
+            return 2L * ((byte[]) value).length + 3;
+        else if (value instanceof SerialBlob)
+        {
+            try
+            {
+                return 2L * ((SerialBlob) value).length() + 3;
+            }
+            catch (SQLException e)
+            {
+                return Integer.MAX_VALUE;
+            }
+        }
+        else
+            return 32;
+    }
+
+    // Returns rows from start up to end.
+    private static ArrayList<ArrayList<ColumnVal>> subList(
+            ArrayList<ArrayList<ColumnVal>> values, int start, int end)
+    {
+        if (start == 0 && end == values.size())
+            return values;
+        else
+            return new ArrayList<ArrayList<ColumnVal>>(values.subList(start,
+                    end));
+    }
+
     /**
      * Build prepare statement for optimized inserts : <br>
      * INSERT INTO table1 VALUES (...) ; INSERT INTO table1 VALUES (...) ; ...
@@ -405,9 +588,10 @@ public class MySQLApplier extends JdbcApplier
      * INSERT INTO table1 VALUES (...), (...), ...
      * 
      * @param oneRowChange row event being processed
+     * @param rows Column values of the rows to insert
      */
     private StringBuffer prepareOptimizedInsertStatement(
-            OneRowChange oneRowChange)
+            OneRowChange oneRowChange, ArrayList<ArrayList<ColumnVal>> rows)
     {
         StringBuffer stmt;
         stmt = new StringBuffer();
@@ -420,7 +604,7 @@ public class MySQLApplier extends JdbcApplier
         stmt.append(") VALUES (");
 
         boolean firstRow = true;
-        for (ArrayList<ColumnVal> oneRowValues : oneRowChange.getColumnValues())
+        for (ArrayList<ColumnVal> oneRowValues : rows)
         {
             if (firstRow)
             {
@@ -439,23 +623,25 @@ public class MySQLApplier extends JdbcApplier
 
     /**
      * Create statement for optimized delete.
+     * 
+     * @param oneRowChange row event being processed
+     * @param keySpec Specification of the primary key column
+     * @param rows Primary key values of the rows to delete
      */
     private StringBuffer prepareOptimizedDeleteStatement(
-            OneRowChange oneRowChange, String keyName)
+            OneRowChange oneRowChange, ArrayList<ColumnSpec> keySpec,
+            ArrayList<ArrayList<ColumnVal>> rows)
     {
         StringBuffer stmt = new StringBuffer();
         stmt.append("DELETE FROM ");
         stmt.append(conn.getDatabaseObjectName(oneRowChange.getSchemaName())
                 + "." + conn.getDatabaseObjectName(oneRowChange.getTableName()));
         stmt.append(" WHERE ");
-        stmt.append(conn.getDatabaseObjectName(keyName));
+        stmt.append(conn.getDatabaseObjectName(keySpec.get(0).getName()));
         stmt.append(" IN (");
 
-        ArrayList<ArrayList<ColumnVal>> values = oneRowChange.getKeyValues();
-        ArrayList<ColumnSpec> keySpec = oneRowChange.getKeySpec();
-
         boolean firstRow = true;
-        for (ArrayList<ColumnVal> oneKeyValues : values)
+        for (ArrayList<ColumnVal> oneKeyValues : rows)
         {
             if (firstRow)
                 firstRow = false;
@@ -247,6 +247,10 @@ public class ReplicatorConf
     public static final String   THL_PROTOCOL_DEFAULT                  = "com.continuent.tungsten.replicator.thl.Connector";
     public static final String   THL_PROTOCOL_BUFFER_SIZE              = "replicator.thl.protocol.buffer_size";
     public static final String   THL_PROTOCOL_BUFFER_SIZE_DEFAULT      = "0";
+    public static final String   THL_PROTOCOL_BUFFER_BYTES             = "replicator.thl.protocol.buffer_bytes";
+    public static final String   THL_PROTOCOL_BUFFER_BYTES_DEFAULT     = "1048576";
+    public static final String   THL_PROTOCOL_BUFFER_LATENCY           = "replicator.thl.protocol.buffer_latency_ms";
+    public static final String   THL_PROTOCOL_BUFFER_LATENCY_DEFAULT   = "100";
 
     static public final String   MONITOR_DETAIL_ENABLED                = "replicator.monitor.detail_enabled";
 
@@ -352,6 +352,10 @@ public class ReplicatorRuntime implements PluginContext
 
         assertPropertyDefault(ReplicatorConf.THL_PROTOCOL_BUFFER_SIZE,
                 ReplicatorConf.THL_PROTOCOL_BUFFER_SIZE_DEFAULT);
+        assertPropertyDefault(ReplicatorConf.THL_PROTOCOL_BUFFER_BYTES,
+                ReplicatorConf.THL_PROTOCOL_BUFFER_BYTES_DEFAULT);
+        assertPropertyDefault(ReplicatorConf.THL_PROTOCOL_BUFFER_LATENCY,
+                ReplicatorConf.THL_PROTOCOL_BUFFER_LATENCY_DEFAULT);
 
         // Set default for resource JDBC URL so that unit tests run properly.
         // This value is normally set in the replicator properties.
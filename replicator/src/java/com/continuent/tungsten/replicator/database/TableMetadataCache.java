@@ -22,6 +22,8 @@
 
 package com.continuent.tungsten.replicator.database;
 
+import java.util.List;
+
 import com.continuent.tungsten.common.cache.CacheResourceManager;
 import com.continuent.tungsten.common.cache.IndexedLRUCache;
 
@@ -80,6 +82,14 @@ public class TableMetadataCache implements CacheResourceManager<Table>
         return cache.get(key);
     }
 
+    /**
+     * Returns all table metadata in the cache, least recently used first.
+     */
+    public List<Table> lruValues()
+    {
+        return cache.lruValues();
+    }
+
     /**
      * Release all metadata in the cache.
      */
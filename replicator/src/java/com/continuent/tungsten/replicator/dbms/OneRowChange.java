@@ -22,10 +22,13 @@
 
 package com.continuent.tungsten.replicator.dbms;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
 
 /**
@@ -34,11 +37,26 @@ import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
  * changes include "keys," which are effectively the before images of rows that
  * can be used to identify rows to update or delete, and "values," which are the
  * after images of rows that should be inserted or updated.
+ * <p>
+ * Extractors may leave column specifications and values to a
+ * {@link RowDecoder} that fills them in when they are first used, so that
+ * changes dropped by filters are never decoded.
  */
 public class OneRowChange implements Serializable
 {
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Fills in the column specifications and values of a row change.
+     */
+    public interface RowDecoder
+    {
+        /**
+         * Adds column specifications and values to the row change.
+         */
+        void decode(OneRowChange rowChange) throws ReplicatorException;
+    }
+
     /*
      * following types make it possible to apply changes by prepared statements.
      * One RowChangeData corresponds with one prepared statement. Binding to
@@ -226,50 +244,174 @@ public class OneRowChange implements Serializable
     // present. This value is not serialized.
     private HashMap<Integer, Integer>       typeCountCache;
 
+    // Decoder for specifications and values not decoded yet and the size of
+    // the encoded rows it decodes.
+    private transient RowDecoder            decoder;
+    private transient int                   encodedSize;
+
     public ArrayList<ColumnSpec> getColumnSpec()
     {
+        decodeOnUse();
         return columnSpec;
     }
 
     public void setColumnSpec(ArrayList<ColumnSpec> columnSpec)
     {
         // Set the key specifications and invalidate type cache.
+        decodeOnUse();
         this.columnSpec = columnSpec;
         this.typeCountCache = null;
     }
 
     public ArrayList<ArrayList<ColumnVal>> getColumnValues()
     {
+        decodeOnUse();
         return columnValues;
     }
 
     public void setColumnValues(ArrayList<ArrayList<ColumnVal>> columnValues)
     {
+        decodeOnUse();
         this.columnValues = columnValues;
     }
 
     public ArrayList<ColumnSpec> getKeySpec()
     {
+        decodeOnUse();
         return keySpec;
     }
 
     public void setKeySpec(ArrayList<ColumnSpec> keySpec)
     {
         // Set the key specifications and invalidate type cache.
+        decodeOnUse();
         this.keySpec = keySpec;
         this.typeCountCache = null;
     }
 
     public ArrayList<ArrayList<ColumnVal>> getKeyValues()
     {
+        decodeOnUse();
         return keyValues;
     }
 
     public void setKeyValues(ArrayList<ArrayList<ColumnVal>> keyValues)
     {
+        decodeOnUse();
         this.keyValues = keyValues;
     }
 
+    /**
+     * Leaves column specifications and values to a decoder that runs when
+     * they are first used.
+     */
+    public void setDecoder(RowDecoder decoder)
+    {
+        setDecoder(decoder, 0);
+    }
+
+    /**
+     * Leaves column specifications and values to a decoder, noting the size
+     * of the encoded rows for estimates of memory use.
+     */
+    public void setDecoder(RowDecoder decoder, int encodedSize)
+    {
+        this.decoder = decoder;
+        this.encodedSize = encodedSize;
+    }
+
+    /**
+     * Returns the size in bytes of the encoded rows if they are not decoded
+     * yet, otherwise 0.
+     */
+    public int getEncodedSize()
+    {
+        return decoder == null ? 0 : encodedSize;
+    }
+
+    /**
+     * Returns true if column specifications and values are decoded.
+     */
+    public boolean isDecoded()
+    {
+        return decoder == null;
+    }
+
+    /**
+     * Decodes column specifications and values now if not done yet. If
+     * decoding fails, the change is left undecoded.
+     * 
+     * @throws ReplicatorException Thrown if decoding fails
+     */
+    public void decode() throws ReplicatorException
+    {
+        if (decoder == null)
+            return;
+
+        // Clear the decoder first, as it fills in the change through the
+        // accessors.
+        RowDecoder pending = decoder;
+        decoder = null;
+        try
+        {
+            pending.decode(this);
+        }
+        catch (ReplicatorException e)
+        {
+            resetDecoded(pending);
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            resetDecoded(pending);
+            throw e;
+        }
+    }
+
+    // Decodes from accessors, which cannot throw checked exceptions.
+    private void decodeOnUse()
+    {
+        if (decoder == null)
+            return;
+        try
+        {
+            decode();
+        }
+        catch (ReplicatorException e)
+        {
+            throw new IllegalStateException("Unable to decode row change: "
+                    + schemaName + "." + tableName, e);
+        }
+    }
+
+    // Drops partly decoded data and restores the decoder.
+    private void resetDecoded(RowDecoder pending)
+    {
+        keySpec = new ArrayList<ColumnSpec>();
+        keyValues = new ArrayList<ArrayList<ColumnVal>>();
+        columnSpec = new ArrayList<ColumnSpec>();
+        columnValues = new ArrayList<ArrayList<ColumnVal>>();
+        typeCountCache = null;
+        decoder = pending;
+    }
+
+    // Decodes before Java serialization, as the decoder is not serialized.
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        try
+        {
+            decode();
+        }
+        catch (ReplicatorException e)
+        {
+            IOException ioe = new IOException("Unable to decode row change: "
+                    + schemaName + "." + tableName);
+            ioe.initCause(e);
+            throw ioe;
+        }
+        out.defaultWriteObject();
+    }
+
     public ActionType getAction()
     {
         return action;
@@ -333,6 +475,7 @@ public class OneRowChange implements Serializable
      */
     public int typeCount(int aType)
     {
+        decodeOnUse();
         if (this.typeCountCache == null)
         {
             HashMap<Integer, Integer> countCache = new HashMap<Integer, Integer>();
@@ -29,6 +29,11 @@ import java.util.LinkedList;
 import java.util.List;
 
 import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.LoadDataFileFragment;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
 
 /**
  * Contains SQL row updates and/or statements that must be replicated.
@@ -48,6 +53,11 @@ public class DBMSEvent implements Serializable
     private Timestamp              sourceTstamp;
     private LinkedList<ReplOption> options;
 
+    // Estimated size of the data in bytes, either set by the extractor or
+    // computed when first requested.
+    private transient int          estimatedSize;
+    private transient boolean      estimated;
+
     /**
      * Creates a new instance of raw replicated data.
      * 
@@ -250,4 +260,94 @@ public class DBMSEvent implements Serializable
         options.add(new ReplOption(name, value));
     }
 
+    /**
+     * Returns the estimated size of the data in bytes. Unless an extractor set
+     * the size, it is estimated from the data the first time it is requested.
+     * Row changes that are not decoded yet count the size of their encoded
+     * rows.
+     */
+    public int getEstimatedSize()
+    {
+        if (!estimated)
+        {
+            long size = 0;
+            if (data != null)
+            {
+                for (DBMSData dbmsData : data)
+                    size += estimateSize(dbmsData);
+            }
+            estimatedSize = (int) Math.min(size, Integer.MAX_VALUE);
+            estimated = true;
+        }
+        return estimatedSize;
+    }
+
+    /**
+     * Sets the estimated size of the data in bytes.
+     */
+    public void setEstimatedSize(int estimatedSize)
+    {
+        this.estimatedSize = estimatedSize;
+        this.estimated = true;
+    }
+
+    // Estimates the size of a single update.
+    private static long estimateSize(DBMSData dbmsData)
+    {
+        long size = 0;
+        if (dbmsData instanceof StatementData)
+        {
+            StatementData statement = (StatementData) dbmsData;
+            if (statement.getQueryAsBytes() != null)
+                size += statement.getQueryAsBytes().length;
+            else if (statement.getQuery() != null)
+                size += statement.getQuery().length();
+        }
+        else if (dbmsData instanceof RowChangeData)
+        {
+            for (OneRowChange rowChange : ((RowChangeData) dbmsData)
+                    .getRowChanges())
+            {
+                // Do not decode rows just to estimate them.
+                if (rowChange.isDecoded())
+                {
+                    size += estimateSize(rowChange.getColumnValues());
+                    size += estimateSize(rowChange.getKeyValues());
+                }
+                else
+                    size += rowChange.getEncodedSize();
+            }
+        }
+        else if (dbmsData instanceof LoadDataFileFragment)
+        {
+            byte[] fragment = ((LoadDataFileFragment) dbmsData).getData();
+            if (fragment != null)
+                size += fragment.length;
+        }
+        return size;
+    }
+
+    // Estimates the size of row values, counting 8 bytes for values other
+    // than strings and byte arrays.
+    private static long estimateSize(List<ArrayList<ColumnVal>> rows)
+    {
+        long size = 0;
+        if (rows == null)
+            return size;
+        for (ArrayList<ColumnVal> row : rows)
+        {
+            for (ColumnVal columnVal : row)
+            {
+                Object value = columnVal.getValue();
+                if (value instanceof byte[])
+                    size += ((byte[]) value).length;
+                else if (value instanceof String)
+                    size += ((String) value).length();
+                else
+                    size += 8;
+            }
+        }
+        return size;
+    }
+
 }
@@ -48,6 +48,9 @@ public class ReplDBMSEvent extends ReplEvent implements ReplDBMSHeader
     long              epochNumber;
     DBMSEvent         event;
 
+    // Event in the form it was stored in a log, if known. Not serialized.
+    transient Object  storedForm;
+
     /**
      * Construct a new replication event.
      * 
@@ -205,6 +208,21 @@ public class ReplDBMSEvent extends ReplEvent implements ReplDBMSHeader
         return event;
     }
 
+    /**
+     * Returns the estimated serialized size if known, for example from the
+     * log, or else the estimated size of the DBMS event data.
+     * 
+     * @see com.continuent.tungsten.replicator.event.ReplEvent#getEstimatedSize()
+     */
+    @Override
+    public int getEstimatedSize()
+    {
+        int size = super.getEstimatedSize();
+        if (size == 0 && event != null)
+            size = event.getEstimatedSize();
+        return size;
+    }
+
     @Override
     public long getAppliedLatency()
     {
@@ -248,4 +266,23 @@ public class ReplDBMSEvent extends ReplEvent implements ReplDBMSHeader
     {
         return null;
     }
+
+    /**
+     * Returns the event as it was stored in the log it came from or null if
+     * unknown. Stores may use this to write the event without serializing it
+     * again.
+     */
+    public Object getStoredForm()
+    {
+        return storedForm;
+    }
+
+    /**
+     * Sets the stored form of the event. Code that changes the event must
+     * clear this value.
+     */
+    public void setStoredForm(Object storedForm)
+    {
+        this.storedForm = storedForm;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,466 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Bounded in-memory buffer of binlog data downloaded by the
+ * {@link RelayLogClient}. The client puts the bytes it would otherwise write to
+ * relay log files, each chunk tagged with the binlog file name and offset, so
+ * readers see exactly the bytes of the relay log files and event positions do
+ * not change. The extractor reads the data through a {@link Cursor} on the
+ * same thread that would read relay log files.
+ * <p>
+ * One consuming cursor releases data as it reads past them. Other cursors,
+ * such as those of cloned readers that look ahead for LOAD DATA events, only
+ * read. The producer blocks once unreleased data exceed the byte limit, except
+ * that it may add one more chunk each time a cursor asks for data beyond the
+ * end of the buffer. Otherwise events larger than the limit and look-ahead
+ * past the limit would wait forever.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class BinlogEventRing
+{
+    // Data written to the relay log in one call.
+    private static class Chunk
+    {
+        final String fileName;
+        final long   offset;
+        final byte[] data;
+
+        Chunk(String fileName, long offset, byte[] data)
+        {
+            this.fileName = fileName;
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    // Chunks are numbered from 0 in the order they are put. The list holds
+    // chunks from firstIndex on; chunks before releasedIndex are released.
+    private final ArrayList<Chunk> chunks        = new ArrayList<Chunk>();
+    private final long             maxBytes;
+    private long                   firstIndex    = 0;
+    private long                   releasedIndex = 0;
+    private long                   bytes         = 0;
+    private boolean                lookahead     = false;
+    private boolean                closed        = false;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param maxBytes Number of unreleased bytes above which the producer
+     *            waits
+     */
+    public BinlogEventRing(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds binlog data, waiting for space if the buffer is full. Data put after
+     * the buffer is closed are dropped.
+     *
+     * @param fileName Binlog file name
+     * @param offset Offset of the data in the binlog file
+     * @param data Binlog data, which the buffer keeps without copying
+     */
+    public synchronized void put(String fileName, long offset, byte[] data)
+            throws InterruptedException
+    {
+        while (!closed && !lookahead && bytes > 0
+                && bytes + data.length > maxBytes)
+        {
+            wait();
+        }
+        if (closed)
+            return;
+        chunks.add(new Chunk(fileName, offset, data));
+        bytes += data.length;
+        lookahead = false;
+        notifyAll();
+    }
+
+    /**
+     * Closes the buffer, which ends waits in the producer and in cursors.
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        notifyAll();
+    }
+
+    /** Returns true if the buffer is closed. */
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /** Returns the number of unreleased bytes. */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Returns a cursor on a binlog file that starts at the first chunk of the
+     * file that is not released. Call {@link Cursor#open()} before reading.
+     *
+     * @param fileName Binlog file name
+     * @param startIndex Index of the chunk from which to look for the file, or
+     *            -1 to look from the first chunk that is not released
+     * @param consuming If true, the cursor releases data it reads past
+     */
+    public Cursor cursor(String fileName, long startIndex, boolean consuming)
+    {
+        return new Cursor(fileName, startIndex, consuming);
+    }
+
+    // Returns the chunk at an index, waiting until it is put, or null if the
+    // buffer is closed first.
+    private synchronized Chunk get(long index) throws IOException,
+            InterruptedException
+    {
+        if (index < releasedIndex)
+        {
+            throw new IOException("Binlog data are no longer buffered: index="
+                    + index + " released=" + releasedIndex);
+        }
+        while (!closed && index >= firstIndex + chunks.size())
+        {
+            requestMore();
+            wait();
+        }
+        if (closed)
+            return null;
+        return chunks.get((int) (index - firstIndex));
+    }
+
+    // Lets the producer add a chunk even if the buffer is full.
+    private synchronized void requestMore()
+    {
+        if (!lookahead)
+        {
+            lookahead = true;
+            notifyAll();
+        }
+    }
+
+    // Returns the chunk at an index if it has been put already.
+    private Chunk peek(long index)
+    {
+        if (index < firstIndex || index >= firstIndex + chunks.size())
+            return null;
+        else
+            return chunks.get((int) (index - firstIndex));
+    }
+
+    // Releases chunks before an index.
+    private synchronized void release(long index)
+    {
+        long endIndex = firstIndex + chunks.size();
+        if (index <= releasedIndex)
+            return;
+        while (releasedIndex < index && releasedIndex < endIndex)
+        {
+            bytes -= chunks.get((int) (releasedIndex - firstIndex)).data.length;
+            releasedIndex++;
+        }
+
+        // Drop released chunks from the list in batches to avoid shifting
+        // the list on every release.
+        int dropped = (int) (releasedIndex - firstIndex);
+        if (dropped >= 64 && dropped * 2 >= chunks.size())
+        {
+            chunks.subList(0, dropped).clear();
+            firstIndex = releasedIndex;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads the data of one binlog file from the buffer. The end of the file is
+     * where data of another file start. This class is not thread-safe.
+     */
+    public class Cursor
+    {
+        private final String  fileName;
+        private final boolean consuming;
+        private long          index;
+        private int           pos;
+        private long          offset;
+
+        // End offset of the file once data of the next file have arrived.
+        private long          fileEnd   = -1;
+
+        // Position to return to on reset.
+        private long          markIndex = -1;
+        private int           markPos;
+        private long          markOffset;
+
+        Cursor(String fileName, long startIndex, boolean consuming)
+        {
+            this.fileName = fileName;
+            this.index = startIndex;
+            this.consuming = consuming;
+        }
+
+        /**
+         * Moves to the first chunk of the file, waiting until it is put.
+         *
+         * @throws EOFException If the buffer is closed first
+         */
+        public void open() throws IOException, InterruptedException
+        {
+            synchronized (BinlogEventRing.this)
+            {
+                index = Math.max(index, releasedIndex);
+            }
+            if (consuming)
+                release(index);
+            for (;;)
+            {
+                Chunk chunk = get(index);
+                if (chunk == null)
+                {
+                    throw new EOFException(
+                            "Relay client stopped before binlog file arrived: "
+                                    + fileName);
+                }
+                if (chunk.fileName.equals(fileName))
+                {
+                    pos = 0;
+                    offset = chunk.offset;
+                    return;
+                }
+                index++;
+                if (consuming)
+                    release(index);
+            }
+        }
+
+        /** Returns the file offset of the next byte. */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * Returns the index of the chunk that holds the next byte, from which
+         * a cursor on the same data may start.
+         */
+        public long getIndex()
+        {
+            Chunk chunk;
+            synchronized (BinlogEventRing.this)
+            {
+                chunk = peek(index);
+            }
+            if (chunk != null && pos >= chunk.data.length)
+                return index + 1;
+            else
+                return index;
+        }
+
+        /**
+         * Returns the number of bytes of the file that can be read without
+         * waiting.
+         */
+        public long available()
+        {
+            if (fileEnd >= 0)
+                return fileEnd - offset;
+
+            synchronized (BinlogEventRing.this)
+            {
+                long endIndex = firstIndex + chunks.size();
+                Chunk last = peek(endIndex - 1);
+                if (last == null)
+                    return 0;
+                else if (last.fileName.equals(fileName))
+                {
+                    // A cursor on the last chunk may need more data than the
+                    // limit allows to read the event it is on.
+                    if (index >= endIndex - 1)
+                        requestMore();
+                    return last.offset + last.data.length - offset;
+                }
+
+                // Data of the next file have arrived, so the file is complete.
+                long end = offset;
+                for (long i = Math.max(index, firstIndex); i < endIndex; i++)
+                {
+                    Chunk chunk = peek(i);
+                    if (!chunk.fileName.equals(fileName))
+                        break;
+                    end = chunk.offset + chunk.data.length;
+                }
+                fileEnd = end;
+                return fileEnd - offset;
+            }
+        }
+
+        /**
+         * Waits until a number of bytes can be read or the timeout expires.
+         *
+         * @return Number of bytes that can be read without waiting
+         */
+        public long waitAvailable(int requested, int waitMillis)
+                throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            synchronized (BinlogEventRing.this)
+            {
+                long avail;
+                while ((avail = available()) < requested && !closed
+                        && fileEnd < 0)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        break;
+                    BinlogEventRing.this.wait(remaining);
+                }
+                return available();
+            }
+        }
+
+        /**
+         * Reads bytes fully, waiting for data as needed.
+         *
+         * @throws EOFException If the file ends first
+         */
+        public void readFully(byte[] buf, int off, int len)
+                throws IOException, InterruptedException
+        {
+            while (len > 0)
+            {
+                Chunk chunk = current();
+                if (chunk == null)
+                    throw new EOFException("End of binlog file: " + fileName);
+                int n = Math.min(len, chunk.data.length - pos);
+                System.arraycopy(chunk.data, pos, buf, off, n);
+                pos += n;
+                offset += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Skips bytes, waiting for data as needed.
+         *
+         * @return Number of bytes skipped, which is less than requested only
+         *         at the end of the file
+         */
+        public long skip(long bytes) throws IOException, InterruptedException
+        {
+            long skipped = 0;
+            while (skipped < bytes)
+            {
+                Chunk chunk = current();
+                if (chunk == null)
+                    break;
+                int n = (int) Math.min(bytes - skipped, chunk.data.length
+                        - pos);
+                pos += n;
+                offset += n;
+                skipped += n;
+            }
+            return skipped;
+        }
+
+        /**
+         * Skips forward to a file offset.
+         *
+         * @throws IOException If the offset is behind the cursor or beyond the
+         *             end of the file
+         */
+        public void seek(long newOffset) throws IOException,
+                InterruptedException
+        {
+            if (newOffset < offset)
+            {
+                throw new IOException("Unable to seek backwards in binlog: file="
+                        + fileName + " offset=" + offset + " seek=" + newOffset);
+            }
+            if (skip(newOffset - offset) < newOffset - offset)
+            {
+                throw new EOFException("Seek beyond end of binlog: file="
+                        + fileName + " seek=" + newOffset);
+            }
+        }
+
+        /**
+         * Marks the current position. Data after the mark are not released
+         * until reset.
+         */
+        public void mark()
+        {
+            markIndex = index;
+            markPos = pos;
+            markOffset = offset;
+        }
+
+        /**
+         * Returns to the mark and clears it.
+         */
+        public void reset() throws IOException
+        {
+            if (markIndex < 0)
+                throw new IOException("Binlog cursor is not marked");
+            index = markIndex;
+            pos = markPos;
+            offset = markOffset;
+            markIndex = -1;
+        }
+
+        // Returns the chunk holding the next byte, moving on to later chunks
+        // and waiting for data as needed, or null at the end of the file.
+        private Chunk current() throws IOException, InterruptedException
+        {
+            for (;;)
+            {
+                Chunk chunk = get(index);
+                if (chunk == null)
+                {
+                    throw new EOFException(
+                            "Relay client stopped while reading binlog: "
+                                    + fileName);
+                }
+                else if (!chunk.fileName.equals(fileName))
+                    return null;
+                else if (pos < chunk.data.length)
+                    return chunk;
+                index++;
+                pos = 0;
+                if (consuming && markIndex < 0)
+                    release(index);
+            }
+        }
+    }
+}
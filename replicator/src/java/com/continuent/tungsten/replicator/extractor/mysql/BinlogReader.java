@@ -26,10 +26,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Arrays;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.common.concurrent.AdaptiveBackoff;
 import com.continuent.tungsten.common.io.BufferedFileDataInput;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.extractor.mysql.conversion.LittleEndianConversion;
@@ -78,6 +80,13 @@ public class BinlogReader implements FilenameFilter, Cloneable
     // Delay in milliseconds to wait for binlog writes to flush fully.
     private int                   binlogFlushDelayMillis = 5000;
 
+    // In-memory binlog data to read instead of files, if any. Only a
+    // consuming reader releases data it has read.
+    private BinlogEventRing       ring;
+    private boolean               consuming;
+    private BinlogEventRing.Cursor cursor;
+    private long                  ringIndex              = -1;
+
     /**
      * Defines only binlog directory and binlog file base name.
      * 
@@ -118,9 +127,22 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public BinlogReader clone()
     {
-        long offset = bfdi == null ? 0 : bfdi.getOffset();
-        BinlogReader cloned = new BinlogReader(offset, fileName, directory,
-                baseName, bufferSize);
+        BinlogReader cloned;
+        if (ring != null)
+        {
+            // Clones read ahead from the chunk this reader is on.
+            long offset = cursor == null ? 0 : cursor.getOffset();
+            cloned = new BinlogReader(offset, fileName, directory, baseName,
+                    bufferSize);
+            cloned.setEventRing(ring, false);
+            cloned.ringIndex = cursor == null ? ringIndex : cursor.getIndex();
+        }
+        else
+        {
+            long offset = bfdi == null ? 0 : bfdi.getOffset();
+            cloned = new BinlogReader(offset, fileName, directory, baseName,
+                    bufferSize);
+        }
 
         // Set last ID read.
         cloned.setEventID(eventID);
@@ -142,21 +164,29 @@ public class BinlogReader implements FilenameFilter, Cloneable
             {
                 throw new MySQLExtractException("No binlog file specified");
             }
-            if (bfdi != null)
+            if (isOpen())
             {
                 throw new MySQLExtractException(
                         "Attempt to open binlog twice: " + this.fileName);
             }
+            if (ring != null)
+            {
+                openCursor();
+                return;
+            }
 
             // Hack to avoid crashing during log rotate. MySQL seems to write
             // log rotate event in the old file before creating new file. We
-            // wait for a few seconds, polling file every 10 msecs.
+            // wait for a few seconds, polling the file quickly at first and
+            // then every 10 msecs.
             File file = new File(getDirectory() + File.separator
                     + getFileName());
-            int tryCnt = 0;
-            while (file.exists() == false && tryCnt++ < 500)
+            long deadline = System.currentTimeMillis() + 5000;
+            AdaptiveBackoff backoff = new AdaptiveBackoff(100, 10);
+            while (file.exists() == false
+                    && System.currentTimeMillis() < deadline)
             {
-                Thread.sleep(10);
+                backoff.pause(deadline - System.currentTimeMillis());
             }
 
             if (logger.isDebugEnabled())
@@ -218,7 +248,7 @@ public class BinlogReader implements FilenameFilter, Cloneable
                         "Failed reading header;  You may have an incomplete log file or a very slow file system: "
                                 + getBaseName());
             }
-            bfdi.readFully(header);
+            read(header);
             int typeCode = header[4];
             int eventLength = (int) LittleEndianConversion.convert4BytesToLong(
                     header, MysqlBinlog.EVENT_LEN_OFFSET);
@@ -270,13 +300,13 @@ public class BinlogReader implements FilenameFilter, Cloneable
             // the position. This situation can happen if the extractor is
             // cloned and we need to seek to the correct read position.
             // Otherwise just reset.
-            if (startPosition >= bfdi.getOffset())
+            if (startPosition >= getPosition())
             {
-                bfdi.seek(startPosition);
+                seek(startPosition);
             }
             else
             {
-                bfdi.reset();
+                reset();
             }
         }
         catch (FileNotFoundException e)
@@ -289,12 +319,79 @@ public class BinlogReader implements FilenameFilter, Cloneable
         }
     }
 
+    // Opens the binlog in the in-memory buffer. Readers that start at the
+    // beginning of the file validate the header like a file. Others start in
+    // the middle of a file whose header may be released and assume V4, the
+    // only format that relay logs download.
+    private void openCursor() throws ReplicatorException,
+            InterruptedException, IOException
+    {
+        if (logger.isDebugEnabled())
+            logger.debug("Opening buffered binlog " + fileName);
+
+        cursor = ring.cursor(fileName, ringIndex, consuming);
+        try
+        {
+            cursor.open();
+        }
+        catch (IOException e)
+        {
+            cursor = null;
+            throw new MySQLExtractException("Unable to open binlog file", e);
+        }
+
+        if (cursor.getOffset() == 0)
+        {
+            byte magic[] = new byte[MysqlBinlog.BIN_LOG_HEADER_SIZE];
+            read(magic);
+            if (!Arrays.equals(magic, MysqlBinlog.BINLOG_MAGIC))
+            {
+                throw new MySQLExtractException(
+                        "File is not a binary log file - found : "
+                                + LogEvent.hexdump(magic) + " / expected : "
+                                + LogEvent.hexdump(MysqlBinlog.BINLOG_MAGIC));
+            }
+        }
+        version = MysqlBinlog.BINLOG_V4;
+        if (startPosition > cursor.getOffset())
+            seek(startPosition);
+    }
+
+    // Skips forward to a position in the file.
+    private void seek(long position) throws IOException, InterruptedException
+    {
+        if (cursor != null)
+            cursor.seek(position);
+        else
+            bfdi.seek(position);
+    }
+
+    /**
+     * Reads binlog data from an in-memory buffer filled by the relay log
+     * client instead of files. Must be called before open.
+     *
+     * @param ring Buffer holding binlog data
+     * @param consuming If true, this reader releases data it reads past
+     */
+    public void setEventRing(BinlogEventRing ring, boolean consuming)
+    {
+        this.ring = ring;
+        this.consuming = consuming;
+        this.ringIndex = -1;
+    }
+
+    /** Returns the in-memory buffer this reader uses, if any. */
+    public BinlogEventRing getEventRing()
+    {
+        return ring;
+    }
+
     /**
      * Returns true if a binlog log file is currently open.
      */
     public boolean isOpen()
     {
-        return (bfdi != null);
+        return (bfdi != null || cursor != null);
     }
 
     /**
@@ -307,6 +404,12 @@ public class BinlogReader implements FilenameFilter, Cloneable
             bfdi.close();
             bfdi = null;
         }
+        if (cursor != null)
+        {
+            // Look for the next file from where this one stopped.
+            ringIndex = cursor.getIndex();
+            cursor = null;
+        }
         setStartPosition(0);
         setEventID(0);
         setFileName(null);
@@ -321,6 +424,8 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public long available() throws IOException, InterruptedException
     {
+        if (cursor != null)
+            return cursor.available();
         return bfdi.available();
     }
 
@@ -336,6 +441,8 @@ public class BinlogReader implements FilenameFilter, Cloneable
     public long waitAvailable(int requested, int waitMillis)
             throws IOException, InterruptedException
     {
+        if (cursor != null)
+            return cursor.waitAvailable(requested, waitMillis);
         return bfdi.waitAvailable(requested, waitMillis);
     }
 
@@ -347,6 +454,17 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public long skip(long bytes) throws IOException
     {
+        if (cursor != null)
+        {
+            try
+            {
+                return cursor.skip(bytes);
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted(e);
+            }
+        }
         return bfdi.skip(bytes);
     }
 
@@ -357,7 +475,10 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public void mark(int readLimit)
     {
-        bfdi.mark(readLimit);
+        if (cursor != null)
+            cursor.mark();
+        else
+            bfdi.mark(readLimit);
     }
 
     /**
@@ -368,7 +489,10 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public void reset() throws IOException, InterruptedException
     {
-        bfdi.reset();
+        if (cursor != null)
+            cursor.reset();
+        else
+            bfdi.reset();
     }
 
     /**
@@ -380,7 +504,7 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public void read(byte[] buf) throws IOException
     {
-        bfdi.readFully(buf);
+        read(buf, 0, buf.length);
     }
 
     /**
@@ -394,7 +518,19 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public void read(byte[] buf, int offset, int len) throws IOException
     {
-        bfdi.readFully(buf, offset, len);
+        if (cursor != null)
+        {
+            try
+            {
+                cursor.readFully(buf, offset, len);
+            }
+            catch (InterruptedException e)
+            {
+                throw interrupted(e);
+            }
+        }
+        else
+            bfdi.readFully(buf, offset, len);
     }
 
     /**
@@ -404,6 +540,12 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public long readLong() throws IOException
     {
+        if (cursor != null)
+        {
+            byte[] buf = new byte[8];
+            read(buf);
+            return ((long) readInt(buf, 0) << 32) | (readInt(buf, 4) & 0xFFFFFFFFL);
+        }
         return bfdi.readLong();
     }
 
@@ -414,6 +556,12 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public int readInt() throws IOException
     {
+        if (cursor != null)
+        {
+            byte[] buf = new byte[4];
+            read(buf);
+            return readInt(buf, 0);
+        }
         return bfdi.readInt();
     }
 
@@ -424,9 +572,33 @@ public class BinlogReader implements FilenameFilter, Cloneable
      */
     public byte readByte() throws IOException
     {
+        if (cursor != null)
+        {
+            byte[] buf = new byte[1];
+            read(buf);
+            return buf[0];
+        }
         return bfdi.readByte();
     }
 
+    // Converts 4 bytes in big-endian order like DataInput.
+    private static int readInt(byte[] buf, int off)
+    {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+                | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    // Turns an interrupt during a buffered read into an I/O error as a file
+    // read would, keeping the interrupt status.
+    private static InterruptedIOException interrupted(InterruptedException e)
+    {
+        Thread.currentThread().interrupt();
+        InterruptedIOException ie = new InterruptedIOException(
+                "Interrupted while waiting for binlog data");
+        ie.initCause(e);
+        return ie;
+    }
+
     /* member getters and setters */
     public void setStartPosition(long newPosition)
     {
@@ -435,7 +607,9 @@ public class BinlogReader implements FilenameFilter, Cloneable
 
     public long getPosition()
     {
-        if (bfdi != null)
+        if (cursor != null)
+            return cursor.getOffset();
+        else if (bfdi != null)
             return bfdi.getOffset();
         else
             return startPosition;
@@ -69,7 +69,24 @@ public class DeleteRowsLogEvent extends RowsLogEvent
         oneRowChange.setTableName(map.getTableName());
         oneRowChange.setTableId(map.getTableId());
         oneRowChange.setAction(RowChangeData.ActionType.DELETE);
+        decodeRows(oneRowChange, map);
+        rowChanges.appendOneRowChange(oneRowChange);
+
+        // Store options, if any
+        rowChanges.addOption("foreign_key_checks", getForeignKeyChecksFlag());
+        rowChanges.addOption("unique_checks", getUniqueChecksFlag());
+    }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.mysql.RowsLogEvent#decodeRowsNow(com.continuent.tungsten.replicator.dbms.OneRowChange,
+     *      com.continuent.tungsten.replicator.extractor.mysql.TableMapLogEvent)
+     */
+    @Override
+    protected void decodeRowsNow(OneRowChange oneRowChange,
+            TableMapLogEvent map) throws ReplicatorException
+    {
         int rowIndex = 0; /* index of the row in value arrays */
 
         int size = bufferSize;
@@ -93,10 +110,5 @@ public class DeleteRowsLogEvent extends RowsLogEvent
                 break;
             i += length;
         }
-        rowChanges.appendOneRowChange(oneRowChange);
-
-        // Store options, if any
-        rowChanges.addOption("foreign_key_checks", getForeignKeyChecksFlag());
-        rowChanges.addOption("unique_checks", getUniqueChecksFlag());
     }
 }
@@ -29,6 +29,7 @@ import java.sql.Timestamp;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.common.concurrent.AdaptiveBackoff;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
 import com.continuent.tungsten.replicator.extractor.ExtractorException;
@@ -621,8 +622,8 @@ public abstract class LogEvent
             InterruptedException
     {
         boolean alreadyLogged = false;
-        int spentTime = 0;
-        int timeoutInMs = timeout * 1000;
+        long deadline = System.currentTimeMillis() + timeout * 1000L;
+        AdaptiveBackoff backoff = null;
 
         long available;
         while ((available = binlog.available()) < (long) length)
@@ -641,22 +642,17 @@ public abstract class LogEvent
                 alreadyLogged = true;
             }
 
-            try
-            {
-                if (spentTime < timeoutInMs)
-                {
-                    Thread.sleep(1);
-                    spentTime++;
-                }
-                else
-                    throw new MySQLExtractException(
-                            "Timeout while waiting for data : spent more than "
-                                    + timeout + " seconds while waiting for "
-                                    + length + " bytes to be available");
-            }
-            catch (InterruptedException e)
-            {
-            }
+            long remainingMillis = deadline - System.currentTimeMillis();
+            if (remainingMillis <= 0)
+                throw new MySQLExtractException(
+                        "Timeout while waiting for data : spent more than "
+                                + timeout + " seconds while waiting for "
+                                + length + " bytes to be available");
+
+            // The rest of the event is usually written within microseconds.
+            if (backoff == null)
+                backoff = new AdaptiveBackoff(10, 10);
+            backoff.pause(remainingMillis);
         }
         binlog.read(data, offset, length);
     }
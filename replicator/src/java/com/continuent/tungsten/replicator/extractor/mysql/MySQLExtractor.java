@@ -32,11 +32,20 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.common.commands.FileCommands;
+import com.continuent.tungsten.common.concurrent.AdaptiveBackoff;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.FailurePolicy;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
@@ -45,7 +54,6 @@ import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
 import com.continuent.tungsten.replicator.database.SqlOperation;
 import com.continuent.tungsten.replicator.database.SqlOperationMatcher;
 import com.continuent.tungsten.replicator.database.Table;
-import com.continuent.tungsten.replicator.database.TableMetadataCache;
 import com.continuent.tungsten.replicator.datasource.SqlConnectionSpec;
 import com.continuent.tungsten.replicator.datasource.SqlDataSource;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
@@ -103,6 +111,13 @@ public class MySQLExtractor implements RawExtractor
     private String                          relayLogDir               = null;
     private int                             serverId                  = 1;
 
+    // If true, downloaded binlog data go to the extractor through memory
+    // instead of relay log files, which are optionally written in the
+    // background.
+    private boolean                         relayLogDirect            = false;
+    private long                            relayLogBufferBytes       = 16777216;
+    private boolean                         relayLogDirectFiles       = false;
+
     private static long                     binlogPositionMaxLength   = 10;
     BinlogReader                            binlogPosition            = null;
 
@@ -122,6 +137,7 @@ public class MySQLExtractor implements RawExtractor
     private RelayLogTask                    relayLogTask              = null;
     private Thread                          relayLogThread            = null;
     private LinkedBlockingQueue<File>       relayLogQueue             = null;
+    private BinlogEventRing                 relayLogRing              = null;
 
     // Varchar type fields can be retrieved and stored in THL either using
     // String datatype or bytes arrays. By default, using string datatype.
@@ -145,6 +161,15 @@ public class MySQLExtractor implements RawExtractor
 
     private int                             bufferSize                = 32768;
 
+    // Threads that decode row images while the extractor reads on. With 0,
+    // rows are decoded on the extractor thread.
+    private int                             decodeThreads             = 0;
+    private ExecutorService                 decodePool                = null;
+
+    // If true, row images are decoded when first used after extraction,
+    // which skips decoding for changes that filters drop.
+    private boolean                         lazyRowDecoding           = false;
+
     // This has to be a set to a valid checksum value when the binlog is
     // first opened.
     private Integer                         checksumAlgo              = null;
@@ -153,11 +178,18 @@ public class MySQLExtractor implements RawExtractor
     // time datatypes are logged in the binlog in Maria10)
     private boolean                         isMaria10                 = false;
 
+    // Paces polling at the end of the binlog. Polls start well below a
+    // millisecond after an event and slow to every 10ms while the binlog is
+    // idle.
+    private AdaptiveBackoff                 tailBackoff               = new AdaptiveBackoff(
+                                                                              100,
+                                                                              10);
+
     // Metadata cache variables
-    private TableMetadataCache              metadataCache;
-    private Database                        metadataConnection        = null;
+    private TableMetadataService            metadataService;
     private int                             reconnectTimeoutInSeconds = 180;
-    private long                            lastConnectionTime        = 0;
+    private String                          metadataCacheFile         = null;
+    private boolean                         metadataPrefetch          = true;
 
     public String getDatabaseSource()
     {
@@ -259,6 +291,48 @@ public class MySQLExtractor implements RawExtractor
         this.relayLogRetention = relayLogRetention;
     }
 
+    public boolean isRelayLogDirect()
+    {
+        return relayLogDirect;
+    }
+
+    /**
+     * If true, relay logs hand binlog data to the extractor in memory rather
+     * than through relay log files.
+     */
+    public void setRelayLogDirect(boolean relayLogDirect)
+    {
+        this.relayLogDirect = relayLogDirect;
+    }
+
+    public long getRelayLogBufferBytes()
+    {
+        return relayLogBufferBytes;
+    }
+
+    /**
+     * Sets the number of downloaded bytes the extractor buffers in memory
+     * before the relay client waits.
+     */
+    public void setRelayLogBufferBytes(long relayLogBufferBytes)
+    {
+        this.relayLogBufferBytes = relayLogBufferBytes;
+    }
+
+    public boolean isRelayLogDirectFiles()
+    {
+        return relayLogDirectFiles;
+    }
+
+    /**
+     * If true, relay log files are still written in the background when
+     * relay logs go to the extractor in memory.
+     */
+    public void setRelayLogDirectFiles(boolean relayLogDirectFiles)
+    {
+        this.relayLogDirectFiles = relayLogDirectFiles;
+    }
+
     public String getRelayLogDir()
     {
         return relayLogDir;
@@ -324,6 +398,67 @@ public class MySQLExtractor implements RawExtractor
         bufferSize = size;
     }
 
+    public int getDecodeThreads()
+    {
+        return decodeThreads;
+    }
+
+    /**
+     * Sets the number of threads that decode row images in parallel, or 0 to
+     * decode them on the extractor thread. Decoding errors are thrown once the
+     * transaction or fragment is read, so a warn extractor failure policy
+     * skips all of it rather than the events before the failing one.
+     */
+    public void setDecodeThreads(int decodeThreads)
+    {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public boolean isLazyRowDecoding()
+    {
+        return lazyRowDecoding;
+    }
+
+    /**
+     * If true, row images are decoded when filters, the log or appliers first
+     * use them rather than during extraction. Decoding errors then stop the
+     * pipeline, so this is ignored unless the extractor failure policy is
+     * stop.
+     */
+    public void setLazyRowDecoding(boolean lazyRowDecoding)
+    {
+        this.lazyRowDecoding = lazyRowDecoding;
+    }
+
+    public String getMetadataCacheFile()
+    {
+        return metadataCacheFile;
+    }
+
+    /**
+     * Sets the file in which table metadata are kept across restarts. By
+     * default, they are kept in the relay log directory when relay logs are
+     * used.
+     */
+    public void setMetadataCacheFile(String metadataCacheFile)
+    {
+        this.metadataCacheFile = metadataCacheFile;
+    }
+
+    public boolean isMetadataPrefetch()
+    {
+        return metadataPrefetch;
+    }
+
+    /**
+     * If true, table metadata are fetched in the background for the tables of
+     * a schema once one of them is used, and for tables changed by DDL.
+     */
+    public void setMetadataPrefetch(boolean metadataPrefetch)
+    {
+        this.metadataPrefetch = metadataPrefetch;
+    }
+
     // Reads the next log from the file.
     private LogEvent processFile(BinlogReader position)
             throws ReplicatorException, InterruptedException
@@ -371,9 +506,16 @@ public class MySQLExtractor implements RawExtractor
                     indexCheckStart = System.currentTimeMillis();
                 }
 
-                // Sleep for a while.
-                Thread.sleep(10);
+                // Sleep for a while. Data downloaded into memory end the wait
+                // as soon as they arrive. A complete file does not wait at
+                // all, so we pause as well until the index check finds the
+                // next file.
+                if (relayLogRing != null
+                        && position.waitAvailable(1, 1000) > 0)
+                    break;
+                tailBackoff.pause();
             }
+            tailBackoff.reset();
 
             // We can assume a V4 format description as we don't support MySQL
             // versions prior to 5.0.
@@ -534,6 +676,7 @@ public class MySQLExtractor implements RawExtractor
 
         boolean foundRowsLogEvent = false;
         LinkedList<ReplOption> savedOptions = new LinkedList<ReplOption>();
+        ArrayList<Future<RowChangeData>> pendingDecodes = new ArrayList<Future<RowChangeData>>();
 
         try
         {
@@ -640,6 +783,9 @@ public class MySQLExtractor implements RawExtractor
                     // the same time
                     doCommit = !inTransaction || sqlOperation.isAutoCommit();
                     int operation = sqlOperation.getOperation();
+                    if (metadataService != null)
+                        metadataService.invalidate(sqlOperation,
+                                event.getDefaultDb());
                     if (operation == SqlOperation.BEGIN)
                     {
                         inTransaction = true;
@@ -933,13 +1079,14 @@ public class MySQLExtractor implements RawExtractor
                     RowsLogEvent rowsEvent = (RowsLogEvent) logEvent;
                     TableMapLogEvent tableEvent = tableEvents.get(rowsEvent
                             .getTableId());
-                    rowsEvent.processExtractedEvent(rowChangeData, tableEvent);
-                    rowChangeData.addOption("time_zone", "'+00:00'");
-                    if (useBytesForStrings)
-                    {
-                        rowChangeData.addOption("##charset", Charset
-                                .defaultCharset().displayName());
-                    }
+
+                    // Rows may be decoded in the background. The row change
+                    // keeps its place in binlog order until filled in.
+                    if (decodePool != null)
+                        pendingDecodes.add(decodePool.submit(newRowDecoder(
+                                rowsEvent, tableEvent, rowChangeData)));
+                    else
+                        decodeRows(rowsEvent, tableEvent, rowChangeData);
                     dataArray.add(rowChangeData);
                     foundRowsLogEvent = true;
                 }
@@ -1142,6 +1289,9 @@ public class MySQLExtractor implements RawExtractor
 
                 if (dbmsEvent != null)
                 {
+                    awaitRowDecoders(pendingDecodes);
+                    dbmsEvent.setEstimatedSize((int) Math.min(fragSize,
+                            Integer.MAX_VALUE));
                     dbmsEvent.addMetadataOption(ReplOptionParams.SERVER_ID,
                             String.valueOf(serverId));
 
@@ -1194,72 +1344,96 @@ public class MySQLExtractor implements RawExtractor
         return null;
     }
 
-    /**
-     * Fetches metadata for the table from the cache or from the database if
-     * needed
-     * 
-     * @param tableEvent the table event that is currently handled
-     */
-    private void fetchMetadata(TableMapLogEvent tableEvent)
-            throws SQLException, ReplicatorException
+    // Decodes the row images of a rows event into a row change.
+    private void decodeRows(RowsLogEvent rowsEvent,
+            TableMapLogEvent tableEvent, RowChangeData rowChangeData)
+            throws ReplicatorException
     {
-        if (metadataCache == null)
-            metadataCache = new TableMetadataCache(5000);
-
-        Table table = metadataCache.retrieve(tableEvent.getDatabaseName(),
-                tableEvent.getTableName());
-
-        if (table == null || table.getTableId() != tableEvent.getTableId())
+        rowsEvent.setLazyDecoding(lazyRowDecoding);
+        rowsEvent.processExtractedEvent(rowChangeData, tableEvent);
+        rowChangeData.addOption("time_zone", "'+00:00'");
+        if (useBytesForStrings)
         {
-            // If table is not in the cache or the table identifier changed, we
-            // need to fetch it from database
-            prepareMetadataConnection();
-
-            table = metadataConnection.findTable(tableEvent.getDatabaseName(),
-                    tableEvent.getTableName(), false);
+            rowChangeData.addOption("##charset", Charset.defaultCharset()
+                    .displayName());
+        }
+    }
 
-            if (table != null)
+    // Returns a task that decodes row images on a decoding thread.
+    private Callable<RowChangeData> newRowDecoder(
+            final RowsLogEvent rowsEvent, final TableMapLogEvent tableEvent,
+            final RowChangeData rowChangeData)
+    {
+        return new Callable<RowChangeData>()
+        {
+            public RowChangeData call() throws ReplicatorException
             {
-                table.setTableId(tableEvent.getTableId());
-                metadataCache.store(table);
+                decodeRows(rowsEvent, tableEvent, rowChangeData);
+                return rowChangeData;
             }
-        }
-        else if (logger.isDebugEnabled())
-            logger.debug("Table " + tableEvent.getDatabaseName() + "."
-                    + tableEvent.getTableName() + " found in cache.");
+        };
+    }
 
-        if (table == null)
+    // Waits until rows pending for an event are decoded. Decoding errors are
+    // thrown as if rows had been decoded on the extractor thread.
+    private void awaitRowDecoders(List<Future<RowChangeData>> pendingDecodes)
+            throws ReplicatorException, InterruptedException
+    {
+        try
         {
-            logger.warn("No metadata found for table "
-                    + tableEvent.getDatabaseName() + "."
-                    + tableEvent.getTableName());
+            for (Future<RowChangeData> pending : pendingDecodes)
+                pending.get();
         }
-        else
+        catch (ExecutionException e)
         {
-            tableEvent.setTable(table);
+            Throwable cause = e.getCause();
+            if (cause instanceof ReplicatorException)
+                throw (ReplicatorException) cause;
+            else
+                throw new ExtractorException("Unable to decode row event",
+                        cause);
+        }
+        finally
+        {
+            pendingDecodes.clear();
         }
     }
 
     /**
-     * Prepare the metadata connection for use : connect or reconnect if needed.
+     * Fetches metadata for the table from the metadata service, which starts
+     * on first use.
+     * 
+     * @param tableEvent the table event that is currently handled
      */
-    private void prepareMetadataConnection() throws SQLException,
-            ReplicatorException
+    private void fetchMetadata(TableMapLogEvent tableEvent)
+            throws ReplicatorException, InterruptedException
     {
-        if (metadataConnection == null)
-            metadataConnection = dataSourceImpl.getConnection();
+        if (metadataService == null)
+        {
+            metadataService = new TableMetadataService(dataSourceImpl, 5000,
+                    reconnectTimeoutInSeconds);
+            if (metadataCacheFile != null)
+                metadataService.setCacheFile(new File(metadataCacheFile));
+            else if (useRelayLogs)
+                metadataService.setCacheFile(new File(relayLogDir,
+                        "table-metadata.cache"));
+            metadataService.setPrefetch(metadataPrefetch);
+            metadataService.start(runtime.getServiceName());
+        }
+
+        Table table = metadataService.getTable(tableEvent.getDatabaseName(),
+                tableEvent.getTableName(), tableEvent.getTableId(),
+                tableEvent.getColumnsCount());
 
-        long currentTime = System.currentTimeMillis();
-        if (lastConnectionTime == 0)
+        if (table == null)
         {
-            lastConnectionTime = currentTime;
+            logger.warn("No metadata found for table "
+                    + tableEvent.getDatabaseName() + "."
+                    + tableEvent.getTableName());
         }
-        else if (reconnectTimeoutInSeconds > 0
-                && currentTime - lastConnectionTime > reconnectTimeoutInSeconds * 1000)
+        else
         {
-            // Time to reconnect
-            dataSourceImpl.releaseConnection(metadataConnection);
-            metadataConnection = dataSourceImpl.getConnection();
+            tableEvent.setTable(table);
         }
     }
 
@@ -1283,8 +1457,12 @@ public class MySQLExtractor implements RawExtractor
             // 0xff is a dummy value but sufficient to find out what the real
             // value is.
             this.checksumAlgo = 0xff;
-            processFile(new BinlogReader(4, binlogPosition.getFileName(),
-                    binlogDir, binlogFilePattern, bufferSize));
+            BinlogReader probe = new BinlogReader(4,
+                    binlogPosition.getFileName(), binlogDir,
+                    binlogFilePattern, bufferSize);
+            if (relayLogRing != null)
+                probe.setEventRing(relayLogRing, false);
+            processFile(probe);
         }
 
         // Extract the next event.
@@ -1374,6 +1552,11 @@ public class MySQLExtractor implements RawExtractor
                 binlogPosition = positionBinlogMaster(true);
             }
         }
+
+        // Data in memory belong to the old position, so the download must
+        // start over.
+        if (relayLogRing != null)
+            stopRelayLogs();
     }
 
     /**
@@ -1433,6 +1616,12 @@ public class MySQLExtractor implements RawExtractor
             {
                 // Logs are coming from binlog dir.
                 context.setPipelineSource(binlogDir);
+                if (this.relayLogDirect)
+                {
+                    logger.warn("relayLogDirect setting requires useRelayLogs, hence ignored: relayLogDirect="
+                            + relayLogDirect);
+                    relayLogDirect = false;
+                }
             }
         }
         else if (MODE_SLAVE_RELAY.equals(binlogMode))
@@ -1453,6 +1642,13 @@ public class MySQLExtractor implements RawExtractor
                         + useRelayLogs + " binlogMode=" + binlogMode);
                 useRelayLogs = false;
             }
+            if (this.relayLogDirect)
+            {
+                logger.warn("relayLogDirect setting is incompatible with "
+                        + "binlogMode setting, hence ignored: relayLogDirect="
+                        + relayLogDirect + " binlogMode=" + binlogMode);
+                relayLogDirect = false;
+            }
         }
         else
         {
@@ -1504,6 +1700,45 @@ public class MySQLExtractor implements RawExtractor
             context.setPipelineSource(binlogDir);
         }
 
+        // A warn extractor failure policy only skips events that fail during
+        // extraction. Lazily decoded rows fail later in filters, the log or
+        // appliers, which would stop the pipeline instead, so decode them
+        // here.
+        if (lazyRowDecoding
+                && runtime.getExtractorFailurePolicy() != FailurePolicy.STOP)
+        {
+            logger.warn("lazyRowDecoding setting is ignored unless extractorFailurePolicy is stop: extractorFailurePolicy="
+                    + runtime.getExtractorFailurePolicy());
+            lazyRowDecoding = false;
+        }
+
+        // Start threads to decode row images, if desired. Lazily decoded
+        // rows are decoded by whoever uses them instead.
+        if (decodeThreads > 0 && lazyRowDecoding)
+        {
+            logger.warn("decodeThreads setting is ignored with lazy row decoding: decodeThreads="
+                    + decodeThreads);
+        }
+        else if (decodeThreads > 0)
+        {
+            final String serviceName = runtime.getServiceName();
+            final AtomicInteger threadCount = new AtomicInteger();
+            decodePool = Executors.newFixedThreadPool(decodeThreads,
+                    new ThreadFactory()
+                    {
+                        public Thread newThread(Runnable r)
+                        {
+                            Thread t = new Thread(r, "mysql-decoder-"
+                                    + serviceName + "-"
+                                    + threadCount.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            logger.info("Decoding row events in parallel: threads="
+                    + decodeThreads);
+        }
+
         // NOTE: We can't check the database by default as unit tests depend
         // on being able to run without the server present. Also, we may in
         // future want to run on mirrored binlogs without the database.
@@ -1661,10 +1896,22 @@ public class MySQLExtractor implements RawExtractor
 
         // Create a queue for relay logs. This provides flow control to ensure
         // we do not exceed the number of files specified by the relay log
-        // retention.
+        // retention. When data go to the extractor in memory, the memory
+        // buffer provides flow control instead and any files are only
+        // purged.
         relayLogRetention = Math.max(relayLogRetention, 2);
-        relayLogQueue = new LinkedBlockingQueue<File>(relayLogRetention);
-        logger.info("Contructing relay log queue: size=" + relayLogRetention);
+        if (relayLogDirect)
+        {
+            relayLogRing = new BinlogEventRing(relayLogBufferBytes);
+            logger.info("Contructing relay log memory buffer: bytes="
+                    + relayLogBufferBytes + " files=" + relayLogDirectFiles);
+        }
+        else
+        {
+            relayLogQueue = new LinkedBlockingQueue<File>(relayLogRetention);
+            logger.info("Contructing relay log queue: size="
+                    + relayLogRetention);
+        }
 
         // Configure client and connect to the master server. Note that we
         // don't try to start from the requested offset or we would get a
@@ -1678,6 +1925,8 @@ public class MySQLExtractor implements RawExtractor
         relayClient.setBinlogPrefix(binlogFilePattern);
         relayClient.setServerId(serverId);
         relayClient.setLogQueue(relayLogQueue);
+        relayClient.setEventRing(relayLogRing);
+        relayClient.setRelayFiles(relayLogDirectFiles);
         relayClient.setReadTimeout(relayLogReadTimeout);
         relayClient.setDeterministicIo(deterministicIo);
         relayClient.connect();
@@ -1688,6 +1937,17 @@ public class MySQLExtractor implements RawExtractor
                 + runtime.getServiceName());
         relayLogThread.start();
 
+        // Data in memory are read as they arrive, and the extractor skips to
+        // the desired position itself. Waiting here would stall once the
+        // buffer fills before the position.
+        if (relayLogRing != null)
+        {
+            binlogPosition.setEventRing(relayLogRing, true);
+            logger.info("Reading relay log data from memory: start position="
+                    + startPosition);
+            return;
+        }
+
         // Delay until the relay log opens the file and reaches the desired
         // position.
         logger.info("Waiting for relay log position to catch up to extraction position: "
@@ -1805,6 +2065,11 @@ public class MySQLExtractor implements RawExtractor
     /** Stops relay log operation. */
     private synchronized void stopRelayLogs()
     {
+        if (relayLogRing != null)
+        {
+            relayLogRing.close();
+            relayLogRing = null;
+        }
         if (relayLogTask == null || relayLogTask.isFinished())
             return;
 
@@ -1839,10 +2104,15 @@ public class MySQLExtractor implements RawExtractor
      */
     public void release(PluginContext context) throws ReplicatorException
     {
-        if (metadataConnection != null)
+        if (metadataService != null)
+        {
+            metadataService.stop();
+            metadataService = null;
+        }
+        if (decodePool != null)
         {
-            metadataConnection.close();
-            metadataConnection = null;
+            decodePool.shutdownNow();
+            decodePool = null;
         }
         stopRelayLogs();
     }
@@ -0,0 +1,182 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes a relay log file on a background thread. The relay log client uses
+ * this when it hands binlog data to the extractor in memory, so that relay log
+ * files remain available without disk writes holding up extraction. Writes
+ * block only once the given number of writes are waiting for the disk.
+ * <p>
+ * A failed write is logged and ends writing of the file, as the extractor does
+ * not depend on it. This class is not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class RelayFileWriter extends OutputStream implements Runnable
+{
+    private static Logger                     logger = Logger.getLogger(RelayFileWriter.class);
+
+    // Marks the end of data for the writer thread.
+    private static final byte[]               END    = new byte[0];
+
+    private final File                        file;
+    private final FileOutputStream            out;
+    private final LinkedBlockingQueue<byte[]> pending;
+    private final Thread                      writer;
+
+    /**
+     * Creates the file and starts the writer thread.
+     *
+     * @param file Relay log file
+     * @param queueSize Number of writes that may wait for the disk
+     */
+    public RelayFileWriter(File file, int queueSize) throws IOException
+    {
+        this.file = file;
+        this.out = new FileOutputStream(file);
+        this.pending = new LinkedBlockingQueue<byte[]>(queueSize);
+        writer = new Thread(this, "relay-file-writer-" + file.getName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException
+    {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * Queues a copy of the data for writing.
+     *
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return;
+        byte[] data = new byte[len];
+        System.arraycopy(b, off, data, 0, len);
+        queue(data);
+    }
+
+    /**
+     * Does nothing, as data reach the file in the background.
+     *
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush()
+    {
+    }
+
+    /**
+     * Closes the file once queued data are written, without waiting for them.
+     *
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException
+    {
+        queue(END);
+    }
+
+    // Hands data to the writer thread.
+    private void queue(byte[] data) throws IOException
+    {
+        try
+        {
+            pending.put(data);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while queueing relay log write: "
+                            + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Writes queued data to the file until closed.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        boolean failed = false;
+        try
+        {
+            for (;;)
+            {
+                byte[] data = pending.take();
+                if (data == END)
+                    break;
+                else if (failed)
+                    continue;
+                try
+                {
+                    out.write(data);
+                }
+                catch (IOException e)
+                {
+                    // Keep draining the queue so that the client does not
+                    // block.
+                    logger.error("Unable to write relay log file: "
+                            + file.getAbsolutePath(), e);
+                    failed = true;
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            logger.warn("Relay log file writer interrupted: "
+                    + file.getAbsolutePath());
+        }
+        finally
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to close relay log file: "
+                        + file.getAbsolutePath(), e);
+            }
+        }
+    }
+}
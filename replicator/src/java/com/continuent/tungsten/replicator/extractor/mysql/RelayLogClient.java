@@ -79,6 +79,9 @@ public class RelayLogClient
     private long                      readTimeout                 = 60;
     private boolean                   deterministicIo             = false;
     private LinkedBlockingQueue<File> logQueue                    = null;
+    private BinlogEventRing           eventRing                   = null;
+    private boolean                   relayFiles                  = true;
+    private int                       relayFileQueueSize          = 1000;
 
     // Relay storage and positioning information.
     private File                      relayLog;
@@ -199,6 +202,29 @@ public class RelayLogClient
         this.logQueue = logQueue;
     }
 
+    public synchronized BinlogEventRing getEventRing()
+    {
+        return eventRing;
+    }
+
+    /**
+     * Hands binlog data to the extractor through an in-memory buffer instead
+     * of relay log files.
+     */
+    public synchronized void setEventRing(BinlogEventRing eventRing)
+    {
+        this.eventRing = eventRing;
+    }
+
+    /**
+     * If false and binlog data go to an in-memory buffer, relay log files are
+     * not written at all. Otherwise they are written in the background.
+     */
+    public synchronized void setRelayFiles(boolean relayFiles)
+    {
+        this.relayFiles = relayFiles;
+    }
+
     /**
      * Returns the network read delay timeout.
      */
@@ -551,6 +577,10 @@ public class RelayLogClient
         {
             logger.warn("Unable to close binlog", e);
         }
+
+        // Wake up the extractor if it is waiting for data.
+        if (eventRing != null)
+            eventRing.close();
     }
 
     /**
@@ -635,7 +665,7 @@ public class RelayLogClient
 
             // Write rotate_log event only if we have an open relay log file.
             // MySQL also sends same event at the beginning of a new file.
-            if (this.relayOutput != null)
+            if (this.relayLog != null)
             {
                 writePacketToRelayLog(packet);
                 closeBinlog();
@@ -651,7 +681,7 @@ public class RelayLogClient
     private void writePacketToRelayLog(MySQLPacket packet) throws IOException,
             InterruptedException
     {
-        if (relayOutput == null)
+        if (relayLog == null)
             openBinlog();
         blindlyWriteToRelayLog(packet, false);
         while (packet.getDataLength() >= MySQLPacket.MAX_LENGTH)
@@ -680,7 +710,7 @@ public class RelayLogClient
      * @throws IOException
      */
     private void blindlyWriteToRelayLog(MySQLPacket packet, boolean extended)
-            throws IOException
+            throws IOException, InterruptedException
     {
         byte[] bytes = packet.getByteBuffer();
         int header;
@@ -695,12 +725,29 @@ public class RelayLogClient
             logger.debug("Writing packet to binlog: bytesLength="
                     + bytes.length + " writeLength=" + writeLength);
         }
-        relayOutput.write(bytes, header, writeLength);
-        relayOutput.flush();
+        writeRelayData(bytes, header, writeLength);
         relayBytes += writeLength;
         logPosition.setPosition(relayLog, relayBytes);
     }
 
+    // Write data to the extractor buffer, if any, and to the relay log file,
+    // if any, at the current relay log position.
+    private void writeRelayData(byte[] bytes, int offset, int length)
+            throws IOException, InterruptedException
+    {
+        if (eventRing != null)
+        {
+            byte[] data = new byte[length];
+            System.arraycopy(bytes, offset, data, 0, length);
+            eventRing.put(relayLog.getName(), relayBytes, data);
+        }
+        if (relayOutput != null)
+        {
+            relayOutput.write(bytes, offset, length);
+            relayOutput.flush();
+        }
+    }
+
     // Open a new binlog file.
     private void openBinlog() throws IOException, InterruptedException
     {
@@ -722,26 +769,37 @@ public class RelayLogClient
             logQueue.put(relayLog);
         }
 
-        // Open the file.
+        // Open the file. If data go to the extractor in memory, the file is
+        // written in the background or not at all.
         logger.info("Opening relay log: name=" + relayLog.getAbsolutePath());
         try
         {
-            this.relayOutput = new FileOutputStream(relayLog);
+            if (eventRing == null)
+                this.relayOutput = new FileOutputStream(relayLog);
+            else if (relayFiles)
+                this.relayOutput = new RelayFileWriter(relayLog,
+                        relayFileQueueSize);
         }
         catch (FileNotFoundException e)
         {
             logger.error(
                     "Unable to open file for output: "
                             + relayLog.getAbsolutePath(), e);
-            return;
+            relayLog = null;
+            throw e;
         }
 
         // Write the header.
-        relayOutput.write(magic);
-        relayOutput.flush();
+        relayBytes = 0;
+        writeRelayData(magic, 0, magic.length);
         relayBytes = 4;
 
-        // Add the file name to the binlog index.
+        // Add the file name to the binlog index if there is a file.
+        if (relayOutput == null)
+        {
+            this.logPosition.setPosition(relayLog, relayBytes);
+            return;
+        }
         logger.info("Adding relay log to binlog index: "
                 + binlogIndex.getAbsolutePath());
 
@@ -778,13 +836,16 @@ public class RelayLogClient
     // Close the current binlog file.
     private void closeBinlog() throws IOException
     {
-        if (relayOutput != null)
+        if (relayLog != null)
         {
             logger.info("Closing relay log: name=" + relayLog.getAbsolutePath()
                     + " bytes=" + relayBytes);
-            relayOutput.flush();
-            relayOutput.close();
-            relayOutput = null;
+            if (relayOutput != null)
+            {
+                relayOutput.flush();
+                relayOutput.close();
+                relayOutput = null;
+            }
             relayLog = null;
         }
     }
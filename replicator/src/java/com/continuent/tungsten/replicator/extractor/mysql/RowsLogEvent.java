@@ -116,6 +116,9 @@ public abstract class RowsLogEvent extends LogEvent
     private boolean                     flagForeignKeyChecks                   = true;
     private boolean                     flagUniqueChecks                       = true;
 
+    // If true, rows are decoded when the row change is first used.
+    private boolean                     lazyDecoding                           = false;
+
     /**
      * MariaDB 10 TIME, TIMESTAMP and DATETIME support
      */
@@ -294,6 +297,53 @@ public abstract class RowsLogEvent extends LogEvent
     public abstract void processExtractedEvent(RowChangeData rowChanges,
             TableMapLogEvent map) throws ReplicatorException;
 
+    /**
+     * Decodes all rows of this event into a row change.
+     * 
+     * @param oneRowChange Row change with schema, table and action set
+     * @param map Table map event for the table
+     */
+    protected abstract void decodeRowsNow(OneRowChange oneRowChange,
+            TableMapLogEvent map) throws ReplicatorException;
+
+    /**
+     * Decodes rows into a row change now or, with lazy decoding, when column
+     * specifications or values of the row change are first used. Filters that
+     * drop the table then never pay for decoding. The row change holds on to
+     * this event's packed rows and the table map until decoded.
+     */
+    protected void decodeRows(OneRowChange oneRowChange,
+            final TableMapLogEvent map) throws ReplicatorException
+    {
+        if (lazyDecoding)
+        {
+            oneRowChange.setDecoder(new OneRowChange.RowDecoder()
+            {
+                public void decode(OneRowChange rowChange)
+                        throws ReplicatorException
+                {
+                    decodeRowsNow(rowChange, map);
+                }
+            }, packedRowsBuffer.length);
+        }
+        else
+            decodeRowsNow(oneRowChange, map);
+    }
+
+    /**
+     * If true, rows are decoded when the row change is first used rather than
+     * when the event is processed.
+     */
+    public void setLazyDecoding(boolean lazyDecoding)
+    {
+        this.lazyDecoding = lazyDecoding;
+    }
+
+    public boolean isLazyDecoding()
+    {
+        return lazyDecoding;
+    }
+
     public int getEventSize()
     {
         return packedRowsBuffer.length;
@@ -0,0 +1,576 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.database.Column;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.SqlOperation;
+import com.continuent.tungsten.replicator.database.Table;
+import com.continuent.tungsten.replicator.database.TableMetadataCache;
+import com.continuent.tungsten.replicator.datasource.SqlDataSource;
+import com.continuent.tungsten.replicator.extractor.ExtractorException;
+
+/**
+ * Resolves table metadata for table map events on a background thread with its
+ * own connection. Metadata are cached by schema and table name along with the
+ * binlog table ID they were last used with, and may be saved to a file so that
+ * they survive restarts.
+ * <p>
+ * Cached metadata are dropped when DDL on the table is extracted and when a
+ * table map event shows a different table ID, which happens whenever MySQL
+ * reopens the table. Prefetched metadata, which have no table ID yet, are
+ * used for the first table ID if the number of columns matches. The cache
+ * file is saved as soon as DDL drops metadata, so that a restart after the
+ * DDL cannot pick up metadata from before it.
+ * <p>
+ * If prefetching is enabled, the first table of a schema that is not cached
+ * causes the other tables of the schema to be fetched in the background, and
+ * tables are fetched again in the background after DDL on them.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class TableMetadataService implements Runnable
+{
+    private static Logger logger = Logger.getLogger(TableMetadataService.class);
+
+    // Fetch of metadata for one table, or of the table names of a schema if
+    // the table name is null.
+    private static class Request
+    {
+        final String schema;
+        final String table;
+        boolean      wanted;
+        boolean      done;
+        Table        result;
+        Exception    error;
+
+        Request(String schema, String table)
+        {
+            this.schema = schema;
+            this.table = table;
+        }
+    }
+
+    // Table metadata as stored in the cache file.
+    private static class TableEntry implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        String                    schema;
+        String                    name;
+        long                      tableId;
+        ArrayList<Column>         columns;
+    }
+
+    private final SqlDataSource         dataSource;
+    private final int                   capacity;
+    private final int                   reconnectTimeoutInSeconds;
+    private final TableMetadataCache    cache;
+    private File                        cacheFile;
+    private boolean                     prefetch       = true;
+
+    // Requests by key and in the order they are fetched.
+    private final Map<String, Request>  pending        = new HashMap<String, Request>();
+    private final LinkedList<Request>   queue          = new LinkedList<Request>();
+    private final Set<String>           listedSchemas  = new HashSet<String>();
+
+    // Incremented on DDL so that metadata fetched before it are not cached.
+    private long                        generation     = 0;
+    private boolean                     dirty          = false;
+    private boolean                     stopped        = false;
+    private Thread                      fetcher;
+
+    // Used by the fetcher thread only.
+    private Database                    connection;
+    private long                        lastConnectionTime;
+
+    /**
+     * Creates a new service.
+     *
+     * @param dataSource Data source from which to fetch metadata
+     * @param capacity Maximum number of tables to cache
+     * @param reconnectTimeoutInSeconds Age after which the connection is
+     *            replaced, or 0 to keep it
+     */
+    public TableMetadataService(SqlDataSource dataSource, int capacity,
+            int reconnectTimeoutInSeconds)
+    {
+        this.dataSource = dataSource;
+        this.capacity = capacity;
+        this.reconnectTimeoutInSeconds = reconnectTimeoutInSeconds;
+        this.cache = new TableMetadataCache(capacity);
+    }
+
+    /** Sets the file in which to keep metadata across restarts. */
+    public void setCacheFile(File cacheFile)
+    {
+        this.cacheFile = cacheFile;
+    }
+
+    /** If true, fetch metadata that are likely to be needed in advance. */
+    public void setPrefetch(boolean prefetch)
+    {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Loads the cache file if there is one and starts the fetcher thread.
+     */
+    public synchronized void start(String name)
+    {
+        load();
+        fetcher = new Thread(this, "mysql-metadata-" + name);
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * Stops the fetcher thread and saves the cache file.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            stopped = true;
+            notifyAll();
+            thread = fetcher;
+            fetcher = null;
+        }
+        if (thread != null)
+        {
+            thread.interrupt();
+            try
+            {
+                thread.join(5000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (connection != null)
+        {
+            connection.close();
+            connection = null;
+        }
+        synchronized (this)
+        {
+            if (dirty)
+                save();
+        }
+    }
+
+    /**
+     * Returns metadata for a table, waiting for them to be fetched if they are
+     * not cached.
+     *
+     * @param schema Schema name
+     * @param name Table name
+     * @param tableId Binlog table ID
+     * @param columnCount Number of columns in the binlog
+     * @return Table metadata or null if the table does not exist
+     * @throws ReplicatorException If metadata could not be fetched
+     */
+    public synchronized Table getTable(String schema, String name,
+            long tableId, long columnCount) throws ReplicatorException,
+            InterruptedException
+    {
+        // MySQL assigns a new table ID when it opens the table again, which
+        // it does after a definition change, so a different ID means metadata
+        // may be stale. Prefetched metadata have no ID yet and were fetched
+        // after the last DDL we saw.
+        Table table = cache.retrieve(schema, name);
+        if (table != null && table.getTableId() != tableId)
+        {
+            if (table.getTableId() < 0 && table.getColumnCount() == columnCount)
+            {
+                table.setTableId(tableId);
+                dirty = true;
+            }
+            else
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Table ID changed, fetching metadata again: table="
+                            + schema + "." + name + " tableId=" + tableId);
+                cache.invalidateTable(schema, name);
+                table = null;
+            }
+        }
+        if (table != null)
+            return table;
+
+        // Move the table ahead of prefetched tables and wait for it.
+        Request request = request(schema, name, true);
+        if (prefetch && listedSchemas.add(schema))
+            request(schema, null, false);
+        while (!request.done)
+        {
+            if (stopped)
+                throw new ExtractorException("Table metadata service stopped");
+            wait();
+        }
+        if (request.error != null)
+        {
+            throw new ExtractorException("Unable to fetch metadata for table "
+                    + schema + "." + name, request.error);
+        }
+        table = request.result;
+        if (table != null)
+        {
+            table.setTableId(tableId);
+            dirty = true;
+        }
+        return table;
+    }
+
+    /**
+     * Drops metadata that DDL changes, saves the cache file if any are
+     * dropped, and prefetches the changed tables again.
+     *
+     * @param sqlOperation Parsed DDL statement
+     * @param defaultSchema Default schema of the statement
+     */
+    public synchronized void invalidate(SqlOperation sqlOperation,
+            String defaultSchema)
+    {
+        int operation = sqlOperation.getOperation();
+        String schema = sqlOperation.getSchema() == null
+                ? defaultSchema
+                : sqlOperation.getSchema();
+        boolean table = sqlOperation.getObjectType() == SqlOperation.TABLE;
+        int count;
+        if (operation == SqlOperation.CREATE && table)
+        {
+            // CREATE OR REPLACE TABLE replaces an existing table.
+            count = cache.invalidateTable(schema, sqlOperation.getName());
+        }
+        else
+            count = cache.invalidate(sqlOperation, defaultSchema);
+
+        if (operation == SqlOperation.CREATE || operation == SqlOperation.DROP
+                || operation == SqlOperation.ALTER
+                || operation == SqlOperation.RENAME)
+        {
+            generation++;
+        }
+        if (count > 0)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Dropped table metadata after DDL: count="
+                        + count);
+            save();
+        }
+        if (prefetch && table
+                && (operation == SqlOperation.CREATE || operation == SqlOperation.ALTER))
+        {
+            request(schema, sqlOperation.getName(), false);
+        }
+    }
+
+    /**
+     * Saves the cached metadata to the cache file, if there is one. A failure
+     * is logged, as metadata can always be fetched again.
+     */
+    public synchronized void save()
+    {
+        if (cacheFile == null)
+            return;
+
+        ArrayList<TableEntry> entries = new ArrayList<TableEntry>();
+        for (Table table : cache.lruValues())
+        {
+            TableEntry entry = new TableEntry();
+            entry.schema = table.getSchema();
+            entry.name = table.getName();
+            entry.tableId = table.getTableId();
+            entry.columns = table.getAllColumns();
+            entries.add(entry);
+        }
+
+        // Write a new file and rename it, so that a crash leaves either the
+        // old file or the new one.
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        ObjectOutputStream out = null;
+        try
+        {
+            FileOutputStream fos = new FileOutputStream(tempFile);
+            out = new ObjectOutputStream(fos);
+            out.writeObject(entries);
+            out.flush();
+            fos.getFD().sync();
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(cacheFile))
+            {
+                cacheFile.delete();
+                if (!tempFile.renameTo(cacheFile))
+                    throw new IOException("Unable to rename " + tempFile);
+            }
+            dirty = false;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to save table metadata cache: file="
+                    + cacheFile.getAbsolutePath(), e);
+            // Make sure a restart does not use outdated metadata.
+            cacheFile.delete();
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    // Loads the cache file. A file that cannot be read is ignored.
+    @SuppressWarnings("unchecked")
+    private void load()
+    {
+        if (cacheFile == null || !cacheFile.exists())
+            return;
+
+        ObjectInputStream in = null;
+        try
+        {
+            in = new ObjectInputStream(new FileInputStream(cacheFile));
+            List<TableEntry> entries = (List<TableEntry>) in.readObject();
+            for (TableEntry entry : entries)
+            {
+                // Prefetched metadata that were never used may predate DDL
+                // before the restart position.
+                if (entry.tableId < 0)
+                    continue;
+                Table table = new Table(entry.schema, entry.name);
+                for (Column column : entry.columns)
+                    table.AddColumn(column);
+                table.setTableId(entry.tableId);
+                cache.store(table);
+            }
+            logger.info("Loaded table metadata cache: file="
+                    + cacheFile.getAbsolutePath() + " tables=" + cache.size());
+        }
+        catch (Exception e)
+        {
+            logger.warn("Unable to load table metadata cache, ignoring it: file="
+                    + cacheFile.getAbsolutePath() + " message="
+                    + e.getMessage());
+            cache.invalidateAll();
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds metadata to the cache.
+     */
+    synchronized void store(Table table)
+    {
+        cache.store(table);
+        dirty = true;
+    }
+
+    // Queues a request unless the same one is pending. Wanted requests go
+    // ahead of prefetches.
+    private Request request(String schema, String table, boolean wanted)
+    {
+        String key = schema + "." + (table == null ? "" : table);
+        Request request = pending.get(key);
+        if (request == null)
+        {
+            request = new Request(schema, table);
+            pending.put(key, request);
+        }
+        else if (!wanted || request.wanted || !queue.remove(request))
+        {
+            // Already queued as needed or being fetched.
+            request.wanted |= wanted;
+            return request;
+        }
+        request.wanted = wanted;
+        if (wanted)
+            queue.addFirst(request);
+        else
+            queue.addLast(request);
+        notifyAll();
+        return request;
+    }
+
+    /**
+     * Fetches requested metadata until stopped.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        for (;;)
+        {
+            Request request;
+            long startGeneration;
+            synchronized (this)
+            {
+                while (!stopped && queue.isEmpty())
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if (stopped)
+                    return;
+                request = queue.removeFirst();
+                startGeneration = generation;
+            }
+
+            List<String> tableNames = null;
+            try
+            {
+                prepareConnection();
+                if (request.table == null)
+                    tableNames = listTables(request.schema);
+                else
+                {
+                    request.result = connection.findTable(request.schema,
+                            request.table, false);
+                }
+            }
+            catch (Exception e)
+            {
+                request.error = e;
+                if (connection != null)
+                {
+                    dataSource.releaseConnection(connection);
+                    connection = null;
+                }
+                if (!request.wanted)
+                {
+                    logger.warn("Unable to prefetch table metadata: schema="
+                            + request.schema + " table=" + request.table
+                            + " message=" + e.getMessage());
+                }
+            }
+
+            synchronized (this)
+            {
+                pending.remove(request.schema + "."
+                        + (request.table == null ? "" : request.table));
+                if (request.result != null && startGeneration == generation)
+                {
+                    cache.store(request.result);
+                    dirty = true;
+                }
+                if (tableNames != null)
+                {
+                    for (String name : tableNames)
+                    {
+                        if (cache.size() + pending.size() >= capacity)
+                            break;
+                        if (cache.retrieve(request.schema, name) == null)
+                            request(request.schema, name, false);
+                    }
+                }
+                request.done = true;
+                notifyAll();
+            }
+        }
+    }
+
+    // Returns the names of the base tables in a schema.
+    private List<String> listTables(String schema) throws SQLException
+    {
+        List<String> names = new ArrayList<String>();
+        ResultSet rs = connection.getDatabaseMetaData().getTables(schema,
+                null, null, new String[]{"TABLE"});
+        try
+        {
+            while (rs.next())
+                names.add(rs.getString("TABLE_NAME"));
+        }
+        finally
+        {
+            rs.close();
+        }
+        return names;
+    }
+
+    // Connects, or reconnects if the connection is too old.
+    private void prepareConnection() throws ReplicatorException
+    {
+        long currentTime = System.currentTimeMillis();
+        if (connection != null
+                && reconnectTimeoutInSeconds > 0
+                && currentTime - lastConnectionTime > reconnectTimeoutInSeconds * 1000L)
+        {
+            dataSource.releaseConnection(connection);
+            connection = null;
+        }
+        if (connection == null)
+        {
+            connection = dataSource.getConnection();
+            lastConnectionTime = currentTime;
+        }
+    }
+}
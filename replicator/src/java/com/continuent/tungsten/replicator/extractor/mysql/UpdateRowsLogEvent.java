@@ -72,7 +72,24 @@ public class UpdateRowsLogEvent extends RowsLogEvent
         oneRowChange.setTableName(map.getTableName());
         oneRowChange.setTableId(map.getTableId());
         oneRowChange.setAction(RowChangeData.ActionType.UPDATE);
+        decodeRows(oneRowChange, map);
+        rowChanges.appendOneRowChange(oneRowChange);
+
+        // Store options, if any
+        rowChanges.addOption("foreign_key_checks", getForeignKeyChecksFlag());
+        rowChanges.addOption("unique_checks", getUniqueChecksFlag());
+    }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.mysql.RowsLogEvent#decodeRowsNow(com.continuent.tungsten.replicator.dbms.OneRowChange,
+     *      com.continuent.tungsten.replicator.extractor.mysql.TableMapLogEvent)
+     */
+    @Override
+    protected void decodeRowsNow(OneRowChange oneRowChange,
+            TableMapLogEvent map) throws ReplicatorException
+    {
         int rowIndex = 0; /* index of the row in value arrays */
 
         int bufferIndex = 0;
@@ -121,10 +138,5 @@ public class UpdateRowsLogEvent extends RowsLogEvent
                 break;
             bufferIndex += length;
         }
-        rowChanges.appendOneRowChange(oneRowChange);
-
-        // Store options, if any
-        rowChanges.addOption("foreign_key_checks", getForeignKeyChecksFlag());
-        rowChanges.addOption("unique_checks", getUniqueChecksFlag());
     }
 }
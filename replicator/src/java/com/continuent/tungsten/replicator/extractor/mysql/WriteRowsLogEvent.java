@@ -68,7 +68,25 @@ public class WriteRowsLogEvent extends RowsLogEvent
         oneRowChange.setTableName(map.getTableName());
         oneRowChange.setTableId(map.getTableId());
         oneRowChange.setAction(RowChangeData.ActionType.INSERT);
+        decodeRows(oneRowChange, map);
+        rowChanges.appendOneRowChange(oneRowChange);
+
+        // Store options, if any
+        rowChanges.addOption("foreign_key_checks", getForeignKeyChecksFlag());
+        rowChanges.addOption("unique_checks", getUniqueChecksFlag());
 
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see com.continuent.tungsten.replicator.extractor.mysql.RowsLogEvent#decodeRowsNow(com.continuent.tungsten.replicator.dbms.OneRowChange,
+     *      com.continuent.tungsten.replicator.extractor.mysql.TableMapLogEvent)
+     */
+    @Override
+    protected void decodeRowsNow(OneRowChange oneRowChange,
+            TableMapLogEvent map) throws ReplicatorException
+    {
         int rowIndex = 0; /* index of the row in value arrays */
 
         int size = bufferSize;
@@ -95,12 +113,6 @@ public class WriteRowsLogEvent extends RowsLogEvent
                 break;
             bufferIndex += length;
         }
-        rowChanges.appendOneRowChange(oneRowChange);
-
-        // Store options, if any
-        rowChanges.addOption("foreign_key_checks", getForeignKeyChecksFlag());
-        rowChanges.addOption("unique_checks", getUniqueChecksFlag());
-
     }
 
 }
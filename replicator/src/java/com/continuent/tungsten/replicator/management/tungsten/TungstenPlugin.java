@@ -1213,6 +1213,8 @@ public class TungstenPlugin extends NotificationBroadcasterSupport
                     props.put("blockCommitInterval",
                             new Double(intervalSecs).toString() + "s");
                     props.put("blockCommitPolicy", stage.getBlockCommitPolicy());
+                    props.put("consolidateRowChanges",
+                            Boolean.toString(stage.isConsolidateRowChanges()));
 
                     // Add stage components.
                     props.put("applier.name", stage.getApplierSpec().getName());
@@ -0,0 +1,639 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
+import com.continuent.tungsten.replicator.event.ReplOption;
+
+/**
+ * Folds the row changes of transactions that are applied in one block commit
+ * into their net effect. A row that is inserted, updated many times and then
+ * deleted within the block is not applied at all, and a row updated many
+ * times is updated once. Rows are identified by the columns in the key images
+ * of their updates and deletes, which are the primary key columns if the
+ * primary key filter is in use and all columns otherwise.
+ * <p>
+ * Net changes are applied in the order in which each row was first changed,
+ * not in the order of the original changes. A row that is deleted and
+ * inserted again is deleted and inserted rather than updated. The
+ * consolidated event carries the header and metadata of the last transaction
+ * in the block. If the transactions cannot be folded safely, for example
+ * because they use different session settings, change more than one table or
+ * change a row in a way the log does not explain, {@link #consolidate()}
+ * returns null and callers apply the transactions one by one.
+ * <p>
+ * Only blocks that change a single table are folded, so foreign keys between
+ * tables see changes in their original order. Conflicts through unique
+ * secondary keys or foreign keys of a table to itself are not visible in key
+ * images, and reordering may break them, for example when two rows swap
+ * values of a unique column. Tables with such keys should not be replicated
+ * with consolidation enabled.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class RowChangeConsolidator
+{
+    private static Logger            logger = Logger.getLogger(RowChangeConsolidator.class);
+
+    // Transactions waiting to be folded.
+    private final List<ReplDBMSEvent> events = new ArrayList<ReplDBMSEvent>();
+
+    // Counters for status.
+    private long                      blocks;
+    private long                      rowsIn;
+    private long                      rowsOut;
+
+    /**
+     * Returns true if an event may be folded into other events. This is only
+     * the case for complete transactions that contain nothing but row changes.
+     * Callers must also exclude transactions that roll back or are unsafe for
+     * block commit.
+     */
+    public static boolean isConsolidatable(ReplDBMSEvent event)
+    {
+        if (event instanceof ReplDBMSFilteredEvent)
+            return false;
+        if (event.getFragno() != 0 || !event.getLastFrag())
+            return false;
+        List<DBMSData> data = event.getData();
+        if (data.size() == 0)
+            return false;
+        for (DBMSData dbmsData : data)
+        {
+            if (!(dbmsData instanceof RowChangeData))
+                return false;
+        }
+        return true;
+    }
+
+    /** Adds a transaction to the pending block. */
+    public void add(ReplDBMSEvent event)
+    {
+        events.add(event);
+    }
+
+    /** Returns true if no transactions are pending. */
+    public boolean isEmpty()
+    {
+        return events.isEmpty();
+    }
+
+    /** Returns the number of pending transactions. */
+    public int size()
+    {
+        return events.size();
+    }
+
+    /**
+     * Returns the pending transactions and forgets them.
+     */
+    public List<ReplDBMSEvent> drain()
+    {
+        List<ReplDBMSEvent> drained = new ArrayList<ReplDBMSEvent>(events);
+        events.clear();
+        return drained;
+    }
+
+    /** Returns the number of blocks folded into a single event. */
+    public long getBlocks()
+    {
+        return blocks;
+    }
+
+    /** Returns the number of row changes in folded blocks. */
+    public long getRowsIn()
+    {
+        return rowsIn;
+    }
+
+    /** Returns the number of net row changes left after folding. */
+    public long getRowsOut()
+    {
+        return rowsOut;
+    }
+
+    /**
+     * Folds the pending transactions into a single event without removing
+     * them.
+     *
+     * @return An event holding the net row changes, the only pending event if
+     *         there is just one, or null if the transactions cannot be folded
+     * @throws ReplicatorException Thrown if row changes cannot be decoded
+     */
+    public ReplDBMSEvent consolidate() throws ReplicatorException
+    {
+        if (events.size() == 0)
+            return null;
+        else if (events.size() == 1)
+            return events.get(0);
+
+        // Transactions must use the same session settings.
+        String eventOptions = null;
+        String rowOptions = null;
+        List<OneRowChange> changes = new ArrayList<OneRowChange>();
+        for (ReplDBMSEvent event : events)
+        {
+            String options = optionString(event.getDBMSEvent().getOptions());
+            if (eventOptions == null)
+                eventOptions = options;
+            else if (!eventOptions.equals(options))
+                return fail("event options differ", event);
+            for (DBMSData dbmsData : event.getData())
+            {
+                options = optionString(dbmsData.getOptions());
+                if (rowOptions == null)
+                    rowOptions = options;
+                else if (!rowOptions.equals(options))
+                    return fail("row options differ", event);
+                changes.addAll(((RowChangeData) dbmsData).getRowChanges());
+            }
+        }
+
+        // Foreign keys between tables may depend on the order of changes.
+        for (OneRowChange orc : changes)
+        {
+            if (!tableName(orc).equals(tableName(changes.get(0))))
+                return fail("block changes more than one table", null);
+        }
+
+        // Find the key columns of each table.
+        Map<String, int[]> keyIndexes = new HashMap<String, int[]>();
+        for (OneRowChange orc : changes)
+        {
+            if (orc.getKeySpec().size() == 0)
+                continue;
+            int[] indexes = indexesOf(orc.getKeySpec());
+            if (indexes == null)
+                return fail("key columns have no index", null);
+            int[] known = keyIndexes.get(tableName(orc));
+            if (known == null)
+                keyIndexes.put(tableName(orc), indexes);
+            else if (!Arrays.equals(known, indexes))
+                return fail("key columns differ for table " + tableName(orc),
+                        null);
+        }
+
+        // Fold the changes row by row.
+        List<NetRow> netRows = new ArrayList<NetRow>();
+        Map<String, Map<RowKey, NetRow>> tables = new HashMap<String, Map<RowKey, NetRow>>();
+        int rowCount = 0;
+        for (OneRowChange orc : changes)
+        {
+            int[] keys = keyIndexes.get(tableName(orc));
+            Map<RowKey, NetRow> rows = tables.get(tableName(orc));
+            if (rows == null)
+            {
+                rows = new HashMap<RowKey, NetRow>();
+                tables.put(tableName(orc), rows);
+            }
+            int count = Math.max(orc.getColumnValues().size(), orc
+                    .getKeyValues().size());
+            for (int row = 0; row < count; row++)
+            {
+                rowCount++;
+                String error = foldRow(orc, row, keys, rows, netRows);
+                if (error != null)
+                    return fail(error, null);
+            }
+        }
+
+        // Generate net changes, grouping rows of the same shape.
+        RowChangeData rowChangeData = new RowChangeData();
+        OneRowChange current = null;
+        String currentShape = null;
+        int netCount = 0;
+        for (NetRow netRow : netRows)
+        {
+            for (OneRowChange change : netRow.toChanges())
+            {
+                netCount++;
+                String shape = shapeOf(change);
+                if (current != null && shape.equals(currentShape))
+                {
+                    current.getColumnValues().addAll(change.getColumnValues());
+                    if (change.getAction() != ActionType.INSERT)
+                        current.getKeyValues().addAll(change.getKeyValues());
+                }
+                else
+                {
+                    current = change;
+                    currentShape = shape;
+                    rowChangeData.appendOneRowChange(change);
+                }
+            }
+        }
+        List<ReplOption> options = events.get(0).getData().get(0).getOptions();
+        if (options != null)
+        {
+            for (ReplOption option : options)
+                rowChangeData.addOption(option.getOptionName(),
+                        option.getOptionValue());
+        }
+
+        // Wrap the changes in an event with the position of the last
+        // transaction.
+        ReplDBMSEvent last = events.get(events.size() - 1);
+        DBMSEvent lastDbmsEvent = last.getDBMSEvent();
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        if (rowChangeData.getRowChanges().size() > 0)
+            data.add(rowChangeData);
+        DBMSEvent dbmsEvent = new DBMSEvent(lastDbmsEvent.getEventId(),
+                lastDbmsEvent.getMetadata(), data, true,
+                lastDbmsEvent.getSourceTstamp());
+        dbmsEvent.setOptions(copyOptions(lastDbmsEvent.getOptions()));
+        ReplDBMSEvent netEvent = new ReplDBMSEvent(last.getSeqno(), (short) 0,
+                true, last.getSourceId(), last.getEpochNumber(),
+                last.getExtractedTstamp(), dbmsEvent);
+        netEvent.setShardId(last.getShardId());
+
+        blocks++;
+        rowsIn += rowCount;
+        rowsOut += netCount;
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Consolidated block: transactions=" + events.size()
+                    + " first seqno=" + events.get(0).getSeqno()
+                    + " last seqno=" + last.getSeqno() + " rows=" + rowCount
+                    + " net rows=" + netCount);
+        }
+        return netEvent;
+    }
+
+    // Folds one row of a change into the net rows, returning an error message
+    // if this cannot be done safely.
+    private String foldRow(OneRowChange orc, int row, int[] keys,
+            Map<RowKey, NetRow> rows, List<NetRow> netRows)
+    {
+        ActionType action = orc.getAction();
+
+        // Without key columns only inserts are possible, which are passed on.
+        if (keys == null)
+        {
+            if (action != ActionType.INSERT)
+                return "no key columns for " + tableName(orc);
+            NetRow netRow = new NetRow(orc, null, null);
+            netRow.setImage(orc, orc.getColumnValues().get(row));
+            netRows.add(netRow);
+            return null;
+        }
+
+        if (action == ActionType.INSERT)
+        {
+            ArrayList<ColumnVal> values = orc.getColumnValues().get(row);
+            RowKey key = keyOfImage(orc.getColumnSpec(), values, keys, null);
+            if (key == null)
+                return "insert lacks key columns for " + tableName(orc);
+            NetRow netRow = rows.get(key);
+            if (netRow == null)
+            {
+                netRow = new NetRow(orc, null, null);
+                rows.put(key, netRow);
+                netRows.add(netRow);
+            }
+            else if (netRow.exists())
+                return "duplicate insert on " + tableName(orc);
+            netRow.setImage(orc, values);
+            return null;
+        }
+
+        // Updates and deletes find the row by its key image.
+        ArrayList<ColumnVal> keyValues = orc.getKeyValues().get(row);
+        RowKey key = new RowKey(keyValues);
+        NetRow netRow = rows.get(key);
+        if (netRow == null)
+        {
+            netRow = new NetRow(orc, orc.getKeySpec(), keyValues);
+            rows.put(key, netRow);
+            netRows.add(netRow);
+        }
+        else if (!netRow.exists())
+            return "change to deleted row on " + tableName(orc);
+
+        if (action == ActionType.UPDATE)
+        {
+            ArrayList<ColumnVal> values = orc.getColumnValues().get(row);
+            netRow.mergeImage(orc.getColumnSpec(), values);
+            RowKey newKey = keyOfImage(orc.getColumnSpec(), values, keys,
+                    keyValues);
+            if (!newKey.equals(key))
+            {
+                if (rows.containsKey(newKey))
+                    return "update to existing key on " + tableName(orc);
+                rows.remove(key);
+                rows.put(newKey, netRow);
+            }
+        }
+        else
+        {
+            // A row inserted in the block disappears; an existing row is
+            // deleted.
+            if (netRow.origKey == null)
+            {
+                netRow.removed = true;
+                rows.remove(key);
+            }
+            else
+                netRow.delete();
+        }
+        return null;
+    }
+
+    // Returns the key of a row image, taking key columns missing from the
+    // image from the previous key, or null if a column is missing.
+    private static RowKey keyOfImage(ArrayList<ColumnSpec> specs,
+            ArrayList<ColumnVal> values, int[] keys,
+            ArrayList<ColumnVal> previousKey)
+    {
+        Object[] keyValues = new Object[keys.length];
+        for (int k = 0; k < keys.length; k++)
+        {
+            int pos = positionOf(specs, keys[k]);
+            if (pos >= 0)
+                keyValues[k] = values.get(pos).getValue();
+            else if (previousKey != null)
+                keyValues[k] = previousKey.get(k).getValue();
+            else
+                return null;
+        }
+        return new RowKey(keyValues);
+    }
+
+    // Returns the position of the column with the given index.
+    private static int positionOf(ArrayList<ColumnSpec> specs, int index)
+    {
+        for (int i = 0; i < specs.size(); i++)
+        {
+            if (specs.get(i).getIndex() == index)
+                return i;
+        }
+        return -1;
+    }
+
+    // Returns column indexes or null if any is unset.
+    private static int[] indexesOf(ArrayList<ColumnSpec> specs)
+    {
+        int[] indexes = new int[specs.size()];
+        for (int i = 0; i < indexes.length; i++)
+        {
+            indexes[i] = specs.get(i).getIndex();
+            if (indexes[i] <= 0)
+                return null;
+        }
+        return indexes;
+    }
+
+    private static String tableName(OneRowChange orc)
+    {
+        return orc.getSchemaName() + "." + orc.getTableName();
+    }
+
+    // Describes the statement a change produces, so that changes of the same
+    // shape can share one OneRowChange.
+    private static String shapeOf(OneRowChange orc)
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(tableName(orc)).append(' ').append(orc.getAction());
+        sb.append(" c=").append(Arrays.toString(indexesOf(orc.getColumnSpec())));
+        sb.append(" k=").append(Arrays.toString(indexesOf(orc.getKeySpec())));
+        return sb.toString();
+    }
+
+    private static String optionString(List<ReplOption> options)
+    {
+        return options == null ? "[]" : options.toString();
+    }
+
+    private static LinkedList<ReplOption> copyOptions(List<ReplOption> options)
+    {
+        LinkedList<ReplOption> copy = new LinkedList<ReplOption>();
+        if (options != null)
+            copy.addAll(options);
+        return copy;
+    }
+
+    private ReplDBMSEvent fail(String reason, ReplDBMSEvent event)
+    {
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Unable to consolidate block, applying transactions one by one: reason="
+                    + reason
+                    + (event == null ? "" : " seqno=" + event.getSeqno()));
+        }
+        return null;
+    }
+
+    // Key values of a row. Byte arrays are compared by content.
+    private static class RowKey
+    {
+        private final Object[] values;
+        private final int      hash;
+
+        RowKey(ArrayList<ColumnVal> columnValues)
+        {
+            this(valuesOf(columnValues));
+        }
+
+        RowKey(Object[] values)
+        {
+            this.values = values;
+            int h = 1;
+            for (Object value : values)
+            {
+                if (value instanceof byte[])
+                    h = 31 * h + Arrays.hashCode((byte[]) value);
+                else
+                    h = 31 * h + (value == null ? 0 : value.hashCode());
+            }
+            this.hash = h;
+        }
+
+        private static Object[] valuesOf(ArrayList<ColumnVal> columnValues)
+        {
+            Object[] values = new Object[columnValues.size()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = columnValues.get(i).getValue();
+            return values;
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof RowKey))
+                return false;
+            Object[] other = ((RowKey) o).values;
+            if (other.length != values.length)
+                return false;
+            for (int i = 0; i < values.length; i++)
+            {
+                Object a = values[i];
+                Object b = other[i];
+                if (a instanceof byte[] && b instanceof byte[])
+                {
+                    if (!Arrays.equals((byte[]) a, (byte[]) b))
+                        return false;
+                }
+                else if (a == null ? b != null : !a.equals(b))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    // Net change of a single row.
+    private static class NetRow
+    {
+        // Change that first touched the row, for table names.
+        final OneRowChange                   source;
+
+        // Key image of the row before the block, or null if it was inserted.
+        final ArrayList<ColumnSpec>          origKeySpec;
+        final ArrayList<ColumnVal>           origKey;
+
+        // Current image by column index, or null if the row does not exist.
+        TreeMap<Integer, ColumnSpec>         specs  = new TreeMap<Integer, ColumnSpec>();
+        TreeMap<Integer, ColumnVal>          values = new TreeMap<Integer, ColumnVal>();
+
+        // Insert that produced the current image, if any.
+        OneRowChange                         insert;
+
+        // True if the row existing before the block was deleted.
+        boolean                              deleted;
+
+        // True if the row was inserted and deleted within the block.
+        boolean                              removed;
+
+        NetRow(OneRowChange source, ArrayList<ColumnSpec> origKeySpec,
+                ArrayList<ColumnVal> origKey)
+        {
+            this.source = source;
+            this.origKeySpec = origKeySpec;
+            this.origKey = origKey;
+        }
+
+        boolean exists()
+        {
+            return !removed && specs != null;
+        }
+
+        void setImage(OneRowChange insert, ArrayList<ColumnVal> image)
+        {
+            this.insert = insert;
+            specs = new TreeMap<Integer, ColumnSpec>();
+            values = new TreeMap<Integer, ColumnVal>();
+            mergeImage(insert.getColumnSpec(), image);
+        }
+
+        void mergeImage(ArrayList<ColumnSpec> imageSpecs,
+                ArrayList<ColumnVal> image)
+        {
+            for (int i = 0; i < imageSpecs.size(); i++)
+            {
+                ColumnSpec spec = imageSpecs.get(i);
+                specs.put(spec.getIndex(), spec);
+                values.put(spec.getIndex(), image.get(i));
+            }
+        }
+
+        void delete()
+        {
+            deleted = true;
+            insert = null;
+            specs = null;
+            values = null;
+        }
+
+        // Returns the changes that produce the net effect on this row.
+        List<OneRowChange> toChanges()
+        {
+            List<OneRowChange> changes = new ArrayList<OneRowChange>(2);
+            if (removed)
+                return changes;
+            if (origKey != null && (deleted || insert != null))
+            {
+                OneRowChange delete = newChange(ActionType.DELETE);
+                delete.getKeySpec().addAll(origKeySpec);
+                delete.getKeyValues().add(origKey);
+                changes.add(delete);
+            }
+            if (insert != null)
+            {
+                OneRowChange insertChange = newChange(ActionType.INSERT);
+                insertChange.getColumnSpec().addAll(specs.values());
+                insertChange.getColumnValues().add(
+                        new ArrayList<ColumnVal>(values.values()));
+                if (insert.getKeySpec().size() > 0)
+                {
+                    // Keep primary key information added to inserts.
+                    insertChange.getKeySpec().addAll(insert.getKeySpec());
+                    insertChange.getKeyValues().add(new ArrayList<ColumnVal>());
+                }
+                changes.add(insertChange);
+            }
+            else if (origKey != null && !deleted)
+            {
+                OneRowChange update = newChange(ActionType.UPDATE);
+                update.getColumnSpec().addAll(specs.values());
+                update.getColumnValues().add(
+                        new ArrayList<ColumnVal>(values.values()));
+                update.getKeySpec().addAll(origKeySpec);
+                update.getKeyValues().add(origKey);
+                changes.add(update);
+            }
+            return changes;
+        }
+
+        private OneRowChange newChange(ActionType action)
+        {
+            OneRowChange orc = new OneRowChange(source.getSchemaName(),
+                    source.getTableName(), action);
+            orc.setTableId(source.getTableId());
+            return orc;
+        }
+    }
+}
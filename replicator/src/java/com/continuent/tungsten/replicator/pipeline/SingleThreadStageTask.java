@@ -78,6 +78,13 @@ public class SingleThreadStageTask implements Runnable
     private long               lastCommitMillis;
     private long               blockCommitIntervalMillis;
     private boolean            strictBlockCommit = true;
+    private boolean            syncTHL;
+
+    // Folds row changes within a block, if enabled.
+    private RowChangeConsolidator consolidator;
+
+    // True if the applier holds work that is not committed yet.
+    private boolean            uncommittedWork;
 
     private volatile boolean   cancelled         = false;
 
@@ -95,6 +102,8 @@ public class SingleThreadStageTask implements Runnable
         if (stage.getCommitPolicy() == BlockCommitPolicy.lax)
             this.strictBlockCommit = false;
         this.usingBlockCommit = (blockCommitRowsCount > 1);
+        if (usingBlockCommit && stage.isConsolidateRowChanges())
+            this.consolidator = new RowChangeConsolidator();
         this.taskProgress = stage.getProgressTracker().getTaskProgress(taskId);
     }
 
@@ -231,6 +240,7 @@ public class SingleThreadStageTask implements Runnable
             }
             boolean syncTHLWithExtractor = stage.getPipeline()
                     .syncTHLWithExtractor();
+            this.syncTHL = syncTHLWithExtractor;
 
             // Initialize the clock for checking block commit interval.
             lastCommitMillis = System.currentTimeMillis();
@@ -372,6 +382,10 @@ public class SingleThreadStageTask implements Runnable
                 // makes filters themselves harder to write.
                 if (!(event instanceof ReplDBMSFilteredEvent))
                 {
+                    // Filters may change the event, so any stored form is no
+                    // longer reliable.
+                    if (filters.size() > 0)
+                        event.setStoredForm(null);
                     taskProgress.beginFilterInterval();
 
                     try
@@ -424,6 +438,7 @@ public class SingleThreadStageTask implements Runnable
                         {
                             logger.debug("Applying filtered event");
                         }
+                        applyConsolidated(false);
                         apply(new ReplDBMSFilteredEvent(firstFilteredEvent,
                                 lastFilteredEvent), false, false,
                                 syncTHLWithExtractor);
@@ -527,7 +542,20 @@ public class SingleThreadStageTask implements Runnable
                             + doCommit);
                 }
                 // doCommit should be false if doRollback is true.
-                apply(event, doCommit, doRollback, syncTHLWithExtractor);
+                if (consolidator != null && !doRollback
+                        && !unsafeForBlockCommit && !forceCommit
+                        && RowChangeConsolidator.isConsolidatable(event))
+                {
+                    // Hold row changes until the block commits.
+                    consolidator.add(event);
+                    if (doCommit)
+                        applyConsolidated(true);
+                }
+                else
+                {
+                    applyConsolidated(false);
+                    apply(event, doCommit, doRollback, syncTHLWithExtractor);
+                }
             }
 
             // At the end of the loop, issue commit to ensure partial block
@@ -760,9 +788,11 @@ public class SingleThreadStageTask implements Runnable
             logger.debug("Updating position: seqno=" + header.getSeqno()
                     + " doCommit=" + doCommit);
         }
+        applyConsolidated(false);
         taskProgress.beginApplyInterval();
         applier.updatePosition(header, doCommit, false);
         taskProgress.endApplyInterval();
+        uncommittedWork = !doCommit;
         if (doCommit)
         {
             schedule.commit();
@@ -793,14 +823,7 @@ public class SingleThreadStageTask implements Runnable
     {
         try
         {
-            taskProgress.beginApplyInterval();
-            applier.apply(event, doCommit, doRollback, syncTHL);
-            if (doCommit)
-            {
-                schedule.commit();
-                blockEventCount = 0;
-                lastCommitMillis = System.currentTimeMillis();
-            }
+            applyOrFail(event, doCommit, doRollback, syncTHL);
         }
         catch (ApplierException e)
         {
@@ -816,11 +839,80 @@ public class SingleThreadStageTask implements Runnable
                 logError(message, e);
             }
         }
+    }
+
+    /**
+     * Applies an event and leaves failures to the caller regardless of the
+     * applier failure policy.
+     */
+    private void applyOrFail(ReplDBMSEvent event, boolean doCommit,
+            boolean doRollback, boolean syncTHL) throws ReplicatorException,
+            ConsistencyException, InterruptedException
+    {
+        try
+        {
+            taskProgress.beginApplyInterval();
+            applier.apply(event, doCommit, doRollback, syncTHL);
+            uncommittedWork = !doCommit;
+            if (doCommit)
+            {
+                schedule.commit();
+                blockEventCount = 0;
+                lastCommitMillis = System.currentTimeMillis();
+            }
+        }
         finally
         {
             taskProgress.endApplyInterval();
         }
+    }
 
+    /**
+     * Applies transactions held for row change consolidation, as a single
+     * event with their net row changes if possible and otherwise one by one.
+     * If the net changes fail to apply, they are rolled back and the
+     * transactions are applied one by one under the usual failure policy.
+     * 
+     * @param doCommit If true, commit after the last transaction
+     * @throws ReplicatorException Thrown if applier processing fails
+     * @throws InterruptedException Thrown if the applier is interrupted
+     */
+    private void applyConsolidated(boolean doCommit)
+            throws ReplicatorException, InterruptedException
+    {
+        if (consolidator == null || consolidator.isEmpty())
+            return;
+        ReplDBMSEvent netEvent = consolidator.consolidate();
+        List<ReplDBMSEvent> events = consolidator.drain();
+        if (netEvent != null && events.size() > 1)
+        {
+            // Commit earlier work of the block first, so that a rollback of
+            // the net changes does not undo it.
+            if (uncommittedWork)
+            {
+                applier.commit();
+                uncommittedWork = false;
+            }
+            try
+            {
+                applyOrFail(netEvent, doCommit, false, syncTHL);
+                return;
+            }
+            catch (ApplierException e)
+            {
+                logger.warn("Unable to apply net row changes of block, "
+                        + "applying transactions one by one: first seqno="
+                        + events.get(0).getSeqno() + " last seqno="
+                        + netEvent.getSeqno() + " message=" + e.getMessage());
+                applier.rollback();
+                uncommittedWork = false;
+            }
+        }
+        for (int i = 0; i < events.size(); i++)
+        {
+            boolean last = (i == events.size() - 1);
+            apply(events.get(i), doCommit && last, false, syncTHL);
+        }
     }
 
     /**
@@ -831,7 +923,9 @@ public class SingleThreadStageTask implements Runnable
      */
     private void commit() throws InterruptedException, ReplicatorException
     {
+        applyConsolidated(false);
         applier.commit();
+        uncommittedWork = false;
         schedule.commit();
         blockEventCount = 0;
         lastCommitMillis = System.currentTimeMillis();
@@ -62,6 +62,7 @@ public class Stage implements ReplicatorPlugin
     private Interval                  blockCommitInterval = new Interval(0);
     private String                    blockCommitPolicy   = "strict";
     private BlockCommitPolicy         commitPolicy;
+    private boolean                   consolidateRowChanges = false;
     private boolean                   autoSync            = false;
 
     // Read-only parameters.
@@ -189,6 +190,17 @@ public class Stage implements ReplicatorPlugin
         this.blockCommitPolicy = blockCommitPolicy;
     }
 
+    /** Returns true if row changes are folded within a block commit. */
+    public boolean isConsolidateRowChanges()
+    {
+        return consolidateRowChanges;
+    }
+
+    public void setConsolidateRowChanges(boolean consolidateRowChanges)
+    {
+        this.consolidateRowChanges = consolidateRowChanges;
+    }
+
     /** Returns the block commit policy as an enum for typed operation. */
     public BlockCommitPolicy getCommitPolicy()
     {
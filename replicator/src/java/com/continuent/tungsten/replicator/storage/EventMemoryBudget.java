@@ -0,0 +1,112 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.storage;
+
+import com.continuent.tungsten.replicator.event.ReplEvent;
+
+/**
+ * Bounds the estimated number of bytes of events held in an in-memory queue.
+ * Producers acquire the size of an event before adding it to the queue and
+ * wait while the budget is used up. Consumers release the size once they
+ * remove the event. A queue that holds no events always accepts one, however
+ * large, so that events larger than the budget do not wait forever. Events
+ * without an estimated size, such as control events, are not counted.
+ * <p>
+ * The same event must be released exactly once for each time it is acquired.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class EventMemoryBudget
+{
+    private final long maxBytes;
+    private long       bytes = 0;
+
+    /**
+     * Creates a new budget.
+     *
+     * @param maxBytes Number of bytes above which producers wait, or 0 for no
+     *            limit
+     */
+    public EventMemoryBudget(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Returns the maximum number of bytes or 0 if there is no limit. */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /** Returns the number of bytes acquired and not yet released. */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Acquires the size of an event, waiting until it fits in the budget.
+     *
+     * @throws InterruptedException Thrown if the thread is interrupted while
+     *             waiting
+     */
+    public void acquire(ReplEvent event) throws InterruptedException
+    {
+        int size = event.getEstimatedSize();
+        if (size <= 0)
+            return;
+        synchronized (this)
+        {
+            while (maxBytes > 0 && bytes > 0 && bytes + size > maxBytes)
+                wait();
+            bytes += size;
+        }
+    }
+
+    /**
+     * Releases the size of an event.
+     */
+    public void release(ReplEvent event)
+    {
+        if (event == null)
+            return;
+        int size = event.getEstimatedSize();
+        if (size <= 0)
+            return;
+        synchronized (this)
+        {
+            bytes = Math.max(0, bytes - size);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Forgets all acquired bytes, for example when a queue is cleared.
+     */
+    public synchronized void reset()
+    {
+        bytes = 0;
+        notifyAll();
+    }
+}
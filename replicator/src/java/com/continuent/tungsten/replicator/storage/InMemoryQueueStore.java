@@ -45,6 +45,8 @@ public class InMemoryQueueStore implements Store
     protected String                             name;
     protected LinkedBlockingQueue<ReplDBMSEvent> queue;
     protected int                                maxSize          = 1;
+    protected long                               maxBytes         = 0;
+    protected EventMemoryBudget                  budget;
     protected ReplDBMSHeader                     lastHeader;
     protected long                               transactionCount = 0;
     protected int                                partitions       = 1;
@@ -69,6 +71,19 @@ public class InMemoryQueueStore implements Store
         this.maxSize = size;
     }
 
+    /**
+     * Maximum estimated bytes of events in the queue, or 0 for no limit.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
     /** Sets the last header processed. This is required for restart. */
     public void setLastHeader(ReplDBMSHeader header)
     {
@@ -138,13 +153,15 @@ public class InMemoryQueueStore implements Store
     // END OF PSEUDO-PARALLEL QUEUE INTERFACE
 
     /**
-     * Puts an event in the queue, blocking if it is full.
+     * Puts an event in the queue, blocking if it is full or the event does not
+     * fit in the memory budget.
      * 
      * @throws ReplicatorException
      */
     public void put(ReplDBMSEvent event) throws InterruptedException,
             ReplicatorException
     {
+        budget.acquire(event);
         queue.put(event);
         transactionCount++;
         if (logger.isDebugEnabled())
@@ -160,7 +177,9 @@ public class InMemoryQueueStore implements Store
      */
     public ReplDBMSEvent get() throws InterruptedException
     {
-        return queue.take();
+        ReplDBMSEvent event = queue.take();
+        budget.release(event);
+        return event;
     }
 
     /**
@@ -170,7 +189,9 @@ public class InMemoryQueueStore implements Store
      */
     public ReplDBMSEvent poll() throws InterruptedException
     {
-        return queue.poll();
+        ReplDBMSEvent event = queue.poll();
+        budget.release(event);
+        return event;
     }
 
     /**
@@ -214,6 +235,7 @@ public class InMemoryQueueStore implements Store
     public void prepare(PluginContext context) throws ReplicatorException
     {
         queue = new LinkedBlockingQueue<ReplDBMSEvent>(maxSize);
+        budget = new EventMemoryBudget(maxBytes);
     }
 
     /**
@@ -232,10 +254,17 @@ public class InMemoryQueueStore implements Store
     {
         TungstenProperties props = new TungstenProperties();
         if (queue != null)
+        {
             props.setLong("storeSize", queue.size());
+            props.setLong("storeBytes", budget.getBytes());
+        }
         else
+        {
             props.setLong("storeSize", -1);
+            props.setLong("storeBytes", -1);
+        }
         props.setLong("maxSize", maxSize);
+        props.setLong("maxBytes", maxBytes);
         props.setLong("eventCount", this.transactionCount);
         return props;
     }
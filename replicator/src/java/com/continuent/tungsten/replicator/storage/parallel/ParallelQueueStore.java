@@ -39,6 +39,7 @@ import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.storage.EventMemoryBudget;
 import com.continuent.tungsten.replicator.storage.ParallelStore;
 import com.continuent.tungsten.replicator.util.AtomicCounter;
 import com.continuent.tungsten.replicator.util.WatchPredicate;
@@ -55,6 +56,7 @@ public class ParallelQueueStore implements ParallelStore
     private static Logger                                       logger             = Logger.getLogger(ParallelQueueStore.class);
     private String                                              name;
     private List<LinkedBlockingQueue<ReplEvent>>                queues;
+    private List<EventMemoryBudget>                             budgets;
     private List<PartitionMetadata>                             queueMetadata;
     private ReplDBMSHeader[]                                    lastHeaders;
     private ReplDBMSEvent                                       lastInsertedEvent;
@@ -75,6 +77,7 @@ public class ParallelQueueStore implements ParallelStore
 
     // Queue parameters.
     private int                                                 maxSize            = 1;
+    private long                                                maxBytes           = 0;
     private int                                                 partitions         = 1;
     private boolean                                             syncEnabled        = true;
     private int                                                 syncInterval       = 100;
@@ -133,6 +136,20 @@ public class ParallelQueueStore implements ParallelStore
         this.maxSize = size;
     }
 
+    /**
+     * Maximum estimated bytes of events in individual queues, or 0 for no
+     * limit.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
     /** Sets the number of queue partitions. */
     public void setPartitions(int partitions)
     {
@@ -304,7 +321,7 @@ public class ParallelQueueStore implements ParallelStore
                         + criticalPartition + " seqno=" + event.getSeqno());
             }
         }
-        else if (!response.isCritical() && criticalPartition > 0)
+        else if (!response.isCritical() && criticalPartition >= 0)
         {
             // Covers case 3.
             blockToZero();
@@ -316,8 +333,9 @@ public class ParallelQueueStore implements ParallelStore
             }
         }
 
-        // Add event to the queue, increment the active store size, and remember
-        // the event.
+        // Add event to the queue once it fits in the memory budget, increment
+        // the active store size, and remember the event.
+        budgets.get(response.getPartition()).acquire(event);
         queues.get(response.getPartition()).put(event);
         long size = activeSize.incrAndGetSeqno();
         transactionCount++;
@@ -424,6 +442,7 @@ public class ParallelQueueStore implements ParallelStore
     {
         assertTaskIdWithinRange(taskId);
         ReplEvent event = queues.get(taskId).take();
+        budgets.get(taskId).release(event);
         long size = activeSize.decrAndGetSeqno();
         if (logger.isDebugEnabled())
         {
@@ -491,6 +510,7 @@ public class ParallelQueueStore implements ParallelStore
         // Instantiate queue list, followed by array of last sequence numbers to
         // permit propagation of restart points from each output task.
         queues = new ArrayList<LinkedBlockingQueue<ReplEvent>>(partitions);
+        budgets = new ArrayList<EventMemoryBudget>(partitions);
         queueMetadata = new ArrayList<PartitionMetadata>(partitions);
         lastHeaders = new ReplDBMSHeader[partitions];
         this.watchPredicates = new LinkedBlockingQueue<WatchPredicate<ReplDBMSHeader>>();
@@ -509,6 +529,7 @@ public class ParallelQueueStore implements ParallelStore
         for (int i = 0; i < partitions; i++)
         {
             queues.add(new LinkedBlockingQueue<ReplEvent>(maxSize));
+            budgets.add(new EventMemoryBudget(maxBytes));
         }
 
         // Add queue metadata required by stateful partitioners.
@@ -533,6 +554,7 @@ public class ParallelQueueStore implements ParallelStore
             throws ReplicatorException
     {
         queues = null;
+        budgets = null;
         lastHeaders = null;
     }
 
@@ -579,6 +601,7 @@ public class ParallelQueueStore implements ParallelStore
         TungstenProperties props = new TungstenProperties();
         props.setLong("storeSize", getStoreSize());
         props.setLong("maxSize", maxSize);
+        props.setLong("maxBytes", maxBytes);
         props.setLong("eventCount", transactionCount);
         props.setLong("discardCount", discardCount);
         props.setInt("queues", partitions);
@@ -592,6 +615,7 @@ public class ParallelQueueStore implements ParallelStore
         for (int i = 0; i < queues.size(); i++)
         {
             props.setInt("store.queueSize." + i, queues.get(i).size());
+            props.setLong("store.queueBytes." + i, budgets.get(i).getBytes());
         }
         return props;
     }
@@ -0,0 +1,272 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.storage.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnSpec;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+
+/**
+ * Implements a partitioner that assigns transactions to partitions by the rows
+ * they write rather than by shard, so that transactions on a single busy
+ * schema can be applied in parallel. Each row key, made of the schema, table
+ * and key image of the row, hashes to one partition. A transaction whose keys
+ * all hash to the same partition goes to that partition, which keeps changes
+ * to the same row in order. Any other transaction is critical and is applied
+ * alone on partition 0 once all earlier transactions have committed.
+ * <p>
+ * The following transactions are critical because their write sets are
+ * unknown or incomplete:
+ * <ul>
+ * <li>Transactions that contain statements, including DDL</li>
+ * <li>Fragmented transactions</li>
+ * <li>Inserts without key columns and updates whose key image includes every
+ * changed column, which is what row changes look like unless the primary key
+ * filter has reduced key images to primary keys</li>
+ * <li>Rows whose key values are of types without value-based hashing</li>
+ * </ul>
+ * Keys therefore only give useful parallelism if the primary key filter, with
+ * addPkeyToInserts set, runs before the events reach the parallel queue, and
+ * for THLParallelQueue before they are written to the log.
+ * <p>
+ * Transactions on different partitions may commit on the slave in a different
+ * order than on the master. Only primary key images decide the partition, so
+ * this reordering can violate a unique secondary key even when primary keys
+ * never overlap, for example when one transaction frees a unique value that a
+ * later transaction on another partition takes. Likewise a child row may be
+ * inserted before its parent on another partition. Use the shard partitioner
+ * for schemas with unique secondary keys or enforced foreign keys.
+ * <p>
+ * Assignments depend only on the event, so this partitioner needs no state
+ * and gives the same answer after restart.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class WriteSetPartitioner implements ContentPartitioner
+{
+    private int availablePartitions;
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.Partitioner#setPartitions(int)
+     */
+    public synchronized void setPartitions(int availablePartitions)
+    {
+        this.availablePartitions = availablePartitions;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.Partitioner#setContext(com.continuent.tungsten.replicator.plugin.PluginContext)
+     */
+    public void setContext(PluginContext context)
+    {
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see com.continuent.tungsten.replicator.storage.parallel.Partitioner#partition(com.continuent.tungsten.replicator.event.ReplDBMSHeader,
+     *      int)
+     */
+    public PartitionerResponse partition(ReplDBMSHeader event, int taskId)
+            throws ReplicatorException
+    {
+        if (taskId > availablePartitions)
+            throw new ReplicatorException(
+                    "Task ID exceeds available partitions: taskId=" + taskId
+                            + " availablePartitions=" + availablePartitions);
+
+        // All fragments must go to the same partition, so fragmented
+        // transactions are serialized on partition 0.
+        if (event.getFragno() != 0 || !event.getLastFrag())
+            return new PartitionerResponse(0, true);
+        if (!(event instanceof ReplDBMSEvent))
+        {
+            throw new ReplicatorException(
+                    "Partitioner requires full events but received header only: seqno="
+                            + event.getSeqno());
+        }
+
+        // Find the partition of each row key. Stop as soon as keys are
+        // unknown or span more than one partition.
+        List<DBMSData> data = ((ReplDBMSEvent) event).getData();
+        int partition = -1;
+        if (data == null || data.size() == 0)
+            return new PartitionerResponse(0, true);
+        for (DBMSData dbmsData : data)
+        {
+            if (!(dbmsData instanceof RowChangeData))
+                return new PartitionerResponse(0, true);
+            for (OneRowChange orc : ((RowChangeData) dbmsData)
+                    .getRowChanges())
+            {
+                int[] hashes = keyHashes(orc);
+                if (hashes == null)
+                    return new PartitionerResponse(0, true);
+                for (int hash : hashes)
+                {
+                    int next = Math.abs(hash % availablePartitions);
+                    if (partition == -1)
+                        partition = next;
+                    else if (partition != next)
+                        return new PartitionerResponse(0, true);
+                }
+            }
+        }
+        if (partition == -1)
+            return new PartitionerResponse(0, true);
+        else
+            return new PartitionerResponse(partition, false);
+    }
+
+    // Returns hashes of the row keys written by a row change, or null if they
+    // cannot be determined. Updates that change a key write both keys.
+    private int[] keyHashes(OneRowChange orc)
+    {
+        ArrayList<ColumnSpec> keySpec = orc.getKeySpec();
+        if (keySpec.size() == 0)
+            return null;
+        int tableHash = 31 * orc.getSchemaName().hashCode()
+                + orc.getTableName().hashCode();
+
+        ActionType action = orc.getAction();
+        if (action == ActionType.INSERT)
+        {
+            // Inserts carry key columns without values; take the values from
+            // the row image.
+            int[] positions = positionsOf(orc.getColumnSpec(), keySpec);
+            if (positions == null)
+                return null;
+            ArrayList<ArrayList<ColumnVal>> rows = orc.getColumnValues();
+            int[] hashes = new int[rows.size()];
+            for (int row = 0; row < hashes.length; row++)
+            {
+                Integer hash = hashOf(tableHash, rows.get(row), positions);
+                if (hash == null)
+                    return null;
+                hashes[row] = hash;
+            }
+            return hashes;
+        }
+
+        // Key images that include every changed column are full row images,
+        // which do not identify a row across updates.
+        if (action == ActionType.UPDATE
+                && keySpec.size() >= orc.getColumnSpec().size())
+            return null;
+
+        int[] keyPositions = new int[keySpec.size()];
+        for (int i = 0; i < keyPositions.length; i++)
+            keyPositions[i] = i;
+        int[] newKeyPositions = null;
+        if (action == ActionType.UPDATE)
+            newKeyPositions = positionsOf(orc.getColumnSpec(), keySpec);
+
+        ArrayList<ArrayList<ColumnVal>> keyRows = orc.getKeyValues();
+        int[] hashes = new int[keyRows.size() * 2];
+        for (int row = 0; row < keyRows.size(); row++)
+        {
+            Integer hash = hashOf(tableHash, keyRows.get(row), keyPositions);
+            if (hash == null)
+                return null;
+            hashes[row * 2] = hash;
+
+            // Updates that change the key also write the new key. Key
+            // columns missing from the after image are unchanged.
+            hashes[row * 2 + 1] = hash;
+            if (newKeyPositions != null)
+            {
+                Integer newHash = hashOf(tableHash, orc.getColumnValues()
+                        .get(row), newKeyPositions);
+                if (newHash == null)
+                    return null;
+                hashes[row * 2 + 1] = newHash;
+            }
+        }
+        return hashes;
+    }
+
+    // Returns the positions of key columns in a row image or null if any is
+    // missing.
+    private int[] positionsOf(ArrayList<ColumnSpec> specs,
+            ArrayList<ColumnSpec> keySpec)
+    {
+        int[] positions = new int[keySpec.size()];
+        for (int k = 0; k < positions.length; k++)
+        {
+            positions[k] = -1;
+            for (int i = 0; i < specs.size(); i++)
+            {
+                if (specs.get(i).getIndex() == keySpec.get(k).getIndex())
+                {
+                    positions[k] = i;
+                    break;
+                }
+            }
+            if (positions[k] == -1)
+                return null;
+        }
+        return positions;
+    }
+
+    // Hashes key values, returning null if a value does not have a hash code
+    // that is the same for equal values in every copy of the event.
+    private Integer hashOf(int tableHash, ArrayList<ColumnVal> values,
+            int[] positions)
+    {
+        int hash = tableHash;
+        for (int position : positions)
+        {
+            Object value = values.get(position).getValue();
+            int valueHash;
+            if (value == null)
+                valueHash = 0;
+            else if (value instanceof byte[])
+                valueHash = Arrays.hashCode((byte[]) value);
+            else if (value instanceof String || value instanceof Number
+                    || value instanceof Date || value instanceof Boolean
+                    || value instanceof Character)
+                valueHash = value.hashCode();
+            else
+                return null;
+            hash = 31 * hash + valueHash;
+        }
+        return hash;
+    }
+}
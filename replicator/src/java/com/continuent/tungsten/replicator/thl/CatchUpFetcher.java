@@ -0,0 +1,300 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
+import com.continuent.tungsten.replicator.event.ReplEvent;
+
+/**
+ * Fetches a range of events that a slave is missing over several connections
+ * at once. The range is split into segments of consecutive seqnos. Each
+ * connection fetches one segment at a time, while events are handed out in
+ * seqno order from the oldest segment. Connections only work on segments
+ * within a window starting at the segment being handed out, which bounds the
+ * number of events held in memory.
+ * <p>
+ * A segment that cannot be fetched, for example because it starts inside a
+ * range of filtered events, ends catch-up with an error. The caller then
+ * continues on a single connection from the last event it received.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class CatchUpFetcher
+{
+    private static Logger logger = Logger.getLogger(CatchUpFetcher.class);
+
+    /**
+     * Opens connections to the master.
+     */
+    public interface ConnectorSource
+    {
+        /**
+         * Returns a connection that requests events in windows of the given
+         * number of transactions.
+         */
+        Connector connect(long prefetchRange) throws ReplicatorException,
+                IOException, InterruptedException;
+    }
+
+    // Consecutive seqnos fetched on one connection.
+    private static class Segment
+    {
+        final long                            start;
+        final long                            end;
+        final LinkedBlockingQueue<ReplEvent> events = new LinkedBlockingQueue<ReplEvent>();
+        volatile boolean                      done;
+        volatile Exception                    error;
+        volatile Connector                    connector;
+
+        Segment(long start, long end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private final ConnectorSource source;
+    private final int             connections;
+    private final List<Segment>   segments    = new ArrayList<Segment>();
+    private final List<Thread>    workers     = new ArrayList<Thread>();
+
+    // Segment being handed out and next segment to fetch.
+    private int                   current     = 0;
+    private int                   next        = 0;
+    private volatile boolean      stopped     = false;
+
+    // Last seqno handed out completely, which skips events that a segment
+    // repeats after a filtered event that spans segments.
+    private long                  lastSeqno   = -1;
+
+    /**
+     * Creates a fetcher for a range of seqnos.
+     *
+     * @param source Source of connections to the master
+     * @param start First seqno to fetch
+     * @param end Last seqno to fetch
+     * @param segmentSize Number of seqnos fetched per connection at a time
+     * @param connections Number of connections
+     */
+    public CatchUpFetcher(ConnectorSource source, long start, long end,
+            long segmentSize, int connections)
+    {
+        this.source = source;
+        this.connections = connections;
+        for (long s = start; s <= end; s += segmentSize)
+            segments.add(new Segment(s, Math.min(end, s + segmentSize - 1)));
+        this.lastSeqno = start - 1;
+    }
+
+    /**
+     * Starts fetching on all connections.
+     */
+    public synchronized void start(String name)
+    {
+        logger.info("Starting parallel catch-up: first seqno="
+                + segments.get(0).start + " last seqno="
+                + segments.get(segments.size() - 1).end + " segments="
+                + segments.size() + " connections=" + connections);
+        for (int i = 0; i < connections; i++)
+        {
+            Thread worker = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    fetchSegments();
+                }
+            }, "thl-catchup-" + name + "-" + (i + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stops fetching and closes all connections.
+     */
+    public void stop()
+    {
+        synchronized (this)
+        {
+            stopped = true;
+            notifyAll();
+        }
+        for (Segment segment : segments)
+        {
+            Connector connector = segment.connector;
+            if (connector != null)
+                connector.close();
+        }
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+    /**
+     * Returns the next event in seqno order or null once all events in the
+     * range have been returned.
+     *
+     * @throws IOException If a segment could not be fetched
+     */
+    public ReplEvent next() throws ReplicatorException, IOException,
+            InterruptedException
+    {
+        while (current < segments.size())
+        {
+            Segment segment = segments.get(current);
+            ReplEvent event = segment.events.poll(100, TimeUnit.MILLISECONDS);
+            if (event instanceof ReplDBMSEvent)
+            {
+                ReplDBMSEvent replEvent = (ReplDBMSEvent) event;
+                if (replEvent.getSeqno() <= lastSeqno)
+                    continue;
+                if (replEvent.getLastFrag())
+                {
+                    lastSeqno = lastSeqno(replEvent);
+                    if (lastSeqno >= segment.end)
+                        advance();
+                }
+                return event;
+            }
+            else if (event != null)
+                return event;
+            else if (segment.error != null)
+            {
+                IOException e = new IOException(
+                        "Unable to fetch catch-up segment: start="
+                                + segment.start + " end=" + segment.end
+                                + " message=" + segment.error.getMessage());
+                e.initCause(segment.error);
+                throw e;
+            }
+            else if (segment.done && segment.events.isEmpty())
+                advance();
+            else if (stopped)
+                throw new IOException("Catch-up stopped");
+        }
+        logger.info("Parallel catch-up done: last seqno=" + lastSeqno);
+        return null;
+    }
+
+    // Moves on to the next segment, which lets another segment into the
+    // window.
+    private synchronized void advance()
+    {
+        current++;
+        notifyAll();
+    }
+
+    // Fetches segments within the window until none are left.
+    private void fetchSegments()
+    {
+        for (;;)
+        {
+            Segment segment;
+            synchronized (this)
+            {
+                while (!stopped && next < segments.size()
+                        && next >= current + connections)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if (stopped || next >= segments.size())
+                    return;
+                segment = segments.get(next++);
+            }
+            fetch(segment);
+            if (segment.error != null)
+                return;
+        }
+    }
+
+    // Fetches the events of one segment on a new connection.
+    private void fetch(Segment segment)
+    {
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Fetching catch-up segment: start=" + segment.start
+                    + " end=" + segment.end);
+        }
+        try
+        {
+            segment.connector = source.connect(segment.end - segment.start
+                    + 1);
+            if (stopped)
+                return;
+            for (;;)
+            {
+                ReplEvent event = segment.connector
+                        .requestEvent(segment.start);
+                if (event == null)
+                    continue;
+                segment.events.put(event);
+                if (event instanceof ReplDBMSEvent
+                        && ((ReplDBMSEvent) event).getLastFrag()
+                        && lastSeqno((ReplDBMSEvent) event) >= segment.end)
+                    break;
+            }
+            segment.done = true;
+        }
+        catch (Exception e)
+        {
+            if (!stopped)
+                segment.error = e;
+        }
+        finally
+        {
+            Connector connector = segment.connector;
+            if (connector != null)
+            {
+                connector.close();
+                segment.connector = null;
+            }
+        }
+    }
+
+    // Returns the last seqno an event covers.
+    private static long lastSeqno(ReplDBMSEvent event)
+    {
+        if (event instanceof ReplDBMSFilteredEvent)
+            return ((ReplDBMSFilteredEvent) event).getSeqnoEnd();
+        else
+            return event.getSeqno();
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Input stream on a socket channel that supports non-blocking reads. In
+ * blocking mode reads go to the socket input stream. In non-blocking mode the
+ * selector thread moves data from the channel into this stream with
+ * {@link #fill()} as the channel becomes readable, and readers only take data
+ * that have already arrived, waiting a limited time for the rest of a message.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class ChannelInputStream extends InputStream
+{
+    /** Unread bytes above which the client is considered to misbehave. */
+    public static final int   MAX_BUFFERED_BYTES = 1048576;
+
+    private final SocketChannel channel;
+    private final InputStream   blockingInput;
+    private final int           timeoutMillis;
+    private byte[]              data             = new byte[1024];
+    private int                 start            = 0;
+    private int                 end              = 0;
+    private boolean             endOfStream      = false;
+    private boolean             nonBlocking      = false;
+
+    /**
+     * Creates a new stream on a connected channel.
+     *
+     * @param channel Channel to read
+     * @param blockingInput Socket input stream used in blocking mode
+     * @param timeoutMillis Time to wait for data in non-blocking mode
+     */
+    public ChannelInputStream(SocketChannel channel, InputStream blockingInput,
+            int timeoutMillis)
+    {
+        this.channel = channel;
+        this.blockingInput = blockingInput;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Switches to non-blocking reads. The caller must also put the channel in
+     * non-blocking mode.
+     */
+    public synchronized void setNonBlocking(boolean nonBlocking)
+    {
+        this.nonBlocking = nonBlocking;
+    }
+
+    /**
+     * Reads whatever the channel has without blocking and makes it available
+     * to readers.
+     *
+     * @return The number of bytes read or -1 at end of stream
+     */
+    public synchronized int fill() throws IOException
+    {
+        if (end == data.length)
+        {
+            // Make room by dropping consumed bytes and, if that is not
+            // enough, growing the buffer.
+            int unread = end - start;
+            if (unread >= MAX_BUFFERED_BYTES)
+                throw new IOException(
+                        "Client sent too much data without reading: bytes="
+                                + unread);
+            byte[] target = (unread > data.length / 2)
+                    ? new byte[data.length * 2]
+                    : data;
+            System.arraycopy(data, start, target, 0, unread);
+            data = target;
+            start = 0;
+            end = unread;
+        }
+        int count = channel.read(ByteBuffer.wrap(data, end, data.length - end));
+        if (count < 0)
+            endOfStream = true;
+        else
+            end += count;
+        notifyAll();
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        if (read(b, 0, 1) < 0)
+            return -1;
+        else
+            return b[0] & 0xff;
+    }
+
+    /**
+     * Reads data that have arrived, waiting for more up to the timeout if
+     * there are none.
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        synchronized (this)
+        {
+            if (nonBlocking)
+            {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (start == end && !endOfStream)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        throw new SocketTimeoutException(
+                                "Timed out waiting for client data: timeoutMillis="
+                                        + timeoutMillis);
+                    try
+                    {
+                        wait(remaining);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new InterruptedIOException(
+                                "Interrupted while waiting for client data");
+                    }
+                }
+                if (start == end)
+                    return -1;
+                int count = Math.min(len, end - start);
+                System.arraycopy(data, start, b, off, count);
+                start += count;
+                return count;
+            }
+        }
+        return blockingInput.read(b, off, len);
+    }
+
+    /**
+     * Returns the number of bytes that can be read without waiting.
+     *
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException
+    {
+        synchronized (this)
+        {
+            if (nonBlocking)
+                return end - start;
+        }
+        return blockingInput.available();
+    }
+}
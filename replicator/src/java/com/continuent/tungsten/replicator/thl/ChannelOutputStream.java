@@ -0,0 +1,132 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+/**
+ * Output stream on a socket channel that supports non-blocking writes. In
+ * blocking mode writes go straight to the channel. In non-blocking mode writes
+ * are queued and the channel takes as much as it can on each flush. The rest
+ * is written by {@link #writePending()} once the channel is writable again, so
+ * that a slow reader never blocks the writer.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class ChannelOutputStream extends OutputStream
+{
+    private final SocketChannel          channel;
+    private final LinkedList<ByteBuffer> pending      = new LinkedList<ByteBuffer>();
+    private long                         pendingBytes = 0;
+    private boolean                      nonBlocking  = false;
+
+    /**
+     * Creates a new stream on a connected channel.
+     */
+    public ChannelOutputStream(SocketChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * Switches to non-blocking writes. The caller must also put the channel in
+     * non-blocking mode.
+     */
+    public synchronized void setNonBlocking(boolean nonBlocking)
+    {
+        this.nonBlocking = nonBlocking;
+    }
+
+    /** Returns the number of bytes waiting to be written to the channel. */
+    public synchronized long getPendingBytes()
+    {
+        return pendingBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException
+    {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public synchronized void write(byte[] b, int off, int len)
+            throws IOException
+    {
+        if (nonBlocking)
+        {
+            ByteBuffer buf = ByteBuffer.allocate(len);
+            buf.put(b, off, len);
+            buf.flip();
+            pending.add(buf);
+            pendingBytes += len;
+        }
+        else
+        {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while (buf.hasRemaining())
+                channel.write(buf);
+        }
+    }
+
+    /**
+     * Writes as much queued data as the channel accepts without blocking.
+     *
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException
+    {
+        writePending();
+    }
+
+    /**
+     * Writes queued data until the channel stops accepting it.
+     *
+     * @return True if all queued data have been written
+     */
+    public synchronized boolean writePending() throws IOException
+    {
+        while (!pending.isEmpty())
+        {
+            ByteBuffer buf = pending.getFirst();
+            pendingBytes -= channel.write(buf);
+            if (buf.hasRemaining())
+                return false;
+            pending.removeFirst();
+        }
+        return true;
+    }
+}
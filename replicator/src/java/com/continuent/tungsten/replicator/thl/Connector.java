@@ -23,9 +23,11 @@
 package com.continuent.tungsten.replicator.thl;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.SocketChannel;
 
 import org.apache.log4j.Logger;
 
@@ -62,6 +64,11 @@ public class Connector implements ReplicatorPlugin
     protected long              lastEpochNumber;
     protected int               heartbeatMillis = 3000;
     protected String            lastEventId;
+    protected boolean           rawRecords      = true;
+    protected long              prefetchRange   = 0;
+    protected int               prefetchWindows = 1;
+    protected String            wireCompression = Protocol.COMPRESSION_NONE;
+    protected int               decodeThreads   = 0;
 
     private String              remoteURI       = null;
 
@@ -132,7 +139,19 @@ public class Connector implements ReplicatorPlugin
         }
 
         // Perform handshake with server.
-        protocol = new Protocol(pluginContext, clientSocket, resetPeriod);
+        // With parallel decoding, requests are written while another thread
+        // reads. Socket streams on a channel share a lock between a blocking
+        // read and a write, so requests go to the channel directly.
+        OutputStream out = clientSocket.getOutputStream();
+        SocketChannel channel = clientSocket.getSocket().getChannel();
+        if (decodeThreads > 0 && channel != null)
+            out = new ChannelOutputStream(channel);
+        protocol = new Protocol(pluginContext, clientSocket, resetPeriod, out);
+        protocol.setRawRecordsEnabled(rawRecords);
+        protocol.setPrefetchRange(prefetchRange);
+        protocol.setPrefetchWindows(prefetchWindows);
+        protocol.setWireCompression(wireCompression);
+        protocol.setDecodeThreads(decodeThreads);
         SeqNoRange seqNoRange = protocol.clientHandshake(lastEpochNumber,
                 lastSeqno, heartbeatMillis, lastEventId);
 
@@ -151,6 +170,8 @@ public class Connector implements ReplicatorPlugin
         if (!closed)
         {
             clientSocket.close();
+            if (protocol != null)
+                protocol.stopDecoding();
             closed = true;
         }
     }
@@ -162,9 +183,10 @@ public class Connector implements ReplicatorPlugin
      * @return ReplEvent
      * @throws ReplicatorException
      * @throws IOException
+     * @throws InterruptedException
      */
     public ReplEvent requestEvent(long seqNo) throws ReplicatorException,
-            IOException
+            IOException, InterruptedException
     {
         ReplEvent retval;
         if (logger.isDebugEnabled())
@@ -288,4 +310,55 @@ public class Connector implements ReplicatorPlugin
     {
         this.lastEventId = lastEventId;
     }
+
+    /**
+     * If true, accept events shipped as stored log records if the server
+     * offers them.
+     */
+    public void setRawRecords(boolean rawRecords)
+    {
+        this.rawRecords = rawRecords;
+    }
+
+    /**
+     * Sets the number of transactions to request from the server at a time.
+     * 0 requests all transactions at once.
+     */
+    public void setPrefetchRange(long prefetchRange)
+    {
+        this.prefetchRange = prefetchRange;
+    }
+
+    /**
+     * Sets the number of prefetch windows to keep requested ahead of those
+     * received.
+     */
+    public void setPrefetchWindows(int prefetchWindows)
+    {
+        this.prefetchWindows = prefetchWindows;
+    }
+
+    /**
+     * Sets the compression method to ask the server to use for events, either
+     * "none" or "deflate".
+     */
+    public void setWireCompression(String wireCompression)
+    {
+        this.wireCompression = wireCompression;
+    }
+
+    /** Returns true if the server compresses events sent to us. */
+    public boolean isWireCompressed()
+    {
+        return protocol != null && protocol.isWireCompressed();
+    }
+
+    /**
+     * Sets the number of threads that decode events in parallel. 0 decodes
+     * events on the thread that requests them.
+     */
+    public void setDecodeThreads(int decodeThreads)
+    {
+        this.decodeThreads = decodeThreads;
+    }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ package com.continuent.tungsten.replicator.thl;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.LinkedList;
 
 import javax.net.ssl.SSLHandshakeException;
 
@@ -41,6 +42,8 @@ import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.plugin.ReplicatorPlugin;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
 import com.continuent.tungsten.replicator.thl.log.LogTimeoutException;
 
 /**
@@ -51,23 +54,50 @@ import com.continuent.tungsten.replicator.thl.log.LogTimeoutException;
  */
 public class ConnectorHandler implements ReplicatorPlugin, Runnable
 {
-    private Server           server          = null;
-    private PluginContext    context         = null;
-    private Thread           thd             = null;
-    private SocketWrapper    socket;
-    private THL              thl             = null;
-    private int              resetPeriod;
-    private int              heartbeatMillis;
-    private long             altSeqno        = -1;
-    private volatile boolean cancelled       = false;
-    private volatile boolean finished        = false;
+    private Server              server          = null;
+    private PluginContext       context         = null;
+    private Thread              thd             = null;
+    private SocketWrapper       socket;
+    private THL                 thl             = null;
+    private int                 resetPeriod;
+    private int                 heartbeatMillis;
+    private long                altSeqno        = -1;
+    private volatile boolean    cancelled       = false;
+    private volatile boolean    finished        = false;
 
-    private String           rmiHost         = null;
-    private String           rmiPort         = null;
+    private String              rmiHost         = null;
+    private String              rmiPort         = null;
 
-    private volatile boolean checkFirstSeqno = true;
+    private volatile boolean    checkFirstSeqno = true;
 
-    private static Logger    logger          = Logger.getLogger(ConnectorHandler.class);
+    // Protocol and log connection used to serve the client.
+    private Protocol            protocol;
+    private LogConnection       connection;
+
+    // Position of the client in the log.
+    private long                requestSeqno    = -1;
+    private long                lastSeqno       = -1;
+    private boolean             lastFrag        = true;
+    private long                lastSendMillis  = System.currentTimeMillis();
+
+    // Cache of recent events, the seqno of the next transaction if known, and
+    // whether the log connection is behind events served from the cache.
+    private EventsCache         eventsCache;
+    private long                nextSeqno       = -1;
+    private boolean             connectionBehind;
+
+    // Streams and read timeout for a handler served by a ConnectorSelector.
+    private ChannelOutputStream channelOutput;
+    private ChannelInputStream  channelInput;
+    private int                 readTimeoutMillis;
+
+    // Prefetch windows granted by a client served by a ConnectorSelector:
+    // transactions left in the current window and windows requested after
+    // it.
+    private long                windowRemaining = 0;
+    private LinkedList<Long>    windows         = new LinkedList<Long>();
+
+    private static Logger       logger          = Logger.getLogger(ConnectorHandler.class);
 
     // Implements call-back to check log consistency between client and
     // master.
@@ -304,35 +334,11 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
      */
     public void run()
     {
-        LogConnection connection = null;
-        Protocol protocol;
-        try
-        {
-            protocol = new Protocol(context, socket, resetPeriod);
-        }
-        catch (SSLHandshakeException e)
-        {
-            // Issue 727 : Add debug info
-            logger.error("Received SSL handshake exception", e);
-            logger.error("SSL handshake failed; ensure client replicator has SSL enabled: host="
-                    + socket.getSocket().getInetAddress().toString());
+        if (!openProtocol())
             return;
-        }
-        catch (IOException e)
-        {
-            logger.error("Unable to start connector handler", e);
-            return;
-        }
         try
         {
-            long minSeqno, maxSeqno;
-            maxSeqno = thl.getMaxStoredSeqno();
-            minSeqno = thl.getMinStoredSeqno();
-            LogValidator logValidator = new LogValidator();
-
-            // TUC-2 Added log validator to check log for divergent
-            // epoch numbers on last common sequence number.
-            protocol.serverHandshake(logValidator, minSeqno, maxSeqno);
+            handshake();
 
             // Name the thread so that developers can see which source ID we
             // are serving.
@@ -342,187 +348,455 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
             // Loop until we are cancelled.
             while (!cancelled)
             {
-                ProtocolReplEventRequest request;
-
-                // Get the client request.
-                request = protocol.waitReplEventRequest();
-                long seqno = request.getSeqNo();
-                if (logger.isDebugEnabled())
-                    logger.debug("Request " + seqno);
-                long prefetchRange = request.getPrefetchRange();
-                short fragno = 0;
-
-                // If we don't have a connection to the log, make it now.
-                if (connection == null)
-                {
-                    // If we have an alternate sequence number from an event ID,
-                    // seek it instead of the requested sequence number.
-                    if (this.altSeqno > -1)
-                    {
-                        logger.info("Seeking alternate sequence number: seqno="
-                                + altSeqno);
-                        seqno = altSeqno;
-                        altSeqno = -1;
-                    }
-
-                    // Establish the connection.
-                    connection = thl.connect(true);
-                    if (!connection.seek(seqno))
-                    {
-                        String message = "Requested event (#" + seqno + " / "
-                                + fragno + ") not found in database";
-                        logger.warn(message);
-                        sendError(protocol, message);
-                        return;
-                    }
-
-                    // Set the connection timeout to match the requested
-                    // heartbeat interval.
-                    connection.setTimeoutMillis(heartbeatMillis);
-                }
+                // Get the client request and position on the log.
+                long prefetchRange = acceptRequest();
+                if (prefetchRange < 0)
+                    return;
 
                 long i = 0;
                 while (i < prefetchRange)
                 {
-                    // Get the next event from the log, waiting if necessary. If
-                    // the read times out send a heartbeat and try again.
-                    THLEvent event = null;
+                    // Send the next event from the log, waiting if necessary.
+                    // If the read times out send a heartbeat and try again.
                     try
                     {
-                        event = connection.next(true);
+                        long transactions = sendNextEvent();
+                        if (transactions > 0)
+                            i += transactions;
                     }
                     catch (LogTimeoutException e)
                     {
                         sendHeartbeat(protocol);
-                        continue;
                     }
+                }
+            }
+        }
+        catch (Throwable t)
+        {
+            handleFailure(t);
+        }
+        finally
+        {
+            close();
+        }
+    }
 
-                    if (event == null)
-                    {
-                        // connection.next can return null if the event was not
-                        // yet fully flushed on disk, for example, by the writer
-                        // thread. Just try to read it again.
-                        continue;
-                    }
+    /**
+     * Creates the protocol on the client socket.
+     * 
+     * @return True if successful, false if the client cannot be served
+     */
+    boolean openProtocol()
+    {
+        try
+        {
+            if (channelOutput == null)
+                protocol = new Protocol(context, socket, resetPeriod);
+            else
+                protocol = new Protocol(context, socket, resetPeriod,
+                        channelOutput, channelInput);
+            return true;
+        }
+        catch (SSLHandshakeException e)
+        {
+            // Issue 727 : Add debug info
+            logger.error("Received SSL handshake exception", e);
+            logger.error("SSL handshake failed; ensure client replicator has SSL enabled: host="
+                    + socket.getSocket().getInetAddress().toString());
+            return false;
+        }
+        catch (IOException e)
+        {
+            logger.error("Unable to start connector handler", e);
+            return false;
+        }
+    }
 
-                    // If we could not check the first event back to confirm log
-                    // consistency, do that now.
-                    if (checkFirstSeqno)
-                    {
-                        logger.info("Checking first seqno returned by THL for consistency: client expected seqno="
-                                + seqno
-                                + " server returned seqno="
-                                + event.getSeqno());
+    /**
+     * Performs the server side of the protocol handshake.
+     */
+    void handshake() throws ReplicatorException, IOException,
+            InterruptedException
+    {
+        long minSeqno, maxSeqno;
+        maxSeqno = thl.getMaxStoredSeqno();
+        minSeqno = thl.getMinStoredSeqno();
+        LogValidator logValidator = new LogValidator();
+        protocol.setRawRecordsEnabled(thl.isRawRecords());
+        protocol.setRecordSerializer(thl.getEventSerializer());
+        protocol.setWireCompressionEnabled(thl.isWireCompression());
 
-                        if (event.getSeqno() != seqno)
-                        {
-                            THLException e = new THLException(
-                                    "Server does not have seqno expected by the client: client requested seqno="
-                                            + seqno + " server seqno returned="
-                                            + event.getSeqno());
-                            protocol.sendError(e.getMessage());
-                            throw e;
-                        }
-                        checkFirstSeqno = false;
-                    }
-                    // Peel off and process the underlying replication event.
-                    ReplEvent revent = event.getReplEvent();
-                    if (revent instanceof ReplDBMSEvent
-                            && ((ReplDBMSEvent) revent).getDBMSEvent() instanceof DBMSEmptyEvent)
-                    {
-                        if (logger.isDebugEnabled())
-                            logger.debug("Got an empty event");
-                        sendEvent(protocol, revent,
-                                (seqno + i >= thl.getMaxStoredSeqno()));
-                        i++;
-                        fragno = 0;
-                    }
-                    else
-                    {
-                        if (revent instanceof ReplDBMSEvent)
-                        {
-                            ReplDBMSEvent replDBMSEvent = (ReplDBMSEvent) revent;
-                            if (replDBMSEvent.getLastFrag())
-                            {
-                                if (replDBMSEvent instanceof ReplDBMSFilteredEvent)
-                                {
-                                    ReplDBMSFilteredEvent ev = (ReplDBMSFilteredEvent) replDBMSEvent;
-                                    i += 1 + ev.getSeqnoEnd() - ev.getSeqno();
-                                }
-                                else
-                                {
-                                    if (logger.isDebugEnabled())
-                                        logger.debug("Last fragment of event "
-                                                + replDBMSEvent.getSeqno()
-                                                + " reached : "
-                                                + replDBMSEvent.getFragno());
-                                    i++;
-                                }
-                                fragno = 0;
-                            }
-                            else
-                            {
-                                if (logger.isDebugEnabled())
-                                    logger.debug("Not the last frag for event "
-                                            + replDBMSEvent.getSeqno() + "("
-                                            + replDBMSEvent.getFragno() + ")");
-                                if (replDBMSEvent instanceof ReplDBMSFilteredEvent)
-                                {
-                                    ReplDBMSFilteredEvent ev = (ReplDBMSFilteredEvent) replDBMSEvent;
-                                    fragno = (short) (ev.getFragnoEnd() + 1);
-                                }
-                                else
-                                    fragno++;
-                            }
-                        }
-                        else
-                        {
-                            if (logger.isDebugEnabled())
-                                logger.debug("Got " + revent.getClass());
-                            i++;
-                            fragno = 0;
-                        }
-                        sendEvent(protocol, revent,
-                                (seqno + i >= thl.getMaxStoredSeqno()));
-                    }
+        // TUC-2 Added log validator to check log for divergent
+        // epoch numbers on last common sequence number.
+        protocol.serverHandshake(logValidator, minSeqno, maxSeqno);
+        if (protocol.isRawRecords())
+            logger.info("Shipping stored log records to client: sourceId="
+                    + protocol.getClientSourceId());
+        if (protocol.isWireCompressed())
+            logger.info("Compressing traffic to client: sourceId="
+                    + protocol.getClientSourceId());
+    }
+
+    /**
+     * Waits for a client request and positions the log on the requested event
+     * if this is the first request.
+     * 
+     * @return The prefetch range of the request or -1 if the event does not
+     *         exist, in which case the client has been sent an error
+     */
+    long acceptRequest() throws ReplicatorException, IOException,
+            InterruptedException
+    {
+        // Get the client request.
+        ProtocolReplEventRequest request = protocol.waitReplEventRequest();
+        long seqno = request.getSeqNo();
+        if (logger.isDebugEnabled())
+            logger.debug("Request " + seqno);
+        short fragno = 0;
+
+        // If we don't have a connection to the log, make it now.
+        if (connection == null)
+        {
+            // If we have an alternate sequence number from an event ID,
+            // seek it instead of the requested sequence number.
+            if (this.altSeqno > -1)
+            {
+                logger.info("Seeking alternate sequence number: seqno="
+                        + altSeqno);
+                seqno = altSeqno;
+                altSeqno = -1;
+            }
+
+            // Establish the connection.
+            connection = thl.connect(true);
+            if (!connection.seek(seqno))
+            {
+                String message = "Requested event (#" + seqno + " / " + fragno
+                        + ") not found in database";
+                logger.warn(message);
+                sendError(protocol, message);
+                return -1;
+            }
+
+            // Set the connection timeout to match the requested heartbeat
+            // interval unless we have been asked for something shorter.
+            if (readTimeoutMillis > 0)
+                connection.setTimeoutMillis(readTimeoutMillis);
+            else
+                connection.setTimeoutMillis(heartbeatMillis);
+
+            // Use the event cache if the log has one.
+            eventsCache = thl.getEventsCache();
+            if (eventsCache != null && eventsCache.getCacheSize() <= 0)
+                eventsCache = null;
+
+            requestSeqno = seqno;
+            lastSeqno = seqno - 1;
+            lastFrag = true;
+        }
+
+        // Later requests just grant another window. Clients may send them
+        // ahead of time, so we continue from where we are.
+        return request.getPrefetchRange();
+    }
+
+    /**
+     * Accepts the requests that a client served by a ConnectorSelector has
+     * already sent, without waiting for more, and queues their prefetch
+     * windows.
+     * 
+     * @return False if a request could not be served, in which case the
+     *         client has been sent an error
+     */
+    boolean acceptPendingRequests() throws ReplicatorException, IOException,
+            InterruptedException
+    {
+        while (protocol.hasPendingInput())
+        {
+            long prefetchRange = acceptRequest();
+            if (prefetchRange < 0)
+                return false;
+            grantWindow(prefetchRange);
+        }
+        return true;
+    }
+
+    /**
+     * Queues a prefetch window granted by the client.
+     */
+    void grantWindow(long prefetchRange)
+    {
+        windows.add(prefetchRange);
+    }
+
+    /**
+     * Returns true if the client has granted a window with transactions left
+     * to send, moving on to the next window once the current one is used up.
+     */
+    boolean hasWindow()
+    {
+        if (windowRemaining <= 0 && !windows.isEmpty())
+            windowRemaining = windows.removeFirst();
+        return windowRemaining > 0;
+    }
+
+    /**
+     * Counts transactions sent against the current window. As in the
+     * handler's own loop, a filtered event that runs past the end of the
+     * window ends it and the next window starts from zero, which is also how
+     * the client counts.
+     */
+    void useWindow(long transactions)
+    {
+        windowRemaining = Math.max(0, windowRemaining - transactions);
+    }
+
+    /**
+     * Reads the next event from the log and sends it to the client.
+     * 
+     * @return The number of transactions completed by the event or -1 if no
+     *         event was available
+     * @throws LogTimeoutException Thrown if the read timed out
+     */
+    long sendNextEvent() throws ReplicatorException, InterruptedException,
+            IOException
+    {
+        // Serve the next transaction from the event cache if we know where it
+        // starts. On a miss read it from the log, which must first catch up
+        // with any events we served from the cache.
+        if (nextSeqno >= 0)
+        {
+            long transactions = sendCachedEvent();
+            if (transactions >= 0)
+                return transactions;
+        }
+        if (connectionBehind)
+        {
+            if (!connection.seek(nextSeqno))
+                throw new THLException(
+                        "Unable to find event in log after serving cached events: seqno="
+                                + nextSeqno);
+            connectionBehind = false;
+        }
+
+        // If the client accepts stored log records, send the next record
+        // without deserializing it. Filtered events count as a single
+        // transaction as the record header does not show the end of the
+        // range. Protocol counts them the same way on clients that agreed to
+        // raw records.
+        if (protocol.isRawRecords())
+        {
+            LogEventReplReader eventReader = connection.nextRecord(true);
+            if (eventReader == null)
+                return -1;
+
+            validateFirstSeqno(protocol, requestSeqno, eventReader.getSeqno());
+            LogRecord logRecord = eventReader.getLogRecord();
+            ProtocolReplRecord record = new ProtocolReplRecord(
+                    eventReader.getSeqno(), eventReader.getFragno(),
+                    eventReader.isLastFrag(), logRecord.getData(),
+                    logRecord.getStoredCrcType(), logRecord.getCrc());
+            eventReader.done();
+            protocol.sendReplRecord(record,
+                    record.getSeqno() >= thl.getMaxStoredSeqno());
+            noteSent(record.getSeqno(), record.getLastFrag());
+
+            // The record header does not show whether the event is filtered
+            // and spans several seqnos. Cached events are never filtered.
+            if (eventsCache != null && record.getLastFrag()
+                    && eventsCache.get(record.getSeqno()) != null)
+                nextSeqno = record.getSeqno() + 1;
+            else
+                nextSeqno = -1;
+            return record.getLastFrag() ? 1 : 0;
+        }
+
+        // Get the next event from the log. This can return null if the event
+        // was not yet fully flushed on disk, for example, by the writer
+        // thread, in which case the caller should just try again.
+        THLEvent event = connection.next(true);
+        if (event == null)
+            return -1;
+
+        // If we could not check the first event back to confirm log
+        // consistency, do that now.
+        validateFirstSeqno(protocol, requestSeqno, event.getSeqno());
+
+        // Peel off and process the underlying replication event. A filtered
+        // event counts as the sequence numbers it covers against the prefetch
+        // window, which is what clients expect when we send events.
+        long transactions;
+        long nextCachedSeqno = event.getSeqno() + 1;
+        ReplEvent revent = event.getReplEvent();
+        if (revent instanceof ReplDBMSEvent
+                && ((ReplDBMSEvent) revent).getDBMSEvent() instanceof DBMSEmptyEvent)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Got an empty event");
+            transactions = 1;
+        }
+        else if (revent instanceof ReplDBMSEvent)
+        {
+            ReplDBMSEvent replDBMSEvent = (ReplDBMSEvent) revent;
+            if (replDBMSEvent.getLastFrag())
+            {
+                if (replDBMSEvent instanceof ReplDBMSFilteredEvent)
+                {
+                    ReplDBMSFilteredEvent ev = (ReplDBMSFilteredEvent) replDBMSEvent;
+                    transactions = Protocol.countFiltered(ev, false);
+                    nextCachedSeqno = ev.getSeqnoEnd() + 1;
+                }
+                else
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Last fragment of event "
+                                + replDBMSEvent.getSeqno() + " reached : "
+                                + replDBMSEvent.getFragno());
+                    transactions = 1;
                 }
             }
+            else
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Not the last frag for event "
+                            + replDBMSEvent.getSeqno() + "("
+                            + replDBMSEvent.getFragno() + ")");
+                transactions = 0;
+            }
         }
-        catch (InterruptedException e)
+        else
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Got " + revent.getClass());
+            transactions = 1;
+        }
+        sendEvent(protocol, revent,
+                (event.getSeqno() >= thl.getMaxStoredSeqno()));
+        noteSent(event.getSeqno(), event.getLastFrag());
+        if (eventsCache != null && transactions > 0)
+            nextSeqno = nextCachedSeqno;
+        else
+            nextSeqno = -1;
+        return transactions;
+    }
+
+    // Sends the next transaction from the event cache, waiting for it to be
+    // committed if necessary. Returns -1 if the cache does not have it.
+    private long sendCachedEvent() throws ReplicatorException,
+            InterruptedException, IOException
+    {
+        long seqno = nextSeqno;
+        if (seqno > eventsCache.getLastSeqno())
+        {
+            // Committed events go to the cache, so wait there rather than on
+            // the log.
+            int timeoutMillis = (readTimeoutMillis > 0)
+                    ? readTimeoutMillis
+                    : heartbeatMillis;
+            if (!eventsCache.waitForSeqno(seqno, timeoutMillis))
+                throw new LogTimeoutException(
+                        "Timed out waiting for event to be committed: seqno="
+                                + seqno);
+        }
+
+        if (protocol.isRawRecords())
+        {
+            LogRecord logRecord = eventsCache.getRecord(seqno);
+            if (logRecord == null)
+                return -1;
+            ProtocolReplRecord record = new ProtocolReplRecord(seqno,
+                    (short) 0, true, logRecord.getData(),
+                    logRecord.getStoredCrcType(), logRecord.getCrc());
+            protocol.sendReplRecord(record, seqno >= thl.getMaxStoredSeqno());
+        }
+        else
+        {
+            THLEvent event = eventsCache.get(seqno);
+            if (event == null)
+                return -1;
+            LogRecord logRecord = eventsCache.getRecord(seqno);
+            if (logRecord != null)
+                event.getReplEvent().setEstimatedSize(
+                        logRecord.getDataLength());
+            sendEvent(protocol, event.getReplEvent(),
+                    seqno >= thl.getMaxStoredSeqno());
+        }
+
+        // Cached events are single, unfiltered transactions.
+        noteSent(seqno, true);
+        nextSeqno = seqno + 1;
+        connectionBehind = true;
+        return 1;
+    }
+
+    // Remember the position and time of the last event sent.
+    private void noteSent(long seqno, boolean lastFrag)
+    {
+        this.lastSeqno = seqno;
+        this.lastFrag = lastFrag;
+        this.lastSendMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns true if the log may hold events that have not yet been sent,
+     * which is the case if the log has moved past the last event sent or that
+     * event is an incomplete fragmented transaction.
+     */
+    boolean hasEventsAvailable()
+    {
+        return !lastFrag || lastSeqno < thl.getMaxStoredSeqno();
+    }
+
+    /**
+     * Returns true if nothing has been sent to the client for a heartbeat
+     * interval.
+     */
+    boolean isHeartbeatDue()
+    {
+        return System.currentTimeMillis() - lastSendMillis >= heartbeatMillis;
+    }
+
+    /**
+     * Handles an exception that terminates the handler, sending an error to
+     * the client if appropriate.
+     */
+    void handleFailure(Throwable t)
+    {
+        if (t instanceof InterruptedException)
         {
             if (cancelled)
                 logger.info("Connector handler cancelled");
             else
                 logger.error(
                         "Connector handler terminated by unexpected interrupt",
-                        e);
+                        t);
         }
-        catch (EOFException e)
+        else if (t instanceof EOFException)
         {
             // The EOF exception happens on a slave being promoted to master
             if (logger.isDebugEnabled())
                 logger.debug(
                         "Connector handler terminated by java.io.EOFException",
-                        e);
+                        t);
             else
                 logger.info("Connector handler terminated by java.io.EOFException");
         }
-        catch (IOException e)
+        else if (t instanceof IOException)
         {
             // The IOException occurs normally when a client goes away.
             if (logger.isDebugEnabled())
-                logger.debug("Connector handler terminated by i/o exception", e);
+                logger.debug("Connector handler terminated by i/o exception", t);
             else
                 logger.info("Connector handler terminated by i/o exception");
         }
-        catch (THLException e)
+        else if (t instanceof THLException)
         {
             // If this is an error we need to signal back to the slave, if it is
             // there.
             String message = "Connector handler terminated by THL exception: "
-                    + e.getMessage();
+                    + t.getMessage();
 
-            logger.error(message, e);
+            logger.error(message, t);
             try
             {
                 sendError(protocol, message);
@@ -532,7 +806,7 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
                 logger.warn("Unable to send error to client, disconnecting");
             }
         }
-        catch (Throwable t)
+        else
         {
             String message = "Connector handler terminated by unexpected exception";
             logger.error(message, t);
@@ -545,28 +819,66 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
                 logger.warn("Unable to send error to client, disconnecting");
             }
         }
-        finally
+    }
+
+    /**
+     * Releases the log connection and socket and tells the server we are done.
+     */
+    void close()
+    {
+        // Release log connection.
+        if (connection != null)
+            connection.release();
+
+        // Close TCP/IP.
+        try
+        {
+            socket.close();
+        }
+        catch (Exception e)
         {
-            // Release log connection.
-            if (connection != null)
-                connection.release();
+            logger.warn("Error on closing connection handle", e);
+        }
 
-            // Close TCP/IP.
-            try
-            {
-                socket.close();
-            }
-            catch (Exception e)
+        // Tell the server we are done.
+        finished = true;
+        server.removeClient(this);
+
+        // Make sure we can see that the connection ended.
+        if (protocol != null)
+        {
+            logger.info("Terminating THL client connection from source ID: "
+                    + protocol.getClientSourceId());
+            if (protocol.isWireCompressed())
             {
-                logger.warn("Error on closing connection handle", e);
+                logger.info("Wire compression totals: raw bytes="
+                        + protocol.getWireRawBytes() + " compressed bytes="
+                        + protocol.getWireCompressedBytes());
             }
+            protocol.release();
+        }
+    }
 
-            // Tell the server we are done.
-            server.removeClient(this);
+    // If we could not check the first event back to confirm log consistency,
+    // do that now.
+    private void validateFirstSeqno(Protocol protocol, long seqno,
+            long eventSeqno) throws IOException, THLException
+    {
+        if (checkFirstSeqno)
+        {
+            logger.info("Checking first seqno returned by THL for consistency: client expected seqno="
+                    + seqno + " server returned seqno=" + eventSeqno);
 
-            // Make sure we can see that the connection ended.
-            logger.info("Terminating THL client connection from source ID: "
-                    + protocol.getClientSourceId());
+            if (eventSeqno != seqno)
+            {
+                THLException e = new THLException(
+                        "Server does not have seqno expected by the client: client requested seqno="
+                                + seqno + " server seqno returned="
+                                + eventSeqno);
+                protocol.sendError(e.getMessage());
+                throw e;
+            }
+            checkFirstSeqno = false;
         }
     }
 
@@ -585,6 +897,32 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
     private void sendHeartbeat(Protocol protocol) throws IOException
     {
         protocol.sendHeartbeat();
+        lastSendMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Sends an error to the client, which ends replication on the client.
+     */
+    void sendError(String message) throws IOException
+    {
+        sendError(protocol, message);
+    }
+
+    /**
+     * Sends a heartbeat to the client.
+     */
+    void sendHeartbeat() throws IOException
+    {
+        sendHeartbeat(protocol);
+    }
+
+    /**
+     * Sends buffered events, which the client may need to finish its window
+     * before it asks for another.
+     */
+    void flushEvents() throws IOException
+    {
+        protocol.flushBuffers();
     }
 
     /**
@@ -608,6 +946,10 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
 
         cancelled = true;
 
+        // Handlers served by a ConnectorSelector have no thread of their own.
+        if (thd == null)
+            return;
+
         // Stop handler thread.
         try
         {
@@ -667,6 +1009,46 @@ public class ConnectorHandler implements ReplicatorPlugin, Runnable
         this.socket = socket;
     }
 
+    /** Returns the client socket. */
+    public SocketWrapper getSocket()
+    {
+        return socket;
+    }
+
+    /** Returns true if events sent to the client are compressed. */
+    public boolean isWireCompressed()
+    {
+        Protocol p = protocol;
+        return p != null && p.isWireCompressed();
+    }
+
+    /**
+     * Sets the stream for protocol output. If set, the protocol writes to this
+     * stream instead of the socket.
+     */
+    void setChannelOutput(ChannelOutputStream channelOutput)
+    {
+        this.channelOutput = channelOutput;
+    }
+
+    /**
+     * Sets the stream for protocol input. If set, the protocol reads from this
+     * stream instead of the socket.
+     */
+    void setChannelInput(ChannelInputStream channelInput)
+    {
+        this.channelInput = channelInput;
+    }
+
+    /**
+     * Sets the log read timeout, which defaults to the client heartbeat
+     * interval.
+     */
+    void setReadTimeoutMillis(int readTimeoutMillis)
+    {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
     /**
      * Sets the server value.
      * 
@@ -0,0 +1,521 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.thl.log.LogTimeoutException;
+
+/**
+ * Serves THL clients from a single selector thread and a small pool of worker
+ * threads instead of a thread per client. Workers perform the handshake for a
+ * new client, then read events from the log and queue them for the client
+ * until the client has a full window of unsent data. The selector thread
+ * writes queued data as clients become writable, which resumes reading for
+ * clients that have drained, and wakes idle clients when the log grows or a
+ * heartbeat is due. A slow client therefore holds memory up to its window but
+ * never holds a thread.
+ * <p>
+ * Clients with a limited prefetch range keep asking for more transactions
+ * while they are served. The selector thread reads what clients send as it
+ * arrives and workers take the requests at the start of each turn, counting
+ * transactions sent against the granted windows just as ConnectorHandler does
+ * on its own thread. A client whose windows are used up waits without a
+ * worker until its next request arrives.
+ * <p>
+ * Each client is owned by at most one thread at a time. The selector thread
+ * hands a client to a worker and gets it back through the changes queue.
+ * Client state is only changed on the selector thread.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class ConnectorSelector implements Runnable
+{
+    private static Logger                      logger              = Logger.getLogger(ConnectorSelector.class);
+
+    /** Unsent bytes above which we stop reading the log for a client. */
+    public static final int                    HIGH_WATER_BYTES    = 1048576;
+
+    /** Unsent bytes below which we resume reading the log for a client. */
+    public static final int                    LOW_WATER_BYTES     = 262144;
+
+    /** Events a worker sends to one client before serving others. */
+    public static final int                    EVENTS_PER_TURN     = 1000;
+
+    /** Log read timeout, which is short because workers are shared. */
+    public static final int                    READ_TIMEOUT_MILLIS = 100;
+
+    /** Time to wait for the rest of a partly received client request. */
+    public static final int                    REQUEST_TIMEOUT_MILLIS = 10000;
+
+    // Client states. WAITING clients have used up their prefetch windows.
+    private enum State
+    {
+        OPENING, RUNNING, WRITING, IDLE, WAITING, CLOSED
+    }
+
+    // Information about a single client.
+    private class Client
+    {
+        final ConnectorHandler    handler;
+        final SocketChannel       channel;
+        final ChannelOutputStream output;
+        final ChannelInputStream  input;
+        SelectionKey              key;
+        State                     state;
+
+        // Outcome of the last worker turn and whether the client asked to
+        // close while a worker owned it.
+        volatile State            result;
+        boolean                   closeRequested;
+
+        Client(ConnectorHandler handler, SocketChannel channel)
+                throws IOException
+        {
+            this.handler = handler;
+            this.channel = channel;
+            this.output = new ChannelOutputStream(channel);
+            this.input = new ChannelInputStream(channel, handler.getSocket()
+                    .getInputStream(), REQUEST_TIMEOUT_MILLIS);
+        }
+    }
+
+    private final String                       name;
+    private final int                          workers;
+    private final long                         pollMillis;
+    private Selector                           selector;
+    private ExecutorService                    workerPool;
+    private Thread                             thd;
+    private volatile boolean                   stopped             = false;
+
+    // Clients returned by workers. Only the selector thread touches clients.
+    private final ConcurrentLinkedQueue<Client> changes            = new ConcurrentLinkedQueue<Client>();
+    private final Set<Client>                  clients             = new HashSet<Client>();
+
+    /**
+     * Creates a new selector.
+     *
+     * @param name Name used for threads
+     * @param workers Number of worker threads
+     * @param pollMillis Interval at which idle clients check for new events
+     */
+    public ConnectorSelector(String name, int workers, long pollMillis)
+    {
+        this.name = name;
+        this.workers = workers;
+        this.pollMillis = pollMillis;
+    }
+
+    /**
+     * Starts the selector thread and worker pool.
+     */
+    public void start() throws IOException
+    {
+        selector = Selector.open();
+        final AtomicInteger workerCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(workers, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "connector-worker-" + name + "-"
+                        + workerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        thd = new Thread(this, "connector-selector-" + name);
+        thd.start();
+        logger.info("Started THL connector selector: name=" + name
+                + " workers=" + workers + " pollMillis=" + pollMillis);
+    }
+
+    /**
+     * Stops the selector, closing all clients.
+     */
+    public void stop() throws InterruptedException
+    {
+        stopped = true;
+        if (thd != null)
+        {
+            selector.wakeup();
+            thd.join(10000);
+            thd = null;
+        }
+    }
+
+    /**
+     * Adds a new client. The handler must be configured and its socket must
+     * have a channel, which is not the case for SSL sockets.
+     */
+    public void register(final ConnectorHandler handler) throws IOException
+    {
+        SocketChannel channel = handler.getSocket().getSocket().getChannel();
+        if (channel == null)
+            throw new IOException(
+                    "Client socket has no channel; selector cannot serve it: "
+                            + handler.getSocket());
+        final Client client = new Client(handler, channel);
+        client.state = State.OPENING;
+        workerPool.execute(new Runnable()
+        {
+            public void run()
+            {
+                open(client);
+            }
+        });
+    }
+
+    /**
+     * Runs the selector loop.
+     */
+    public void run()
+    {
+        try
+        {
+            while (!stopped)
+            {
+                selector.select(pollMillis);
+                processChanges();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys()
+                        .iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Client client = (Client) key.attachment();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isReadable())
+                        read(client);
+                    if (key.isValid() && key.isWritable())
+                        write(client);
+                }
+
+                // Wake idle clients that have new events or need a heartbeat.
+                for (Client client : new ArrayList<Client>(clients))
+                {
+                    if (client.state == State.IDLE
+                            && (client.handler.hasEventsAvailable() || client.handler
+                                    .isHeartbeatDue()))
+                        schedule(client);
+                }
+            }
+        }
+        catch (Throwable t)
+        {
+            logger.error("THL connector selector failed: name=" + name, t);
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    // Performs the handshake and positions the client on the log. Runs on a
+    // worker.
+    private void open(Client client)
+    {
+        ConnectorHandler handler = client.handler;
+        try
+        {
+            handler.setChannelOutput(client.output);
+            handler.setChannelInput(client.input);
+            handler.setReadTimeoutMillis(READ_TIMEOUT_MILLIS);
+            if (!handler.openProtocol())
+                client.result = State.CLOSED;
+            else
+            {
+                handler.handshake();
+                long prefetchRange = handler.acceptRequest();
+                if (prefetchRange < 0)
+                    client.result = State.CLOSED;
+                else
+                {
+                    handler.grantWindow(prefetchRange);
+                    client.channel.configureBlocking(false);
+                    client.output.setNonBlocking(true);
+                    client.input.setNonBlocking(true);
+                    client.result = State.RUNNING;
+                }
+            }
+        }
+        catch (Throwable t)
+        {
+            handler.handleFailure(t);
+            client.result = State.CLOSED;
+        }
+        returnClient(client);
+    }
+
+    // Sends events to a client until its window of unsent data is full, it
+    // has used up its prefetch windows or the log has no more events. Runs on
+    // a worker.
+    private void serve(Client client)
+    {
+        ConnectorHandler handler = client.handler;
+        try
+        {
+            boolean idle = false;
+            boolean waiting = false;
+            boolean accepted = handler.acceptPendingRequests();
+            int sent = 0;
+            while (accepted && sent < EVENTS_PER_TURN
+                    && client.output.getPendingBytes() < HIGH_WATER_BYTES)
+            {
+                // Take requests that arrived during the turn before waiting
+                // for more.
+                if (!handler.hasWindow())
+                {
+                    accepted = handler.acceptPendingRequests();
+                    if (accepted && !handler.hasWindow())
+                    {
+                        waiting = true;
+                        break;
+                    }
+                    continue;
+                }
+                if (!handler.hasEventsAvailable())
+                {
+                    idle = true;
+                    break;
+                }
+                try
+                {
+                    // A partly written event looks like an empty log, so
+                    // wait for the next poll.
+                    long transactions = handler.sendNextEvent();
+                    if (transactions < 0)
+                    {
+                        idle = true;
+                        break;
+                    }
+                    handler.useWindow(transactions);
+                    sent++;
+                }
+                catch (LogTimeoutException e)
+                {
+                    idle = true;
+                    break;
+                }
+            }
+            if (waiting)
+                handler.flushEvents();
+            else if (idle && handler.isHeartbeatDue())
+                handler.sendHeartbeat();
+            client.output.flush();
+
+            if (!accepted)
+                client.result = State.CLOSED;
+            else if (client.output.getPendingBytes() >= HIGH_WATER_BYTES)
+                client.result = State.WRITING;
+            else if (waiting)
+                client.result = State.WAITING;
+            else if (idle)
+                client.result = State.IDLE;
+            else
+                client.result = State.RUNNING;
+        }
+        catch (Throwable t)
+        {
+            handler.handleFailure(t);
+            client.result = State.CLOSED;
+        }
+        returnClient(client);
+    }
+
+    // Hands a client back to the selector thread.
+    private void returnClient(Client client)
+    {
+        changes.offer(client);
+        selector.wakeup();
+    }
+
+    // Applies the results of worker turns. Runs on the selector thread.
+    private void processChanges() throws IOException
+    {
+        Client client;
+        while ((client = changes.poll()) != null)
+        {
+            if (client.result == State.CLOSED || client.closeRequested)
+            {
+                close(client);
+                continue;
+            }
+
+            // Register new clients.
+            if (client.key == null)
+            {
+                client.key = client.channel.register(selector,
+                        SelectionKey.OP_READ, client);
+                clients.add(client);
+            }
+
+            // Requests may have arrived while the worker was finishing.
+            client.state = client.result;
+            updateInterest(client);
+            if (client.state == State.RUNNING
+                    || (client.state == State.WAITING && client.input
+                            .available() > 0))
+                schedule(client);
+        }
+    }
+
+    // Hands a client to a worker. Runs on the selector thread.
+    private void schedule(final Client client)
+    {
+        client.state = State.RUNNING;
+        workerPool.execute(new Runnable()
+        {
+            public void run()
+            {
+                serve(client);
+            }
+        });
+    }
+
+    // Reads client requests, resuming a client that was waiting for them and
+    // closing the client at end of stream.
+    private void read(Client client)
+    {
+        try
+        {
+            int count = client.input.fill();
+            if (count < 0)
+                requestClose(client);
+            else if (count > 0 && client.state == State.WAITING)
+                schedule(client);
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Client read failed", e);
+            requestClose(client);
+        }
+    }
+
+    // Writes queued data to a client and resumes serving the client if it has
+    // drained enough.
+    private void write(Client client)
+    {
+        try
+        {
+            client.output.writePending();
+            if (client.state == State.WRITING
+                    && client.output.getPendingBytes() < LOW_WATER_BYTES)
+                schedule(client);
+            else if (client.state != State.RUNNING)
+                updateInterest(client);
+        }
+        catch (IOException e)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Client write failed", e);
+            requestClose(client);
+        }
+    }
+
+    // Listens for writability only while there are data to write.
+    private void updateInterest(Client client)
+    {
+        int ops = SelectionKey.OP_READ;
+        if (client.output.getPendingBytes() > 0)
+            ops |= SelectionKey.OP_WRITE;
+        client.key.interestOps(ops);
+    }
+
+    // Closes a client now or, if a worker owns it, once the worker is done.
+    private void requestClose(Client client)
+    {
+        if (client.state == State.RUNNING || client.state == State.OPENING)
+            client.closeRequested = true;
+        else
+            close(client);
+    }
+
+    // Closes a client. Runs on the selector thread.
+    private void close(Client client)
+    {
+        if (client.state == State.CLOSED)
+            return;
+        client.state = State.CLOSED;
+        if (client.key != null)
+            client.key.cancel();
+        clients.remove(client);
+        client.handler.close();
+    }
+
+    // Stops workers and closes all clients.
+    private void shutdown()
+    {
+        logger.info("Stopping THL connector selector: name=" + name
+                + " clients=" + clients.size());
+        workerPool.shutdownNow();
+        try
+        {
+            if (!workerPool.awaitTermination(10, TimeUnit.SECONDS))
+                logger.warn("THL connector workers did not stop: name="
+                        + name);
+        }
+        catch (InterruptedException e)
+        {
+            logger.warn("Interrupted while waiting for THL connector workers to stop");
+        }
+
+        // Workers are done, so every client belongs to us now.
+        List<Client> remaining = new ArrayList<Client>(clients);
+        Client client;
+        while ((client = changes.poll()) != null)
+        {
+            if (!remaining.contains(client))
+                remaining.add(client);
+        }
+        for (Client c : remaining)
+            close(c);
+        try
+        {
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to close THL connector selector", e);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Input stream that reads data passed through or, once decompression is
+ * turned on, the compressed frames written by
+ * {@link DeflateFrameOutputStream}. Switching is only safe on a message
+ * boundary, so the stream must not read ahead of its reader. Put buffering
+ * below this stream, not above it.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class DeflateFrameInputStream extends InputStream
+{
+    // Largest frame we accept, which guards against reading garbage.
+    private static final int      MAX_FRAME_SIZE = 1 << 30;
+
+    // Buffers that grow past this size on large frames are shrunk again.
+    private static final int      RETAINED_SIZE  = 1048576;
+
+    private final DataInputStream in;
+    private Inflater              inflater;
+    private byte[]                compressed     = new byte[0];
+    private byte[]                buf            = new byte[0];
+    private int                   pos            = 0;
+    private int                   count          = 0;
+
+    /**
+     * Creates a new stream that passes data through from the given stream
+     * until decompression is turned on.
+     */
+    public DeflateFrameInputStream(InputStream in)
+    {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Reads compressed frames from now on.
+     */
+    public void startDecompressing()
+    {
+        inflater = new Inflater();
+    }
+
+    /** Returns true if data are decompressed. */
+    public boolean isDecompressing()
+    {
+        return inflater != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException
+    {
+        if (inflater == null)
+            return in.read();
+        else if (pos >= count && !readFrame())
+            return -1;
+        else
+            return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (inflater == null)
+            return in.read(b, off, len);
+        else if (len == 0)
+            return 0;
+        else if (pos >= count && !readFrame())
+            return -1;
+
+        int n = Math.min(len, count - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /**
+     * Returns the decompressed bytes available without reading another frame.
+     *
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException
+    {
+        if (inflater == null)
+            return in.available();
+        else
+            return count - pos;
+    }
+
+    /**
+     * Closes the stream and frees the decompressor.
+     *
+     * @see java.io.InputStream#close()
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            in.close();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Frees the decompressor without closing the underlying stream.
+     */
+    public void release()
+    {
+        if (inflater != null)
+        {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    // Reads and decompresses the next frame. Returns false at end of stream.
+    private boolean readFrame() throws IOException
+    {
+        int length;
+        try
+        {
+            length = in.readInt();
+        }
+        catch (java.io.EOFException e)
+        {
+            return false;
+        }
+        int rawLength = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE || rawLength < 0
+                || rawLength > MAX_FRAME_SIZE)
+        {
+            throw new IOException("Invalid compressed frame: length=" + length
+                    + " rawLength=" + rawLength);
+        }
+
+        if (compressed.length < length || compressed.length > RETAINED_SIZE)
+            compressed = new byte[length];
+        in.readFully(compressed, 0, length);
+        if (buf.length < rawLength || buf.length > RETAINED_SIZE)
+            buf = new byte[rawLength];
+
+        inflater.reset();
+        inflater.setInput(compressed, 0, length);
+        int n = 0;
+        try
+        {
+            while (n < rawLength)
+            {
+                int inflated = inflater.inflate(buf, n, rawLength - n);
+                if (inflated == 0
+                        && (inflater.finished() || inflater.needsInput()))
+                    break;
+                n += inflated;
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Unable to decompress frame: "
+                    + e.getMessage());
+        }
+        if (n != rawLength)
+        {
+            throw new IOException("Compressed frame is truncated: expected="
+                    + rawLength + " found=" + n);
+        }
+
+        pos = 0;
+        count = rawLength;
+        return true;
+    }
+}
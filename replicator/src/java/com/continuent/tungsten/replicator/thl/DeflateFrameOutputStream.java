@@ -0,0 +1,226 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Output stream that can switch from passing data through to compressing
+ * them. Once compression is on, data written between two flush() calls go out
+ * as one frame: the compressed length, the uncompressed length, and the data
+ * compressed with deflate. Each protocol message is flushed, so each message
+ * or batch of buffered events becomes a frame the receiver can decode as soon
+ * as it arrives. {@link DeflateFrameInputStream} reads the frames.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class DeflateFrameOutputStream extends OutputStream
+{
+    // Buffers that grow past this size on large batches are shrunk again.
+    private static final int   INITIAL_SIZE  = 8192;
+    private static final int   RETAINED_SIZE = 1048576;
+
+    private final OutputStream out;
+    private Deflater           deflater;
+    private byte[]             buf           = new byte[INITIAL_SIZE];
+    private int                count         = 0;
+    private byte[]             compressed    = new byte[INITIAL_SIZE];
+
+    // Statistics.
+    private long               rawBytes      = 0;
+    private long               wireBytes     = 0;
+
+    /**
+     * Creates a new stream that passes data through to the given stream until
+     * compression is turned on.
+     */
+    public DeflateFrameOutputStream(OutputStream out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Compresses all data from now on. Data written before must have been
+     * flushed.
+     *
+     * @param level Deflate compression level
+     */
+    public void startCompressing(int level) throws IOException
+    {
+        if (count > 0)
+            throw new IOException(
+                    "Unable to start compressing with unflushed data");
+        deflater = new Deflater(level);
+    }
+
+    /** Returns true if data are compressed. */
+    public boolean isCompressing()
+    {
+        return deflater != null;
+    }
+
+    /** Returns the number of bytes compressed so far. */
+    public long getRawBytes()
+    {
+        return rawBytes;
+    }
+
+    /** Returns the number of bytes written for compressed frames so far. */
+    public long getWireBytes()
+    {
+        return wireBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException
+    {
+        if (deflater == null)
+            out.write(b);
+        else
+        {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (deflater == null)
+            out.write(b, off, len);
+        else
+        {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Writes data since the last flush as a compressed frame and flushes the
+     * underlying stream.
+     *
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException
+    {
+        if (deflater != null && count > 0)
+        {
+            // Compress the data. The output can exceed the input slightly for
+            // data that do not compress.
+            deflater.reset();
+            deflater.setInput(buf, 0, count);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished())
+            {
+                if (length == compressed.length)
+                {
+                    byte[] newCompressed = new byte[compressed.length * 2];
+                    System.arraycopy(compressed, 0, newCompressed, 0, length);
+                    compressed = newCompressed;
+                }
+                length += deflater.deflate(compressed, length,
+                        compressed.length - length);
+            }
+
+            writeInt(length);
+            writeInt(count);
+            out.write(compressed, 0, length);
+            rawBytes += count;
+            wireBytes += length + 8;
+
+            // Reset, dropping buffers that grew on a large frame.
+            count = 0;
+            if (buf.length > RETAINED_SIZE)
+                buf = new byte[INITIAL_SIZE];
+            if (compressed.length > RETAINED_SIZE)
+                compressed = new byte[INITIAL_SIZE];
+        }
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the stream and frees the compressor.
+     *
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException
+    {
+        try
+        {
+            flush();
+            out.close();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Frees the compressor without closing the underlying stream.
+     */
+    public void release()
+    {
+        if (deflater != null)
+        {
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    // Grow the buffer to hold at least the given number of bytes.
+    private void ensureCapacity(int minCapacity)
+    {
+        if (minCapacity > buf.length)
+        {
+            int newCapacity = Math.max(buf.length * 2, minCapacity);
+            byte[] newBuf = new byte[newCapacity];
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            buf = newBuf;
+        }
+    }
+
+    // Write an int in big-endian order like DataOutputStream.
+    private void writeInt(int v) throws IOException
+    {
+        out.write((v >>> 24) & 0xFF);
+        out.write((v >>> 16) & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+        out.write(v & 0xFF);
+    }
+}
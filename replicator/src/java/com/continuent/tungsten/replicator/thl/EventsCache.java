@@ -22,25 +22,58 @@
 
 package com.continuent.tungsten.replicator.thl;
 
-import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+
 /**
- * Implements a simple hash map to hold events. If the cache is full we age out
- * old items in FIFO order.
+ * Implements a ring of recent events indexed by sequence number. Each event
+ * goes in the slot seqno % size, so that newer events age out older ones in
+ * FIFO order as long as sequence numbers are contiguous. The log writer puts
+ * events once they are committed and any number of readers may look them up
+ * at the same time without locking. Readers must check for a miss and read
+ * the event from the log instead.
+ * <p>
+ * Fragmented and filtered events are not cached, as fragments could bring OOM
+ * issues and filtered events span several sequence numbers. The cache still
+ * tracks the highest committed sequence number of every event, which lets
+ * readers that have caught up wait for the next event here rather than on
+ * disk.
+ * <p>
+ * Only one thread may put events.
  * 
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @version 1.0
  */
 public class EventsCache
 {
-    static Logger                         logger    = Logger
-                                                            .getLogger(EventsCache.class);
-    private int                           cacheSize = 0;
-    private LinkedBlockingQueue<THLEvent> fifo;
-    private HashMap<Long, THLEvent>       cache;
+    static Logger                             logger    = Logger.getLogger(EventsCache.class);
+    private int                               cacheSize = 0;
+    private AtomicReferenceArray<CachedEvent> ring;
+
+    // Highest committed sequence number and whether anything is cached.
+    private volatile long                     lastSeqno = -1;
+    private volatile boolean                  empty     = true;
+
+    // Readers waiting for an event to be committed.
+    private final Object                      waitLock  = new Object();
+    private volatile int                      waiters   = 0;
+
+    // An event with its stored log record, if known.
+    private static class CachedEvent
+    {
+        final THLEvent  event;
+        final LogRecord record;
+
+        CachedEvent(THLEvent event, LogRecord record)
+        {
+            this.event = event;
+            this.record = record;
+        }
+    }
 
     public EventsCache(int cacheSize)
     {
@@ -48,50 +81,175 @@ public class EventsCache
         if (cacheSize > 0)
         {
             logger.info("Allocating THL event cache; size=" + cacheSize);
-            this.fifo = new LinkedBlockingQueue<THLEvent>(cacheSize);
-            this.cache = new HashMap<Long, THLEvent>(cacheSize);
+            this.ring = new AtomicReferenceArray<CachedEvent>(cacheSize);
         }
     }
 
+    /** Returns the number of events the cache can hold. */
+    public int getCacheSize()
+    {
+        return cacheSize;
+    }
+
     public boolean isEmpty()
     {
-        return (cacheSize <= 0 || cache.isEmpty());
+        return (cacheSize <= 0 || empty);
     }
 
     /**
-     * Add an event to the cache, clearing space if necessary.
+     * Add an event to the cache, replacing the event in its slot.
      */
-    public synchronized void put(THLEvent thlEvent) throws InterruptedException
+    public void put(THLEvent thlEvent)
     {
-        // If cache is suppressed do nothing.
-        if (cacheSize > 0)
-        {
-            // Clear space.
-            while (cache.size() >= cacheSize)
-            {
-                THLEvent old = fifo.remove();
-                cache.remove(old.getSeqno());
-            }
+        put(thlEvent, null);
+    }
 
+    /**
+     * Add an event and the log record that stores it to the cache. The record
+     * must not be associated with a log file.
+     */
+    public void put(THLEvent thlEvent, LogRecord record)
+    {
+        long seqno = thlEvent.getSeqno();
+        boolean filtered = thlEvent.getReplEvent() instanceof ReplDBMSFilteredEvent;
+
+        // If cache is suppressed just track the committed sequence number.
+        if (cacheSize > 0 && !filtered)
+        {
             if (thlEvent.getFragno() == 0 && thlEvent.getLastFrag())
             {
                 // This event is not fragmented, so just cache it
-                fifo.put(thlEvent);
-                cache.put(thlEvent.getSeqno(), thlEvent);
+                ring.set(slot(seqno), new CachedEvent(thlEvent, record));
+                empty = false;
             }
             // else fragmented events are not cached as this could bring OOM
             // issues
         }
+
+        // Filtered events commit every sequence number in their range.
+        if (filtered)
+            seqno = ((ReplDBMSFilteredEvent) thlEvent.getReplEvent())
+                    .getSeqnoEnd();
+        setLastSeqno(seqno);
+    }
+
+    /**
+     * Notes that events up to the given sequence number have been committed,
+     * whether or not they are cached, and wakes up waiting readers.
+     */
+    public void setLastSeqno(long seqno)
+    {
+        if (seqno > lastSeqno)
+            lastSeqno = seqno;
+
+        if (waiters > 0)
+        {
+            synchronized (waitLock)
+            {
+                waitLock.notifyAll();
+            }
+        }
     }
 
     /**
      * Look up and return the cached item, if found.
      */
-    public synchronized THLEvent get(long seqno)
+    public THLEvent get(long seqno)
+    {
+        CachedEvent cached = lookup(seqno);
+        if (cached == null)
+            return null;
+        else
+            return cached.event;
+    }
+
+    /**
+     * Look up and return the stored log record of the cached item, if found.
+     * Records are not associated with a log file and may be shared, so callers
+     * must not change them.
+     */
+    public LogRecord getRecord(long seqno)
+    {
+        CachedEvent cached = lookup(seqno);
+        if (cached == null)
+            return null;
+        else
+            return cached.record;
+    }
+
+    /**
+     * Returns the highest committed sequence number put in the cache, including
+     * events that are not cached.
+     */
+    public long getLastSeqno()
+    {
+        return lastSeqno;
+    }
+
+    /**
+     * Drops all cached events and sets the highest committed sequence number,
+     * for example, after the log is truncated.
+     */
+    public void reset(long lastSeqno)
     {
         if (cacheSize > 0)
-            return cache.get(seqno);
+        {
+            for (int i = 0; i < cacheSize; i++)
+                ring.set(i, null);
+        }
+        this.empty = true;
+        this.lastSeqno = lastSeqno;
+    }
+
+    /**
+     * Waits until an event with the given sequence number or higher has been
+     * committed.
+     * 
+     * @return True if the sequence number has been committed, false if we
+     *         timed out
+     */
+    public boolean waitForSeqno(long seqno, long timeoutMillis)
+            throws InterruptedException
+    {
+        if (lastSeqno >= seqno)
+            return true;
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (waitLock)
+        {
+            waiters++;
+            try
+            {
+                while (lastSeqno < seqno)
+                {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        return false;
+                    waitLock.wait(remaining);
+                }
+                return true;
+            }
+            finally
+            {
+                waiters--;
+            }
+        }
+    }
+
+    // Returns the slot entry if it holds the sequence number.
+    private CachedEvent lookup(long seqno)
+    {
+        if (cacheSize <= 0 || seqno < 0)
+            return null;
+        CachedEvent cached = ring.get(slot(seqno));
+        if (cached != null && cached.event.getSeqno() == seqno)
+            return cached;
         else
             return null;
     }
+
+    private int slot(long seqno)
+    {
+        return (int) (seqno % cacheSize);
+    }
 }
@@ -0,0 +1,326 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplEvent;
+import com.continuent.tungsten.replicator.thl.serializer.Serializer;
+
+/**
+ * Reads events from the server on a separate thread and decodes stored log
+ * records on a pool of worker threads, so that reading the socket, decoding
+ * and processing events by the stage overlap. Decoded events are handed out
+ * in the order the server sent them, which is seqno order.
+ * <p>
+ * Ordering works through a bounded queue of futures in arrival order. Workers
+ * complete futures in any order, while the consumer waits on the future at
+ * the head of the queue. The queue size limits how many events are in memory
+ * and how far the reader gets ahead of the consumer.
+ * <p>
+ * Only the reader thread reads from the protocol. Requests to the server
+ * remain on the consumer thread. Timed reads put socket channels in
+ * non-blocking mode while they wait, which makes concurrent writes fail, so
+ * the reader blocks without a timeout. The consumer applies the timeout
+ * instead and fails if nothing, not even a heartbeat, arrives in time.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class ParallelEventDecoder implements Runnable
+{
+    private static Logger                          logger       = Logger.getLogger(ParallelEventDecoder.class);
+
+    private final Protocol                         protocol;
+    private final int                              threads;
+    private final BlockingQueue<Future<ReplEvent>> pending;
+    private final int                              readTimeoutMillis;
+    private volatile long                          lastReadMillis;
+
+    // Serializers are not thread-safe, so each decoding thread has its own.
+    private final ThreadLocal<Serializer>          serializers  = new ThreadLocal<Serializer>();
+
+    private ExecutorService                        workerPool;
+    private Thread                                 readerThread;
+    private volatile boolean                       shutdown     = false;
+
+    /**
+     * Creates a new decoder.
+     *
+     * @param protocol Protocol after a successful client handshake
+     * @param threads Number of decoding threads
+     * @param queueSize Maximum number of events read ahead of the consumer
+     * @param readTimeoutMillis Time to wait for a message from the server
+     *            before failing; 0 waits forever
+     */
+    public ParallelEventDecoder(Protocol protocol, int threads, int queueSize,
+            int readTimeoutMillis)
+    {
+        this.protocol = protocol;
+        this.threads = threads;
+        this.pending = new ArrayBlockingQueue<Future<ReplEvent>>(queueSize);
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Starts reader and decoding threads.
+     */
+    public synchronized void start(final String name)
+    {
+        final AtomicInteger workerCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "thl-decoder-" + name + "-"
+                        + workerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        lastReadMillis = System.currentTimeMillis();
+        readerThread = new Thread(this, "thl-reader-" + name);
+        readerThread.setDaemon(true);
+        readerThread.start();
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Started parallel event decoding: threads=" + threads
+                    + " queueSize=" + pending.remainingCapacity());
+        }
+    }
+
+    /**
+     * Stops the decoder. Callers must also close the socket to end a read in
+     * progress. A consumer waiting for an event gets an error.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        if (workerPool != null)
+            workerPool.shutdownNow();
+        if (readerThread != null)
+            readerThread.interrupt();
+
+        // Wake a waiting consumer. The reader may refill the queue before we
+        // add the error, so the consumer also checks the shutdown flag.
+        pending.clear();
+        pending.offer(failedTask(stoppedException()));
+    }
+
+    /**
+     * Returns the next event in the order the server sent it, waiting until it
+     * is decoded. Errors on the reader or a decoding thread are thrown in turn
+     * after all events that came before them.
+     */
+    public ReplEvent next() throws ReplicatorException, IOException,
+            InterruptedException
+    {
+        try
+        {
+            long pollMillis = (readTimeoutMillis > 0) ? Math.min(
+                    readTimeoutMillis, 1000) : 1000;
+            for (;;)
+            {
+                // Events the reader queued after shutdown are discarded.
+                if (shutdown)
+                    throw stoppedException();
+                Future<ReplEvent> next = pending.poll(pollMillis,
+                        TimeUnit.MILLISECONDS);
+                if (shutdown)
+                    throw stoppedException();
+                else if (next != null)
+                    return next.get();
+
+                long idleMillis = System.currentTimeMillis()
+                        - lastReadMillis;
+                if (readTimeoutMillis > 0 && idleMillis > readTimeoutMillis)
+                {
+                    throw new SocketTimeoutException(
+                            "Timed out waiting for data from server: timeout="
+                                    + readTimeoutMillis);
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            else if (cause instanceof ReplicatorException)
+                throw (ReplicatorException) cause;
+            else if (cause instanceof Exception)
+                throw new THLException("Unable to decode event",
+                        (Exception) cause);
+            else
+                throw new THLException("Unable to decode event: " + cause);
+        }
+    }
+
+    /**
+     * Reads messages from the server and queues them for decoding until an
+     * error occurs or the decoder shuts down.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    @SuppressWarnings("unchecked")
+    public void run()
+    {
+        try
+        {
+            while (!shutdown)
+            {
+                ProtocolMessage msg = protocol.readMessage();
+                lastReadMillis = System.currentTimeMillis();
+                if (msg instanceof ProtocolHeartbeat)
+                {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Received protocol heartbeat");
+                }
+                else if (msg.getPayload() instanceof ArrayList<?>)
+                {
+                    for (Object item : (ArrayList<Object>) msg.getPayload())
+                        enqueue(item);
+                }
+                else if (msg instanceof ProtocolNOK
+                        && msg.getPayload() instanceof String)
+                {
+                    fail(new THLException((String) msg.getPayload()));
+                    break;
+                }
+                else if (msg instanceof ProtocolReplRecord
+                        || msg instanceof ProtocolReplEvent)
+                {
+                    enqueue(msg);
+                }
+                else
+                {
+                    fail(new THLException(
+                            "Protocol error; unexpected protocol type: "
+                                    + msg.getClass().getName()));
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Shutting down.
+        }
+        catch (Exception e)
+        {
+            // The consumer sees the error once it has the events before it.
+            try
+            {
+                if (!shutdown)
+                    fail(e);
+            }
+            catch (InterruptedException e1)
+            {
+            }
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("THL reader thread exiting");
+    }
+
+    // Queues a record for decoding or an event that is decoded already.
+    private void enqueue(Object item) throws InterruptedException
+    {
+        FutureTask<ReplEvent> task;
+        if (item instanceof ProtocolReplRecord)
+        {
+            final ProtocolReplRecord record = (ProtocolReplRecord) item;
+            task = new FutureTask<ReplEvent>(new Callable<ReplEvent>()
+            {
+                public ReplEvent call() throws Exception
+                {
+                    Serializer serializer = serializers.get();
+                    if (serializer == null)
+                    {
+                        serializer = protocol.newRecordSerializer();
+                        serializers.set(serializer);
+                    }
+                    return protocol.decodeRecord(record, serializer);
+                }
+            });
+            pending.put(task);
+            workerPool.execute(task);
+        }
+        else
+        {
+            final ReplEvent event = (item instanceof ProtocolReplEvent)
+                    ? ((ProtocolReplEvent) item).getReplEvent()
+                    : (ReplEvent) item;
+            task = new FutureTask<ReplEvent>(new Callable<ReplEvent>()
+            {
+                public ReplEvent call()
+                {
+                    return event;
+                }
+            });
+            task.run();
+            pending.put(task);
+        }
+    }
+
+    // Queues an error for the consumer.
+    private void fail(Exception e) throws InterruptedException
+    {
+        pending.put(failedTask(e));
+    }
+
+    // Returns the error for a consumer of a stopped decoder.
+    private IOException stoppedException()
+    {
+        return new IOException("Event decoder stopped");
+    }
+
+    // Returns a completed task that throws the given exception.
+    private FutureTask<ReplEvent> failedTask(final Exception e)
+    {
+        FutureTask<ReplEvent> task = new FutureTask<ReplEvent>(
+                new Callable<ReplEvent>()
+                {
+                    public ReplEvent call() throws Exception
+                    {
+                        throw e;
+                    }
+                });
+        task.run();
+        return task;
+    }
+}
@@ -25,9 +25,12 @@ package com.continuent.tungsten.replicator.thl;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 import org.apache.log4j.Logger;
 
@@ -42,6 +45,8 @@ import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.management.OpenReplicatorManager;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
+import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 
 /**
  * This class defines a Protocol
@@ -59,6 +64,12 @@ public class Protocol
     public static String         VERSION                  = "version";
     public static String         MIN_SEQNO                = "min_seqno";
     public static String         MAX_SEQNO                = "max_seqno";
+    public static String         RAW_RECORDS              = "raw_records";
+    public static String         WIRE_COMPRESSION         = "wire_compression";
+
+    // Wire compression methods.
+    public static String         COMPRESSION_NONE         = "none";
+    public static String         COMPRESSION_DEFLATE      = "deflate";
 
     protected PluginContext      pluginContext            = null;
     protected SocketWrapper      socket                   = null;
@@ -69,17 +80,32 @@ public class Protocol
     // prefetchRange is a number of sequence number that are fetched
     // automatically (no need to send a message to the master for each sequence
     // number). Warning : a sequence number can be found several times in the
-    // history table when the transaction was fragmented.
+    // history table when the transaction was fragmented. A filtered event
+    // counts as the number of sequence numbers it covers, except with raw
+    // records, where it counts once. See countFiltered().
     private long                 prefetchRange            = Long.MAX_VALUE;
     private long                 prefetchIndex            = 0;
     private boolean              allPreviousFragmentsDone = true;
 
+    // Number of prefetch windows the client keeps requested ahead of what it
+    // has received, and whether the first requests have been sent.
+    private int                  prefetchWindows          = 1;
+    private boolean              requested                = false;
+
     protected int                resetPeriod;
     private int                  objectsSent              = 0;
 
     protected ObjectInputStream  ois                      = null;
     protected ObjectOutputStream oos                      = null;
 
+    // Streams beneath the object streams that compress server to client
+    // traffic once the handshake agrees on it.
+    private DeflateFrameOutputStream wireOut;
+    private DeflateFrameInputStream  wireIn;
+
+    // Stream to read instead of the socket input stream, if any.
+    private InputStream          in;
+
     protected String             clientSourceId           = null;
     private long                 clientLastEpochNumber    = -1;
     private long                 clientLastSeqno          = -1;
@@ -88,9 +114,42 @@ public class Protocol
     private ArrayList<ReplEvent> buffer                   = new ArrayList<ReplEvent>();
     private boolean              buffering                = false;
 
+    // Adaptive batching. A batch goes out once it holds bufferBytes of
+    // events, its first event has waited bufferLatencyMillis, or it holds
+    // batchLimit events. The limit starts at bufferSize, grows while batches
+    // of small events stay well under the byte limit, and shrinks when large
+    // events reach the byte limit first. Events of unknown size only count
+    // towards the limit.
+    private static final int     MAX_BATCH_SCALE          = 64;
+    private int                  bufferBytes              = 0;
+    private int                  bufferLatencyMillis      = 0;
+    private int                  batchLimit;
+    private long                 batchBytes               = 0;
+    private long                 batchStartMillis         = 0;
+
     private String               rmiHost                  = null;
     private int                  rmiPort                  = -1;
 
+    // Raw record shipping. Events are sent as stored log records if both
+    // sides enable it and the client can load the server's serializer.
+    private boolean              rawRecordsEnabled        = false;
+    private boolean              rawRecords               = false;
+    private String               recordSerializerName     = null;
+    private Serializer           recordSerializer         = null;
+    private ArrayList<ProtocolReplRecord> recordBuffer    = new ArrayList<ProtocolReplRecord>();
+
+    // Wire compression. Servers offer it if enabled and clients ask for it by
+    // method name. Only server to client traffic is compressed.
+    private boolean              wireCompressionEnabled   = false;
+    private String               wireCompression          = COMPRESSION_NONE;
+    private boolean              wireCompressed           = false;
+
+    // Parallel decoding of events on the client. 0 threads decodes events on
+    // the thread that requests them.
+    private static final int     DECODE_QUEUE_PER_THREAD  = 16;
+    private int                  decodeThreads            = 0;
+    private ParallelEventDecoder decoder                  = null;
+
     /**
      * Creates a new <code>Protocol</code> object
      */
@@ -103,12 +162,22 @@ public class Protocol
      */
     public Protocol(PluginContext context, SocketWrapper socket)
             throws IOException
+    {
+        this(context, socket, socket.getOutputStream());
+    }
+
+    /**
+     * Creates a new <code>Protocol</code> object that writes to the given
+     * stream instead of the socket output stream.
+     */
+    public Protocol(PluginContext context, SocketWrapper socket,
+            OutputStream out) throws IOException
     {
         this.pluginContext = context;
         this.socket = socket;
 
-        oos = new ObjectOutputStream(new BufferedOutputStream(
-                socket.getOutputStream()));
+        wireOut = new DeflateFrameOutputStream(new BufferedOutputStream(out));
+        oos = new ObjectOutputStream(wireOut);
         oos.flush();
 
         // Retrieve parameters available only in a casual Replicator service.
@@ -130,13 +199,40 @@ public class Protocol
     public Protocol(PluginContext context, SocketWrapper socket, int resetPeriod)
             throws IOException
     {
-        this(context, socket);
+        this(context, socket, resetPeriod, socket.getOutputStream());
+    }
+
+    /**
+     * Creates a new <code>Protocol</code> object that writes to and reads from
+     * the given streams instead of the socket streams.
+     */
+    public Protocol(PluginContext context, SocketWrapper socket,
+            int resetPeriod, OutputStream out, InputStream in)
+            throws IOException
+    {
+        this(context, socket, resetPeriod, out);
+        this.in = in;
+    }
+
+    public Protocol(PluginContext context, SocketWrapper socket,
+            int resetPeriod, OutputStream out) throws IOException
+    {
+        this(context, socket, out);
         this.resetPeriod = resetPeriod;
         this.bufferSize = context.getReplicatorProperties().getInt(
                 ReplicatorConf.THL_PROTOCOL_BUFFER_SIZE);
+        this.bufferBytes = context.getReplicatorProperties().getInt(
+                ReplicatorConf.THL_PROTOCOL_BUFFER_BYTES,
+                ReplicatorConf.THL_PROTOCOL_BUFFER_BYTES_DEFAULT, false);
+        this.bufferLatencyMillis = context.getReplicatorProperties().getInt(
+                ReplicatorConf.THL_PROTOCOL_BUFFER_LATENCY,
+                ReplicatorConf.THL_PROTOCOL_BUFFER_LATENCY_DEFAULT, false);
         buffering = bufferSize > 0;
+        batchLimit = bufferSize;
         if (buffering && logger.isDebugEnabled())
-            logger.debug("THL protocol buffering enabled: size=" + bufferSize);
+            logger.debug("THL protocol buffering enabled: size=" + bufferSize
+                    + " bytes=" + bufferBytes + " latencyMillis="
+                    + bufferLatencyMillis);
     }
 
     /**
@@ -172,6 +268,127 @@ public class Protocol
         return serverCapabilities;
     }
 
+    /**
+     * Enables shipping of events as stored log records, subject to
+     * negotiation with the other side during the handshake.
+     */
+    public void setRawRecordsEnabled(boolean rawRecordsEnabled)
+    {
+        this.rawRecordsEnabled = rawRecordsEnabled;
+    }
+
+    /**
+     * Sets the name of the serializer class used to write log records. Servers
+     * must set this to offer raw records.
+     */
+    public void setRecordSerializer(String recordSerializerName)
+    {
+        this.recordSerializerName = recordSerializerName;
+    }
+
+    /**
+     * Returns true if the handshake agreed to ship events as stored log
+     * records.
+     */
+    public boolean isRawRecords()
+    {
+        return rawRecords;
+    }
+
+    /**
+     * Enables the server to offer compression of traffic to clients.
+     */
+    public void setWireCompressionEnabled(boolean wireCompressionEnabled)
+    {
+        this.wireCompressionEnabled = wireCompressionEnabled;
+    }
+
+    /**
+     * Sets the compression method a client asks the server to use, either
+     * "none" or "deflate".
+     */
+    public void setWireCompression(String wireCompression)
+    {
+        this.wireCompression = wireCompression;
+    }
+
+    /**
+     * Returns true if the handshake agreed to compress server to client
+     * traffic.
+     */
+    public boolean isWireCompressed()
+    {
+        return wireCompressed;
+    }
+
+    /**
+     * Returns the number of bytes compressed for the client so far.
+     */
+    public long getWireRawBytes()
+    {
+        return wireOut == null ? 0 : wireOut.getRawBytes();
+    }
+
+    /**
+     * Returns the number of compressed bytes sent to the client so far.
+     */
+    public long getWireCompressedBytes()
+    {
+        return wireOut == null ? 0 : wireOut.getWireBytes();
+    }
+
+    /**
+     * Sets the number of threads that decode events received from the server
+     * (client side). If greater than 0, a separate thread reads from the
+     * server while these threads decode stored log records, and events are
+     * returned in order as they are ready.
+     */
+    public void setDecodeThreads(int decodeThreads)
+    {
+        this.decodeThreads = decodeThreads;
+    }
+
+    /**
+     * Stops parallel decoding threads, if any. This is safe to call from any
+     * thread.
+     */
+    public synchronized void stopDecoding()
+    {
+        if (decoder != null)
+            decoder.shutdown();
+    }
+
+    /**
+     * Frees compression resources. Call this only once no thread uses the
+     * protocol any longer.
+     */
+    public void release()
+    {
+        stopDecoding();
+        if (wireOut != null)
+            wireOut.release();
+        if (wireIn != null)
+            wireIn.release();
+    }
+
+    /**
+     * Returns a new instance of the serializer for records agreed on in the
+     * handshake.
+     */
+    Serializer newRecordSerializer() throws ReplicatorException
+    {
+        try
+        {
+            return (Serializer) Class.forName(recordSerializerName)
+                    .newInstance();
+        }
+        catch (Exception e)
+        {
+            throw new THLException("Unable to load serializer: "
+                    + recordSerializerName, e);
+        }
+    }
+
     /**
      * Read a message from network from either side.
      */
@@ -180,8 +397,9 @@ public class Protocol
     {
         if (ois == null)
         {
-            ois = new ObjectInputStream(new BufferedInputStream(
-                    socket.getInputStream()));
+            wireIn = new DeflateFrameInputStream(new BufferedInputStream(
+                    in == null ? socket.getInputStream() : in));
+            ois = new ObjectInputStream(wireIn);
         }
         Object obj;
         try
@@ -202,9 +420,20 @@ public class Protocol
      * Write a message to the network from either side.
      */
     protected void writeMessage(ProtocolMessage msg) throws IOException
+    {
+        writeMessage(msg, false);
+    }
+
+    // Writes a message and optionally starts compressing right after it. This
+    // must happen before the reset below, which writes a marker that belongs
+    // to the next message.
+    private void writeMessage(ProtocolMessage msg, boolean startCompressing)
+            throws IOException
     {
         oos.writeObject(msg);
         oos.flush();
+        if (startCompressing)
+            wireOut.startCompressing(Deflater.BEST_SPEED);
 
         objectsSent++;
         if (objectsSent >= resetPeriod)
@@ -228,6 +457,10 @@ public class Protocol
                 ManifestParser.parseReleaseWithBuildNumber());
         handshake.setCapability(MIN_SEQNO, new Long(minSeqNo).toString());
         handshake.setCapability(MAX_SEQNO, new Long(maxSeqNo).toString());
+        if (rawRecordsEnabled && recordSerializerName != null)
+            handshake.setCapability(RAW_RECORDS, recordSerializerName);
+        if (wireCompressionEnabled)
+            handshake.setCapability(WIRE_COMPRESSION, COMPRESSION_DEFLATE);
         serverCapabilities = new TungstenProperties(handshake.getCapabilities());
         writeMessage(handshake);
         ProtocolMessage response = readMessage();
@@ -238,7 +471,18 @@ public class Protocol
             try
             {
                 validator.validateResponse(handshakeResponse);
-                writeMessage(new ProtocolOK(new SeqNoRange(minSeqNo, maxSeqNo)));
+                rawRecords = rawRecordsEnabled
+                        && recordSerializerName != null
+                        && recordSerializerName.equals(handshakeResponse
+                                .getOption(RAW_RECORDS));
+                wireCompressed = wireCompressionEnabled
+                        && COMPRESSION_DEFLATE.equals(handshakeResponse
+                                .getOption(WIRE_COMPRESSION));
+                // The client switches after reading OK, so everything after
+                // it is compressed.
+                writeMessage(
+                        new ProtocolOK(new SeqNoRange(minSeqNo, maxSeqNo)),
+                        wireCompressed);
             }
             catch (THLException e)
             {
@@ -285,11 +529,49 @@ public class Protocol
         response.setOption(ProtocolParams.RMI_PORT, Integer.toString(rmiPort));
         if (lastEventId != null)
             response.setOption(ProtocolParams.INIT_EVENT_ID, lastEventId);
+
+        // Accept raw records if we can read them.
+        String serverSerializerName = protocolHandshake
+                .getCapability(RAW_RECORDS);
+        if (rawRecordsEnabled && serverSerializerName != null)
+        {
+            try
+            {
+                recordSerializer = (Serializer) Class.forName(
+                        serverSerializerName).newInstance();
+                recordSerializerName = serverSerializerName;
+                response.setOption(RAW_RECORDS, serverSerializerName);
+                rawRecords = true;
+            }
+            catch (Exception e)
+            {
+                logger.warn("Unable to load serializer for raw THL records; using event shipping: serializer="
+                        + serverSerializerName + " message=" + e.getMessage());
+            }
+        }
+
+        // Ask for compression if the server offers it.
+        if (COMPRESSION_DEFLATE.equals(wireCompression))
+        {
+            if (COMPRESSION_DEFLATE.equals(protocolHandshake
+                    .getCapability(WIRE_COMPRESSION)))
+            {
+                response.setOption(WIRE_COMPRESSION, COMPRESSION_DEFLATE);
+                wireCompressed = true;
+            }
+            else
+            {
+                logger.warn("Server does not offer wire compression; using uncompressed transfer: compression="
+                        + wireCompression);
+            }
+        }
         writeMessage(response);
 
         ProtocolMessage okOrNok = readMessage();
         if (okOrNok instanceof ProtocolOK)
         {
+            if (wireCompressed)
+                wireIn.startDecompressing();
             return (SeqNoRange) okOrNok.getPayload();
         }
         else if (okOrNok instanceof ProtocolNOK)
@@ -309,19 +591,40 @@ public class Protocol
      */
     @SuppressWarnings("unchecked")
     public ReplEvent requestReplEvent(long seqNo) throws ReplicatorException,
-            IOException
+            IOException, InterruptedException
     {
         ReplEvent ret = null;
-        if (!buffer.isEmpty())
+        if (decodeThreads > 0)
+        {
+            // Take the next event from the decoding threads, starting them the
+            // first time through.
+            requestFirstWindows(seqNo);
+            synchronized (this)
+            {
+                if (decoder == null)
+                {
+                    // The decoder applies the read timeout itself.
+                    int readTimeout = socket.getSocket().getSoTimeout();
+                    socket.getSocket().setSoTimeout(0);
+                    decoder = new ParallelEventDecoder(this, decodeThreads,
+                            decodeThreads * DECODE_QUEUE_PER_THREAD,
+                            readTimeout);
+                    decoder.start(pluginContext.getServiceName());
+                }
+            }
+            ret = decoder.next();
+        }
+        else if (!buffer.isEmpty())
         {
             ret = buffer.remove(0);
         }
+        else if (!recordBuffer.isEmpty())
+        {
+            ret = decodeRecord(recordBuffer.remove(0), recordSerializer);
+        }
         else
         {
-            if (prefetchIndex == 0 && allPreviousFragmentsDone)
-            {
-                writeMessage(new ProtocolReplEventRequest(seqNo, prefetchRange));
-            }
+            requestFirstWindows(seqNo);
 
             // Read the next message, skipping over any heartbeat events, which
             // serve to keep the connection open.
@@ -341,7 +644,18 @@ public class Protocol
             }
 
             // Handling buffering on the client side
-            if (msg.getPayload() instanceof ArrayList<?>)
+            if (msg.getPayload() instanceof ArrayList<?> && rawRecords)
+            {
+                // Receiving buffered records
+                recordBuffer = (ArrayList<ProtocolReplRecord>) msg
+                        .getPayload();
+                if (!recordBuffer.isEmpty())
+                    ret = decodeRecord(recordBuffer.remove(0),
+                            recordSerializer);
+                else
+                    logger.warn("Received an empty buffer");
+            }
+            else if (msg.getPayload() instanceof ArrayList<?>)
             {
                 // Receiving buffered events
                 buffer = (ArrayList<ReplEvent>) msg.getPayload();
@@ -356,6 +670,10 @@ public class Protocol
                 String message = (String) msg.getPayload();
                 throw new THLException(message);
             }
+            else if (msg instanceof ProtocolReplRecord)
+            {
+                ret = decodeRecord((ProtocolReplRecord) msg, recordSerializer);
+            }
             else if (!(msg instanceof ProtocolReplEvent))
             {
                 // Receiving an invalid message (neither a ProtocolReplEvent or
@@ -374,20 +692,15 @@ public class Protocol
 
             {
                 allPreviousFragmentsDone = true;
+
                 if (ret instanceof ReplDBMSFilteredEvent)
                 {
                     ReplDBMSFilteredEvent event = (ReplDBMSFilteredEvent) ret;
-
-                    if ((1 + prefetchIndex + event.getSeqnoEnd() - event
-                            .getSeqno()) > prefetchRange)
-                        prefetchIndex = 0;
-                    else
-                        prefetchIndex = (1 + prefetchIndex
-                                + event.getSeqnoEnd() - event.getSeqno())
-                                % prefetchRange;
+                    countTransactions(countFiltered(event),
+                            event.getSeqnoEnd() + 1);
                 }
                 else
-                    prefetchIndex = (prefetchIndex + 1) % prefetchRange;
+                    countTransactions(1, ((ReplDBMSEvent) ret).getSeqno() + 1);
             }
             else
             {
@@ -397,24 +710,139 @@ public class Protocol
         else
         {
             allPreviousFragmentsDone = true;
-            prefetchIndex = (prefetchIndex + 1) % prefetchRange;
+            countTransactions(1, seqNo + 1);
         }
 
         return ret;
     }
 
+    /**
+     * Returns the number of transactions a filtered event counts for against
+     * a prefetch window. Servers have always counted the sequence numbers a
+     * filtered event covers, and still do when they send events. When they
+     * ship log records they cannot see the range and count it once. Both
+     * sides only use raw records if both agree to them in the handshake, so
+     * clients and servers of any version count the same way.
+     */
+    static long countFiltered(ReplDBMSFilteredEvent event, boolean rawRecords)
+    {
+        if (rawRecords)
+            return 1;
+        else
+            return 1 + event.getSeqnoEnd() - event.getSeqno();
+    }
+
+    // Counts a filtered event received by this client.
+    private long countFiltered(ReplDBMSFilteredEvent event)
+    {
+        return countFiltered(event, rawRecords);
+    }
+
+    // The first time through, request enough windows that the server can keep
+    // sending while our requests for more are on the wire. After that
+    // countTransactions() asks for a new window whenever one is used up. Only
+    // the first request positions the stream. Servers of every version take
+    // later requests as another window from where they are, whatever seqno
+    // the request holds.
+    private void requestFirstWindows(long seqNo) throws IOException
+    {
+        if (!requested)
+        {
+            int windows = (prefetchRange == Long.MAX_VALUE)
+                    ? 1
+                    : prefetchWindows;
+            for (int i = 0; i < windows; i++)
+            {
+                writeMessage(new ProtocolReplEventRequest(seqNo,
+                        prefetchRange));
+            }
+            requested = true;
+        }
+    }
+
+    // Counts transactions received against the current prefetch window. When
+    // the window is used up, request a new one right away. This replaces the
+    // window the server has just finished, so the server always has
+    // prefetchWindows windows of work and never waits on a round trip to us.
+    private void countTransactions(long transactions, long nextSeqno)
+            throws IOException
+    {
+        prefetchIndex += transactions;
+        if (prefetchIndex >= prefetchRange)
+        {
+            prefetchIndex = 0;
+            writeMessage(new ProtocolReplEventRequest(nextSeqno, prefetchRange));
+        }
+    }
+
+    /**
+     * Sets the number of transactions in a prefetch window, i.e., the number
+     * of transactions requested from the server at a time (client side). 0 or
+     * less requests all transactions at once, which is the default.
+     */
+    public void setPrefetchRange(long prefetchRange)
+    {
+        if (prefetchRange <= 0)
+            this.prefetchRange = Long.MAX_VALUE;
+        else
+            this.prefetchRange = prefetchRange;
+    }
+
+    /**
+     * Sets the number of prefetch windows requested ahead of those received
+     * (client side). This only matters if the prefetch range is limited.
+     */
+    public void setPrefetchWindows(int prefetchWindows)
+    {
+        this.prefetchWindows = Math.max(1, prefetchWindows);
+    }
+
+    /**
+     * Decodes an event shipped as a stored log record. The record is kept as
+     * the stored form of the event so that it can be written to the local log
+     * without serializing the event again. Decoding threads each pass their
+     * own serializer.
+     */
+    ReplEvent decodeRecord(ProtocolReplRecord record, Serializer serializer)
+            throws ReplicatorException
+    {
+        LogEventReplReader eventReader = new LogEventReplReader(
+                record.toLogRecord(), serializer, true);
+        ReplEvent event = eventReader.deserializeEvent().getReplEvent();
+        eventReader.done();
+        if (event instanceof ReplDBMSEvent)
+        {
+            record.setSerializer(recordSerializerName);
+            ((ReplDBMSEvent) event).setStoredForm(record);
+        }
+        return event;
+    }
+
     /**
      * Wait for an event request from client.
      */
     public ProtocolReplEventRequest waitReplEventRequest()
             throws ReplicatorException, IOException
     {
+        // Send buffered events first, as the client may need them to finish
+        // its window before it asks for more.
+        flushBuffers();
         ProtocolMessage msg = readMessage();
         if (msg instanceof ProtocolReplEventRequest == false)
             throw new THLException("Protocol error");
         return (ProtocolReplEventRequest) msg;
     }
 
+    /**
+     * Returns true if data from the other side have arrived and not been read
+     * yet, in which case the next read does not wait for a new message to be
+     * sent.
+     */
+    public boolean hasPendingInput() throws IOException
+    {
+        return wireIn != null && wireIn.available() > 0;
+    }
+
     /**
      * Send a replication event to the client.
      */
@@ -424,7 +852,8 @@ public class Protocol
         if (buffering)
         {
             buffer.add(event);
-            if (forceSend || buffer.size() >= bufferSize)
+            if (isBatchReady(buffer.size(), event.getEstimatedSize(),
+                    forceSend))
             {
                 writeMessage(new ProtocolMessage(buffer));
                 buffer.clear();
@@ -437,15 +866,34 @@ public class Protocol
     }
 
     /**
-     * Send an error message back to client.
+     * Send a stored log record to the client. This may only be used if the
+     * handshake agreed to raw records.
      */
-    public void sendError(String message) throws IOException
+    public void sendReplRecord(ProtocolReplRecord record, boolean forceSend)
+            throws IOException
     {
-        if (buffering && buffer.size() > 0)
+        if (buffering)
         {
-            writeMessage(new ProtocolMessage(buffer));
-            buffer.clear();
+            recordBuffer.add(record);
+            if (isBatchReady(recordBuffer.size(), record.getData().length,
+                    forceSend))
+            {
+                writeMessage(new ProtocolMessage(recordBuffer));
+                recordBuffer.clear();
+            }
+        }
+        else
+        {
+            writeMessage(record);
         }
+    }
+
+    /**
+     * Send an error message back to client.
+     */
+    public void sendError(String message) throws IOException
+    {
+        flushBuffers();
         writeMessage(new ProtocolNOK(message));
     }
 
@@ -453,12 +901,61 @@ public class Protocol
      * Send a heartbeat message to client.
      */
     public void sendHeartbeat() throws IOException
+    {
+        flushBuffers();
+        writeMessage(new ProtocolHeartbeat());
+    }
+
+    /** Returns the current maximum number of events per batch. */
+    public int getBatchLimit()
+    {
+        return batchLimit;
+    }
+
+    // Counts an item just added to the batch and returns true if the batch
+    // must be sent, adjusting the event limit for the next batch.
+    private boolean isBatchReady(int count, int size, boolean forceSend)
+    {
+        long now = System.currentTimeMillis();
+        if (count == 1)
+        {
+            batchBytes = 0;
+            batchStartMillis = now;
+        }
+        batchBytes += size;
+
+        if (bufferBytes > 0 && batchBytes >= bufferBytes)
+        {
+            // Large events: send them in smaller batches, or alone if a
+            // single event is over the limit.
+            batchLimit = Math.min(batchLimit, count);
+            return true;
+        }
+        else if (count >= batchLimit)
+        {
+            // Small events: put more of them in the next batch.
+            if (batchBytes > 0 && batchBytes < bufferBytes / 2)
+                batchLimit = Math.min(batchLimit * 2, bufferSize
+                        * MAX_BATCH_SCALE);
+            return true;
+        }
+        else
+            return forceSend
+                    || (bufferLatencyMillis > 0 && now - batchStartMillis >= bufferLatencyMillis);
+    }
+
+    // Send buffered events or records, if any.
+    void flushBuffers() throws IOException
     {
         if (buffering && buffer.size() > 0)
         {
             writeMessage(new ProtocolMessage(buffer));
             buffer.clear();
         }
-        writeMessage(new ProtocolHeartbeat());
+        if (buffering && recordBuffer.size() > 0)
+        {
+            writeMessage(new ProtocolMessage(recordBuffer));
+            recordBuffer.clear();
+        }
     }
 }
@@ -0,0 +1,115 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+
+/**
+ * Carries a replication event as it is stored in the THL, i.e., the log record
+ * data plus CRC, so that masters can ship events without deserializing them
+ * and slaves can store them without serializing them again. The header fields
+ * are copied from the record so that receivers can check them cheaply.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class ProtocolReplRecord extends ProtocolMessage
+{
+    private static final long serialVersionUID = 1L;
+
+    private final long        seqno;
+    private final short       fragno;
+    private final boolean     lastFrag;
+    private final byte        storedCrcType;
+    private final long        crc;
+
+    // Serializer that wrote the record data. This is known from the protocol
+    // handshake and is set on receipt.
+    private transient String  serializer;
+
+    /**
+     * Creates a new record message.
+     *
+     * @param seqno Sequence number from the record header
+     * @param fragno Fragment number from the record header
+     * @param lastFrag Last fragment flag from the record header
+     * @param data Log record data
+     * @param storedCrcType CRC type including compression flag as stored
+     * @param crc Log record CRC
+     */
+    public ProtocolReplRecord(long seqno, short fragno, boolean lastFrag,
+            byte[] data, byte storedCrcType, long crc)
+    {
+        super(data);
+        this.seqno = seqno;
+        this.fragno = fragno;
+        this.lastFrag = lastFrag;
+        this.storedCrcType = storedCrcType;
+        this.crc = crc;
+    }
+
+    public long getSeqno()
+    {
+        return seqno;
+    }
+
+    public short getFragno()
+    {
+        return fragno;
+    }
+
+    public boolean getLastFrag()
+    {
+        return lastFrag;
+    }
+
+    /** Returns the log record data. */
+    public byte[] getData()
+    {
+        return (byte[]) getPayload();
+    }
+
+    public String getSerializer()
+    {
+        return serializer;
+    }
+
+    public void setSerializer(String serializer)
+    {
+        this.serializer = serializer;
+    }
+
+    /** Returns true if the record header matches the event header. */
+    public boolean matches(ReplDBMSHeader header)
+    {
+        return seqno == header.getSeqno() && fragno == header.getFragno()
+                && lastFrag == header.getLastFrag();
+    }
+
+    /** Returns a log record that can be read or stored. */
+    public LogRecord toLogRecord()
+    {
+        return new LogRecord(null, -1, getData(), storedCrcType, crc);
+    }
+}
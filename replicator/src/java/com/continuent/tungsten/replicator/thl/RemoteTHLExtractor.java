@@ -69,15 +69,29 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
     private String           preferredRole        = null;
     private int              preferredRoleTimeout = 32;
     private int              retryInterval        = 1;
+    private boolean          rawRecords           = true;
+    private long             prefetchRange        = 0;
+    private int              prefetchWindows      = 4;
+    private String           wireCompression      = Protocol.COMPRESSION_NONE;
+    private int              decodeThreads        = 0;
+    private int              catchUpConnections   = 1;
+    private long             catchUpSegmentSize   = 1000;
 
     // Connection control variables.
     private PluginContext    pluginContext;
     private ReplDBMSHeader   lastEvent;
     private String           lastEventId;
     private Connector        conn;
+    private String           connectedUri;
 
     private ReplEvent        pendingEvent;
 
+    // Parallel catch-up, which is checked once after each connect, and the
+    // number of times it failed and fell back to a single connection.
+    private CatchUpFetcher   catchUp;
+    private boolean          checkCatchUp         = false;
+    private volatile int     catchUpFailures      = 0;
+
     // Set to show that we have been shut down.
     private volatile boolean shutdown             = false;
 
@@ -190,6 +204,129 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
         this.retryInterval = retryTimeout;
     }
 
+    public boolean isRawRecords()
+    {
+        return rawRecords;
+    }
+
+    /**
+     * If true, accept events shipped as stored log records when the master
+     * offers them. This avoids Java serialization on both sides.
+     */
+    public void setRawRecords(boolean rawRecords)
+    {
+        this.rawRecords = rawRecords;
+    }
+
+    public long getPrefetchRange()
+    {
+        return prefetchRange;
+    }
+
+    /**
+     * Sets the number of transactions requested from the master at a time. 0
+     * requests all transactions at once, which lets the master stream without
+     * limit.
+     */
+    public void setPrefetchRange(long prefetchRange)
+    {
+        this.prefetchRange = prefetchRange;
+    }
+
+    public int getPrefetchWindows()
+    {
+        return prefetchWindows;
+    }
+
+    /**
+     * Sets the number of prefetch windows kept requested ahead of those
+     * received when the prefetch range is limited, so that the master does not
+     * wait a network round trip for each window.
+     */
+    public void setPrefetchWindows(int prefetchWindows)
+    {
+        this.prefetchWindows = prefetchWindows;
+    }
+
+    public String getWireCompression()
+    {
+        return wireCompression;
+    }
+
+    /**
+     * Sets compression of events sent by the master, either none or deflate.
+     * Compression costs CPU on both sides and pays off on slow links, for
+     * example between regions.
+     */
+    public void setWireCompression(String wireCompression)
+    {
+        this.wireCompression = wireCompression;
+    }
+
+    /**
+     * Returns true if the current connection to the master is compressed.
+     */
+    public boolean isWireCompressed()
+    {
+        Connector connector = conn;
+        return connector != null && connector.isWireCompressed();
+    }
+
+    /**
+     * Returns the number of times parallel catch-up failed and continued on a
+     * single connection.
+     */
+    public int getCatchUpFailures()
+    {
+        return catchUpFailures;
+    }
+
+    public int getDecodeThreads()
+    {
+        return decodeThreads;
+    }
+
+    /**
+     * Sets the number of threads that decode events from the master in
+     * parallel while a separate thread reads them from the network. Events
+     * still reach the stage in order. 0 reads and decodes events on the stage
+     * thread.
+     */
+    public void setDecodeThreads(int decodeThreads)
+    {
+        this.decodeThreads = decodeThreads;
+    }
+
+    public int getCatchUpConnections()
+    {
+        return catchUpConnections;
+    }
+
+    /**
+     * Sets the number of connections used to catch up when the slave is
+     * behind by at least two catch-up segments. Each connection fetches a
+     * segment of seqnos at a time. Events are still returned in order. 1
+     * fetches all events over a single connection.
+     */
+    public void setCatchUpConnections(int catchUpConnections)
+    {
+        this.catchUpConnections = catchUpConnections;
+    }
+
+    public long getCatchUpSegmentSize()
+    {
+        return catchUpSegmentSize;
+    }
+
+    /**
+     * Sets the number of seqnos fetched per connection during catch-up. Up to
+     * this many events per connection are held in memory.
+     */
+    public void setCatchUpSegmentSize(long catchUpSegmentSize)
+    {
+        this.catchUpSegmentSize = catchUpSegmentSize;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -201,7 +338,7 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
         try
         {
             // Open the connector if it is not yet open.
-            if (conn == null)
+            if (conn == null && catchUp == null)
             {
                 openConnector();
             }
@@ -234,7 +371,17 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
                         }
                         else
                             seqno = lastEvent.getSeqno();
-                    replEvent = conn.requestEvent(seqno);
+
+                    // Fetch from parallel connections if we are far behind.
+                    if (checkCatchUp)
+                    {
+                        checkCatchUp = false;
+                        startCatchUp(seqno);
+                    }
+                    if (catchUp != null)
+                        replEvent = nextCatchUpEvent();
+                    else
+                        replEvent = conn.requestEvent(seqno);
                     if (replEvent == null)
                         continue;
 
@@ -372,6 +519,17 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
         // identical.
         if (preferredRole != null && "".equals(preferredRole.trim()))
             preferredRole = null;
+
+        // Validate wire compression setting.
+        if (wireCompression == null || "".equals(wireCompression.trim()))
+            wireCompression = Protocol.COMPRESSION_NONE;
+        else if (!Protocol.COMPRESSION_NONE.equals(wireCompression)
+                && !Protocol.COMPRESSION_DEFLATE.equals(wireCompression))
+        {
+            throw new ReplicatorException(
+                    "Invalid value for wire compression; must be none or deflate: "
+                            + wireCompression);
+        }
     }
 
     /**
@@ -401,6 +559,8 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
                 // openConnector() method which may still be attempting to
                 // open a connection.
             }
+            if (catchUp != null)
+                catchUp.stop();
         }
     }
 
@@ -490,16 +650,7 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
                 try
                 {
                     currentUri = uriManager.next();
-                    conn = (Connector) PluginLoader
-                            .load(pluginContext
-                                    .getReplicatorProperties()
-                                    .getString(
-                                            ReplicatorConf.THL_PROTOCOL,
-                                            ReplicatorConf.THL_PROTOCOL_DEFAULT,
-                                            false));
-                    conn.setURI(currentUri);
-                    conn.setResetPeriod(resetPeriod);
-                    conn.setHeartbeatMillis(heartbeatMillis);
+                    conn = createConnector(currentUri);
                     conn.setLastEventId(this.lastEventId);
                     if (this.lastEvent == null
                             || this.checkSerialization == false)
@@ -610,6 +761,8 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
         // Record the current URI so that it is visible to the rest of the
         // replicator.
         pluginContext.setPipelineSource(currentUri);
+        connectedUri = currentUri;
+        checkCatchUp = true;
 
         // Announce the happy event and reset retry count.
         logger.info("Connected to master on uri=" + currentUri + " after "
@@ -641,6 +794,92 @@ public class RemoteTHLExtractor implements Extractor, ShutdownHook
         }
     }
 
+    // Creates a connector with the configured settings. Callers set the
+    // position to start from, then configure and connect it.
+    private Connector createConnector(String uri) throws ReplicatorException
+    {
+        Connector connector = (Connector) PluginLoader.load(pluginContext
+                .getReplicatorProperties().getString(
+                        ReplicatorConf.THL_PROTOCOL,
+                        ReplicatorConf.THL_PROTOCOL_DEFAULT, false));
+        connector.setURI(uri);
+        connector.setResetPeriod(resetPeriod);
+        connector.setHeartbeatMillis(heartbeatMillis);
+        connector.setRawRecords(rawRecords);
+        connector.setPrefetchRange(prefetchRange);
+        connector.setPrefetchWindows(prefetchWindows);
+        connector.setWireCompression(wireCompression);
+        connector.setDecodeThreads(decodeThreads);
+        return connector;
+    }
+
+    // Starts fetching over parallel connections if the master is at least two
+    // segments ahead. The connection we just opened checked the log for
+    // consistency, so catch-up connections skip that.
+    private void startCatchUp(long seqno)
+    {
+        long maxSeqno = conn.getMaxSeqNo();
+        if (catchUpConnections <= 1 || lastEventId != null
+                || maxSeqno - seqno + 1 < catchUpSegmentSize * 2)
+            return;
+
+        final String uri = connectedUri;
+        CatchUpFetcher.ConnectorSource source = new CatchUpFetcher.ConnectorSource()
+        {
+            public Connector connect(long range) throws ReplicatorException,
+                    IOException, InterruptedException
+            {
+                Connector connector = createConnector(uri);
+                connector.setLastSeqno(-1);
+                connector.setLastEpochNumber(-1);
+                connector.setPrefetchRange(range);
+                connector.setPrefetchWindows(1);
+                connector.configure(pluginContext);
+                connector.prepare(pluginContext);
+                connector.connect();
+                return connector;
+            }
+        };
+        synchronized (this)
+        {
+            closeConnector();
+            catchUp = new CatchUpFetcher(source, seqno, maxSeqno,
+                    catchUpSegmentSize, catchUpConnections);
+            catchUp.start(pluginContext.getServiceName());
+        }
+    }
+
+    // Returns the next event from catch-up. When catch-up ends or fails,
+    // reopens a single connection from the last event and returns null.
+    private ReplEvent nextCatchUpEvent() throws ReplicatorException,
+            InterruptedException
+    {
+        ReplEvent event = null;
+        try
+        {
+            event = catchUp.next();
+        }
+        catch (IOException e)
+        {
+            if (shutdown)
+                return null;
+            logger.warn("Parallel catch-up failed; continuing on a single connection: "
+                    + e.getMessage());
+            catchUpFailures++;
+        }
+        if (event == null)
+        {
+            synchronized (this)
+            {
+                catchUp.stop();
+                catchUp = null;
+            }
+            if (!shutdown)
+                openConnector();
+        }
+        return event;
+    }
+
     // Close the connector. Clearing the connection must be synchronized.
     // See concurrency note in class header comment.
     private synchronized void closeConnector()
@@ -60,6 +60,7 @@ public class Server implements Runnable
     private LinkedBlockingQueue<ConnectorHandler> deadClients = new LinkedBlockingQueue<ConnectorHandler>();
     private volatile boolean                      stopped     = false;
     private String                                storeName;
+    private ConnectorSelector                     connectorSelector;
 
     /**
      * Creates a new <code>Server</code> object
@@ -127,7 +128,10 @@ public class Server implements Runnable
                 handler.prepare(context);
 
                 clients.add(handler);
-                handler.start();
+                if (connectorSelector == null)
+                    handler.start();
+                else
+                    connectorSelector.register(handler);
                 removeFinishedClients();
             }
         }
@@ -148,6 +152,20 @@ public class Server implements Runnable
         }
         finally
         {
+            // Stop the selector, which closes the handlers it serves.
+            if (connectorSelector != null)
+            {
+                try
+                {
+                    connectorSelector.stop();
+                }
+                catch (InterruptedException e)
+                {
+                    logger.warn("Connector selector stop interrupted unexpectedly");
+                }
+                connectorSelector = null;
+            }
+
             // Close the connector handlers.
             logger.info("Closing connector handlers for THL Server: store="
                     + storeName);
@@ -242,6 +260,21 @@ public class Server implements Runnable
         logger.info("Opened socket: host=" + socketService.getAddress()
                 + " port=" + socketService.getLocalPort() + " useSSL=" + useSSL);
 
+        // Serve clients from worker threads if requested. SSL sockets have no
+        // channel, so SSL clients always get their own threads.
+        int serverWorkers = thl.getServerWorkers();
+        if (serverWorkers > 0 && useSSL)
+        {
+            logger.warn("THL server workers are not supported with SSL; using a thread per client: serverWorkers="
+                    + serverWorkers);
+        }
+        else if (serverWorkers > 0)
+        {
+            connectorSelector = new ConnectorSelector(storeName,
+                    serverWorkers, 10);
+            connectorSelector.start();
+        }
+
         thd = new Thread(this, "THL Server [" + storeName + ":" + host + ":"
                 + port + "]");
         thd.start();
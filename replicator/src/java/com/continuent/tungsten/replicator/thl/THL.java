@@ -108,6 +108,30 @@ public class THL implements Store
     /** If true, fsync when flushing. */
     private boolean             fsyncOnFlush         = false;
 
+    /** If true, commits share fsync calls when fsyncOnFlush is enabled. */
+    private boolean             groupCommit          = false;
+
+    /** If true, memory-map rotated log files for reading. */
+    private boolean             mappedReads          = false;
+
+    /** Compression for serialized events in new log records. */
+    private String              compression          = "none";
+
+    /** Minimum bytes between seek index entries; 0 disables the index. */
+    private int                 seekIndexInterval    = 1048576;
+
+    /** If true, offer to ship stored log records to slaves as is. */
+    private boolean             rawRecords           = true;
+
+    /** Worker threads serving slaves; 0 uses a thread per slave. */
+    private int                 serverWorkers        = 0;
+
+    /** Recent events kept in memory to serve slaves; 0 disables the cache. */
+    private int                 eventCacheSize       = 100;
+
+    /** If true, offer slaves to compress traffic sent to them. */
+    private boolean             wireCompression      = true;
+
     // Catalog access and disk log.
     private UniversalConnection conn                 = null;
     private CommitSeqno         commitSeqno          = null;
@@ -219,6 +243,14 @@ public class THL implements Store
         this.eventSerializer = eventSerializer;
     }
 
+    /**
+     * Returns the event serializer name.
+     */
+    public String getEventSerializer()
+    {
+        return eventSerializer;
+    }
+
     /**
      * Sets the log file retention interval.
      */
@@ -260,6 +292,119 @@ public class THL implements Store
         this.fsyncOnFlush = fsyncOnFlush;
     }
 
+    /**
+     * If set to true along with fsyncOnFlush, commits wait on a shared fsync
+     * rather than issuing one each. This keeps commits durable without paying
+     * one fsync per transaction.
+     */
+    public void setGroupCommit(boolean groupCommit)
+    {
+        this.groupCommit = groupCommit;
+    }
+
+    /**
+     * If set to true, memory-map log files that are no longer being written
+     * when reading them. This speeds up catch-up reads on large logs.
+     */
+    public void setMappedReads(boolean mappedReads)
+    {
+        this.mappedReads = mappedReads;
+    }
+
+    /**
+     * Sets compression for serialized events in new log records. Values are
+     * "none" (default) or "deflate".
+     */
+    public void setCompression(String compression)
+    {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets the minimum number of bytes between entries of the per-file seek
+     * index, which lets readers skip to a sequence number without scanning the
+     * log file from the beginning. 0 disables the index.
+     */
+    public void setSeekIndexInterval(int seekIndexInterval)
+    {
+        this.seekIndexInterval = seekIndexInterval;
+    }
+
+    /**
+     * If true, offer slaves to ship log records as they are stored rather
+     * than deserializing events and sending them as Java objects.
+     */
+    public void setRawRecords(boolean rawRecords)
+    {
+        this.rawRecords = rawRecords;
+    }
+
+    public boolean isRawRecords()
+    {
+        return rawRecords;
+    }
+
+    /**
+     * Sets the number of worker threads that serve slaves from a single
+     * selector thread. 0 serves each slave with its own thread.
+     */
+    public void setServerWorkers(int serverWorkers)
+    {
+        this.serverWorkers = serverWorkers;
+    }
+
+    public int getServerWorkers()
+    {
+        return serverWorkers;
+    }
+
+    /**
+     * Sets the number of recent committed events kept in memory, which lets
+     * slaves that keep up with the log be served without reading it from
+     * disk. 0 disables the cache.
+     */
+    public void setEventCacheSize(int eventCacheSize)
+    {
+        this.eventCacheSize = eventCacheSize;
+    }
+
+    /**
+     * If true, offer slaves to compress the events sent to them. Slaves decide
+     * whether to use it, since it only pays off on slow links.
+     */
+    public void setWireCompression(boolean wireCompression)
+    {
+        this.wireCompression = wireCompression;
+    }
+
+    public boolean isWireCompression()
+    {
+        return wireCompression;
+    }
+
+    /**
+     * Returns the server that serves slaves or null if the log does not have
+     * one.
+     */
+    public Server getServer()
+    {
+        return server;
+    }
+
+    /**
+     * Returns the cache of recent committed events or null if the log is not
+     * open.
+     */
+    public EventsCache getEventsCache()
+    {
+        // This prevents race conditions when going offline.
+        DiskLog localCopy = diskLog;
+        if (localCopy == null)
+            return null;
+        else
+            return localCopy.getEventsCache();
+    }
+
     public void setReadOnly(String ro)
     {
         readOnly = (ro.equals("true"));
@@ -397,7 +542,12 @@ public class THL implements Store
         {
             // Only used with fsync.
             diskLog.setFlushIntervalMillis(flushIntervalMillis);
+            diskLog.setGroupCommit(groupCommit);
         }
+        diskLog.setMappedReads(mappedReads);
+        diskLog.setCompression(compression);
+        diskLog.setSeekIndexInterval(seekIndexInterval);
+        diskLog.setEventCacheSize(eventCacheSize);
         diskLog.setReadOnly(readOnly);
         diskLog.prepare();
         logger.info("Log preparation is complete");
@@ -728,6 +878,7 @@ public class THL implements Store
         props.setLong("logFileSize", diskLog.getLogFileSize());
         props.setLong("timeoutMillis", diskLog.getTimeoutMillis());
         props.setBoolean("fsyncOnFlush", fsyncOnFlush);
+        props.setBoolean("groupCommit", groupCommit);
         props.setLong("flushIntervalMillis", diskLog.getFlushIntervalMillis());
         props.setLong("timeoutMillis", diskLog.getTimeoutMillis());
         props.setLong("logConnectionTimeout", logConnectionTimeout);
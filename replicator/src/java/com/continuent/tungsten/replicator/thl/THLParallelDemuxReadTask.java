@@ -0,0 +1,379 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.continuent.tungsten.fsm.event.EventDispatcher;
+import com.continuent.tungsten.replicator.ErrorNotification;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.storage.parallel.ContentPartitioner;
+import com.continuent.tungsten.replicator.storage.parallel.Partitioner;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
+import com.continuent.tungsten.replicator.util.AtomicCounter;
+
+/**
+ * Reads the THL once on behalf of all read tasks of a THLParallelQueue and
+ * routes each event to the tasks' read queues. This replaces the default mode
+ * in which each THLParallelReadTask has its own log connection and reads and
+ * parses every record in the log only to discard those that belong to other
+ * partitions.
+ * <p>
+ * Each event is offered to every read task so that all queues see the same
+ * sequence of sequence numbers, which they need to generate sync events and
+ * merge control events. The task that owns the event according to the
+ * partitioner receives the fully deserialized event. Other tasks receive a
+ * header-only event, which is exactly what a filtered read would have
+ * produced. Each of these tasks gets its own header-only event, and if a
+ * partitioner assigns an event to more than one task, each additional task
+ * receives its own copy, so that tasks never share mutable event data.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class THLParallelDemuxReadTask implements Runnable
+{
+    private static Logger                   logger         = Logger.getLogger(THLParallelDemuxReadTask.class);
+
+    // Read tasks whose queues we feed, indexed by task ID.
+    private final List<THLParallelReadTask> readTasks;
+    private final Partitioner               partitioner;
+    private final AtomicCounter             headSeqnoCounter;
+    private final EventDispatcher           dispatcher;
+
+    // Starting position.
+    private long                            restartSeqno   = 0;
+
+    // Connection to the log.
+    private THL                             thl;
+    private LogConnection                   connection;
+
+    // Statistics.
+    private AtomicLong                      readCount      = new AtomicLong(0);
+    private AtomicLong                      copyCount      = new AtomicLong(0);
+
+    // Tasks that have asked us to stop. We stop reading once all have done so.
+    private Set<Integer>                    stoppedTasks   = new HashSet<Integer>();
+
+    // Throwable trapped from run loop.
+    private volatile Throwable              throwable;
+
+    // Reader thread and cancellation flag.
+    private volatile Thread                 taskThread;
+    private volatile boolean                cancelled      = false;
+
+    // Serializer used to copy events assigned to more than one partition.
+    private ProtobufSerializer              copySerializer = new ProtobufSerializer();
+
+    /**
+     * Instantiate a demultiplexing read task.
+     *
+     * @param thl Log from which to read
+     * @param readTasks Read tasks to feed, in task ID order
+     * @param partitioner Partitioner used to assign events to tasks
+     * @param headSeqnoCounter Counter that limits how far we may read
+     * @param dispatcher Dispatcher to report read errors
+     */
+    public THLParallelDemuxReadTask(THL thl,
+            List<THLParallelReadTask> readTasks, Partitioner partitioner,
+            AtomicCounter headSeqnoCounter, EventDispatcher dispatcher)
+    {
+        this.thl = thl;
+        this.readTasks = readTasks;
+        this.partitioner = partitioner;
+        this.headSeqnoCounter = headSeqnoCounter;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Set the starting header. This must be called before start().
+     */
+    public synchronized void setRestartHeader(ReplDBMSHeader header)
+    {
+        this.restartSeqno = header.getSeqno() + 1;
+    }
+
+    /** Returns the throwable that terminated the reader, if any. */
+    public Throwable getThrowable()
+    {
+        return throwable;
+    }
+
+    /** Returns true if the reader has been cancelled. */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Connect to the THL. Must be called before start().
+     */
+    public synchronized void prepare() throws ReplicatorException,
+            InterruptedException
+    {
+        connection = thl.connect(true);
+    }
+
+    /**
+     * Start the reader thread if it is not already running. Read tasks call
+     * this when they are started; only the first call has an effect.
+     */
+    public synchronized void start()
+    {
+        if (this.taskThread == null && !cancelled)
+        {
+            taskThread = new Thread(this);
+            taskThread.setName("store-" + thl.getName() + "-demux");
+            taskThread.start();
+        }
+    }
+
+    /**
+     * Record that a read task has stopped. The reader thread is cancelled once
+     * all read tasks have stopped, since until then it must continue to feed
+     * the remaining queues.
+     */
+    public synchronized void stop(int taskId)
+    {
+        stoppedTasks.add(taskId);
+        if (stoppedTasks.size() >= readTasks.size())
+        {
+            cancelled = true;
+            if (this.taskThread != null)
+            {
+                taskThread.interrupt();
+                try
+                {
+                    taskThread.join(2000);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Terminate reader and free resources. Must be called after all read
+     * tasks have stopped.
+     */
+    public synchronized void release()
+    {
+        if (connection != null)
+        {
+            connection.release();
+            connection = null;
+        }
+    }
+
+    /**
+     * Implements read loop on the log to feed all read task queues.
+     */
+    @Override
+    public void run()
+    {
+        long readSeqno = restartSeqno;
+
+        try
+        {
+            // Seek to initial position to start reading.
+            if (!connection.seek(restartSeqno))
+            {
+                throw new THLException(
+                        "Unable to locate starting seqno in log: seqno="
+                                + restartSeqno + " store=" + thl.getName());
+            }
+
+            // Read records until we are cancelled.
+            while (!cancelled)
+            {
+                // Read next event from the log.
+                THLEvent thlEvent = connection.next();
+                readSeqno = thlEvent.getSeqno();
+                readCount.incrementAndGet();
+
+                // Ensure it is safe to process this value. This keeps us from
+                // jumping ahead of the parallel queue head.
+                headSeqnoCounter.waitSeqnoGreaterEqual(thlEvent.getSeqno());
+
+                // Route to each task.
+                demultiplex(thlEvent);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            if (!cancelled)
+                logger.warn("Unexpected interrupt before demultiplexing reader thread was cancelled");
+        }
+        catch (Throwable e)
+        {
+            // Store the error and try to log it at the point of failure. Read
+            // tasks pick up the throwable and signal an error to callers.
+            throwable = e;
+            try
+            {
+                String msg = "Read failed on transaction log: seqno="
+                        + readSeqno + " store=" + thl.getName();
+                logger.error(msg, e);
+                dispatcher.put(new ErrorNotification(msg, e));
+            }
+            catch (InterruptedException e1)
+            {
+                logger.warn("Task cancelled while posting error notification",
+                        null);
+            }
+            catch (Throwable t1)
+            {
+                logger.warn("Failure while attempting to log an error: " + e,
+                        t1);
+            }
+        }
+
+        // Close up shop.
+        logger.info("Terminating demultiplexing reader thread: seqno="
+                + readSeqno + " store=" + thl.getName());
+    }
+
+    // Post an event to each read task, giving the full event to tasks that
+    // own it and a header-only event to the rest.
+    private void demultiplex(THLEvent thlEvent) throws ReplicatorException,
+            InterruptedException
+    {
+        // Build a header for the partitioner. This matches the header used by
+        // the read filter of a non-demultiplexed read task. Partitioners that
+        // assign events by content get the event itself.
+        ReplDBMSHeader header;
+        if (partitioner instanceof ContentPartitioner
+                && thlEvent.getReplEvent() instanceof ReplDBMSEvent)
+            header = (ReplDBMSEvent) thlEvent.getReplEvent();
+        else
+            header = new ReplDBMSHeaderData(thlEvent.getSeqno(),
+                    thlEvent.getFragno(), thlEvent.getLastFrag(),
+                    thlEvent.getSourceId(), thlEvent.getEpochNumber(),
+                    thlEvent.getEventId(), thlEvent.getShardId(),
+                    thlEvent.getSourceTstamp(), 0);
+
+        // Content partitioners assign an event by its content alone and may
+        // do real work to find the partition, so ask them once per event.
+        boolean partitionOnce = partitioner instanceof ContentPartitioner;
+        PartitionerResponse response = null;
+        boolean assigned = false;
+        for (int taskId = 0; taskId < readTasks.size(); taskId++)
+        {
+            try
+            {
+                if (response == null || !partitionOnce)
+                    response = partitioner.partition(header, taskId);
+            }
+            catch (THLException e)
+            {
+                throw e;
+            }
+            catch (ReplicatorException e)
+            {
+                throw new THLException(e.getMessage(), e);
+            }
+
+            THLEvent taskEvent;
+            boolean owner = taskId == response.getPartition();
+            if (owner)
+            {
+                if (assigned)
+                    taskEvent = copy(thlEvent);
+                else
+                    taskEvent = thlEvent;
+                assigned = true;
+            }
+            else
+            {
+                taskEvent = new THLEvent(thlEvent.getSeqno(),
+                        thlEvent.getFragno(), thlEvent.getLastFrag(),
+                        thlEvent.getSourceId(), THLEvent.REPL_DBMS_EVENT,
+                        thlEvent.getEpochNumber(), new Timestamp(
+                                System.currentTimeMillis()),
+                        thlEvent.getSourceTstamp(), thlEvent.getEventId(),
+                        thlEvent.getShardId(), null);
+            }
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Routing event to read task: taskId=" + taskId
+                        + " seqno=" + thlEvent.getSeqno() + " fragno="
+                        + thlEvent.getFragno() + " deserialized="
+                        + owner);
+            }
+            readTasks.get(taskId).post(taskEvent);
+        }
+    }
+
+    // Make a deep copy of an event by serializing and deserializing it.
+    private THLEvent copy(THLEvent thlEvent) throws ReplicatorException
+    {
+        try
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            copySerializer.serializeEvent(thlEvent, baos);
+            copyCount.incrementAndGet();
+            return copySerializer.deserializeEvent(new ByteArrayInputStream(
+                    baos.toByteArray()));
+        }
+        catch (IOException e)
+        {
+            throw new THLException("Unable to copy event: seqno="
+                    + thlEvent.getSeqno(), e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" thread_name=");
+        if (taskThread == null)
+            sb.append("null");
+        else
+            sb.append(taskThread.getName());
+        sb.append(" read=").append(readCount);
+        sb.append(" copied=").append(copyCount);
+        return sb.toString();
+    }
+}
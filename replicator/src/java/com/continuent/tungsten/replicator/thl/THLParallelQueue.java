@@ -40,6 +40,7 @@ import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.event.ReplOptionParams;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.storage.ParallelStore;
+import com.continuent.tungsten.replicator.storage.parallel.ContentPartitioner;
 import com.continuent.tungsten.replicator.storage.parallel.Partitioner;
 import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
 import com.continuent.tungsten.replicator.storage.parallel.SimplePartitioner;
@@ -76,12 +77,14 @@ public class THLParallelQueue implements ParallelStore
     // Queue parameters.
     private String                    name;
     private int                       maxSize             = 100;
+    private long                      maxBytes            = 0;
     private int                       maxControlEvents    = 1000;
     private int                       partitions          = 1;
     private int                       syncInterval        = 5000;
     private int                       maxOfflineInterval  = 10;
     private int                       maxDelayInterval    = 60;
     private String                    thlStoreName        = "thl";
+    private boolean                   demultiplexRead     = false;
 
     // Plugin context in case we need to make inquiries.
     private PluginContext             context;
@@ -91,6 +94,7 @@ public class THLParallelQueue implements ParallelStore
 
     // Read task control information.
     private List<THLParallelReadTask> readTasks;
+    private THLParallelDemuxReadTask  demuxTask;
     private ReplDBMSEvent             lastInsertedEvent;
 
     // Headers used to track the restart position from downstream tasks.
@@ -143,6 +147,20 @@ public class THLParallelQueue implements ParallelStore
         this.maxSize = size;
     }
 
+    /**
+     * Maximum estimated bytes of transactions in individual queues, or 0 for
+     * no limit.
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
     /** Sets the number of queue partitions. */
     public void setPartitions(int partitions)
     {
@@ -227,6 +245,21 @@ public class THLParallelQueue implements ParallelStore
         this.maxDelayInterval = maxDelayInterval;
     }
 
+    public boolean isDemultiplexRead()
+    {
+        return demultiplexRead;
+    }
+
+    /**
+     * If set to true, a single thread reads the THL and routes each event to
+     * the queue of the partition that owns it. Otherwise each partition reads
+     * the full log separately and discards events for other partitions.
+     */
+    public void setDemultiplexRead(boolean demultiplexRead)
+    {
+        this.demultiplexRead = demultiplexRead;
+    }
+
     /** Returns the current head seqno to which read tasks may advance. */
     public long getHeadSeqno()
     {
@@ -261,6 +294,8 @@ public class THLParallelQueue implements ParallelStore
                 {
                     readTasks.get(i).setRestartHeader(restartHeader);
                 }
+                if (demuxTask != null)
+                    demuxTask.setRestartHeader(restartHeader);
             }
         }
     }
@@ -664,6 +699,15 @@ public class THLParallelQueue implements ParallelStore
                             + partitionerClass);
         }
 
+        // Partitioners that need event data only work with a single reader,
+        // which deserializes every event.
+        if (partitioner instanceof ContentPartitioner && !demultiplexRead)
+        {
+            logger.info("Enabling demultiplexed read for partitioner that assigns events by content: class="
+                    + partitioner.getClass().getName());
+            demultiplexRead = true;
+        }
+
         // Set the sync interval only if sync'ing is enabled.
         if (syncInterval <= 0)
             throw new ReplicatorException(
@@ -704,12 +748,22 @@ public class THLParallelQueue implements ParallelStore
         // Instantiate reader tasks, followed by array of last sequence numbers
         // to permit propagation of restart points from each output task.
         readTasks = new ArrayList<THLParallelReadTask>(partitions);
+        if (demultiplexRead)
+        {
+            logger.info("Using single demultiplexing reader for THL parallel queue: partitions="
+                    + partitions);
+            demuxTask = new THLParallelDemuxReadTask(thl, readTasks,
+                    partitioner, headSeqnoCounter, context.getEventDispatcher());
+            demuxTask.prepare();
+        }
         for (int i = 0; i < partitions; i++)
         {
             THLParallelReadTask readTask = new THLParallelReadTask(i, thl,
                     partitioner, headSeqnoCounter, intervalGuard, maxSize,
                     maxControlEvents, syncInterval,
                     context.getEventDispatcher());
+            readTask.setDemuxTask(demuxTask);
+            readTask.setMaxBytes(maxBytes);
             readTasks.add(readTask);
             readTask.prepare(context);
         }
@@ -731,13 +785,23 @@ public class THLParallelQueue implements ParallelStore
             logger.info("Releasing THL parallel queue store: "
                     + status.toString());
 
-            // Stop processing.
+            // Stop processing. All tasks must stop before any are released,
+            // as a demultiplexing reader feeds every task until the last one
+            // stops.
             for (THLParallelReadTask readTask : readTasks)
             {
                 // Stop the task thread again for good measure.
                 readTask.stop();
+            }
+            for (THLParallelReadTask readTask : readTasks)
+            {
                 readTask.release();
             }
+            if (demuxTask != null)
+            {
+                demuxTask.release();
+                demuxTask = null;
+            }
             readTasks = null;
             lastHeaders = null;
         }
@@ -805,9 +869,11 @@ public class THLParallelQueue implements ParallelStore
         TungstenProperties props = new TungstenProperties();
         props.setLong("headSeqno", headSeqnoCounter.getSeqno());
         props.setLong("maxSize", maxSize);
+        props.setLong("maxBytes", maxBytes);
         props.setLong("eventCount", transactionCount);
         props.setLong("discardCount", discardCount);
         props.setInt("queues", partitions);
+        props.setBoolean("demultiplexRead", demultiplexRead);
         props.setInt("syncInterval", syncInterval);
         props.setInt("maxOfflineInterval", maxOfflineInterval);
         props.setInt("maxDelayInterval", maxDelayInterval);
@@ -822,6 +888,8 @@ public class THLParallelQueue implements ParallelStore
         {
             props.setString("store." + i, readTasks.get(i).toString());
         }
+        if (demuxTask != null)
+            props.setString("demuxReader", demuxTask.toString());
         return props;
     }
 }
\ No newline at end of file
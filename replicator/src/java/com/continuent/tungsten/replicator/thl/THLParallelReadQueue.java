@@ -40,6 +40,7 @@ import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
 import com.continuent.tungsten.replicator.event.ReplEvent;
+import com.continuent.tungsten.replicator.storage.EventMemoryBudget;
 import com.continuent.tungsten.replicator.util.AtomicIntervalGuard;
 import com.continuent.tungsten.replicator.util.WatchPredicate;
 
@@ -85,6 +86,9 @@ public class THLParallelReadQueue
     // Totally ordered queue of merged read task events and control events.
     private BlockingQueue<ReplEvent>                   eventQueue;
 
+    // Bound on estimated bytes of transactions in the event queue.
+    private final EventMemoryBudget                    budget;
+
     // Counters to track when to merge control events. These are declared
     // volatile to permit non-blocking reads.
     private volatile long                              readSeqno    = 0;
@@ -122,9 +126,32 @@ public class THLParallelReadQueue
     public THLParallelReadQueue(int taskId, int maxSize, int maxControlEvents,
             long startingSeqno, int syncInterval, ReplDBMSHeader lastHeader,
             AtomicIntervalGuard<?> intervalGuard)
+    {
+        this(taskId, maxSize, 0, maxControlEvents, startingSeqno,
+                syncInterval, lastHeader, intervalGuard);
+    }
+
+    /**
+     * Instantiates a new read queue that also bounds the estimated bytes of
+     * buffered transactions.
+     * 
+     * @param taskId Task to which this queue belongs
+     * @param maxSize Maximum number of all events to buffer
+     * @param maxBytes Maximum estimated bytes of transactions to buffer, or 0
+     *            for no limit
+     * @param maxControlEvents Maximum number of control events to buffer
+     * @param startingSeqno Sequence number of next transaction
+     * @param syncInterval Interval at which to generate synchronization events
+     * @param lastHeader Header of last transaction processed before start
+     * @param intervalGuard Interval guard to track read position
+     */
+    public THLParallelReadQueue(int taskId, int maxSize, long maxBytes,
+            int maxControlEvents, long startingSeqno, int syncInterval,
+            ReplDBMSHeader lastHeader, AtomicIntervalGuard<?> intervalGuard)
     {
         // Set starting parameters.
         this.taskId = taskId;
+        this.budget = new EventMemoryBudget(maxBytes);
         this.readSeqno = startingSeqno;
         this.syncInterval = syncInterval;
         this.intervalGuard = intervalGuard;
@@ -161,6 +188,12 @@ public class THLParallelReadQueue
         return lastFrag;
     }
 
+    /** Returns estimated bytes of transactions in the queue. */
+    public long getBytes()
+    {
+        return budget.getBytes();
+    }
+
     /** Return count of accepted events. */
     public long getAcceptCount()
     {
@@ -182,6 +215,7 @@ public class THLParallelReadQueue
         {
             eventQueue.clear();
             eventQueue = null;
+            budget.reset();
         }
         if (controlQueue != null)
         {
@@ -322,6 +356,7 @@ public class THLParallelReadQueue
             logger.debug("Adding event to parallel queue: taskId=" + taskId
                     + " seqno=" + replDBMSEvent.getSeqno());
         }
+        budget.acquire(replDBMSEvent);
         eventQueue.put(replDBMSEvent);
         acceptCount.incrementAndGet();
 
@@ -491,6 +526,7 @@ public class THLParallelReadQueue
 
         // Grab the next event. We poll to ensure a timeout.
         ReplEvent event = eventQueue.poll(timeout, unit);
+        budget.release(event);
 
         // Report the event we are processing to interval tracking if we got
         // something.
@@ -48,6 +48,10 @@ import com.continuent.tungsten.replicator.util.WatchPredicate;
 /**
  * Performs coordinated reads on the THL on behalf of a particular client (a
  * task thread) and buffers log records up to a local limit.
+ * <p>
+ * If a THLParallelDemuxReadTask is assigned, this task does not read the log
+ * itself. Instead the demultiplexing reader posts events to this task's queue
+ * and this class only provides the queue interface to the client.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
@@ -59,6 +63,7 @@ public class THLParallelReadTask implements Runnable
     // Task number on whose behalf we are reading.
     private final int              taskId;
     private final int              maxSize;
+    private long                   maxBytes             = 0;
     private final int              syncInterval;
 
     // Partitioner instance.
@@ -96,6 +101,9 @@ public class THLParallelReadTask implements Runnable
     // Flag indicating task is cancelled.
     private volatile boolean       cancelled            = false;
 
+    // Shared reader that feeds our queue, if we are demultiplexed.
+    private THLParallelDemuxReadTask demuxTask;
+
     /**
      * Instantiate a read task.
      */
@@ -125,6 +133,24 @@ public class THLParallelReadTask implements Runnable
         this.lastHeader = header;
     }
 
+    /**
+     * Set the maximum estimated bytes of transactions to buffer, or 0 for no
+     * limit. This must be called before prepare().
+     */
+    public synchronized void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Assign a demultiplexing reader that feeds this task. This must be called
+     * before prepare().
+     */
+    public synchronized void setDemuxTask(THLParallelDemuxReadTask demuxTask)
+    {
+        this.demuxTask = demuxTask;
+    }
+
     /**
      * Connect to THL and seek start sequence number. Must be called before
      * run().
@@ -133,10 +159,18 @@ public class THLParallelReadTask implements Runnable
             throws ReplicatorException, InterruptedException
     {
         // Set up the read queue.
-        this.readQueue = new THLParallelReadQueue(taskId, maxSize,
+        this.readQueue = new THLParallelReadQueue(taskId, maxSize, maxBytes,
                 maxControlEvents, restartSeqno, syncInterval, lastHeader,
                 intervalGuard);
 
+        // If a demultiplexing reader feeds us, we do not need our own
+        // connection. Just report our starting position.
+        if (demuxTask != null)
+        {
+            intervalGuard.report(taskId, restartSeqno, restartExtractMillis);
+            return;
+        }
+
         // Connect to the log.
         connection = thl.connect(true);
 
@@ -181,7 +215,9 @@ public class THLParallelReadTask implements Runnable
      */
     public synchronized void start()
     {
-        if (this.taskThread == null)
+        if (demuxTask != null)
+            demuxTask.start();
+        else if (this.taskThread == null)
         {
             taskThread = new Thread(this);
             taskThread.setName("store-" + thl.getName() + "-" + taskId);
@@ -195,7 +231,9 @@ public class THLParallelReadTask implements Runnable
     public synchronized void stop()
     {
         cancelled = true;
-        if (this.taskThread != null)
+        if (demuxTask != null)
+            demuxTask.stop(taskId);
+        else if (this.taskThread != null)
         {
             taskThread.interrupt();
             try
@@ -218,6 +256,9 @@ public class THLParallelReadTask implements Runnable
         {
             connection.release();
             connection = null;
+        }
+        if (readQueue != null)
+        {
             readQueue.release();
             readQueue = null;
         }
@@ -312,6 +353,21 @@ public class THLParallelReadTask implements Runnable
                 + " store=" + thl.getName() + " taskId=" + taskId);
     }
 
+    /**
+     * Posts an event read on our behalf by a demultiplexing reader. The event
+     * is header-only if it belongs to another partition.
+     */
+    void post(THLEvent thlEvent) throws InterruptedException
+    {
+        // Once we are stopped nobody will read further events.
+        if (cancelled)
+            return;
+        if (lowWaterMark.get() == 0)
+            lowWaterMark.set(thlEvent.getSeqno());
+        readCount.incrementAndGet();
+        readQueue.post(thlEvent);
+    }
+
     // QUEUE INTERFACE STARTS HERE.
 
     /**
@@ -346,6 +402,12 @@ public class THLParallelReadTask implements Runnable
                 throw new ReplicatorException("THL reader thread failed",
                         throwable);
             }
+            else if (demuxTask != null && demuxTask.getThrowable() != null)
+            {
+                throw new ReplicatorException(
+                        "THL demultiplexing reader thread failed",
+                        demuxTask.getThrowable());
+            }
             else if (cancelled)
             {
                 // If this is true the thread has been cancelled. This should
@@ -415,6 +477,7 @@ public class THLParallelReadTask implements Runnable
         sb.append(" accepted=").append(readQueue.getAcceptCount());
         sb.append(" discarded=").append(readQueue.getDiscardCount());
         sb.append(" events=").append(readQueue.size());
+        sb.append(" bytes=").append(readQueue.getBytes());
         return sb.toString();
     }
 }
\ No newline at end of file
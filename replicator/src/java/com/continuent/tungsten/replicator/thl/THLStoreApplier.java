@@ -33,6 +33,7 @@ import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
 import com.continuent.tungsten.replicator.event.ReplEvent;
 import com.continuent.tungsten.replicator.plugin.PluginContext;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
 
 /**
  * Implements Extractor and Applier interface for a transaction history log
@@ -148,7 +149,19 @@ public class THLStoreApplier implements Applier
         THLEvent thlEvent = new THLEvent(event.getEventId(), event);
         try
         {
-            client.store(thlEvent, doCommit);
+            // If the event arrived as a stored log record that we can use
+            // as is, append the record instead of serializing the event.
+            LogRecord storedRecord = null;
+            if (event.getStoredForm() instanceof ProtocolReplRecord)
+            {
+                ProtocolReplRecord record = (ProtocolReplRecord) event
+                        .getStoredForm();
+                if (record.matches(event)
+                        && thl.getEventSerializer().equals(
+                                record.getSerializer()))
+                    storedRecord = record.toLogRecord();
+            }
+            client.store(thlEvent, storedRecord, doCommit);
             if (doCommit)
             {
                 // Commit to the log first so it becomes visible as quickly as
@@ -25,10 +25,13 @@ package com.continuent.tungsten.replicator.thl.log;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.thl.EventsCache;
 import com.continuent.tungsten.replicator.thl.THLException;
 import com.continuent.tungsten.replicator.thl.serializer.ProtobufSerializer;
 import com.continuent.tungsten.replicator.thl.serializer.Serializer;
@@ -63,6 +66,13 @@ public class DiskLog
                                                                     .length();
     private static final String  DATA_FILENAME_PREFIX       = "thl.data.";
 
+    // Seek index files use a different prefix so they are not mistaken for
+    // data files.
+    private static final String  INDEX_FILENAME_PREFIX      = "thl.index.";
+
+    // Number of seek indexes for rotated files to keep in memory.
+    private static final int     SEEK_INDEX_CACHE_SIZE      = 16;
+
     /** Store and compare checksum values on the log. */
     private boolean              doChecksum                 = true;
 
@@ -115,6 +125,48 @@ public class DiskLog
      */
     private boolean              fsyncOnFlush               = false;
 
+    /**
+     * If true and fsyncOnFlush is set, commits share fsync calls issued by the
+     * log flush task.
+     */
+    private boolean              groupCommit                = false;
+
+    /**
+     * If true, memory-map log files that have been rotated when reading them.
+     */
+    private boolean              mappedReads                = false;
+
+    /**
+     * Compression applied to serialized events in new log records: "none" or
+     * "deflate".
+     */
+    private String               compression                = "none";
+    private byte                 compressionType            = LogRecord.COMPRESSION_NONE;
+
+    /**
+     * Minimum number of bytes between seek index entries. 0 disables the seek
+     * index.
+     */
+    private int                  seekIndexInterval          = 1048576;
+
+    // Seek index of the file currently being written and cache of indexes
+    // loaded for rotated files. Both are protected by seekIndexLock.
+    private final Object         seekIndexLock              = new Object();
+    private LogFileIndex         activeSeekIndex;
+    private String               activeSeekIndexName;
+    private Map<String, LogFileIndex> seekIndexCache        = new LinkedHashMap<String, LogFileIndex>(
+                                                                    SEEK_INDEX_CACHE_SIZE,
+                                                                    0.75f,
+                                                                    true);
+
+    /**
+     * Number of recent committed events to keep in memory for readers. 0
+     * disables the cache.
+     */
+    private int                  eventCacheSize             = 0;
+    private EventsCache          eventsCache                = new EventsCache(
+                                                                    0);
+
     /**
      * Log flush task; enabled if asynchronous flush interval is greater than 0.
      */
@@ -301,6 +353,98 @@ public class DiskLog
         this.fsyncOnFlush = fsyncOnFlush;
     }
 
+    /**
+     * If set to true along with fsyncOnFlush, commits do not fsync by
+     * themselves. Instead they wait until the log flush task has issued an
+     * fsync that covers their data, so that commits arriving while an fsync
+     * is in progress share the next one.
+     */
+    public synchronized void setGroupCommit(boolean groupCommit)
+    {
+        this.groupCommit = groupCommit;
+    }
+
+    public synchronized boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /**
+     * If set to true, readers memory-map log files that are no longer being
+     * written and read records directly from the mapping. This avoids buffer
+     * copies when scanning large amounts of log.
+     */
+    public void setMappedReads(boolean mappedReads)
+    {
+        this.mappedReads = mappedReads;
+    }
+
+    /**
+     * Returns true if rotated log files are memory-mapped for reading.
+     */
+    public boolean isMappedReads()
+    {
+        return mappedReads;
+    }
+
+    /**
+     * Sets the compression used for serialized events in newly written log
+     * records. Legal values are "none" and "deflate". Records are always
+     * readable regardless of this setting, since each record stores its own
+     * compression type.
+     */
+    public void setCompression(String compression)
+    {
+        this.compression = compression;
+    }
+
+    public String getCompression()
+    {
+        return compression;
+    }
+
+    /**
+     * Returns the LogRecord compression type used for new log records.
+     */
+    public byte getCompressionType()
+    {
+        return compressionType;
+    }
+
+    /**
+     * Sets the minimum number of bytes between entries in the sparse seek
+     * index, which maps sequence numbers to file offsets so that seeks do not
+     * have to scan log files from the beginning. 0 disables the index.
+     */
+    public void setSeekIndexInterval(int seekIndexInterval)
+    {
+        this.seekIndexInterval = seekIndexInterval;
+    }
+
+    public int getSeekIndexInterval()
+    {
+        return seekIndexInterval;
+    }
+
+    /**
+     * Sets the number of recent committed events kept in memory so that
+     * readers tailing the log need not read them from disk. 0 disables the
+     * cache.
+     */
+    public void setEventCacheSize(int eventCacheSize)
+    {
+        this.eventCacheSize = eventCacheSize;
+    }
+
+    /**
+     * Returns the cache of recent committed events. The cache is empty unless
+     * this log is writable.
+     */
+    public EventsCache getEventsCache()
+    {
+        return eventsCache;
+    }
+
     // Administrative API calls.
     public void setReadOnly(boolean readOnly)
     {
@@ -318,6 +462,19 @@ public class DiskLog
         logger.info(String.format("Using directory '%s' for replicator logs",
                 logDirName));
         logger.info("Checksums enabled for log records: " + doChecksum);
+        logger.info("Memory-mapped reads enabled for rotated log files: "
+                + mappedReads);
+
+        // Validate compression setting.
+        if (compression == null || "none".equals(compression))
+            compressionType = LogRecord.COMPRESSION_NONE;
+        else if ("deflate".equals(compression))
+            compressionType = LogRecord.COMPRESSION_DEFLATE;
+        else
+            throw new ReplicatorException(
+                    "Invalid value for log record compression; must be none or deflate: "
+                            + compression);
+        logger.info("Compression for new log records: " + compression);
 
         // Ensure log directory is ready for use, which includes creating
         // a new log directory if desired.
@@ -457,6 +614,7 @@ public class DiskLog
                 // record(s) to prepare the file for use.
                 iteration++;
                 logFile = openLastFile(readOnly);
+                resetSeekIndex(logFile.getFile().getName());
                 long maxSeqno = logFile.getBaseSeqno();
                 long lastCompleteEventOffset = LogFile.HEADER_LENGTH;
                 boolean logFileIsEmpty = true;
@@ -475,12 +633,17 @@ public class DiskLog
                 while (!currentRecord.isEmpty())
                 {
                     // See what kind of event we have.
-                    lastRecordType = currentRecord.getData()[0];
+                    lastRecordType = currentRecord.getRecordType();
                     if (lastRecordType == LogRecord.EVENT_REPL)
                     {
                         LogEventReplReader eventReader = new LogEventReplReader(
                                 currentRecord, eventSerializer, doChecksum);
                         lastFrag = eventReader.isLastFrag();
+                        if (eventReader.getFragno() == 0)
+                        {
+                            addSeekIndexEntry(logFile, eventReader.getSeqno(),
+                                    currentRecord.getOffset());
+                        }
 
                         // If we are on a last fragment of an event, update the
                         // last complete transaction offset and store the
@@ -525,6 +688,7 @@ public class DiskLog
                             fileIndex = Long.valueOf(fileName
                                     .substring(logFileIndexPos + 1));
                             fileIndex = (fileIndex + 1) % Integer.MAX_VALUE;
+                            writeSeekIndex(fileName);
                             logFile = this.startNewLogFile(maxSeqno + 1);
                             logFileIsEmpty = false;
                         }
@@ -560,6 +724,8 @@ public class DiskLog
                                 + " length="
                                 + lastCompleteEventOffset);
                         logFile.setLength(lastCompleteEventOffset);
+                        truncateSeekIndex(logFile.getFile().getName(),
+                                lastCompleteEventOffset);
                     }
                     else
                     {
@@ -581,6 +747,8 @@ public class DiskLog
                                 + (logFile.getLength() - currentRecord
                                         .getOffset()));
                         logFile.setLength(currentRecord.getOffset());
+                        truncateSeekIndex(logFile.getFile().getName(),
+                                currentRecord.getOffset());
                         logger.info("Log file truncated to end of last good record: length="
                                 + logFile.getLength());
                     }
@@ -617,6 +785,7 @@ public class DiskLog
                                         "Unable to delete empty log file: "
                                                 + emptyFile.getAbsolutePath());
                             }
+                            removeSeekIndex(emptyFile.getName());
                             index.removeFile(index.getLastFile());
                         }
                         else
@@ -660,14 +829,26 @@ public class DiskLog
                 logFile.close();
         }
 
+        // Clean up seek indexes left behind by log files that were removed
+        // while the log was closed.
+        if (isWritable())
+            removeOrphanedSeekIndexes();
+
         // If this log is writable, compute the write flush interval.
         logger.info("Setting up log flush policy: fsyncIntervalMillis="
-                + flushIntervalMillis + " fsyncOnFlush=" + this.fsyncOnFlush);
+                + flushIntervalMillis + " fsyncOnFlush=" + this.fsyncOnFlush
+                + " groupCommit=" + this.groupCommit);
         if (!this.readOnly)
         {
             startLogSyncTask();
         }
 
+        // Set up the event cache. Only writable logs see commits, so readers
+        // of read-only logs always go to disk.
+        if (!this.readOnly)
+            eventsCache = new EventsCache(eventCacheSize);
+        eventsCache.reset(getMaxSeqno());
+
         // Open up the connection manager for business.
         this.cursorManager = new LogCursorManager();
         cursorManager.setTimeoutMillis(logConnectionTimeoutMillis);
@@ -697,9 +878,10 @@ public class DiskLog
     // Start log sync task.
     private void startLogSyncTask()
     {
-        if (flushIntervalMillis > 0)
+        if (isLogSyncTaskEnabled())
         {
-            logSyncTask = new LogFlushTask(flushIntervalMillis);
+            logSyncTask = new LogFlushTask(flushIntervalMillis,
+                    isGroupCommitEnabled());
             logSyncThread = new Thread(logSyncTask, "log-sync-"
                     + logDir.getName());
             logSyncThread.start();
@@ -731,13 +913,25 @@ public class DiskLog
         }
     }
 
+    // Returns true if commits should use group commit.
+    private boolean isGroupCommitEnabled()
+    {
+        return groupCommit && fsyncOnFlush;
+    }
+
+    // Returns true if we need a log sync task.
+    private boolean isLogSyncTaskEnabled()
+    {
+        return flushIntervalMillis > 0 || isGroupCommitEnabled();
+    }
+
     /**
      * Ensure the log sync tasks is running.
      */
     void checkLogSyncTask() throws InterruptedException
     {
         // Ensure that sync thread is healthy. If not, restart it.
-        if (flushIntervalMillis > 0 && logSyncTask.isFinished())
+        if (isLogSyncTaskEnabled() && logSyncTask.isFinished())
         {
             stopLogSyncTask();
             startLogSyncTask();
@@ -878,9 +1072,202 @@ public class DiskLog
                             + dataFile.getFile().getName(), e);
         }
 
+        // The file is now complete, so we can store its seek index.
+        writeSeekIndex(dataFile.getFile().getName());
+
         return startNewLogFile(seqno);
     }
 
+    /**
+     * Adds an entry to the seek index of the log file being written. Only
+     * first fragments of transactions should be added.
+     * 
+     * @param logFile Log file containing the record
+     * @param seqno Sequence number of the record
+     * @param offset Offset of the record in the log file
+     */
+    void addSeekIndexEntry(LogFile logFile, long seqno, long offset)
+    {
+        if (seekIndexInterval <= 0)
+            return;
+
+        String name = logFile.getFile().getName();
+        synchronized (seekIndexLock)
+        {
+            if (activeSeekIndex == null || !name.equals(activeSeekIndexName))
+            {
+                activeSeekIndex = new LogFileIndex(seekIndexInterval);
+                activeSeekIndexName = name;
+            }
+            activeSeekIndex.add(seqno, offset);
+        }
+    }
+
+    /**
+     * Returns the seek index for a log file or null if there is none. The
+     * index of the file being written is kept in memory; indexes of rotated
+     * files are loaded from disk and cached.
+     */
+    LogFileIndex getSeekIndex(String logFileName)
+    {
+        if (seekIndexInterval <= 0)
+            return null;
+
+        synchronized (seekIndexLock)
+        {
+            if (logFileName.equals(activeSeekIndexName))
+                return activeSeekIndex;
+
+            LogFileIndex seekIndex = seekIndexCache.get(logFileName);
+            if (seekIndex == null)
+            {
+                seekIndex = LogFileIndex.read(getSeekIndexFile(logFileName));
+                if (seekIndex != null)
+                    cacheSeekIndex(logFileName, seekIndex);
+            }
+            return seekIndex;
+        }
+    }
+
+    // Writes the seek index of a completed log file to disk. Failures only
+    // cost seek performance, so we log them and continue.
+    private void writeSeekIndex(String logFileName)
+    {
+        synchronized (seekIndexLock)
+        {
+            if (activeSeekIndex == null
+                    || !logFileName.equals(activeSeekIndexName))
+                return;
+
+            File indexFile = getSeekIndexFile(logFileName);
+            try
+            {
+                activeSeekIndex.write(indexFile);
+                cacheSeekIndex(logFileName, activeSeekIndex);
+            }
+            catch (IOException e)
+            {
+                logger.warn("Unable to write seek index: file="
+                        + indexFile.getAbsolutePath() + " message="
+                        + e.getMessage());
+            }
+            activeSeekIndex = null;
+            activeSeekIndexName = null;
+        }
+    }
+
+    // Starts a new, empty seek index for the log file being written.
+    private void resetSeekIndex(String logFileName)
+    {
+        synchronized (seekIndexLock)
+        {
+            activeSeekIndex = null;
+            activeSeekIndexName = null;
+            if (seekIndexInterval > 0)
+            {
+                activeSeekIndex = new LogFileIndex(seekIndexInterval);
+                activeSeekIndexName = logFileName;
+            }
+        }
+    }
+
+    // Deletes seek index files whose log files no longer exist, for example
+    // because they were purged by log retention.
+    private void removeOrphanedSeekIndexes()
+    {
+        File[] indexFiles = listLogFiles(logDir, INDEX_FILENAME_PREFIX);
+        for (File indexFile : indexFiles)
+        {
+            String suffix = indexFile.getName().substring(
+                    INDEX_FILENAME_PREFIX.length());
+            File dataFile = new File(logDir, DATA_FILENAME_PREFIX + suffix);
+            if (!dataFile.exists())
+            {
+                synchronized (seekIndexLock)
+                {
+                    seekIndexCache.remove(dataFile.getName());
+                }
+                if (!indexFile.delete())
+                    logger.warn("Unable to delete seek index: "
+                            + indexFile.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Discards the seek index of a log file after a reader has found an entry
+     * that does not match the file contents, so that later seeks do not
+     * trip over it again.
+     */
+    void discardSeekIndex(String logFileName)
+    {
+        synchronized (seekIndexLock)
+        {
+            if (logFileName.equals(activeSeekIndexName))
+                resetSeekIndex(logFileName);
+            else
+            {
+                // Cache an empty index so we do not load the file again.
+                if (isWritable())
+                    removeSeekIndex(logFileName);
+                cacheSeekIndex(logFileName, new LogFileIndex(
+                        seekIndexInterval));
+            }
+        }
+    }
+
+    // Drops seek index entries at or beyond an offset after truncating a log
+    // file.
+    private void truncateSeekIndex(String logFileName, long offset)
+    {
+        synchronized (seekIndexLock)
+        {
+            if (logFileName.equals(activeSeekIndexName))
+                activeSeekIndex.truncate(offset);
+            else
+                removeSeekIndex(logFileName);
+        }
+    }
+
+    // Removes the seek index for a log file from memory and disk.
+    private void removeSeekIndex(String logFileName)
+    {
+        synchronized (seekIndexLock)
+        {
+            if (logFileName.equals(activeSeekIndexName))
+            {
+                activeSeekIndex = null;
+                activeSeekIndexName = null;
+            }
+            seekIndexCache.remove(logFileName);
+            File indexFile = getSeekIndexFile(logFileName);
+            if (indexFile.exists() && !indexFile.delete())
+            {
+                logger.warn("Unable to delete seek index: "
+                        + indexFile.getAbsolutePath());
+            }
+        }
+    }
+
+    // Adds a seek index to the cache, evicting the least recently used one if
+    // the cache is full.
+    private void cacheSeekIndex(String logFileName, LogFileIndex seekIndex)
+    {
+        seekIndexCache.put(logFileName, seekIndex);
+        if (seekIndexCache.size() > SEEK_INDEX_CACHE_SIZE)
+        {
+            String eldest = seekIndexCache.keySet().iterator().next();
+            seekIndexCache.remove(eldest);
+        }
+    }
+
+    // Returns the seek index file corresponding to a log file.
+    private File getSeekIndexFile(String logFileName)
+    {
+        String suffix = logFileName.substring(logFileName.lastIndexOf('.') + 1);
+        return new File(logDir, INDEX_FILENAME_PREFIX + suffix);
+    }
+
     /**
      * Returns the log file containing a particular seqno or null if it does not
      * exist.
@@ -898,11 +1285,7 @@ public class DiskLog
         if (name == null)
             return null;
         else
-        {
-            LogFile logFile = new LogFile(logDir, name);
-            logFile.setBufferSize(bufferSize);
-            return logFile;
-        }
+            return newReadLogFile(name);
     }
 
     /**
@@ -911,15 +1294,25 @@ public class DiskLog
     LogFile getLogFile(String name)
     {
         if (index.fileNameExists(name))
-        {
-            LogFile logFile = new LogFile(logDir, name);
-            logFile.setBufferSize(bufferSize);
-            return logFile;
-        }
+            return newReadLogFile(name);
         else
             return null;
     }
 
+    /**
+     * Returns a log file instance for reading. If mapped reads are enabled,
+     * the file is mapped unless it is the last file in the log, which may
+     * still be written.
+     */
+    private LogFile newReadLogFile(String name)
+    {
+        LogFile logFile = new LogFile(logDir, name);
+        logFile.setBufferSize(bufferSize);
+        if (mappedReads && !name.equals(index.getLastFile()))
+            logFile.setMappedReads(true);
+        return logFile;
+    }
+
     /**
      * Returns the name of a log file based on an index
      * 
@@ -945,8 +1338,7 @@ public class DiskLog
         File newFile = new File(logDir, newFileName);
         if (newFile.exists())
         {
-            LogFile logFile = new LogFile(newFile);
-            logFile.setBufferSize(bufferSize);
+            LogFile logFile = newReadLogFile(newFileName);
             logFile.openRead();
             return logFile;
         }
@@ -1024,6 +1416,9 @@ public class DiskLog
                 truncateFile(client, lie, lowSeqno);
             }
         }
+
+        // Cached events may have been deleted.
+        eventsCache.reset(getMaxSeqno());
     }
 
     // Drops a file completely.
@@ -1035,6 +1430,7 @@ public class DiskLog
         {
             logger.warn("Unable to delete log file: " + f.getAbsolutePath());
         }
+        removeSeekIndex(entry.fileName);
     }
 
     // Truncates the file at a particular sequence number.
@@ -1057,7 +1453,7 @@ public class DiskLog
             {
 
                 // See what kind of event we have.
-                byte recordType = currentRecord.getData()[0];
+                byte recordType = currentRecord.getRecordType();
                 if (recordType == LogRecord.EVENT_REPL)
                 {
                     LogEventReplReader eventReader = new LogEventReplReader(
@@ -1071,6 +1467,7 @@ public class DiskLog
                         logger.info("Truncating log file after sequence number: file="
                                 + entry.fileName + " seqno=" + seqno);
                         logFile.setLength(offset);
+                        truncateSeekIndex(entry.fileName, offset);
                         index.setMaxIndexedSeqno(seqno - 1);
                         break;
                     }
@@ -1140,7 +1537,8 @@ public class DiskLog
         {
             data.setLogSyncTask(logSyncTask);
             data.setFlushIntervalMillis(flushIntervalMillis);
-            data.setFsyncOnFlush(readOnly);
+            data.setFsyncOnFlush(fsyncOnFlush);
+            data.setGroupCommit(groupCommit);
         }
         data.setBufferSize(bufferSize);
 
@@ -1186,8 +1584,10 @@ public class DiskLog
         }
         dataFile.create(seqno);
 
-        // Add the file to the volatile index.
+        // Add the file to the volatile index. This may purge old log files,
+        // so we clean up their seek indexes as well.
         index.addNewFile(seqno, logFileName);
+        removeOrphanedSeekIndexes();
 
         return dataFile;
     }
@@ -24,6 +24,7 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -32,6 +33,7 @@ import org.apache.log4j.Logger;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplEvent;
+import com.continuent.tungsten.replicator.thl.EventsCache;
 import com.continuent.tungsten.replicator.thl.THLEvent;
 import com.continuent.tungsten.replicator.thl.THLException;
 import com.continuent.tungsten.replicator.thl.serializer.Serializer;
@@ -67,13 +69,14 @@ public class LogConnection
     // Disk log parameters.
     private DiskLog            diskLog;
     private LogCursor          cursor;
-    private Queue<THLEvent>    pendingEvent  = new LinkedList<THLEvent>();
+    private Queue<LogRecord>   pendingRecord = new LinkedList<LogRecord>();
     private long               pendingSeqno;
     private short              lastFragno    = -1;
 
     // Information required for successful output.
     private boolean            doChecksum;
     private Serializer         eventSerializer;
+    private byte               compressionType;
     private int                logFileSize;
     private int                timeoutMillis;
     private int                logRotateMillis;
@@ -81,6 +84,19 @@ public class LogConnection
     // Filter used to decide whether to deserialize events on input.
     private LogEventReadFilter readFilter;
 
+    // Reusable buffer for records we write. Buffers that grow past the
+    // retained size on large transactions are shrunk again afterwards.
+    private static final int   RECORD_BUFFER_SIZE          = 8192;
+    private static final int   RECORD_BUFFER_RETAINED_SIZE = 1048576;
+    private LogRecordBuffer    recordBuffer;
+
+    // Events written since the last flush, which go to the event cache once
+    // they are committed, and the highest seqno written since the last flush.
+    private EventsCache          eventsCache;
+    private ArrayList<THLEvent>  uncommittedEvents;
+    private ArrayList<LogRecord> uncommittedRecords;
+    private long                 uncommittedSeqno            = -1;
+
     /**
      * Instantiates a client on a disk log.
      * 
@@ -95,6 +111,7 @@ public class LogConnection
         // Fetch log information for reads.
         this.eventSerializer = diskLog.getEventSerializer();
         this.doChecksum = diskLog.isDoChecksum();
+        this.compressionType = diskLog.getCompressionType();
         this.timeoutMillis = diskLog.getTimeoutMillis();
         this.logRotateMillis = diskLog.getLogRotateMillis();
 
@@ -102,6 +119,11 @@ public class LogConnection
         if (!readonly)
         {
             this.logFileSize = diskLog.getLogFileSize();
+            this.recordBuffer = new LogRecordBuffer(RECORD_BUFFER_SIZE,
+                    RECORD_BUFFER_RETAINED_SIZE);
+            this.eventsCache = diskLog.getEventsCache();
+            this.uncommittedEvents = new ArrayList<THLEvent>();
+            this.uncommittedRecords = new ArrayList<LogRecord>();
         }
     }
 
@@ -218,8 +240,7 @@ public class LogConnection
             cursor.release();
             cursor = null;
         }
-        pendingEvent.clear();
-        ;
+        pendingRecord.clear();
         pendingSeqno = UNINITIALIZED;
 
         // Find the log file that contains our sequence number.
@@ -259,6 +280,10 @@ public class LogConnection
             return true;
         }
 
+        // If the seek index has an entry for an earlier transaction in this
+        // file, start scanning from there instead of the file beginning.
+        skipToIndexedOffset(logFile, seqno);
+
         // Track the previous event log record. This enables us to return
         // filtered events, which skip sequence numbers.
         LogRecord previousLogRecord = null;
@@ -310,7 +335,7 @@ public class LogConnection
                                         logger.debug("Found containing filtered event: seqno="
                                                 + seqno);
                                     }
-                                    pendingEvent.add(trialEvent);
+                                    pendingRecord.add(previousLogRecord);
                                     return true;
                                 }
                             }
@@ -329,8 +354,7 @@ public class LogConnection
                         break;
                 }
 
-                byte[] bytes = logRecord.getData();
-                byte recordType = bytes[0];
+                byte recordType = logRecord.getRecordType();
                 if (recordType == LogRecord.EVENT_REPL)
                 {
                     // We have an event. Check the header.
@@ -344,7 +368,7 @@ public class LogConnection
                         if (logger.isDebugEnabled())
                             logger.debug("Found requested event (" + seqno
                                     + "/" + fragno + ")");
-                        pendingEvent.add(deserialize(logRecord));
+                        pendingRecord.add(logRecord);
                         break;
                     }
                     else if (eventReader.getSeqno() > seqno
@@ -356,8 +380,8 @@ public class LogConnection
                         if (logger.isDebugEnabled())
                             logger.debug("Found filtered event (" + seqno + "/"
                                     + fragno + ")");
-                        pendingEvent.add(deserialize(previousLogRecord));
-                        pendingEvent.add(deserialize(logRecord));
+                        pendingRecord.add(previousLogRecord);
+                        pendingRecord.add(logRecord);
                         break;
                     }
                     else if (eventReader.getSeqno() > seqno
@@ -399,7 +423,7 @@ public class LogConnection
                         if (logger.isDebugEnabled())
                             logger.debug("Found suspected filtered event ("
                                     + seqno + "/" + fragno + ")");
-                        pendingEvent.add(deserialize(previousLogRecord));
+                        pendingRecord.add(previousLogRecord);
                     }
                     break;
                 }
@@ -420,7 +444,79 @@ public class LogConnection
         }
 
         // If we have a pending event, the seek was successful.
-        return (pendingEvent.size() > 0);
+        return (pendingRecord.size() > 0);
+    }
+
+    // Positions the log file on the closest transaction at or before the
+    // sequence number using the seek index. Index entries are only hints, so
+    // we check that the record at the indexed offset is the start of the
+    // indexed transaction and go back to the file beginning if it is not.
+    private void skipToIndexedOffset(LogFile logFile, long seqno)
+            throws ReplicatorException, InterruptedException
+    {
+        LogFileIndex seekIndex = diskLog.getSeekIndex(logFile.getFile()
+                .getName());
+        if (seekIndex == null)
+            return;
+        long indexedSeqno = seekIndex.findSeqno(seqno);
+        long indexedOffset = seekIndex.findOffset(seqno);
+        if (indexedSeqno < 0 || indexedOffset <= LogFile.HEADER_LENGTH)
+            return;
+
+        try
+        {
+            logFile.seekOffset(indexedOffset);
+            LogRecord logRecord = logFile.readRecord(0);
+            boolean valid = false;
+            if (!logRecord.isEmpty() && !logRecord.isTruncated()
+                    && logRecord.getRecordType() == LogRecord.EVENT_REPL)
+            {
+                LogEventReplReader eventReader = new LogEventReplReader(
+                        logRecord, eventSerializer, doChecksum);
+                valid = (eventReader.getSeqno() == indexedSeqno && eventReader
+                        .getFragno() == 0);
+                eventReader.done();
+            }
+
+            if (valid)
+            {
+                if (logger.isDebugEnabled())
+                    logger.debug("Using seek index to skip to seqno "
+                            + indexedSeqno + " at offset " + indexedOffset
+                            + " in file " + logFile.getFile().getName());
+                logFile.seekOffset(indexedOffset);
+            }
+            else
+            {
+                logger.warn("Discarding invalid seek index: file="
+                        + logFile.getFile().getName() + " seqno="
+                        + indexedSeqno + " offset=" + indexedOffset);
+                diskLog.discardSeekIndex(logFile.getFile().getName());
+                logFile.seekOffset(LogFile.HEADER_LENGTH);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new THLException("Failed to read log using seek index", e);
+        }
+        catch (THLException e)
+        {
+            // Stale entries may point into the middle of a record, which
+            // looks like a bad record. Fall back to a full scan.
+            logger.warn("Discarding unreadable seek index: file="
+                    + logFile.getFile().getName() + " seqno=" + indexedSeqno
+                    + " offset=" + indexedOffset + " (" + e.getMessage() + ")");
+            diskLog.discardSeekIndex(logFile.getFile().getName());
+            try
+            {
+                logFile.seekOffset(LogFile.HEADER_LENGTH);
+            }
+            catch (IOException e1)
+            {
+                throw new THLException("Failed to read log using seek index",
+                        e1);
+            }
+        }
     }
 
     // Deserialize the event we just found. This takes into consideration
@@ -428,8 +524,14 @@ public class LogConnection
     private THLEvent deserialize(LogRecord logRecord)
             throws ReplicatorException
     {
-        LogEventReplReader eventReader = new LogEventReplReader(logRecord,
-                eventSerializer, doChecksum);
+        return deserialize(new LogEventReplReader(logRecord, eventSerializer,
+                doChecksum));
+    }
+
+    // Deserialize an event whose header has already been read.
+    private THLEvent deserialize(LogEventReplReader eventReader)
+            throws ReplicatorException
+    {
         THLEvent event;
 
         // If there is no read filter or if the filter asks us to accept, then
@@ -438,6 +540,9 @@ public class LogConnection
         if (readFilter == null || readFilter.accept(eventReader))
         {
             event = eventReader.deserializeEvent();
+            if (event.getReplEvent() != null)
+                event.getReplEvent().setEstimatedSize(
+                        eventReader.getLogRecord().getDataLength());
         }
         else
         {
@@ -513,7 +618,7 @@ public class LogConnection
             cursor.release();
             cursor = null;
         }
-        pendingEvent.clear();
+        pendingRecord.clear();
     }
 
     /**
@@ -529,6 +634,27 @@ public class LogConnection
      */
     public synchronized THLEvent next(boolean block)
             throws ReplicatorException, InterruptedException
+    {
+        LogEventReplReader eventReader = nextRecord(block);
+        if (eventReader == null)
+            return null;
+        else
+            return deserialize(eventReader);
+    }
+
+    /**
+     * Returns the next event record in the log without deserializing the
+     * event. This follows the same rules as {@link #next(boolean)} but hands
+     * back a reader that has only loaded the record header. Callers can ship
+     * or copy the stored record from {@link LogEventReplReader#getLogRecord()}
+     * as is. The read filter is not applied.
+     * 
+     * @param block If true, read blocks until next event is available
+     * @return A reader positioned on the event record or null if we are
+     *         non-blocking
+     */
+    public synchronized LogEventReplReader nextRecord(boolean block)
+            throws ReplicatorException, InterruptedException
     {
         assertNotDone();
 
@@ -540,10 +666,10 @@ public class LogConnection
         }
 
         // If we have a pending event, just hand that back.
-        if (pendingEvent.size() > 0)
+        if (pendingRecord.size() > 0)
         {
-            THLEvent event = pendingEvent.remove();
-            return event;
+            return new LogEventReplReader(pendingRecord.remove(),
+                    eventSerializer, doChecksum);
         }
 
         // Retrieve the log file and optionally note the name.
@@ -560,8 +686,8 @@ public class LogConnection
             readTimeoutMillis = timeoutMillis;
 
         // Scan for the record.
-        THLEvent event = null;
-        while (event == null)
+        LogEventReplReader eventReader = null;
+        while (eventReader == null)
         {
             try
             {
@@ -574,15 +700,17 @@ public class LogConnection
                     return null;
                 }
 
-                byte[] bytes = logRecord.getData();
-                byte recordType = bytes[0];
+                byte recordType = logRecord.getRecordType();
                 if (recordType == LogRecord.EVENT_REPL)
                 {
-                    event = deserialize(logRecord);
-                    if (event.getSeqno() < this.pendingSeqno)
+                    eventReader = new LogEventReplReader(logRecord,
+                            eventSerializer, doChecksum);
+                    if (eventReader.getSeqno() < this.pendingSeqno)
                     {
                         // If we are seeking a future event, keep trying.
-                        event = null;
+                        // Only the header is read for skipped events.
+                        eventReader.done();
+                        eventReader = null;
                         continue;
                     }
                     else
@@ -675,15 +803,15 @@ public class LogConnection
         // sure we found what we expected.
         if (pendingSeqno != UNINITIALIZED)
         {
-            if (event.getSeqno() != pendingSeqno)
+            if (eventReader.getSeqno() != pendingSeqno)
                 throw new LogPositionException(
                         "Log seek failure: expected seqno=" + pendingSeqno
-                                + " found seqno=" + event.getSeqno());
+                                + " found seqno=" + eventReader.getSeqno());
             pendingSeqno = UNINITIALIZED;
         }
 
         // Return the event.
-        return event;
+        return eventReader;
     }
 
     /**
@@ -705,8 +833,33 @@ public class LogConnection
      */
     public synchronized void store(THLEvent event, boolean commit)
             throws ReplicatorException, InterruptedException
+    {
+        store(event, null, commit);
+    }
+
+    /**
+     * Store a THL event at the end of the log using a log record that already
+     * holds the event in stored form, for example a record shipped unchanged
+     * from another log. The record is appended as is, which avoids serializing
+     * the event again. The caller must ensure the record matches the event
+     * header and was written with the same serializer as this log.
+     * 
+     * @param event THLEvent to store
+     * @param record Log record containing the event or null to serialize the
+     *            event
+     * @param commit If true, flush to storage
+     */
+    public synchronized void store(THLEvent event, LogRecord record,
+            boolean commit) throws ReplicatorException, InterruptedException
     {
         assertWritable();
+        if (record != null && record.getRecordType() != LogRecord.EVENT_REPL)
+        {
+            throw new THLException(
+                    "Attempt to store log record that is not an event: seqno="
+                            + event.getSeqno() + " record type="
+                            + record.getRecordType());
+        }
 
         // Ensure that the sequence number does not go backwards. That means
         // our client is confused.
@@ -771,23 +924,46 @@ public class LogConnection
                 cursor = new LogCursor(dataFile, event.getSeqno());
             }
 
-            // Write the event to byte stream.
-            LogEventReplWriter eventWriter = new LogEventReplWriter(event,
-                    eventSerializer, doChecksum, dataFile.getFile());
-            LogRecord logRecord = eventWriter.write();
-
-            // Write to the file.
-            dataFile.writeRecord(logRecord, logFileSize);
+            // Write to the file. Unless we already have the stored record,
+            // serialize the event into the record buffer, which computes the
+            // CRC as it goes. Note the position of the first fragment of each
+            // transaction in the seek index.
+            long recordOffset = dataFile.getOffset();
+            if (record == null)
+            {
+                LogEventReplWriter eventWriter = new LogEventReplWriter(event,
+                        eventSerializer, doChecksum, dataFile.getFile(),
+                        compressionType);
+                eventWriter.write(recordBuffer);
+                dataFile.writeRecord(recordBuffer, logFileSize);
+                if (isCacheable(event))
+                    record = recordBuffer.toLogRecord();
+            }
+            else
+                dataFile.writeRecord(record, logFileSize);
+            if (event.getFragno() == 0)
+                diskLog.addSeekIndexEntry(dataFile, event.getSeqno(),
+                        recordOffset);
             diskLog.setMaxSeqno(event.getSeqno());
             if (event.getLastFrag())
                 lastFragno = -1;
             else
                 lastFragno = event.getFragno();
 
+            // Hold on to the event until it is committed.
+            if (isCacheable(event))
+            {
+                uncommittedEvents.add(event);
+                uncommittedRecords.add(record);
+            }
+            else if (eventsCache.getCacheSize() > 0)
+                uncommittedSeqno = lastSeqnoOf(event);
+
             // If it is time to commit, make it happen!
             if (commit)
             {
                 dataFile.flush();
+                publishCommitted();
             }
         }
         catch (IOException e)
@@ -822,6 +998,7 @@ public class LogConnection
                         + cursor.getLastSeqno() + " log file="
                         + dataFile.getFile().getName());
             }
+            publishCommitted();
 
             // This is a good time to make sure the sync thread is running.
             diskLog.checkLogSyncTask();
@@ -838,6 +1015,38 @@ public class LogConnection
         assertWritable();
     }
 
+    // Returns true if the event goes to the event cache when committed.
+    private boolean isCacheable(THLEvent event)
+    {
+        return eventsCache.getCacheSize() > 0 && event.getFragno() == 0
+                && event.getLastFrag()
+                && !(event.getReplEvent() instanceof ReplDBMSFilteredEvent);
+    }
+
+    // Returns the last sequence number covered by an event.
+    private long lastSeqnoOf(THLEvent event)
+    {
+        if (event.getReplEvent() instanceof ReplDBMSFilteredEvent)
+            return ((ReplDBMSFilteredEvent) event.getReplEvent())
+                    .getSeqnoEnd();
+        else
+            return event.getSeqno();
+    }
+
+    // Hands committed events to the event cache so that readers can see them.
+    private void publishCommitted()
+    {
+        for (int i = 0; i < uncommittedEvents.size(); i++)
+            eventsCache.put(uncommittedEvents.get(i), uncommittedRecords.get(i));
+        uncommittedEvents.clear();
+        uncommittedRecords.clear();
+        if (uncommittedSeqno >= 0)
+        {
+            eventsCache.setLastSeqno(uncommittedSeqno);
+            uncommittedSeqno = -1;
+        }
+    }
+
     /**
      * Delete a range of events from the log.
      */
@@ -24,6 +24,8 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.thl.THLEvent;
@@ -160,8 +162,27 @@ public class LogEventReplReader
     {
         try
         {
-            THLEvent thlEvent = serializer.deserializeEvent(dis);
-            return thlEvent;
+            byte compressionType = logRecord.getCompressionType();
+            if (compressionType == LogRecord.COMPRESSION_NONE)
+                return serializer.deserializeEvent(dis);
+            else if (compressionType == LogRecord.COMPRESSION_DEFLATE)
+            {
+                Inflater inflater = new Inflater();
+                try
+                {
+                    return serializer.deserializeEvent(new InflaterInputStream(
+                            dis, inflater));
+                }
+                finally
+                {
+                    inflater.end();
+                }
+            }
+            else
+                throw new THLException(
+                        "Unsupported log record compression type: offset="
+                                + logRecord.getOffset() + " compressionType="
+                                + compressionType);
         }
         catch (IOException e)
         {
@@ -25,6 +25,8 @@ package com.continuent.tungsten.replicator.thl.log;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.thl.THLEvent;
@@ -33,7 +35,8 @@ import com.continuent.tungsten.replicator.thl.serializer.Serializer;
 
 /**
  * This class encapsulates operations to write a log record header and
- * serialized THLEvent.
+ * serialized THLEvent. The header is always stored uncompressed so that it can
+ * be scanned cheaply; the serialized event may optionally be compressed.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  */
@@ -44,17 +47,32 @@ public class LogEventReplWriter
     private Serializer serializer;
     private boolean    checkCRC;
     private File       file;
+    private byte       compressionType;
 
     /**
-     * Instantiate the writer.
+     * Instantiate the writer without compression.
      */
     public LogEventReplWriter(THLEvent event, Serializer serializer,
             boolean checkCRC, File file) throws ReplicatorException
+    {
+        this(event, serializer, checkCRC, file, LogRecord.COMPRESSION_NONE);
+    }
+
+    /**
+     * Instantiate the writer.
+     * 
+     * @param compressionType Compression to apply to the serialized event, for
+     *            example LogRecord.COMPRESSION_DEFLATE
+     */
+    public LogEventReplWriter(THLEvent event, Serializer serializer,
+            boolean checkCRC, File file, byte compressionType)
+            throws ReplicatorException
     {
         this.event = event;
         this.serializer = serializer;
         this.checkCRC = checkCRC;
         this.file = file;
+        this.compressionType = compressionType;
     }
 
     /**
@@ -66,18 +84,8 @@ public class LogEventReplWriter
         try
         {
             DataOutputStream dos = new DataOutputStream(logRecord.write());
-            dos.writeByte(LogRecord.EVENT_REPL);
-            dos.writeLong(event.getSeqno());
-            dos.writeShort(event.getFragno());
-            dos.writeByte((event.getLastFrag() ? 1 : 0));
-            dos.writeLong(event.getEpochNumber());
-            dos.writeUTF(event.getSourceId());
-            dos.writeUTF(event.getEventId());
-            dos.writeUTF(event.getShardId());
-            dos.writeLong(event.getSourceTstamp().getTime());
-
-            serializer.serializeEvent(event, dos);
-            dos.flush();
+            writeData(dos);
+            logRecord.setCompressionType(compressionType);
             logRecord.done();
 
             if (checkCRC)
@@ -95,4 +103,68 @@ public class LogEventReplWriter
 
         return logRecord;
     }
+
+    /**
+     * Write the log record into a reusable buffer, which computes the CRC as
+     * data are serialized. The buffer holds the complete record ready to be
+     * written to a log file.
+     * 
+     * @param buffer Buffer to hold the record; any previous content is
+     *            discarded
+     */
+    public void write(LogRecordBuffer buffer) throws ReplicatorException
+    {
+        buffer.reset(checkCRC);
+        try
+        {
+            writeData(new DataOutputStream(buffer));
+            buffer.finish(compressionType);
+        }
+        catch (IOException e)
+        {
+            throw new THLException("Error writing log record data: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    // Write record header and serialized event.
+    private void writeData(DataOutputStream dos) throws IOException,
+            ReplicatorException
+    {
+        dos.writeByte(LogRecord.EVENT_REPL);
+        dos.writeLong(event.getSeqno());
+        dos.writeShort(event.getFragno());
+        dos.writeByte((event.getLastFrag() ? 1 : 0));
+        dos.writeLong(event.getEpochNumber());
+        dos.writeUTF(event.getSourceId());
+        dos.writeUTF(event.getEventId());
+        dos.writeUTF(event.getShardId());
+        dos.writeLong(event.getSourceTstamp().getTime());
+
+        if (compressionType == LogRecord.COMPRESSION_NONE)
+        {
+            serializer.serializeEvent(event, dos);
+        }
+        else if (compressionType == LogRecord.COMPRESSION_DEFLATE)
+        {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try
+            {
+                DeflaterOutputStream zos = new DeflaterOutputStream(dos,
+                        deflater);
+                serializer.serializeEvent(event, zos);
+                zos.finish();
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+        else
+        {
+            throw new THLException("Unsupported compression type: "
+                    + compressionType);
+        }
+        dos.flush();
+    }
 }
\ No newline at end of file
@@ -23,7 +23,12 @@
 package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 
 import org.apache.log4j.Logger;
 
@@ -35,7 +40,14 @@ import com.continuent.tungsten.replicator.thl.THLException;
 /**
  * This class manages I/O on a physical log file. It handles streams to read or
  * write from the underlying file.
- * 
+ * <p>
+ * Reads normally go through a buffered stream. If mapped reads are enabled,
+ * the file is instead mapped into memory when opened for reading and records
+ * are returned as slices of the mapping without copying. Mapped reads are
+ * intended for files that are no longer being written. If a reader reaches the
+ * end of the mapped region without finding a complete record, the file falls
+ * back to buffered reads from that offset, so late writes are never missed.
+ *
  * @author <a href="mailto:stephane.giron@continuent.com">Stephane Giron</a>
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
@@ -80,6 +92,10 @@ public class LogFile
     private long                   flushIntervalMillis = 0;
     /** If true, fsync when flushing. */
     private boolean                fsyncOnFlush        = false;
+    /** If true, map the file into memory when opening for reads. */
+    private boolean                mappedReads         = false;
+    /** If true, commits wait for a shared fsync from the log flush task. */
+    private boolean                groupCommit         = false;
 
     // Log sync task.
     private LogFlushTask           logFlushTask        = null;
@@ -89,6 +105,7 @@ public class LogFile
 
     // Input control data.
     private BufferedFileDataInput  dataInput;
+    private MappedByteBuffer       mappedInput;
 
     // Output parameters.
     private BufferedFileDataOutput dataOutput;
@@ -96,6 +113,11 @@ public class LogFile
     private long                   baseSeqno;
     private boolean                needsFlush;
 
+    // Group commit offsets: data up to flushedOffset have been handed to the
+    // OS, data up to syncedOffset are known to be on disk.
+    private volatile long          flushedOffset       = 0;
+    private volatile long          syncedOffset        = 0;
+
     /**
      * Creates a file from a parent directory and child filename. The file must
      * exist.
@@ -171,6 +193,49 @@ public class LogFile
         this.bufferSize = bufferSize;
     }
 
+    public synchronized boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /**
+     * If set to true and fsyncOnFlush is enabled, flush() hands data to the
+     * log flush task and waits until an fsync covering them has completed.
+     * Concurrent commits thereby share fsync calls. Requires a log flush task
+     * that has been created for group commit.
+     */
+    public synchronized void setGroupCommit(boolean groupCommit)
+    {
+        this.groupCommit = groupCommit;
+    }
+
+    /** Returns the offset up to which data are known to be on disk. */
+    public long getSyncedOffset()
+    {
+        return syncedOffset;
+    }
+
+    public synchronized boolean isMappedReads()
+    {
+        return mappedReads;
+    }
+
+    /**
+     * If set to true, map the file into memory when it is opened for reading.
+     * This should only be enabled on files that are no longer written, such as
+     * files that have been rotated.
+     */
+    public synchronized void setMappedReads(boolean mappedReads)
+    {
+        this.mappedReads = mappedReads;
+    }
+
+    /** Returns true if reads are currently served from a memory mapping. */
+    public synchronized boolean isMapped()
+    {
+        return mappedInput != null;
+    }
+
     // API Calls for opening and closing log files.
 
     /**
@@ -203,6 +268,84 @@ public class LogFile
         }
         mode = AccessMode.read;
         checkFileHeader(dataInput);
+
+        // If requested, map the file and switch reads over to the mapping.
+        if (mappedReads)
+            mapFile();
+    }
+
+    /**
+     * Maps the file into memory for reading, positioned at the current read
+     * offset. The buffered input is released as the mapping remains valid
+     * after the channel is closed. If the file cannot be mapped we just
+     * continue with buffered reads.
+     */
+    private void mapFile()
+    {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE)
+        {
+            logger.warn("Log file is too large to map; using buffered reads: file="
+                    + file.getName() + " length=" + length);
+            return;
+        }
+
+        FileInputStream fis = null;
+        try
+        {
+            fis = new FileInputStream(file);
+            FileChannel channel = fis.getChannel();
+            mappedInput = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mappedInput.position((int) dataInput.getOffset());
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to map log file; using buffered reads: file="
+                    + file.getName() + " message=" + e.getMessage());
+            mappedInput = null;
+            return;
+        }
+        finally
+        {
+            if (fis != null)
+            {
+                try
+                {
+                    fis.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+
+        dataInput.close();
+        dataInput = null;
+        if (logger.isDebugEnabled())
+            logger.debug("Mapped log file for reading: file=" + file.getName()
+                    + " length=" + length);
+    }
+
+    /**
+     * Drops the memory mapping and resumes buffered reads at the given offset.
+     */
+    private void unmapFile(long offset) throws ReplicatorException,
+            InterruptedException
+    {
+        mappedInput = null;
+        try
+        {
+            dataInput = new BufferedFileDataInput(file, bufferSize);
+            dataInput.seek(offset);
+        }
+        catch (IOException e)
+        {
+            throw new THLException("Unable to reopen mapped file for reading: "
+                    + file.getName(), e);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Switched mapped log file to buffered reads: file="
+                    + file.getName() + " offset=" + offset);
     }
 
     /**
@@ -232,6 +375,7 @@ public class LogFile
             bfdi.close();
 
             dataOutput = new BufferedFileDataOutput(file, bufferSize);
+            flushedOffset = syncedOffset = dataOutput.getOffset();
         }
         catch (IOException e)
         {
@@ -268,6 +412,7 @@ public class LogFile
         try
         {
             dataOutput = new BufferedFileDataOutput(file, bufferSize);
+            flushedOffset = syncedOffset = dataOutput.getOffset();
         }
         catch (IOException e)
         {
@@ -315,7 +460,7 @@ public class LogFile
                     dataInput.close();
                     dataInput = null;
                 }
-
+                mappedInput = null;
             }
             else if (mode == AccessMode.write)
             {
@@ -323,6 +468,24 @@ public class LogFile
                 {
                     if (logFlushTask != null)
                         logFlushTask.removeLogFile(this);
+                    if (isGroupCommitEnabled())
+                    {
+                        // Ensure anything written since the last commit
+                        // reaches the disk before we let go of the file.
+                        try
+                        {
+                            dataOutput.flush();
+                            dataOutput.force();
+                            syncedOffset = dataOutput.getOffset();
+                        }
+                        catch (IOException e)
+                        {
+                            logger.warn("Unable to sync log file on close: file="
+                                    + file.getName()
+                                    + " exception="
+                                    + e.getMessage());
+                        }
+                    }
                     dataOutput.close();
                     dataOutput = null;
                 }
@@ -447,7 +610,12 @@ public class LogFile
         try
         {
             if (mode == AccessMode.read)
-                return dataInput.getOffset();
+            {
+                if (mappedInput != null)
+                    return mappedInput.position();
+                else
+                    return dataInput.getOffset();
+            }
             else
                 return dataOutput.getOffset();
         }
@@ -469,7 +637,12 @@ public class LogFile
             ReplicatorException, InterruptedException
     {
         assertReadMode();
-        dataInput.seek(offset);
+        if (mappedInput != null && offset <= mappedInput.limit())
+            mappedInput.position((int) offset);
+        else if (mappedInput != null)
+            unmapFile(offset);
+        else
+            dataInput.seek(offset);
         if (logger.isDebugEnabled())
         {
             logger.debug("Skipping to position " + offset + " into file "
@@ -496,6 +669,16 @@ public class LogFile
             ReplicatorException
     {
         assertReadMode();
+
+        // Serve the record from the mapping if we can. Otherwise we fall
+        // through to a buffered read.
+        if (mappedInput != null)
+        {
+            LogRecord mappedRecord = readMappedRecord();
+            if (mappedRecord != null)
+                return mappedRecord;
+        }
+
         long offset = dataInput.getOffset();
         if (logger.isDebugEnabled())
             logger.debug("Reading log file position=" + offset);
@@ -583,11 +766,57 @@ public class LogFile
         return new LogRecord(file, offset, bytesToRead, crcType, crc);
     }
 
+    /**
+     * Reads a record from the memory mapping. The record data is a read-only
+     * slice of the mapping. If the mapping does not contain a full record,
+     * which can only happen if the file was still being written when mapped,
+     * we switch to buffered reads and return null so the caller can retry.
+     */
+    private LogRecord readMappedRecord() throws ReplicatorException,
+            InterruptedException
+    {
+        int offset = mappedInput.position();
+        int available = mappedInput.limit() - offset;
+        if (available >= RECORD_LENGTH_SIZE)
+        {
+            // Read the length. Check for corrupt data.
+            int recordLength = mappedInput.getInt(offset);
+            if (recordLength < LogRecord.NON_DATA_BYTES
+                    || recordLength > MAX_RECORD_LENGTH)
+            {
+                logger.warn("Record length is invalid, log may be corrupt: offset="
+                        + offset + " record length=" + recordLength);
+                return new LogRecord(file, offset, true);
+            }
+
+            // If the full record is present, slice it out.
+            if (recordLength <= available)
+            {
+                int dataOffset = offset + RECORD_LENGTH_SIZE;
+                int dataLength = recordLength - LogRecord.NON_DATA_BYTES;
+                ByteBuffer slice = mappedInput.duplicate();
+                slice.position(dataOffset);
+                slice.limit(dataOffset + dataLength);
+                byte crcType = mappedInput.get(dataOffset + dataLength);
+                long crc = mappedInput.getLong(dataOffset + dataLength + 1);
+                mappedInput.position(offset + recordLength);
+                return new LogRecord(file, offset, slice.slice()
+                        .asReadOnlyBuffer(), crcType, crc);
+            }
+        }
+
+        // We are at the end of the mapping.
+        unmapFile(offset);
+        return null;
+    }
+
     /** Reads a single short. */
     protected short readShort() throws IOException, ReplicatorException,
             InterruptedException
     {
         assertReadMode();
+        if (mappedInput != null)
+            unmapFile(mappedInput.position());
         return dataInput.readShort();
     }
 
@@ -596,6 +825,8 @@ public class LogFile
             InterruptedException
     {
         assertReadMode();
+        if (mappedInput != null)
+            unmapFile(mappedInput.position());
         return dataInput.readInt();
     }
 
@@ -604,6 +835,8 @@ public class LogFile
             InterruptedException
     {
         assertReadMode();
+        if (mappedInput != null)
+            unmapFile(mappedInput.position());
         return dataInput.readLong();
     }
 
@@ -665,7 +898,7 @@ public class LogFile
         assertWriteMode();
         dataOutput.writeInt((int) record.getRecordLength());
         dataOutput.write(record.getData());
-        dataOutput.writeByte(record.getCrcType());
+        dataOutput.writeByte(record.getStoredCrcType());
         dataOutput.writeLong(record.getCrc());
 
         // Record that we need a flush.
@@ -678,11 +911,114 @@ public class LogFile
             return false;
     }
 
+    /**
+     * Writes a complete record from a record buffer in a single write and
+     * returns true if we have exceeded the log file size.
+     * 
+     * @param buffer Finished record buffer
+     * @param logFileSize Maximum log file size
+     * @return true if log file size exceeded
+     */
+    public synchronized boolean writeRecord(LogRecordBuffer buffer,
+            int logFileSize) throws IOException, InterruptedException,
+            ReplicatorException
+    {
+        assertWriteMode();
+        if (!buffer.isFinished())
+            throw new THLException("Attempt to write unfinished log record: "
+                    + file.getName());
+        dataOutput.write(buffer.getBuffer(), 0, buffer.getLength());
+
+        // Record that we need a flush.
+        needsFlush = true;
+
+        // See if we have exceeded the maximum number of bytes per log file.
+        if (logFileSize > 0 && dataOutput.getOffset() > logFileSize)
+            return true;
+        else
+            return false;
+    }
+
     /**
      * Synchronizes file writes using flush with optional fsync. You must call
-     * this method to commit data.
+     * this method to commit data. If group commit is enabled this waits
+     * without holding the file lock until a shared fsync has covered all data
+     * written so far.
      */
-    public synchronized void flush() throws IOException, ReplicatorException,
+    public void flush() throws IOException, ReplicatorException,
+            InterruptedException
+    {
+        long commitOffset;
+        LogFlushTask groupCommitTask;
+        synchronized (this)
+        {
+            if (!isGroupCommitEnabled())
+            {
+                flushDeferred();
+                return;
+            }
+
+            // Hand any buffered data to the OS and note the offset that must
+            // be durable. We must wait even if another thread flushed our
+            // data, as it may not be on disk yet.
+            if (needsFlush)
+            {
+                assertWriteMode();
+                dataOutput.flush();
+                needsFlush = false;
+                flushedOffset = dataOutput.getOffset();
+            }
+            commitOffset = flushedOffset;
+            if (syncedOffset >= commitOffset)
+                return;
+            groupCommitTask = logFlushTask;
+        }
+        groupCommitTask.waitForSync(this, commitOffset);
+    }
+
+    /**
+     * Forces all data handed to the OS so far onto disk and advances the
+     * synced offset. Called by the log flush task for group commit. This does
+     * not hold the file lock during the fsync, so writers may continue to add
+     * records.
+     */
+    void syncToDisk() throws IOException
+    {
+        BufferedFileDataOutput out;
+        long target;
+        synchronized (this)
+        {
+            out = dataOutput;
+            target = flushedOffset;
+        }
+        if (out != null)
+        {
+            try
+            {
+                out.force();
+            }
+            catch (ClosedChannelException e)
+            {
+                // File was closed, which syncs it.
+                return;
+            }
+        }
+        synchronized (this)
+        {
+            if (target > syncedOffset)
+                syncedOffset = target;
+        }
+    }
+
+    // Returns true if commits should use group commit.
+    private boolean isGroupCommitEnabled()
+    {
+        return groupCommit && fsyncOnFlush && logFlushTask != null
+                && logFlushTask.isGroupCommit();
+    }
+
+    // Flush now or after the flush interval has expired.
+    private void flushDeferred() throws IOException, ReplicatorException,
             InterruptedException
     {
         // Only proceed if we need flush.
@@ -734,7 +1070,12 @@ public class LogFile
         sb.append(this.getClass().getSimpleName()).append(": ");
         sb.append("name=").append(file.getName());
         sb.append(" mode=").append(mode);
-        if (dataInput != null)
+        if (mappedInput != null)
+        {
+            sb.append(" open=y mapped=y size=").append(mappedInput.limit());
+            sb.append(" offset=").append(mappedInput.position());
+        }
+        else if (dataInput != null)
         {
             sb.append(" open=y size=").append(file.length());
             sb.append(" offset=").append(dataInput.getOffset());
@@ -0,0 +1,264 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Implements a sparse index of sequence number to file offset for a single log
+ * file. Entries point to the first fragment of a transaction and are added at
+ * most once every interval bytes, so the index stays small even for very large
+ * log files. Readers use the index to position close to a sequence number
+ * before scanning forward.
+ * <p>
+ * Entries are hints. Callers must confirm that the record at an offset has the
+ * expected sequence number before relying on it, which makes stale entries
+ * harmless.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class LogFileIndex
+{
+    private static Logger    logger       = Logger.getLogger(LogFileIndex.class);
+
+    // Identifies index files.
+    private static final int MAGIC_NUMBER = 0xC001F1DE;
+
+    private final int        intervalBytes;
+    private long[]           seqnos       = new long[16];
+    private long[]           offsets      = new long[16];
+    private int              size         = 0;
+    private long             lastOffset   = LogFile.HEADER_LENGTH;
+
+    /**
+     * Creates a new, empty index.
+     *
+     * @param intervalBytes Minimum number of bytes between index entries
+     */
+    public LogFileIndex(int intervalBytes)
+    {
+        this.intervalBytes = intervalBytes;
+    }
+
+    /** Returns the number of entries in the index. */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Offers the first fragment of a transaction to the index. The entry is
+     * added only if the record is at least the index interval beyond the
+     * previous entry and has a higher sequence number.
+     *
+     * @param seqno Sequence number of the record
+     * @param offset File offset at which the record starts
+     */
+    public synchronized void add(long seqno, long offset)
+    {
+        if (offset - lastOffset < intervalBytes)
+            return;
+        if (size > 0 && seqno <= seqnos[size - 1])
+            return;
+        if (size == seqnos.length)
+        {
+            long[] newSeqnos = new long[size * 2];
+            long[] newOffsets = new long[size * 2];
+            System.arraycopy(seqnos, 0, newSeqnos, 0, size);
+            System.arraycopy(offsets, 0, newOffsets, 0, size);
+            seqnos = newSeqnos;
+            offsets = newOffsets;
+        }
+        seqnos[size] = seqno;
+        offsets[size] = offset;
+        size++;
+        lastOffset = offset;
+    }
+
+    /**
+     * Drops entries at or beyond an offset, for example after the log file has
+     * been truncated.
+     */
+    public synchronized void truncate(long offset)
+    {
+        while (size > 0 && offsets[size - 1] >= offset)
+            size--;
+        lastOffset = (size > 0) ? offsets[size - 1] : LogFile.HEADER_LENGTH;
+    }
+
+    /**
+     * Returns the position of the entry with the highest sequence number less
+     * than or equal to the given sequence number, or -1 if there is none.
+     */
+    private int floor(long seqno)
+    {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (seqnos[mid] <= seqno)
+            {
+                found = mid;
+                low = mid + 1;
+            }
+            else
+                high = mid - 1;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the sequence number of the closest entry at or before a sequence
+     * number or -1 if there is no such entry.
+     */
+    public synchronized long findSeqno(long seqno)
+    {
+        int pos = floor(seqno);
+        return (pos < 0) ? -1 : seqnos[pos];
+    }
+
+    /**
+     * Returns the offset of the closest entry at or before a sequence number or
+     * -1 if there is no such entry.
+     */
+    public synchronized long findOffset(long seqno)
+    {
+        int pos = floor(seqno);
+        return (pos < 0) ? -1 : offsets[pos];
+    }
+
+    /**
+     * Writes the index to a file. The index is written to a temporary file
+     * first and renamed so that readers never see a partial index.
+     */
+    public synchronized void write(File file) throws IOException
+    {
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try
+        {
+            dos.writeInt(MAGIC_NUMBER);
+            dos.writeInt(intervalBytes);
+            dos.writeInt(size);
+            for (int i = 0; i < size; i++)
+            {
+                dos.writeLong(seqnos[i]);
+                dos.writeLong(offsets[i]);
+            }
+        }
+        finally
+        {
+            dos.close();
+        }
+        if (file.exists() && !file.delete())
+            throw new IOException("Unable to replace log file index: "
+                    + file.getAbsolutePath());
+        if (!tempFile.renameTo(file))
+            throw new IOException("Unable to rename log file index: "
+                    + tempFile.getAbsolutePath());
+    }
+
+    /**
+     * Reads an index from a file.
+     *
+     * @return The index or null if the file does not exist or is not readable
+     */
+    public static LogFileIndex read(File file)
+    {
+        if (!file.exists())
+            return null;
+
+        DataInputStream dis = null;
+        try
+        {
+            dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+            if (dis.readInt() != MAGIC_NUMBER)
+            {
+                logger.warn("Ignoring log file index with invalid header: "
+                        + file.getAbsolutePath());
+                return null;
+            }
+            LogFileIndex index = new LogFileIndex(dis.readInt());
+            int entries = dis.readInt();
+            for (int i = 0; i < entries; i++)
+            {
+                long seqno = dis.readLong();
+                long offset = dis.readLong();
+                index.add(seqno, offset);
+            }
+            return index;
+        }
+        catch (IOException e)
+        {
+            logger.warn("Unable to read log file index: "
+                    + file.getAbsolutePath() + " (" + e.getMessage() + ")");
+            return null;
+        }
+        finally
+        {
+            if (dis != null)
+            {
+                try
+                {
+                    dis.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public synchronized String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" intervalBytes=").append(intervalBytes);
+        sb.append(" entries=").append(size);
+        if (size > 0)
+        {
+            sb.append(" minSeqno=").append(seqnos[0]);
+            sb.append(" maxSeqno=").append(seqnos[size - 1]);
+        }
+        return sb.toString();
+    }
+}
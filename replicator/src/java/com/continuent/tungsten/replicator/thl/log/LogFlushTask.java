@@ -24,9 +24,14 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
@@ -41,6 +46,12 @@ import com.continuent.tungsten.replicator.ReplicatorException;
  * should *not* be synchronized as this would create the possibility of
  * deadlock. Synchronization within this class is handled by the
  * ConncurrentHashMap that contains the log files.
+ * <p>
+ * In group commit mode the task does not flush on an interval. Instead it
+ * issues fsync calls on behalf of committing writers. Writers that commit while
+ * an fsync is in progress wait for the next one, so that a single fsync makes
+ * all of them durable. Group commit uses a separate monitor on which writers
+ * wait and never calls into LogFile while holding it.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
@@ -51,17 +62,51 @@ public class LogFlushTask implements Runnable
                                                   .getLogger(LogFlushTask.class);
     private volatile boolean   cancelled  = false;
     private volatile boolean   finished   = false;
+    private volatile boolean   running    = false;
 
     private long               flushIntervalMillis;
 
     private Map<File, LogFile> logFileMap = new ConcurrentHashMap<File, LogFile>();
 
+    // Group commit control data. Pending syncs are protected by groupLock.
+    private final boolean      groupCommit;
+    private final Object       groupLock  = new Object();
+    private Set<LogFile>       pendingSyncs;
+    private volatile Throwable syncError;
+    private AtomicLong         syncCount  = new AtomicLong(0);
+
     /**
      * Creates a new log sync task.
      */
     public LogFlushTask(long flushIntervalMillis)
+    {
+        this(flushIntervalMillis, false);
+    }
+
+    /**
+     * Creates a new log sync task.
+     * 
+     * @param flushIntervalMillis Interval between flushes
+     * @param groupCommit If true, perform fsync on demand for committing
+     *            writers rather than at intervals
+     */
+    public LogFlushTask(long flushIntervalMillis, boolean groupCommit)
     {
         this.flushIntervalMillis = flushIntervalMillis;
+        this.groupCommit = groupCommit;
+        this.pendingSyncs = new HashSet<LogFile>();
+    }
+
+    /** Returns true if this task performs group commits. */
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+    /** Returns the number of group commit fsync rounds performed. */
+    public long getSyncCount()
+    {
+        return syncCount.get();
     }
 
     /**
@@ -72,12 +117,18 @@ public class LogFlushTask implements Runnable
         logger.info("Log sync task starting: "
                 + Thread.currentThread().getName());
 
+        running = true;
         try
         {
             while (!cancelled && !Thread.currentThread().isInterrupted())
             {
-                Thread.sleep(flushIntervalMillis);
-                processSync();
+                if (groupCommit)
+                    processGroupSync();
+                else
+                {
+                    Thread.sleep(flushIntervalMillis);
+                    processSync();
+                }
             }
         }
         catch (InterruptedException e)
@@ -93,7 +144,14 @@ public class LogFlushTask implements Runnable
         logger
                 .info("Log sync task ending: "
                         + Thread.currentThread().getName());
+        running = false;
         finished = true;
+
+        // Wake any group commit waiters so they can sync for themselves.
+        synchronized (groupLock)
+        {
+            groupLock.notifyAll();
+        }
     }
 
     /**
@@ -109,6 +167,87 @@ public class LogFlushTask implements Runnable
         }
     }
 
+    /**
+     * Waits for pending sync requests, then makes all of them durable with a
+     * single fsync per log file. Writers that request a sync while we are
+     * working are picked up by the next round.
+     */
+    private void processGroupSync() throws InterruptedException
+    {
+        List<LogFile> logFiles;
+        synchronized (groupLock)
+        {
+            while (pendingSyncs.isEmpty() && !cancelled)
+                groupLock.wait(1000);
+            logFiles = new ArrayList<LogFile>(pendingSyncs);
+            pendingSyncs.clear();
+        }
+
+        try
+        {
+            for (LogFile logFile : logFiles)
+            {
+                logFile.syncToDisk();
+            }
+        }
+        catch (IOException e)
+        {
+            // A failed fsync is unrecoverable for waiters, as we cannot tell
+            // which data reached the disk.
+            logger.error("Group commit fsync failed: " + e.getMessage(), e);
+            syncError = e;
+        }
+        syncCount.incrementAndGet();
+
+        synchronized (groupLock)
+        {
+            groupLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the log file is durable up to the given offset, sharing the
+     * fsync with any other writers that are waiting at the same time. If the
+     * task is not running, the caller syncs the file itself.
+     * 
+     * @param logFile Log file to sync
+     * @param offset Offset up to which data must be durable
+     * @throws IOException Thrown if the fsync fails
+     * @throws InterruptedException Thrown if we are interrupted while waiting
+     */
+    public void waitForSync(LogFile logFile, long offset) throws IOException,
+            InterruptedException
+    {
+        synchronized (groupLock)
+        {
+            // Only request a round if our data are not yet durable; a writer
+            // covered by a round that just ended must not trigger another.
+            if (running && !cancelled && logFile.getSyncedOffset() < offset)
+            {
+                pendingSyncs.add(logFile);
+                groupLock.notifyAll();
+            }
+            while (logFile.getSyncedOffset() < offset)
+            {
+                if (syncError != null)
+                {
+                    IOException e = new IOException(
+                            "Group commit fsync failed: file="
+                                    + logFile.getFile().getName());
+                    e.initCause(syncError);
+                    throw e;
+                }
+                else if (!running || cancelled)
+                    break;
+                groupLock.wait(1000);
+            }
+        }
+
+        // If the sync task is not available, sync directly.
+        if (logFile.getSyncedOffset() < offset)
+            logFile.syncToDisk();
+    }
+
     /**
      * Adds a logFile to the list for regular synchronization.
      * 
@@ -135,6 +274,10 @@ public class LogFlushTask implements Runnable
     public void cancel()
     {
         cancelled = true;
+        synchronized (groupLock)
+        {
+            groupLock.notifyAll();
+        }
     }
 
     /**
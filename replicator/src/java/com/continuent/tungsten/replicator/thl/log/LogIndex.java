@@ -179,7 +179,7 @@ public class LogIndex
                     LogRecord record1 = lf.readRecord(0);
                     if (!record1.isEmpty() && !record1.isTruncated())
                     {
-                        if (record1.getData()[0] == LogRecord.EVENT_REPL)
+                        if (record1.getRecordType() == LogRecord.EVENT_REPL)
                         {
                             LogEventReplReader eventReader = new LogEventReplReader(
                                     record1, null, false);
@@ -189,7 +189,7 @@ public class LogIndex
                         else
                         {
                             logger.warn("Unexpected record type in first log record: type="
-                                    + record1.getData()[0]
+                                    + record1.getRecordType()
                                     + " file="
                                     + lf.getFile().getAbsolutePath());
                         }
@@ -366,8 +366,8 @@ public class LogIndex
 
     /**
      * Locates and returns the file that contains a given sequence number. The
-     * implementation uses a linear search, so we assume this is a comparatively
-     * rare operation on connection startup.
+     * index is sorted by starting sequence number, so we use a binary search
+     * and fall back to a linear search if the index has gaps or overlaps.
      */
     public synchronized String getFile(long seqno)
     {
@@ -380,6 +380,30 @@ public class LogIndex
         if (seqno < getMinIndexedSeqno() || seqno < 0)
             return null;
 
+        // Find the last file that starts at or before the sequence number.
+        // If it contains the sequence number, back up over any earlier files
+        // that contain it as well so we return the same file as a scan.
+        int low = 0;
+        int high = index.size() - 1;
+        int floor = -1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (index.get(mid).startSeqno <= seqno)
+            {
+                floor = mid;
+                low = mid + 1;
+            }
+            else
+                high = mid - 1;
+        }
+        if (floor >= 0 && index.get(floor).contains(seqno))
+        {
+            while (floor > 0 && index.get(floor - 1).contains(seqno))
+                floor--;
+            return index.get(floor).fileName;
+        }
+
         // Search the current file index.
         for (LogIndexEntry indexEntry : index)
         {
@@ -29,11 +29,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 
+import com.continuent.tungsten.common.io.ByteBufferInputStream;
+
 /**
- * Encapsulates a log record from the Tungsten disk log.
+ * Encapsulates a log record from the Tungsten disk log. Record contents are
+ * held either in a byte array or, for records read from a memory-mapped log
+ * file, in a read-only slice of the mapped file. Slices are only copied into a
+ * byte array if a caller asks for one via {@link #getData()}.
  * 
  * @author <a href="mailto:robert.hodges@continuent.com">Robert Hodges</a>
  * @version 1.0
@@ -58,10 +64,25 @@ public class LogRecord
     /** Record uses conventional CRC-32 computed by Java CRC32 class. */
     public static final byte      CRC_TYPE_32    = 0x01;
 
+    /**
+     * High bit of the stored CRC type byte, which holds the compression type.
+     * Log files written before compression was available always have this bit
+     * set to 0, which means they are read as uncompressed.
+     */
+    public static final byte      COMPRESSION_MASK = (byte) 0x80;
+
+    /** Record event data are not compressed. */
+    public static final byte      COMPRESSION_NONE = 0x00;
+
+    /** Record event data are compressed using Deflate (java.util.zip). */
+    public static final byte      COMPRESSION_DEFLATE = (byte) 0x80;
+
     private File                  file;
     private byte[]                data;
+    private ByteBuffer            buffer;
     private long                  offset;
     private byte                  crcType;
+    private byte                  compressionType = COMPRESSION_NONE;
     private long                  crc;
     private boolean               truncated      = false;
 
@@ -94,7 +115,8 @@ public class LogRecord
      * 
      * @param offset File offset at which this record was read
      * @param bytes Data in record
-     * @param crcType Type of CRC check to use
+     * @param crcType Type of CRC check to use, optionally combined with a
+     *            compression type as stored in the log
      * @param crc CRC value
      */
     public LogRecord(File file, long offset, byte[] bytes, byte crcType,
@@ -103,7 +125,30 @@ public class LogRecord
         this.file = file;
         this.offset = offset;
         this.data = bytes;
-        this.crcType = crcType;
+        this.crcType = (byte) (crcType & ~COMPRESSION_MASK);
+        this.compressionType = (byte) (crcType & COMPRESSION_MASK);
+        this.crc = crc;
+        this.truncated = false;
+    }
+
+    /**
+     * Creates a readable record whose content is a slice of a larger buffer,
+     * such as a memory-mapped log file. The record does not copy the slice.
+     * 
+     * @param offset File offset at which this record was read
+     * @param buffer Data in record, from position to limit
+     * @param crcType Type of CRC check to use, optionally combined with a
+     *            compression type as stored in the log
+     * @param crc CRC value
+     */
+    public LogRecord(File file, long offset, ByteBuffer buffer, byte crcType,
+            long crc)
+    {
+        this.file = file;
+        this.offset = offset;
+        this.buffer = buffer;
+        this.crcType = (byte) (crcType & ~COMPRESSION_MASK);
+        this.compressionType = (byte) (crcType & COMPRESSION_MASK);
         this.crc = crc;
         this.truncated = false;
     }
@@ -114,10 +159,36 @@ public class LogRecord
      */
     public long getRecordLength()
     {
-        if (data == null)
+        if (isEmpty())
             return 0;
         else
-            return data.length + NON_DATA_BYTES;
+            return getDataLength() + NON_DATA_BYTES;
+    }
+
+    /**
+     * Returns the number of data bytes in the record or 0 if the record is
+     * empty.
+     */
+    public int getDataLength()
+    {
+        if (data != null)
+            return data.length;
+        else if (buffer != null)
+            return buffer.remaining();
+        else
+            return 0;
+    }
+
+    /**
+     * Returns the record type, which is the first data byte, without copying
+     * record contents.
+     */
+    public byte getRecordType()
+    {
+        if (data != null)
+            return data[0];
+        else
+            return buffer.get(buffer.position());
     }
 
     /**
@@ -130,10 +201,19 @@ public class LogRecord
 
     /**
      * Returns the underlying byte buffer. Must call done() when writing before
-     * calling this method.
+     * calling this method. Records that hold a buffer slice copy it to a byte
+     * array on first call, so readers should prefer {@link #getRecordType()}
+     * and {@link #read()} where possible.
      */
     public byte[] getData()
     {
+        if (data == null && buffer != null)
+        {
+            ByteBuffer source = buffer.duplicate();
+            data = new byte[source.remaining()];
+            source.get(data);
+            buffer = null;
+        }
         return data;
     }
 
@@ -145,6 +225,31 @@ public class LogRecord
         return crcType;
     }
 
+    /**
+     * Returns the compression type of event data in this record.
+     */
+    public byte getCompressionType()
+    {
+        return compressionType;
+    }
+
+    /**
+     * Sets the compression type of event data in this record.
+     */
+    public void setCompressionType(byte compressionType)
+    {
+        this.compressionType = compressionType;
+    }
+
+    /**
+     * Returns the CRC type byte as stored in the log, which combines the CRC
+     * type with the compression type.
+     */
+    public byte getStoredCrcType()
+    {
+        return (byte) (crcType | compressionType);
+    }
+
     /**
      * Returns the CRC value.
      */
@@ -164,7 +269,7 @@ public class LogRecord
      */
     public boolean isEmpty()
     {
-        return data == null;
+        return data == null && buffer == null;
     }
 
     /**
@@ -172,11 +277,14 @@ public class LogRecord
      */
     public long computeCrc() throws IOException
     {
-        if (data == null || crcType == CRC_TYPE_NONE)
+        if (isEmpty() || crcType == CRC_TYPE_NONE)
             computedCrc = 0;
         else if (crcType == CRC_TYPE_32)
         {
-            computedCrc = computeCrc32(data);
+            if (data != null)
+                computedCrc = computeCrc32(data);
+            else
+                computedCrc = computeCrc32(buffer);
         }
         else
         {
@@ -281,16 +389,47 @@ public class LogRecord
 
     }
 
+    /**
+     * Static routine to compute CRC 32 on the remaining bytes of a buffer
+     * without disturbing its position. Direct buffers are checksummed in small
+     * chunks so that there is no need to copy the full contents.
+     */
+    public static long computeCrc32(ByteBuffer bytes)
+    {
+        CRC32 crc32 = new CRC32();
+        if (bytes.hasArray())
+        {
+            crc32.update(bytes.array(),
+                    bytes.arrayOffset() + bytes.position(), bytes.remaining());
+        }
+        else
+        {
+            ByteBuffer source = bytes.duplicate();
+            byte[] buf = new byte[Math.min(8192, source.remaining())];
+            while (source.hasRemaining())
+            {
+                int len = Math.min(buf.length, source.remaining());
+                source.get(buf, 0, len);
+                crc32.update(buf, 0, len);
+            }
+        }
+        return crc32.getValue();
+    }
+
     /** Returns a stream to read record contents. */
     public InputStream read()
     {
-        return new ByteArrayInputStream(data);
+        if (data == null && buffer != null)
+            return new ByteBufferInputStream(buffer.duplicate());
+        else
+            return new ByteArrayInputStream(data);
     }
 
     /** Returns a stream to write record contents. */
     public OutputStream write()
     {
         data = null;
+        buffer = null;
         write = new ByteArrayOutputStream();
         return write;
     }
@@ -333,22 +472,26 @@ public class LogRecord
         StringBuffer sb = new StringBuffer();
         sb.append(this.getClass().getSimpleName());
         sb.append(": offset=").append(offset);
-        if (data == null)
+        if (isEmpty())
         {
             sb.append(" data=[] length=0");
         }
         else
         {
+            int length = getDataLength();
             sb.append(" data=");
-            for (int i = 0; i < 10 && i < data.length; i++)
+            for (int i = 0; i < 10 && i < length; i++)
             {
-                sb.append(String.format("%2X", data[i]));
+                byte b = (data != null) ? data[i] : buffer.get(buffer
+                        .position() + i);
+                sb.append(String.format("%2X", b));
             }
-            if (data.length >= 10)
+            if (length >= 10)
                 sb.append("...");
-            sb.append("] length=").append(data.length);
+            sb.append("] length=").append(length);
         }
         sb.append(" crcType=").append(crcType);
+        sb.append(" compressionType=").append(compressionType);
         sb.append(" crc=").append(crc);
         sb.append(" truncated=").append(truncated);
 
@@ -366,6 +509,7 @@ public class LogRecord
         LogRecord that = (LogRecord) o;
         if (offset != that.getOffset())
             return false;
+        getData();
         if (data == null)
         {
             if (that.getData() != null)
@@ -383,6 +527,8 @@ public class LogRecord
         }
         if (crcType != that.getCrcType())
             return false;
+        if (compressionType != that.getCompressionType())
+            return false;
         if (crc != that.getCrc())
             return false;
 
@@ -0,0 +1,253 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl.log;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Reusable buffer that holds a complete log record as it is stored in a log
+ * file: length, data, CRC type, and CRC. Writers serialize record data directly
+ * into the buffer, which updates the CRC as bytes arrive, and then write the
+ * whole record to the log file in a single call. This avoids the copies and
+ * second CRC pass of building a {@link LogRecord}.
+ * <p>
+ * Buffers are reused from one record to the next. If a large record grows the
+ * buffer beyond the retained size, the buffer is shrunk on the next reset so
+ * that one large transaction does not pin memory for the life of the writer.
+ * This class is not thread-safe.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class LogRecordBuffer extends OutputStream
+{
+    // Bytes at the start of the buffer that hold the record length.
+    private static final int LENGTH_BYTES = 4;
+
+    // Bytes at the end of the buffer that hold the CRC type and CRC.
+    private static final int CRC_BYTES    = LogRecord.NON_DATA_BYTES
+                                                  - LENGTH_BYTES;
+
+    private final int        initialSize;
+    private final int        maxRetainedSize;
+    private byte[]           buf;
+    private int              count;
+    private boolean          checkCRC;
+    private boolean          finished;
+    private long             crc;
+    private final CRC32      crc32        = new CRC32();
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param initialSize Initial buffer size in bytes
+     * @param maxRetainedSize Largest buffer size to keep between records
+     */
+    public LogRecordBuffer(int initialSize, int maxRetainedSize)
+    {
+        this.initialSize = Math.max(initialSize, LogRecord.NON_DATA_BYTES);
+        this.maxRetainedSize = Math.max(maxRetainedSize, this.initialSize);
+        this.buf = new byte[this.initialSize];
+        reset(true);
+    }
+
+    /**
+     * Prepares the buffer for a new record.
+     *
+     * @param checkCRC If true, compute a CRC-32 on record data
+     */
+    public void reset(boolean checkCRC)
+    {
+        if (buf.length > maxRetainedSize)
+            buf = new byte[initialSize];
+        this.checkCRC = checkCRC;
+        this.count = LENGTH_BYTES;
+        this.finished = false;
+        this.crc = 0;
+        crc32.reset();
+    }
+
+    /**
+     * Writes a byte of record data.
+     */
+    public void write(int b)
+    {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+        if (checkCRC)
+            crc32.update(b);
+    }
+
+    /**
+     * Writes bytes of record data.
+     */
+    public void write(byte[] b, int off, int len)
+    {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+        if (checkCRC)
+            crc32.update(b, off, len);
+    }
+
+    /**
+     * Completes the record by adding the length, CRC type, and CRC. No more
+     * data may be written until the buffer is reset.
+     *
+     * @param compressionType Compression type of the record data
+     */
+    public void finish(byte compressionType)
+    {
+        if (finished)
+            throw new IllegalStateException("Log record buffer already finished");
+
+        byte crcType;
+        if (checkCRC)
+        {
+            crcType = LogRecord.CRC_TYPE_32;
+            crc = crc32.getValue();
+        }
+        else
+        {
+            crcType = LogRecord.CRC_TYPE_NONE;
+            crc = 0;
+        }
+
+        ensureCapacity(count + CRC_BYTES);
+        buf[count++] = (byte) (crcType | compressionType);
+        putLong(count, crc);
+        count += 8;
+        putInt(0, count);
+        finished = true;
+    }
+
+    /** Returns true if the record is complete. */
+    public boolean isFinished()
+    {
+        return finished;
+    }
+
+    /** Returns the underlying array, which is valid up to getLength(). */
+    public byte[] getBuffer()
+    {
+        return buf;
+    }
+
+    /**
+     * Returns the number of bytes in the buffer. Once the record is finished
+     * this is the record length as stored in the log.
+     */
+    public int getLength()
+    {
+        return count;
+    }
+
+    /** Returns the number of record data bytes written so far. */
+    public int getDataLength()
+    {
+        if (finished)
+            return count - LogRecord.NON_DATA_BYTES;
+        else
+            return count - LENGTH_BYTES;
+    }
+
+    /** Returns the record type, which is the first data byte. */
+    public byte getRecordType()
+    {
+        return buf[LENGTH_BYTES];
+    }
+
+    /** Returns the CRC of a finished record. */
+    public long getCrc()
+    {
+        return crc;
+    }
+
+    /**
+     * Returns a copy of a finished record that is not associated with a log
+     * file.
+     */
+    public LogRecord toLogRecord()
+    {
+        if (!finished)
+            throw new IllegalStateException("Log record buffer not finished");
+        byte[] data = new byte[getDataLength()];
+        System.arraycopy(buf, LENGTH_BYTES, data, 0, data.length);
+        return new LogRecord(null, -1, data, buf[count - CRC_BYTES], crc);
+    }
+
+    /**
+     * Returns a read-only view of the record data, without copying them.
+     */
+    public ByteBuffer getData()
+    {
+        return ByteBuffer.wrap(buf, LENGTH_BYTES, getDataLength()).slice()
+                .asReadOnlyBuffer();
+    }
+
+    // Grow the buffer to hold at least the given number of bytes.
+    private void ensureCapacity(int minCapacity)
+    {
+        if (minCapacity > buf.length)
+        {
+            int newCapacity = Math.max(buf.length * 2, minCapacity);
+            byte[] newBuf = new byte[newCapacity];
+            System.arraycopy(buf, 0, newBuf, 0, count);
+            buf = newBuf;
+        }
+    }
+
+    // Store an int in big-endian order like DataOutputStream.
+    private void putInt(int pos, int v)
+    {
+        buf[pos] = (byte) (v >>> 24);
+        buf[pos + 1] = (byte) (v >>> 16);
+        buf[pos + 2] = (byte) (v >>> 8);
+        buf[pos + 3] = (byte) v;
+    }
+
+    // Store a long in big-endian order like DataOutputStream.
+    private void putLong(int pos, long v)
+    {
+        putInt(pos, (int) (v >>> 32));
+        putInt(pos + 4, (int) v);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(this.getClass().getSimpleName());
+        sb.append(" length=").append(count);
+        sb.append(" capacity=").append(buf.length);
+        sb.append(" finished=").append(finished);
+        sb.append(" crc=").append(crc);
+        return sb.toString();
+    }
+}
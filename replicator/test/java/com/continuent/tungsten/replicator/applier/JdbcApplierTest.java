@@ -0,0 +1,489 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.conf.FailurePolicy;
+import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.database.Database;
+import com.continuent.tungsten.replicator.database.DatabaseFactory;
+import com.continuent.tungsten.replicator.datasource.DataSourceManager;
+import com.continuent.tungsten.replicator.datasource.SqlConnectionSpecGeneric;
+import com.continuent.tungsten.replicator.datasource.SqlDataSource;
+import com.continuent.tungsten.replicator.datasource.UniversalDataSource;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.dbms.StatementData;
+import com.continuent.tungsten.replicator.event.DBMSEvent;
+import com.continuent.tungsten.replicator.event.EventGenerationHelper;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.pipeline.PipelineConfigBuilder;
+
+/**
+ * Implements unit tests on applying row changes with JdbcApplier. Tests run
+ * against the database in test.properties, which is embedded Derby by default.
+ * Table t1 has an integer key column id and a value column v.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class JdbcApplierTest extends TestCase
+{
+    private static final String SCHEMA   = "jdbcapplier";
+
+    // Indexes of the counters kept by countStatements().
+    private static final int    PREPARED = 0;
+    private static final int    BATCHES  = 1;
+
+    private String              url;
+    private String              user;
+    private String              password;
+
+    private DataSourceManager   datasourceManager;
+    private TestRuntime         runtime;
+    private JdbcApplier         applier;
+    private Database            db;
+    private long                seqno;
+
+    private EventGenerationHelper eventHelper = new EventGenerationHelper();
+
+    /**
+     * Creates a data source and an empty test table.
+     */
+    public void setUp() throws Exception
+    {
+        TungstenProperties tp = new TungstenProperties();
+        File f = new File("test.properties");
+        if (f.canRead())
+        {
+            FileInputStream fis = new FileInputStream(f);
+            tp.load(fis);
+            fis.close();
+        }
+        Class.forName(tp.getString("database.driver",
+                "org.apache.derby.jdbc.EmbeddedDriver", true));
+        url = tp.getString("database.url", "jdbc:derby:testdb;create=true",
+                true);
+        user = tp.getString("database.user");
+        password = tp.getString("database.password");
+
+        TungstenProperties datasourceProps = new TungstenProperties();
+        datasourceProps.setBeanSupportEnabled(true);
+        datasourceProps.setString("serviceName", SCHEMA);
+        datasourceProps.setLong("channels", 1);
+        datasourceProps.setString("connectionSpec",
+                SqlConnectionSpecGeneric.class.getName());
+        datasourceProps.setString("connectionSpec.url", url);
+        datasourceProps.setString("connectionSpec.user", user);
+        datasourceProps.setString("connectionSpec.password", password);
+        datasourceProps.setString("connectionSpec.schema", SCHEMA);
+        datasourceProps.setString("connectionSpec.vendor",
+                tp.getString("database.vendor"));
+        datasourceManager = new DataSourceManager();
+        datasourceManager.addAndPrepare("global", SqlDataSource.class
+                .getName(), datasourceProps);
+        UniversalDataSource dataSource = datasourceManager.find("global");
+        dataSource.clear();
+        dataSource.initialize();
+
+        db = DatabaseFactory.createDatabase(url, user, password);
+        db.connect();
+        for (String table : new String[]{"t1", "t2"})
+        {
+            try
+            {
+                db.execute("DROP TABLE " + SCHEMA + "." + table);
+            }
+            catch (SQLException e)
+            {
+            }
+        }
+        db.execute("CREATE TABLE " + SCHEMA
+                + ".t1 (id INT NOT NULL PRIMARY KEY, v VARCHAR(20))");
+
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, SCHEMA);
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, "tungsten_"
+                + SCHEMA);
+        runtime = new TestRuntime(builder.getConfig());
+        seqno = 0;
+    }
+
+    /**
+     * Releases the applier and connections.
+     */
+    public void tearDown() throws Exception
+    {
+        if (applier != null)
+            applier.release(runtime);
+        if (db != null)
+            db.close();
+        if (datasourceManager != null)
+            datasourceManager.removeAndRelease("global", true);
+    }
+
+    /**
+     * Verify that rows are applied across batch boundaries and that a row
+     * that updates nothing in a later batch stops the applier under the stop
+     * policy and only warns under the warn policy.
+     */
+    public void testRowBatches() throws Exception
+    {
+        prepareApplier(2, 0);
+        apply(insert(1, 2, 3, 4, 5));
+        assertEquals("Rows inserted in batches", 5, count("v = 'a'"));
+
+        runtime.zeroRowPolicy = FailurePolicy.STOP;
+        try
+        {
+            apply(update("b", 1, 2, 3, 9, 5));
+            fail("Update of missing row in second batch did not stop");
+        }
+        catch (ReplicatorException e)
+        {
+            assertTrue("Failing row is logged: " + e.getExtraData(), e
+                    .getExtraData().contains("ROW# = 3"));
+        }
+        applier.rollback();
+        assertEquals("Update rolled back", 0, count("v = 'b'"));
+
+        runtime.zeroRowPolicy = FailurePolicy.WARN;
+        apply(update("c", 1, 2, 3, 9, 5));
+        assertEquals("Rows updated", 4, count("v = 'c'"));
+    }
+
+    /**
+     * Verify that rows are applied one at a time once a batch reports no row
+     * counts, so that the stop policy still sees 0-row updates, and that
+     * batching continues if the policy ignores them.
+     */
+    public void testRowBatchesWithoutCounts() throws Exception
+    {
+        prepareApplier(2, 0);
+        int[] counters = countStatements(false);
+        runtime.zeroRowPolicy = FailurePolicy.IGNORE;
+        apply(insert(1, 2, 3));
+
+        counters[BATCHES] = 0;
+        apply(update("b", 1, 2, 9));
+        assertEquals("Batches under ignore policy", 2, counters[BATCHES]);
+
+        runtime.zeroRowPolicy = FailurePolicy.STOP;
+        counters[BATCHES] = 0;
+        try
+        {
+            apply(update("c", 1, 2, 9));
+            fail("Update of missing row did not stop after unreported counts");
+        }
+        catch (ReplicatorException e)
+        {
+        }
+        assertEquals("Batches before falling back to single rows", 1,
+                counters[BATCHES]);
+        applier.rollback();
+
+        counters[BATCHES] = 0;
+        apply(update("d", 1, 2, 3));
+        assertEquals("No batches after fallback", 0, counters[BATCHES]);
+        assertEquals("Rows updated one at a time", 3, count("v = 'd'"));
+    }
+
+    /**
+     * Verify that cached row statements are reused across transactions and
+     * that rows whose keys are NULL in different places get statements of
+     * their own.
+     */
+    public void testRowStatementCache() throws Exception
+    {
+        prepareApplier(1, 10);
+        int[] counters = countStatements(true);
+        apply(insert(1, 2));
+        apply(insert(3));
+        apply(update("b", 1));
+        apply(update("b", 2));
+        assertEquals("Statements prepared with cache", 2, counters[PREPARED]);
+        assertEquals("Rows updated", 2, count("v = 'b'"));
+
+        // The first delete needs v = ? and the second v IS NULL. Both forms
+        // are cached, so the third and fourth rows prepare nothing.
+        apply(insert(4, 5));
+        db.execute("UPDATE " + SCHEMA + ".t1 SET v = NULL WHERE id IN (3, 5)");
+        counters[PREPARED] = 0;
+        apply(delete(new Integer(1), "b", new Integer(3), null, new Integer(
+                4), "a", new Integer(5), null));
+        assertEquals("Statements for NULL key patterns", 2,
+                counters[PREPARED]);
+        assertEquals("Rows deleted", 0, count("id IN (1, 3, 4, 5)"));
+        assertEquals("Rows left", 1, count("1 = 1"));
+
+        // Without cache, each row change prepares its own statement.
+        applier.release(runtime);
+        prepareApplier(1, 0);
+        counters = countStatements(true);
+        apply(update("c", 2));
+        apply(update("d", 2));
+        assertEquals("Statements prepared without cache", 2,
+                counters[PREPARED]);
+    }
+
+    /**
+     * Verify that ALTER, RENAME and DROP statements drop cached row statements
+     * so that rows are applied to the table as it is after DDL.
+     */
+    public void testRowStatementCacheInvalidation() throws Exception
+    {
+        prepareApplier(1, 10);
+        int[] counters = countStatements(true);
+        apply(insert(1));
+        apply(insert(2));
+        assertEquals("Statement cached", 1, counters[PREPARED]);
+
+        apply(new StatementData("ALTER TABLE " + SCHEMA
+                + ".t1 ADD COLUMN w INT"));
+        apply(insert(3));
+        assertEquals("New statement after ALTER", 2, counters[PREPARED]);
+
+        apply(new StatementData("RENAME TABLE " + SCHEMA + ".t1 TO t2"));
+        apply(new StatementData("CREATE TABLE " + SCHEMA
+                + ".t1 (id INT NOT NULL, v VARCHAR(20))"));
+        apply(insert(4));
+        assertEquals("New statement after RENAME", 3, counters[PREPARED]);
+        assertEquals("Row in new table", 1, count("1 = 1"));
+
+        apply(new StatementData("DROP TABLE " + SCHEMA + ".t1"));
+        apply(new StatementData("CREATE TABLE " + SCHEMA
+                + ".t1 (id INT NOT NULL, v VARCHAR(20))"));
+        apply(insert(5));
+        assertEquals("New statement after DROP", 4, counters[PREPARED]);
+        assertEquals("Row in recreated table", 1, count("id = 5"));
+    }
+
+    // Configures and prepares an applier with the given row settings.
+    private void prepareApplier(int rowBatchSize, int rowStatementCacheSize)
+            throws Exception
+    {
+        applier = new JdbcApplier();
+        applier.setDataSource("global");
+        applier.setGetColumnMetadataFromDB(false);
+        applier.setRowBatchSize(rowBatchSize);
+        applier.setRowStatementCacheSize(rowStatementCacheSize);
+        applier.configure(runtime);
+        applier.prepare(runtime);
+    }
+
+    // Applies and commits a transaction.
+    private void apply(DBMSData dbmsData) throws Exception
+    {
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(dbmsData);
+        seqno++;
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        DBMSEvent event = new DBMSEvent(Long.toString(seqno), data, now);
+        ReplDBMSHeaderData header = new ReplDBMSHeaderData(seqno, (short) 0,
+                true, "test", 0, Long.toString(seqno), SCHEMA, now, 0);
+        applier.apply(event, header, true, false);
+    }
+
+    // Returns the number of rows of t1 that match a condition.
+    private int count(String where) throws SQLException
+    {
+        Statement statement = db.createStatement();
+        try
+        {
+            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM "
+                    + SCHEMA + ".t1 WHERE " + where);
+            rs.next();
+            return rs.getInt(1);
+        }
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    // Counts statements the applier prepares and batches it executes. Unless
+    // batchCounts is set, batches report no row counts, as they do with
+    // drivers that rewrite batches.
+    private int[] countStatements(final boolean batchCounts)
+    {
+        final int[] counters = new int[2];
+        final Database conn = applier.conn;
+        applier.conn = (Database) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class<?>[]{Database.class},
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable
+                    {
+                        Object result = invokeOn(conn, method, args);
+                        if ("prepareStatement".equals(method.getName()))
+                        {
+                            counters[PREPARED]++;
+                            return countBatches((PreparedStatement) result,
+                                    counters, batchCounts);
+                        }
+                        return result;
+                    }
+                });
+        return counters;
+    }
+
+    private PreparedStatement countBatches(final PreparedStatement statement,
+            final int[] counters, final boolean batchCounts)
+    {
+        return (PreparedStatement) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                new InvocationHandler()
+                {
+                    public Object invoke(Object proxy, Method method,
+                            Object[] args) throws Throwable
+                    {
+                        Object result = invokeOn(statement, method, args);
+                        if ("executeBatch".equals(method.getName()))
+                        {
+                            counters[BATCHES]++;
+                            if (!batchCounts)
+                                Arrays.fill((int[]) result,
+                                        Statement.SUCCESS_NO_INFO);
+                        }
+                        return result;
+                    }
+                });
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args)
+            throws Throwable
+    {
+        try
+        {
+            return method.invoke(target, args);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw e.getCause();
+        }
+    }
+
+    private RowChangeData insert(int... ids)
+    {
+        OneRowChange orc = new OneRowChange(SCHEMA, "t1", ActionType.INSERT);
+        addColumnSpecs(orc);
+        for (int id : ids)
+            orc.getColumnValues().add(eventHelper.columnValues(orc, id, "a"));
+        return rowChangeData(orc);
+    }
+
+    private RowChangeData update(String v, int... ids)
+    {
+        OneRowChange orc = new OneRowChange(SCHEMA, "t1", ActionType.UPDATE);
+        addColumnSpecs(orc);
+        orc.getKeySpec().add(
+                eventHelper.columnSpec(orc, 1, "id", Types.INTEGER));
+        for (int id : ids)
+        {
+            orc.getColumnValues().add(eventHelper.columnValues(orc, id, v));
+            orc.getKeyValues().add(eventHelper.columnValues(orc, id));
+        }
+        return rowChangeData(orc);
+    }
+
+    // Deletes rows by id and v, given as pairs of values.
+    private RowChangeData delete(Object... keys)
+    {
+        OneRowChange orc = new OneRowChange(SCHEMA, "t1", ActionType.DELETE);
+        orc.getKeySpec().add(
+                eventHelper.columnSpec(orc, 1, "id", Types.INTEGER));
+        orc.getKeySpec().add(
+                eventHelper.columnSpec(orc, 2, "v", Types.VARCHAR));
+        for (int i = 0; i < keys.length; i += 2)
+            orc.getKeyValues().add(
+                    eventHelper.columnValues(orc, keys[i], keys[i + 1]));
+        return rowChangeData(orc);
+    }
+
+    private void addColumnSpecs(OneRowChange orc)
+    {
+        orc.getColumnSpec().add(
+                eventHelper.columnSpec(orc, 1, "id", Types.INTEGER));
+        orc.getColumnSpec().add(
+                eventHelper.columnSpec(orc, 2, "v", Types.VARCHAR));
+    }
+
+    private RowChangeData rowChangeData(OneRowChange orc)
+    {
+        RowChangeData rowChangeData = new RowChangeData();
+        rowChangeData.appendOneRowChange(orc);
+        return rowChangeData;
+    }
+
+    // Runtime that finds data sources without a pipeline and lets tests set
+    // the failure policy on 0-row updates.
+    private class TestRuntime extends ReplicatorRuntime
+    {
+        FailurePolicy zeroRowPolicy = FailurePolicy.STOP;
+
+        TestRuntime(TungstenProperties conf)
+        {
+            super(conf, new MockOpenReplicatorContext(), ReplicatorMonitor
+                    .getInstance());
+        }
+
+        public UniversalDataSource getDataSource(String name)
+        {
+            return datasourceManager.find(name);
+        }
+
+        public FailurePolicy getApplierFailurePolicyOn0RowUpdates()
+        {
+            return zeroRowPolicy;
+        }
+
+        public boolean logReplicatorUpdates()
+        {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.applier;
+
+import java.util.ArrayList;
+
+import javax.sql.rowset.serial.SerialException;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.extractor.mysql.SerialBlob;
+
+/**
+ * Implements unit tests on splitting optimized multi-row statements of the
+ * MySQL applier by size and number of placeholders.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class MySQLApplierTest extends TestCase
+{
+    private OneRowChange orc = new OneRowChange("test", "t1",
+                                     ActionType.INSERT);
+
+    /**
+     * Verify value estimates, including blobs whose length cannot be read.
+     */
+    public void testEstimateValueBytes() throws Exception
+    {
+        assertEquals("NULL", 4, MySQLApplier.estimateValueBytes(null));
+        assertEquals("String", 32, MySQLApplier
+                .estimateValueBytes("abcdefghij"));
+        assertEquals("Bytes", 23, MySQLApplier
+                .estimateValueBytes(new byte[10]));
+        assertEquals("Blob", 23, MySQLApplier
+                .estimateValueBytes(new SerialBlob(new byte[10])));
+        assertEquals("Number", 32, MySQLApplier
+                .estimateValueBytes(new Integer(1)));
+        assertTrue("Unreadable blob exceeds any packet", MySQLApplier
+                .estimateValueBytes(unreadableBlob()) >= Integer.MAX_VALUE);
+    }
+
+    /**
+     * Verify that statements end before the row that would take them over the
+     * byte limit. Rows of one 10-character string take 39 bytes.
+     */
+    public void testSplitAtByteLimit() throws Exception
+    {
+        MySQLApplier applier = newApplier(100);
+        ArrayList<ArrayList<ColumnVal>> values = rows(5, 1, "abcdefghij");
+        assertEquals("First statement", 2, applier.nextStatementEnd(values, 0,
+                0));
+        assertEquals("Second statement", 4, applier.nextStatementEnd(values,
+                2, 0));
+        assertEquals("Last statement", 5, applier.nextStatementEnd(values, 4,
+                0));
+        assertEquals("Header counts", 1, applier.nextStatementEnd(values, 0,
+                40));
+    }
+
+    /**
+     * Verify that statements end before the row that would take them over the
+     * placeholder limit of server-side prepared statements.
+     */
+    public void testSplitAtPlaceholderLimit() throws Exception
+    {
+        MySQLApplier applier = newApplier(Integer.MAX_VALUE);
+        ArrayList<ArrayList<ColumnVal>> values = rows(100, 1000,
+                new Integer(1));
+        assertEquals("First statement", 65, applier.nextStatementEnd(values,
+                0, 0));
+        assertEquals("Second statement", 100, applier.nextStatementEnd(values,
+                65, 0));
+    }
+
+    /**
+     * Verify that rows larger than the limit, including blobs of unknown
+     * length, go into statements of their own rather than none.
+     */
+    public void testOversizedRows() throws Exception
+    {
+        MySQLApplier applier = newApplier(10);
+        ArrayList<ArrayList<ColumnVal>> values = rows(2, 1, "abcdefghij");
+        assertEquals("First oversized row", 1, applier.nextStatementEnd(values,
+                0, 0));
+        assertEquals("Second oversized row", 2, applier.nextStatementEnd(
+                values, 1, 0));
+
+        applier = newApplier(1000);
+        values = rows(3, 1, "abcdefghij");
+        values.get(1).get(0).setValue(unreadableBlob());
+        assertEquals("Before unreadable blob", 1, applier.nextStatementEnd(
+                values, 0, 0));
+        assertEquals("Unreadable blob alone", 2, applier.nextStatementEnd(
+                values, 1, 0));
+        assertEquals("After unreadable blob", 3, applier.nextStatementEnd(
+                values, 2, 0));
+    }
+
+    private MySQLApplier newApplier(long maxStatementBytes)
+    {
+        MySQLApplier applier = new MySQLApplier();
+        applier.setMaxStatementBytes(maxStatementBytes);
+        return applier;
+    }
+
+    // Returns rows that each hold the same value in every column.
+    private ArrayList<ArrayList<ColumnVal>> rows(int count, int columns,
+            Object value)
+    {
+        ArrayList<ArrayList<ColumnVal>> rows = new ArrayList<ArrayList<ColumnVal>>();
+        for (int i = 0; i < count; i++)
+        {
+            ArrayList<ColumnVal> row = new ArrayList<ColumnVal>();
+            for (int c = 0; c < columns; c++)
+            {
+                ColumnVal val = orc.new ColumnVal();
+                val.setValue((java.io.Serializable) value);
+                row.add(val);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // Returns a blob whose length cannot be read, as after it is freed.
+    private SerialBlob unreadableBlob() throws Exception
+    {
+        return new SerialBlob(new byte[10])
+        {
+            private static final long serialVersionUID = 1L;
+
+            public long length() throws SerialException
+            {
+                throw new SerialException("Blob was freed");
+            }
+        };
+    }
+}
@@ -22,6 +22,7 @@
 
 package com.continuent.tungsten.replicator.event;
 
+import java.io.Serializable;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
@@ -207,6 +208,113 @@ public class EventGenerationHelper
         return replDbmsEvent;
     }
 
+    /**
+     * Creates a complete transaction event that holds a single table change.
+     * 
+     * @param seqno Sequence number
+     * @param rowChange Table change with one or more rows
+     * @return A fully formed event containing the table change
+     */
+    public ReplDBMSEvent eventFromRowChange(long seqno, OneRowChange rowChange)
+    {
+        RowChangeData rowChangeData = new RowChangeData();
+        rowChangeData.appendOneRowChange(rowChange);
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rowChangeData);
+
+        Timestamp ts = new Timestamp(System.currentTimeMillis());
+        DBMSEvent dbmsEvent = new DBMSEvent(new Long(seqno).toString(), null,
+                data, true, ts);
+        return new ReplDBMSEvent(seqno, (short) 0, true, "NONE", 0, ts,
+                dbmsEvent);
+    }
+
+    /**
+     * Creates an insert of one row into a table with an integer key column id
+     * at index 1 and a varchar column v at index 2. Like extracted inserts, the
+     * change has no key specification.
+     */
+    public OneRowChange idValueInsert(String schema, String table, int id,
+            String v)
+    {
+        OneRowChange rowChange = new OneRowChange(schema, table,
+                RowChangeData.ActionType.INSERT);
+        addIdValueColumns(rowChange, id, v);
+        return rowChange;
+    }
+
+    /**
+     * Creates an update of one row of an id/v table that is found by its old
+     * id, with the key image reduced to id as the primary key filter does.
+     */
+    public OneRowChange idValueUpdate(String schema, String table, int oldId,
+            int id, String v)
+    {
+        OneRowChange rowChange = new OneRowChange(schema, table,
+                RowChangeData.ActionType.UPDATE);
+        addIdValueColumns(rowChange, id, v);
+        rowChange.getKeySpec().add(columnSpec(rowChange, 1, "id",
+                Types.INTEGER));
+        rowChange.getKeyValues().add(
+                columnValues(rowChange, new Integer(oldId)));
+        return rowChange;
+    }
+
+    /**
+     * Creates a delete of one row of an id/v table by id.
+     */
+    public OneRowChange idValueDelete(String schema, String table, int id)
+    {
+        OneRowChange rowChange = new OneRowChange(schema, table,
+                RowChangeData.ActionType.DELETE);
+        rowChange.getKeySpec().add(columnSpec(rowChange, 1, "id",
+                Types.INTEGER));
+        rowChange.getKeyValues().add(columnValues(rowChange, new Integer(id)));
+        return rowChange;
+    }
+
+    /**
+     * Creates a column specification for a table change.
+     */
+    public ColumnSpec columnSpec(OneRowChange rowChange, int index,
+            String name, int type)
+    {
+        ColumnSpec colSpec = rowChange.new ColumnSpec();
+        colSpec.setIndex(index);
+        colSpec.setName(name);
+        colSpec.setType(type);
+        return colSpec;
+    }
+
+    /**
+     * Creates a row image for a table change. Null values are kept as SQL
+     * nulls.
+     */
+    public ArrayList<ColumnVal> columnValues(OneRowChange rowChange,
+            Object... values)
+    {
+        ArrayList<ColumnVal> valueColumns = new ArrayList<ColumnVal>(
+                values.length);
+        for (Object value : values)
+        {
+            ColumnVal colVal = rowChange.new ColumnVal();
+            colVal.setValue((Serializable) value);
+            valueColumns.add(colVal);
+        }
+        return valueColumns;
+    }
+
+    // Add the id and v columns of an id/v table row.
+    private void addIdValueColumns(OneRowChange rowChange, int id, String v)
+    {
+        rowChange.getColumnSpec().add(columnSpec(rowChange, 1, "id",
+                Types.INTEGER));
+        rowChange.getColumnSpec().add(columnSpec(rowChange, 2, "v",
+                Types.VARCHAR));
+        rowChange.getColumnValues().add(columnValues(rowChange,
+                new Integer(id), v));
+    }
+
     // Generate table change header.
     private OneRowChange generateRowChange(String schema, String table,
             RowChangeData.ActionType action)
@@ -30,6 +30,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.dbms.DBMSData;
 import com.continuent.tungsten.replicator.dbms.OneRowChange;
 import com.continuent.tungsten.replicator.dbms.RowChangeData;
@@ -134,4 +135,93 @@ public class RowChangeMetadataTest
         Assert.assertFalse("Varbinary should not be present",
                 rowChange.hasType(java.sql.Types.VARBINARY));
     }
+
+    /**
+     * Verify that a row change with a decoder is decoded once on first use of
+     * its columns, that table names are available without decoding, and that
+     * a failed decode leaves the change undecoded.
+     */
+    @Test
+    public void testLazyDecoding() throws Exception
+    {
+        final int[] decodeCount = new int[1];
+        OneRowChange rowChange = new OneRowChange("schema", "table",
+                RowChangeData.ActionType.INSERT);
+        rowChange.setDecoder(new OneRowChange.RowDecoder()
+        {
+            public void decode(OneRowChange change)
+            {
+                decodeCount[0]++;
+                OneRowChange.ColumnSpec spec = change.new ColumnSpec();
+                spec.setIndex(1);
+                spec.setType(java.sql.Types.INTEGER);
+                change.getColumnSpec().add(spec);
+                OneRowChange.ColumnVal value = change.new ColumnVal();
+                value.setValue(1);
+                ArrayList<OneRowChange.ColumnVal> row = new ArrayList<OneRowChange.ColumnVal>();
+                row.add(value);
+                change.getColumnValues().add(row);
+            }
+        });
+
+        Assert.assertEquals("Table name", "table", rowChange.getTableName());
+        Assert.assertFalse("Not decoded yet", rowChange.isDecoded());
+        Assert.assertEquals("Decoded on first use", 1, rowChange
+                .getColumnValues().size());
+        Assert.assertTrue("Decoded", rowChange.isDecoded());
+        Assert.assertTrue("Types decoded",
+                rowChange.hasType(java.sql.Types.INTEGER));
+        Assert.assertEquals("Decoded once", 1, decodeCount[0]);
+
+        // A decoder that fails halfway leaves nothing behind.
+        OneRowChange badChange = new OneRowChange("schema", "table",
+                RowChangeData.ActionType.INSERT);
+        badChange.setDecoder(new OneRowChange.RowDecoder()
+        {
+            public void decode(OneRowChange change)
+                    throws ReplicatorException
+            {
+                change.getColumnSpec().add(change.new ColumnSpec());
+                throw new ReplicatorException("Corrupt row");
+            }
+        });
+        try
+        {
+            badChange.getColumnSpec();
+            Assert.fail("Decoding error not reported");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+        Assert.assertFalse("Still undecoded", badChange.isDecoded());
+    }
+
+    /**
+     * Verify that the estimated size of an event counts row changes that are
+     * not decoded yet by the size of their encoded rows, without decoding
+     * them.
+     */
+    @Test
+    public void testEstimatedSizeUndecoded() throws Exception
+    {
+        OneRowChange rowChange = new OneRowChange("schema", "table",
+                RowChangeData.ActionType.INSERT);
+        rowChange.setDecoder(new OneRowChange.RowDecoder()
+        {
+            public void decode(OneRowChange change) throws ReplicatorException
+            {
+                throw new ReplicatorException("Decoded for estimate");
+            }
+        }, 10000);
+        Assert.assertEquals("Encoded size", 10000, rowChange.getEncodedSize());
+
+        RowChangeData rowChangeData = new RowChangeData();
+        rowChangeData.appendOneRowChange(rowChange);
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(rowChangeData);
+        DBMSEvent event = new DBMSEvent("1", null, data, true, null);
+        Assert.assertEquals("Encoded rows counted", 10000,
+                event.getEstimatedSize());
+        Assert.assertFalse("Not decoded", rowChange.isDecoded());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import junit.framework.TestCase;
+
+/**
+ * Implements unit tests on reading binlog data from a BinlogEventRing.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class BinlogEventRingTest extends TestCase
+{
+    private static final String FILE1 = "mysql-bin.000001";
+    private static final String FILE2 = "mysql-bin.000002";
+
+    /**
+     * Verify that a reader sees the data of one file across chunks, stops at
+     * the start of the next file, and releases data as it reads.
+     */
+    public void testReadAcrossChunksAndFiles() throws Exception
+    {
+        BinlogEventRing ring = new BinlogEventRing(1000);
+        ring.put(FILE1, 0, MysqlBinlog.BINLOG_MAGIC.clone());
+        ring.put(FILE1, 4, "abc".getBytes());
+        ring.put(FILE1, 7, "defgh".getBytes());
+        ring.put(FILE2, 0, MysqlBinlog.BINLOG_MAGIC.clone());
+
+        BinlogReader reader = newReader(ring, 4, FILE1, true);
+        reader.open();
+        assertEquals("Start position", 4, reader.getPosition());
+        assertEquals("Available in file", 8, reader.available());
+
+        byte[] buf = new byte[8];
+        reader.read(buf);
+        assertEquals("Data across chunks", "abcdefgh", new String(buf));
+        assertEquals("Position after read", 12, reader.getPosition());
+        assertEquals("Nothing left in file", 0, reader.available());
+
+        // Rotate to the next file as the extractor does.
+        reader.close();
+        reader.setFileName(FILE2);
+        reader.open();
+        assertEquals("Start of next file", 4, reader.getPosition());
+        assertEquals("Only next file is buffered", 4, ring.getBytes());
+    }
+
+    /**
+     * Verify that a reader seeks to its start position and that a clone reads
+     * ahead from the same position without releasing data.
+     */
+    public void testCloneReadsAhead() throws Exception
+    {
+        BinlogEventRing ring = new BinlogEventRing(1000);
+        ring.put(FILE1, 0, MysqlBinlog.BINLOG_MAGIC.clone());
+        ring.put(FILE1, 4, "0123".getBytes());
+        ring.put(FILE1, 8, "4567".getBytes());
+        ring.put(FILE1, 12, "89".getBytes());
+
+        BinlogReader reader = newReader(ring, 6, FILE1, true);
+        reader.open();
+        assertEquals("Seek to start position", 6, reader.getPosition());
+        assertEquals("Byte at start position", '2', reader.readByte());
+
+        BinlogReader clone = reader.clone();
+        clone.open();
+        assertEquals("Clone position", 7, clone.getPosition());
+        byte[] buf = new byte[7];
+        clone.read(buf);
+        assertEquals("Clone data", "3456789", new String(buf));
+        clone.close();
+
+        buf = new byte[3];
+        reader.read(buf);
+        assertEquals("Reader data after clone", "345", new String(buf));
+        assertEquals("Released chunks", 6, ring.getBytes());
+    }
+
+    /**
+     * Verify that the producer waits when the buffer is full until the reader
+     * releases data, and that closing the buffer ends a reader's wait.
+     */
+    public void testFlowControl() throws Exception
+    {
+        final BinlogEventRing ring = new BinlogEventRing(8);
+        ring.put(FILE1, 0, MysqlBinlog.BINLOG_MAGIC.clone());
+        ring.put(FILE1, 4, "abcd".getBytes());
+
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    ring.put(FILE1, 8, "efgh".getBytes());
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue("Producer waits on full buffer", producer.isAlive());
+
+        BinlogReader reader = newReader(ring, 4, FILE1, true);
+        reader.open();
+        byte[] buf = new byte[8];
+        reader.read(buf);
+        producer.join(5000);
+        assertFalse("Producer continues once data are read",
+                producer.isAlive());
+        assertEquals("Data", "abcdefgh", new String(buf));
+
+        ring.close();
+        try
+        {
+            reader.readByte();
+            fail("Read succeeded after buffer closed");
+        }
+        catch (java.io.EOFException e)
+        {
+        }
+    }
+
+    // Returns a reader on the ring.
+    private BinlogReader newReader(BinlogEventRing ring, long start,
+            String fileName, boolean consuming)
+    {
+        BinlogReader reader = new BinlogReader(start, fileName, ".",
+                "mysql-bin", 1024);
+        reader.setEventRing(ring, consuming);
+        return reader;
+    }
+}
@@ -22,6 +22,14 @@
 
 package com.continuent.tungsten.replicator.extractor.mysql;
 
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.apache.log4j.BasicConfigurator;
@@ -34,6 +42,10 @@ import com.continuent.tungsten.replicator.conf.ReplicatorConf;
 import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
 import com.continuent.tungsten.replicator.datasource.AliasDataSource;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.extractor.ExtractorException;
 import com.continuent.tungsten.replicator.extractor.ExtractorWrapper;
 import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
 import com.continuent.tungsten.replicator.pipeline.Pipeline;
@@ -179,6 +191,68 @@ public class BinlogTest extends TestCase
         return;
     }
 
+    /**
+     * Verify that row events decoded on several threads come out the same and
+     * in the same order as rows decoded on the extractor thread, including a
+     * transaction with more than one rows event.
+     */
+    public void testParallelRowDecoding() throws Exception
+    {
+        List<String> serial = extractRows("binlog_rbr_1", 0, 6);
+        List<String> parallel = extractRows("binlog_rbr_1", 3, 6);
+        assertEquals("Transactions", 6, parallel.size());
+        assertEquals("Parallel decoding matches serial decoding", serial,
+                parallel);
+        String twoEvents = parallel.get(2);
+        assertTrue("Rows of both events: " + twoEvents,
+                twoEvents.indexOf("dos") >= 0
+                        && twoEvents.indexOf("dos") < twoEvents
+                                .indexOf("tres"));
+    }
+
+    /**
+     * Verify that a row event that cannot be decoded on a decoding thread fails
+     * the transaction that contains it, after earlier transactions extract
+     * normally.
+     */
+    public void testParallelRowDecodingError() throws Exception
+    {
+        // Copy the binlog, making the string length of the second rows event
+        // of the transaction at offset 397 run past the end of the event.
+        byte[] binlog = readFile(new File("binlog_rbr_1.000001"));
+        binlog[625] = (byte) 0x7F;
+        FileOutputStream out = new FileOutputStream("binlog_rbr_bad.000001");
+        try
+        {
+            out.write(binlog);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        ReplicatorRuntime runtime = createRuntime("binlog_rbr_bad");
+        MySQLExtractor extractor = prepareExtractor(runtime, 3);
+        try
+        {
+            assertNotNull("DDL", extractor.extract());
+            assertNotNull("First insert", extractor.extract());
+            try
+            {
+                extractor.extract();
+                fail("Extracted transaction with corrupt rows event");
+            }
+            catch (ExtractorException e)
+            {
+                logger.info("Got expected decoding failure: " + e.getMessage());
+            }
+        }
+        finally
+        {
+            extractor.release(runtime);
+        }
+    }
+
     public void testApplierRBR() throws Exception
     {
         if (true)
@@ -230,6 +304,88 @@ public class BinlogTest extends TestCase
         // return;
     }
 
+    // Extracts transactions from a binlog and returns the row changes of each
+    // in text form.
+    private List<String> extractRows(String binlogPattern, int decodeThreads,
+            int transactions) throws Exception
+    {
+        ReplicatorRuntime runtime = createRuntime(binlogPattern);
+        MySQLExtractor extractor = prepareExtractor(runtime, decodeThreads);
+        List<String> rows = new ArrayList<String>();
+        try
+        {
+            for (int i = 0; i < transactions; i++)
+            {
+                StringBuffer sb = new StringBuffer();
+                for (DBMSData data : extractor.extract().getData())
+                {
+                    if (!(data instanceof RowChangeData))
+                        continue;
+                    for (OneRowChange orc : ((RowChangeData) data)
+                            .getRowChanges())
+                    {
+                        sb.append(orc.getAction()).append(' ')
+                                .append(orc.getTableName())
+                                .append(" cols=").append(orc.getColumnValues())
+                                .append(" keys=").append(orc.getKeyValues())
+                                .append('\n');
+                    }
+                }
+                rows.add(sb.toString());
+            }
+        }
+        finally
+        {
+            extractor.release(runtime);
+        }
+        return rows;
+    }
+
+    // Returns a configured runtime that extracts from a binlog in the current
+    // directory.
+    private ReplicatorRuntime createRuntime(String binlogPattern)
+            throws Exception
+    {
+        TungstenProperties conf = this.createConfProperties();
+        conf.setString(ReplicatorConf.EXTRACTOR_ROOT + ".mysql.binlog_dir",
+                ".");
+        conf.setString(ReplicatorConf.EXTRACTOR_ROOT
+                + ".mysql.binlog_file_pattern", binlogPattern);
+        ReplicatorRuntime runtime = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        return runtime;
+    }
+
+    // Returns the runtime's extractor positioned at the start of its binlog.
+    private MySQLExtractor prepareExtractor(ReplicatorRuntime runtime,
+            int decodeThreads) throws Exception
+    {
+        MySQLExtractor extractor = getMySQLExtractor(runtime);
+        extractor.setStrictVersionChecking(false);
+        extractor.setDataSource("extractor");
+        extractor.setDecodeThreads(decodeThreads);
+        extractor.prepare(runtime);
+        extractor.setLastEventId("000001:0");
+        return extractor;
+    }
+
+    private byte[] readFile(File file) throws IOException
+    {
+        byte[] data = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            in.readFully(data);
+        }
+        finally
+        {
+            in.close();
+        }
+        return data;
+    }
+
     // Generate a simple runtime.
     private TungstenProperties createConfProperties()
             throws ReplicatorException
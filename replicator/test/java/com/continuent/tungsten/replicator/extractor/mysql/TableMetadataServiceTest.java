@@ -0,0 +1,172 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.extractor.mysql;
+
+import java.io.File;
+import java.sql.Types;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.database.Column;
+import com.continuent.tungsten.replicator.database.MySQLOperationMatcher;
+import com.continuent.tungsten.replicator.database.Table;
+import com.continuent.tungsten.replicator.extractor.ExtractorException;
+
+/**
+ * Implements unit tests on caching of table metadata by the
+ * TableMetadataService. The tests use cached metadata only, so they do not
+ * need a database.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class TableMetadataServiceTest extends TestCase
+{
+    private File cacheFile;
+
+    /**
+     * Remove any cache file left by an earlier run.
+     */
+    public void setUp() throws Exception
+    {
+        File testDir = new File("testdir/TableMetadataServiceTest");
+        testDir.mkdirs();
+        cacheFile = new File(testDir, "table-metadata.cache");
+        cacheFile.delete();
+    }
+
+    /**
+     * Verify that saved metadata are loaded on start and used for the same
+     * table ID, that prefetched metadata without a table ID are used for any
+     * ID but not saved across restarts, and that metadata for a changed table
+     * ID are fetched again.
+     */
+    public void testSaveAndLoad() throws Exception
+    {
+        TableMetadataService service = newService();
+        service.setPrefetch(false);
+        service.store(newTable("test", "t1", 101, 3));
+        service.store(newTable("test", "t2", -1, 2));
+        service.save();
+
+        TableMetadataService service2 = newService();
+        service2.setPrefetch(false);
+        service2.start("test");
+        try
+        {
+            Table t1 = service2.getTable("test", "t1", 101, 3);
+            assertNotNull("Table is loaded from cache file", t1);
+            assertEquals("Column count", 3, t1.getColumnCount());
+            assertEquals("Column name", "c2", t1.findColumn(2).getName());
+
+            // The service has no data source, so it cannot fetch again.
+            try
+            {
+                service2.getTable("test", "t2", 105, 2);
+                fail("Used saved metadata without table ID");
+            }
+            catch (ExtractorException e)
+            {
+            }
+            service2.store(newTable("test", "t2", -1, 2));
+            Table t2 = service2.getTable("test", "t2", 105, 2);
+            assertNotNull("Prefetched table is used", t2);
+            assertEquals("Table ID follows binlog", 105, t2.getTableId());
+
+            try
+            {
+                service2.getTable("test", "t1", 102, 3);
+                fail("Used cached metadata for changed table ID");
+            }
+            catch (ExtractorException e)
+            {
+            }
+        }
+        finally
+        {
+            service2.stop();
+        }
+    }
+
+    /**
+     * Verify that DDL on a table drops its cached metadata from memory and from
+     * the cache file, while other tables remain cached.
+     */
+    public void testInvalidateOnDdl() throws Exception
+    {
+        TableMetadataService service = newService();
+        service.setPrefetch(false);
+        service.store(newTable("test", "t1", 101, 3));
+        service.store(newTable("test", "t2", 102, 2));
+        service.save();
+
+        MySQLOperationMatcher matcher = new MySQLOperationMatcher();
+        service.invalidate(matcher.match("ALTER TABLE t1 ADD COLUMN c4 INT"),
+                "test");
+
+        TableMetadataService service2 = newService();
+        service2.setPrefetch(false);
+        service2.start("test");
+        try
+        {
+            assertNotNull("Unchanged table is cached",
+                    service2.getTable("test", "t2", 102, 2));
+        }
+        finally
+        {
+            service2.stop();
+        }
+        try
+        {
+            // The stopped service cannot fetch the dropped table.
+            service2.getTable("test", "t1", 101, 3);
+            fail("Found metadata for altered table in cache file");
+        }
+        catch (ExtractorException e)
+        {
+        }
+    }
+
+    // Returns a service without a data source on the test cache file.
+    private TableMetadataService newService()
+    {
+        TableMetadataService service = new TableMetadataService(null, 100, 0);
+        service.setCacheFile(cacheFile);
+        return service;
+    }
+
+    // Returns table metadata with the given number of columns.
+    private Table newTable(String schema, String name, long tableId,
+            int columns)
+    {
+        Table table = new Table(schema, name);
+        for (int i = 1; i <= columns; i++)
+        {
+            Column column = new Column("c" + i, Types.INTEGER);
+            column.setPosition(i);
+            table.AddColumn(column);
+        }
+        table.setTableId(tableId);
+        return table;
+    }
+}
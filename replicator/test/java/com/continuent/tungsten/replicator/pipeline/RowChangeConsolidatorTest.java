@@ -0,0 +1,304 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.pipeline;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.replicator.ReplicatorException;
+import com.continuent.tungsten.replicator.applier.ApplierException;
+import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.dbms.RowChangeData.ActionType;
+import com.continuent.tungsten.replicator.event.EventGenerationHelper;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.management.MockEventDispatcher;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.storage.InMemoryQueueAdapter;
+import com.continuent.tungsten.replicator.storage.InMemoryQueueStore;
+
+/**
+ * Implements unit tests on folding row changes of a block into their net
+ * effect. Tables have an id key column at index 1 and a value column at index
+ * 2.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class RowChangeConsolidatorTest extends TestCase
+{
+    private EventGenerationHelper eventHelper = new EventGenerationHelper();
+
+    /**
+     * Verify that a row inserted and updated in the block is inserted once with
+     * its final values and that a row inserted and deleted disappears.
+     */
+    public void testInsertUpdateDelete() throws Exception
+    {
+        RowChangeConsolidator consolidator = new RowChangeConsolidator();
+        consolidator.add(event(1, insert(1, "a")));
+        consolidator.add(event(2, update(1, 1, "b")));
+        consolidator.add(event(3, insert(2, "x")));
+        consolidator.add(event(4, delete(2)));
+
+        ReplDBMSEvent net = consolidator.consolidate();
+        assertNotNull("Block is consolidated", net);
+        assertEquals("Seqno of last event", 4, net.getSeqno());
+        List<OneRowChange> changes = changesOf(net);
+        assertEquals("Net changes", 1, changes.size());
+        assertChange(changes.get(0), ActionType.INSERT, null, 1, "b");
+        assertEquals("Rows in", 4, consolidator.getRowsIn());
+        assertEquals("Rows out", 1, consolidator.getRowsOut());
+    }
+
+    /**
+     * Verify that repeated updates of an existing row, including one that
+     * changes the key, become a single update from the original key.
+     */
+    public void testUpdates() throws Exception
+    {
+        RowChangeConsolidator consolidator = new RowChangeConsolidator();
+        consolidator.add(event(1, update(1, 1, "b")));
+        consolidator.add(event(2, update(1, 5, "c")));
+        consolidator.add(event(3, update(5, 5, "d")));
+
+        List<OneRowChange> changes = changesOf(consolidator.consolidate());
+        assertEquals("Net changes", 1, changes.size());
+        assertChange(changes.get(0), ActionType.UPDATE, 1, 5, "d");
+    }
+
+    /**
+     * Verify that a row deleted and inserted again is deleted and inserted
+     * rather than updated, and that rows of the same shape share one change.
+     */
+    public void testDeleteInsert() throws Exception
+    {
+        RowChangeConsolidator consolidator = new RowChangeConsolidator();
+        consolidator.add(event(1, delete(1)));
+        consolidator.add(event(2, delete(2)));
+        consolidator.add(event(3, insert(2, "n")));
+
+        List<OneRowChange> changes = changesOf(consolidator.consolidate());
+        assertEquals("Net changes", 2, changes.size());
+        assertEquals("Delete action", ActionType.DELETE, changes.get(0)
+                .getAction());
+        assertEquals("Deleted rows", 2, changes.get(0).getKeyValues().size());
+        assertChange(changes.get(1), ActionType.INSERT, null, 2, "n");
+    }
+
+    /**
+     * Verify that inserts into a table without known key columns are passed on
+     * in order.
+     */
+    public void testInsertsWithoutKey() throws Exception
+    {
+        RowChangeConsolidator consolidator = new RowChangeConsolidator();
+        consolidator.add(event(1, insert(1, "a")));
+        consolidator.add(event(2, insert(1, "b")));
+
+        List<OneRowChange> changes = changesOf(consolidator.consolidate());
+        assertEquals("Net changes", 1, changes.size());
+        assertEquals("Inserted rows", 2, changes.get(0).getColumnValues()
+                .size());
+        assertEquals("Order", "b", changes.get(0).getColumnValues().get(1)
+                .get(1).getValue());
+    }
+
+    /**
+     * Verify that blocks the log does not explain or that change more than one
+     * table are not consolidated and remain available for literal apply.
+     */
+    public void testConflicts() throws Exception
+    {
+        RowChangeConsolidator consolidator = new RowChangeConsolidator();
+        consolidator.add(event(1, update(1, 1, "a")));
+        consolidator.add(event(2, insert(1, "b")));
+        assertNull("Insert of existing row", consolidator.consolidate());
+        assertEquals("Events to apply", 2, consolidator.drain().size());
+        assertTrue("Drained", consolidator.isEmpty());
+
+        consolidator.add(event(3, delete(1)));
+        consolidator.add(event(4, update(1, 1, "c")));
+        assertNull("Update of deleted row", consolidator.consolidate());
+        consolidator.drain();
+
+        ReplDBMSEvent first = event(5, update(1, 1, "d"));
+        ReplDBMSEvent second = event(6, update(2, 2, "e"));
+        second.getData().get(0).addOption("foreign_key_checks", "0");
+        consolidator.add(first);
+        consolidator.add(second);
+        assertNull("Different options", consolidator.consolidate());
+        consolidator.drain();
+
+        OneRowChange child = update(1, 1, "f");
+        child.setTableName("t2");
+        consolidator.add(event(7, child));
+        consolidator.add(event(8, insert(2, "g")));
+        assertNull("Different tables", consolidator.consolidate());
+    }
+
+    /**
+     * Verify that only complete transactions of row changes may be folded.
+     */
+    public void testIsConsolidatable() throws Exception
+    {
+        assertTrue("Row change",
+                RowChangeConsolidator.isConsolidatable(event(1, insert(1, "a"))));
+
+        ReplDBMSEvent statement = eventHelper.eventFromStatement(2, "test",
+                "DELETE FROM t1");
+        assertFalse("Statement",
+                RowChangeConsolidator.isConsolidatable(statement));
+
+        ReplDBMSEvent fragment = new ReplDBMSEvent(3, (short) 0, false, "NONE",
+                0, new Timestamp(System.currentTimeMillis()), event(3,
+                        insert(1, "a")).getDBMSEvent());
+        assertFalse("Fragment",
+                RowChangeConsolidator.isConsolidatable(fragment));
+    }
+
+    /**
+     * Verify that a block whose net changes fail to apply is applied one
+     * transaction at a time rather than skipped, even if the applier failure
+     * policy only warns.
+     */
+    public void testFallbackOnApplyFailure() throws Exception
+    {
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "test");
+        builder.setProperty(ReplicatorConf.APPLIER_FAILURE_POLICY, "warn");
+        builder.setRole("master");
+        builder.addPipeline("master", "stage", "q1,q2");
+        builder.addStage("stage", "q-extract", "q-apply", null);
+        builder.addProperty("stage", "stage", "blockCommitRowCount", "4");
+        builder.addProperty("stage", "stage", "consolidateRowChanges", "true");
+        builder.addComponent("extractor", "q-extract",
+                InMemoryQueueAdapter.class);
+        builder.addProperty("extractor", "q-extract", "storeName", "q1");
+        builder.addComponent("applier", "q-apply",
+                NetChangeFailingApplier.class);
+        builder.addProperty("applier", "q-apply", "storeName", "q2");
+        builder.addComponent("store", "q1", InMemoryQueueStore.class);
+        builder.addProperty("store", "q1", "maxSize", "10");
+        builder.addComponent("store", "q2", InMemoryQueueStore.class);
+        builder.addProperty("store", "q2", "maxSize", "10");
+
+        ReplicatorRuntime runtime = new ReplicatorRuntime(builder.getConfig(),
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        Pipeline pipeline = runtime.getPipeline();
+        InMemoryQueueStore input = (InMemoryQueueStore) pipeline
+                .getStore("q1");
+        for (int i = 0; i < 8; i++)
+            input.put(event(i, insert(i, "a")));
+        pipeline.start(new MockEventDispatcher());
+
+        try
+        {
+            pipeline.watchForCommittedSequenceNumber(7, false).get(5,
+                    TimeUnit.SECONDS);
+            InMemoryQueueStore output = (InMemoryQueueStore) pipeline
+                    .getStore("q2");
+            assertEquals("Transactions applied one by one", 8, output.size());
+            for (int i = 0; i < 8; i++)
+                assertEquals("Seqno", i, output.get().getSeqno());
+        }
+        finally
+        {
+            pipeline.shutdown(false);
+            pipeline.release(runtime);
+        }
+    }
+
+    /**
+     * Queue applier that fails on row changes of more than one row, which
+     * only net changes of the test have.
+     */
+    public static class NetChangeFailingApplier extends InMemoryQueueAdapter
+    {
+        public void apply(ReplDBMSEvent event, boolean doCommit,
+                boolean doRollback, boolean syncTHL)
+                throws ReplicatorException, InterruptedException
+        {
+            for (DBMSData dbmsData : event.getData())
+            {
+                for (OneRowChange orc : ((RowChangeData) dbmsData)
+                        .getRowChanges())
+                {
+                    if (orc.getColumnValues().size() > 1)
+                        throw new ApplierException("Net change failed");
+                }
+            }
+            super.apply(event, doCommit, doRollback, syncTHL);
+        }
+    }
+
+    // Checks the action, key and after image of a single row change.
+    private void assertChange(OneRowChange orc, ActionType action,
+            Integer key, int id, String value)
+    {
+        assertEquals("Action", action, orc.getAction());
+        if (key != null)
+            assertEquals("Key", key, orc.getKeyValues().get(0).get(0)
+                    .getValue());
+        ArrayList<ColumnVal> image = orc.getColumnValues().get(0);
+        assertEquals("Id", new Integer(id), image.get(0).getValue());
+        assertEquals("Value", value, image.get(1).getValue());
+    }
+
+    private List<OneRowChange> changesOf(ReplDBMSEvent event)
+    {
+        return ((RowChangeData) event.getData().get(0)).getRowChanges();
+    }
+
+    private ReplDBMSEvent event(long seqno, OneRowChange orc)
+    {
+        return eventHelper.eventFromRowChange(seqno, orc);
+    }
+
+    private OneRowChange insert(int id, String value)
+    {
+        return eventHelper.idValueInsert("test", "t1", id, value);
+    }
+
+    private OneRowChange update(int oldId, int id, String value)
+    {
+        return eventHelper.idValueUpdate("test", "t1", oldId, id, value);
+    }
+
+    private OneRowChange delete(int id)
+    {
+        return eventHelper.idValueDelete("test", "t1", id);
+    }
+}
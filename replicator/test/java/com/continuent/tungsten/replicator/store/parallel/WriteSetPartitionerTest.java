@@ -0,0 +1,208 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.store.parallel;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.continuent.tungsten.common.config.TungstenProperties;
+import com.continuent.tungsten.replicator.conf.ReplicatorConf;
+import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
+import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.event.EventGenerationHelper;
+import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
+import com.continuent.tungsten.replicator.event.ReplDBMSHeaderData;
+import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
+import com.continuent.tungsten.replicator.pipeline.PipelineConfigBuilder;
+import com.continuent.tungsten.replicator.plugin.PluginContext;
+import com.continuent.tungsten.replicator.storage.parallel.ParallelQueueStore;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
+import com.continuent.tungsten.replicator.storage.parallel.WriteSetPartitioner;
+
+/**
+ * Tests assignment of transactions to partitions by the keys of the rows they
+ * write. Tables have a key column id at index 1 and a value column v at index
+ * 2.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class WriteSetPartitionerTest extends TestCase
+{
+    private EventGenerationHelper eventHelper = new EventGenerationHelper();
+
+    /**
+     * Verify that changes to the same row go to the same partition, that rows
+     * of a single schema spread over partitions, and that updates that move a
+     * row to a key on another partition are critical.
+     */
+    public void testRowKeys() throws Exception
+    {
+        WriteSetPartitioner partitioner = newPartitioner(4);
+
+        PartitionerResponse insert = partitioner.partition(
+                event(1, insert(1, "a")), 0);
+        assertFalse("Insert is not critical", insert.isCritical());
+        PartitionerResponse update = partitioner.partition(
+                event(2, update(1, 1, "b")), 0);
+        assertFalse("Update is not critical", update.isCritical());
+        assertEquals("Same row, same partition", insert.getPartition(),
+                update.getPartition());
+        PartitionerResponse delete = partitioner.partition(event(3, delete(1)),
+                0);
+        assertEquals("Same row, same partition", insert.getPartition(),
+                delete.getPartition());
+
+        boolean[] used = new boolean[4];
+        for (int id = 0; id < 100; id++)
+        {
+            PartitionerResponse response = partitioner.partition(
+                    event(id, insert(id, "x")), 0);
+            used[response.getPartition()] = true;
+        }
+        for (int p = 0; p < 4; p++)
+            assertTrue("Partition used: " + p, used[p]);
+
+        // Find a key on another partition and move the row there.
+        int other = 2;
+        while (partitioner.partition(event(4, insert(other, "c")), 0)
+                .getPartition() == insert.getPartition())
+            other++;
+        PartitionerResponse move = partitioner.partition(
+                event(5, update(1, other, "c")), 0);
+        assertTrue("Key change across partitions is critical",
+                move.isCritical());
+        assertEquals("Critical partition", 0, move.getPartition());
+    }
+
+    /**
+     * Verify that transactions with unknown write sets are critical.
+     */
+    public void testCritical() throws Exception
+    {
+        WriteSetPartitioner partitioner = newPartitioner(4);
+
+        assertTrue("Statement", partitioner.partition(
+                eventHelper.eventFromStatement(1, "test", "DELETE FROM t1"), 0)
+                .isCritical());
+
+        OneRowChange noKey = insert(1, "a");
+        noKey.getKeySpec().clear();
+        assertTrue("Insert without key", partitioner.partition(
+                event(2, noKey), 0).isCritical());
+
+        OneRowChange fullImage = update(1, 1, "b");
+        fullImage.getKeySpec().add(eventHelper.columnSpec(fullImage, 2, "v",
+                Types.VARCHAR));
+        fullImage.getKeyValues().get(0).addAll(
+                eventHelper.columnValues(fullImage, "a"));
+        assertTrue("Full key image", partitioner.partition(
+                event(3, fullImage), 0).isCritical());
+
+        ReplDBMSEvent fragment = event(4, insert(1, "a"));
+        ReplDBMSEvent firstFragment = new ReplDBMSEvent(4, (short) 0, false,
+                "NONE", 0, new Timestamp(System.currentTimeMillis()),
+                fragment.getDBMSEvent());
+        assertTrue("Fragment", partitioner.partition(firstFragment, 0)
+                .isCritical());
+
+        try
+        {
+            partitioner.partition(new ReplDBMSHeaderData(5, (short) 0, true,
+                    "NONE", 0, "5", "test", null, 0), 0);
+            fail("Partitioned header without event data");
+        }
+        catch (Exception e)
+        {
+        }
+    }
+
+    /**
+     * Verify that a parallel queue store ends a critical section on partition
+     * 0 when a non-critical transaction follows.
+     */
+    public void testStoreCriticalSection() throws Exception
+    {
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "pqsService");
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, "tungsten");
+        TungstenProperties conf = builder.getConfig();
+        PluginContext context = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        ParallelQueueStore pqs = new ParallelQueueStore();
+        pqs.setPartitions(4);
+        pqs.setMaxSize(10);
+        pqs.setSyncEnabled(false);
+        pqs.setPartitionerClass(WriteSetPartitioner.class.getName());
+        pqs.configure(context);
+        pqs.prepare(context);
+
+        pqs.put(0, eventHelper.eventFromStatement(1, "test", "DELETE FROM t1"));
+        assertTrue("Serialized", pqs.status().getBoolean("serialized"));
+        assertEquals("Statement on partition 0", 1, pqs.get(0).getSeqno());
+
+        pqs.put(0, event(2, insert(1, "a")));
+        assertFalse("Not serialized", pqs.status().getBoolean("serialized"));
+        assertEquals("Total store size", 1, pqs.getStoreSize());
+
+        pqs.release(context);
+    }
+
+    private WriteSetPartitioner newPartitioner(int partitions)
+    {
+        WriteSetPartitioner partitioner = new WriteSetPartitioner();
+        partitioner.setPartitions(partitions);
+        return partitioner;
+    }
+
+    private ReplDBMSEvent event(long seqno, OneRowChange orc)
+    {
+        return eventHelper.eventFromRowChange(seqno, orc);
+    }
+
+    // Inserts carry key columns as added by the primary key filter.
+    private OneRowChange insert(int id, String v)
+    {
+        OneRowChange orc = eventHelper.idValueInsert("test", "t1", id, v);
+        orc.getKeySpec().add(eventHelper.columnSpec(orc, 1, "id",
+                Types.INTEGER));
+        orc.getKeyValues().add(new ArrayList<ColumnVal>());
+        return orc;
+    }
+
+    private OneRowChange update(int oldId, int id, String v)
+    {
+        return eventHelper.idValueUpdate("test", "t1", oldId, id, v);
+    }
+
+    private OneRowChange delete(int id)
+    {
+        return eventHelper.idValueDelete("test", "t1", id);
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Tungsten Scale-Out Stack
+ * Copyright (C) 2026 Continuent Inc.
+ * Contact: tungsten@continuent.org
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of version 2 of the GNU General Public License as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA
+ *
+ * Initial developer(s): agent
+ * Contributor(s):
+ */
+
+package com.continuent.tungsten.replicator.thl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+/**
+ * Implements unit tests on the compressed frames used for wire compression
+ * between THL servers and clients.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @version 1.0
+ */
+public class DeflateFrameStreamTest extends TestCase
+{
+    /**
+     * Verify that data written before compression starts pass through and that
+     * compressed frames, including one larger than the retained buffer size,
+     * read back intact.
+     */
+    public void testRoundTrip() throws Exception
+    {
+        byte[] small = data(1000);
+        byte[] large = data(3000000);
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        DeflateFrameOutputStream out = new DeflateFrameOutputStream(wire);
+        out.write(new byte[]{1, 2, 3});
+        out.flush();
+        assertEquals("Pass-through data are not framed", 3, wire.size());
+        out.startCompressing(Deflater.BEST_SPEED);
+        out.write(small);
+        out.flush();
+        out.write(large);
+        out.flush();
+        out.write(7);
+        out.flush();
+        assertEquals("Raw bytes", small.length + large.length + 1,
+                out.getRawBytes());
+        assertEquals("Wire bytes", wire.size() - 3, out.getWireBytes());
+        assertTrue("Data are compressed",
+                out.getWireBytes() < out.getRawBytes());
+        out.release();
+
+        DeflateFrameInputStream in = new DeflateFrameInputStream(
+                new ByteArrayInputStream(wire.toByteArray()));
+        byte[] prefix = new byte[3];
+        new DataInputStream(in).readFully(prefix);
+        assertTrue("Pass-through data",
+                Arrays.equals(new byte[]{1, 2, 3}, prefix));
+        in.startDecompressing();
+        assertTrue("Small frame", Arrays.equals(small, readFully(in,
+                small.length)));
+        assertTrue("Large frame", Arrays.equals(large, readFully(in,
+                large.length)));
+        assertEquals("Single byte frame", 7, in.read());
+        assertEquals("End of stream", -1, in.read());
+        in.close();
+    }
+
+    /**
+     * Verify that a frame cut short in its header or its data is an error
+     * rather than end of stream.
+     */
+    public void testTruncatedFrame() throws Exception
+    {
+        byte[] frame = frame(data(10000));
+        assertReadFails("Truncated data",
+                Arrays.copyOf(frame, frame.length - 10));
+        assertReadFails("Truncated header", Arrays.copyOf(frame, 6));
+    }
+
+    /**
+     * Verify that frames with corrupt headers or data are errors.
+     */
+    public void testCorruptFrame() throws Exception
+    {
+        byte[] frame = frame(data(10000));
+
+        byte[] badLength = frame.clone();
+        badLength[0] = (byte) 0xFF;
+        assertReadFails("Negative length", badLength);
+
+        byte[] badRawLength = frame.clone();
+        badRawLength[7]++;
+        assertReadFails("Wrong raw length", badRawLength);
+
+        // 0xFF starts a deflate block of a reserved type.
+        byte[] badData = frame.clone();
+        Arrays.fill(badData, 8, badData.length, (byte) 0xFF);
+        assertReadFails("Corrupt data", badData);
+    }
+
+    // Returns a single compressed frame holding the given data.
+    private byte[] frame(byte[] data) throws IOException
+    {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        DeflateFrameOutputStream out = new DeflateFrameOutputStream(wire);
+        out.startCompressing(Deflater.DEFAULT_COMPRESSION);
+        out.write(data);
+        out.close();
+        return wire.toByteArray();
+    }
+
+    // Confirms that reading a compressed frame fails with an IOException.
+    private void assertReadFails(String message, byte[] wire)
+    {
+        DeflateFrameInputStream in = new DeflateFrameInputStream(
+                new ByteArrayInputStream(wire));
+        in.startDecompressing();
+        try
+        {
+            in.read();
+            fail(message + ": read succeeded");
+        }
+        catch (IOException e)
+        {
+        }
+        finally
+        {
+            in.release();
+        }
+    }
+
+    private byte[] readFully(DeflateFrameInputStream in, int length)
+            throws IOException
+    {
+        byte[] data = new byte[length];
+        new DataInputStream(in).readFully(data);
+        return data;
+    }
+
+    // Returns data that compress, as THL events do.
+    private byte[] data(int length)
+    {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++)
+            data[i] = (byte) ((i % 251) ^ (i / 4096));
+        return data;
+    }
+}
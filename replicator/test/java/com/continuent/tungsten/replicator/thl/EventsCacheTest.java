@@ -26,6 +26,9 @@ import junit.framework.TestCase;
 
 import org.apache.log4j.Logger;
 
+import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
+import com.continuent.tungsten.replicator.thl.log.LogRecord;
+
 /**
  * Implements a simple unit test EventsCache class to ensure cache behaves and
  * does not block, etc.
@@ -97,6 +100,81 @@ public class EventsCacheTest extends TestCase
         }
     }
 
+    /**
+     * Verify that fragmented and filtered events are not cached but still
+     * advance the last committed seqno, and that readers waiting for a seqno
+     * wake up when it is committed.
+     */
+    public void testLastSeqnoAndWaiting() throws Exception
+    {
+        EventsCache ec = new EventsCache(10);
+        ec.reset(-1);
+        assertEquals("Reset sets last seqno", -1, ec.getLastSeqno());
+
+        THLEvent frag = new THLEvent(0, (short) 0, false, "test", (short) 0,
+                0, null, null, "0", "#UNKNOWN", null);
+        ec.put(frag);
+        assertNull("Fragment is not cached", ec.get(0));
+        assertEquals("Fragment advances last seqno", 0, ec.getLastSeqno());
+
+        ReplDBMSFilteredEvent filtered = new ReplDBMSFilteredEvent("1",
+                new Long(1), new Long(5), new Short((short) 0));
+        ec.put(new THLEvent("1", filtered));
+        assertNull("Filtered event is not cached", ec.get(1));
+        assertEquals("Filtered event commits its range", 5, ec.getLastSeqno());
+
+        // Waiting for committed seqnos returns at once; others time out.
+        assertTrue("Committed seqno", ec.waitForSeqno(5, 0));
+        assertFalse("Uncommitted seqno", ec.waitForSeqno(6, 10));
+
+        // A reader wakes up when the seqno it waits for is committed.
+        final EventsCache cache = ec;
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException e)
+                {
+                }
+                cache.put(makeTHLEvent(6));
+            }
+        };
+        writer.start();
+        assertTrue("Reader sees commit", ec.waitForSeqno(6, 5000));
+        assertNotNull("Committed event is cached", ec.get(6));
+        writer.join();
+
+        // Reset drops all cached events.
+        ec.reset(2);
+        assertTrue("Reset cache is empty", ec.isEmpty());
+        assertNull("Reset drops events", ec.get(6));
+        assertEquals("Reset sets last seqno", 2, ec.getLastSeqno());
+    }
+
+    /**
+     * Verify that the cache returns stored log records with their events.
+     */
+    public void testStoredRecords() throws Exception
+    {
+        EventsCache ec = new EventsCache(4);
+        LogRecord record = new LogRecord(null, -1, new byte[]{1, 2, 3},
+                LogRecord.CRC_TYPE_NONE, 0);
+        ec.put(makeTHLEvent(7), record);
+        ec.put(makeTHLEvent(8));
+        assertSame("Record is cached", record, ec.getRecord(7));
+        assertNull("Event without record", ec.getRecord(8));
+        assertNotNull("Event is cached", ec.get(8));
+
+        // Seqno 11 takes the slot of seqno 7.
+        ec.put(makeTHLEvent(11));
+        assertNull("Aged out record", ec.getRecord(7));
+        assertNull("Aged out event", ec.get(7));
+    }
+
     // Creates a dummy THL event.
     private THLEvent makeTHLEvent(long seqno)
     {
@@ -42,6 +42,10 @@ import com.continuent.tungsten.common.config.TungstenProperties;
 import com.continuent.tungsten.replicator.ReplicatorException;
 import com.continuent.tungsten.replicator.conf.ReplicatorMonitor;
 import com.continuent.tungsten.replicator.conf.ReplicatorRuntime;
+import com.continuent.tungsten.replicator.dbms.OneRowChange;
+import com.continuent.tungsten.replicator.dbms.OneRowChange.ColumnVal;
+import com.continuent.tungsten.replicator.dbms.RowChangeData;
+import com.continuent.tungsten.replicator.event.EventGenerationHelper;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSFilteredEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSHeader;
@@ -54,6 +58,8 @@ import com.continuent.tungsten.replicator.storage.CommitAction;
 import com.continuent.tungsten.replicator.storage.InMemoryMultiQueue;
 import com.continuent.tungsten.replicator.storage.InMemoryTransactionalQueue;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.storage.parallel.PartitionerResponse;
+import com.continuent.tungsten.replicator.storage.parallel.WriteSetPartitioner;
 import com.continuent.tungsten.replicator.thl.log.LogConnection;
 
 /**
@@ -269,6 +275,148 @@ public class THLParallelQueueBasicTest
         }
     }
 
+    /**
+     * Verify that a parallel THL queue using a single demultiplexing reader
+     * assigns each event to the correct channel and reads each event from the
+     * log only once.
+     */
+    @Test
+    public void testMultiChannelDemultiplexed() throws Exception
+    {
+        logger.info("##### testMultiChannelDemultiplexed #####");
+
+        // Set up and prepare pipeline with demultiplexed reads.
+        TungstenProperties conf = helper.generateTHLParallelPipeline(
+                "testMultiChannelDemultiplexed", 3, 50, 100, true);
+        conf.setBoolean("replicator.store.thl-queue.demultiplexRead", true);
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        // Fetch references to stores.
+        THL thl = (THL) pipeline.getStore("thl");
+        THLParallelQueue tpq = (THLParallelQueue) pipeline
+                .getStore("thl-queue");
+        InMemoryMultiQueue mq = (InMemoryMultiQueue) pipeline
+                .getStore("multi-queue");
+        Assert.assertTrue("Demultiplexed reads enabled",
+                tpq.isDemultiplexRead());
+
+        // Write events to the THL with three different shard IDs.
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < 90; i++)
+        {
+            ReplDBMSEvent rde = helper.createEvent(i, "db" + (i % 3));
+            THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+            conn.store(thlEvent, false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+
+        // Confirm that each parallel queue on the other side gets 30 events
+        // in order and that each belongs to the right shard.
+        for (int q = 0; q < 3; q++)
+        {
+            long seqno = -1;
+            String shardId = "db" + q;
+            for (int i = 0; i < 30; i++)
+            {
+                ReplDBMSEvent rde2 = (ReplDBMSEvent) mq.get(q);
+                Assert.assertTrue("Seqno increases due to partial order",
+                        rde2.getSeqno() > seqno);
+                seqno = rde2.getSeqno();
+                Assert.assertEquals("Shard ID matches queue", shardId,
+                        rde2.getShardId());
+            }
+        }
+
+        // Confirm that the shared reader read each event exactly once.
+        String demuxStatus = tpq.status().getString("demuxReader");
+        Assert.assertNotNull("Demultiplexing reader status", demuxStatus);
+        Assert.assertTrue("Read each event once: " + demuxStatus,
+                demuxStatus.contains(" read=90 "));
+    }
+
+    /**
+     * Verify that a parallel THL queue with a write set partitioner reads the
+     * log through a single reader and assigns row changes to channels by key.
+     */
+    @Test
+    public void testMultiChannelWriteSet() throws Exception
+    {
+        logger.info("##### testMultiChannelWriteSet #####");
+
+        // Set up and prepare pipeline with a write set partitioner.
+        TungstenProperties conf = helper.generateTHLParallelPipeline(
+                "testMultiChannelWriteSet", 3, 50, 100, true);
+        conf.setString("replicator.store.thl-queue.partitionerClass",
+                WriteSetPartitioner.class.getName());
+        runtime = new ReplicatorRuntime(conf, new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        runtime.configure();
+        runtime.prepare();
+        pipeline = runtime.getPipeline();
+        pipeline.start(new MockEventDispatcher());
+
+        // Fetch references to stores.
+        THL thl = (THL) pipeline.getStore("thl");
+        THLParallelQueue tpq = (THLParallelQueue) pipeline
+                .getStore("thl-queue");
+        InMemoryMultiQueue mq = (InMemoryMultiQueue) pipeline
+                .getStore("multi-queue");
+        Assert.assertTrue("Demultiplexed reads enabled",
+                tpq.isDemultiplexRead());
+
+        // Write inserts on 10 keys of a single shard, counting the events
+        // each channel should receive.
+        WriteSetPartitioner partitioner = new WriteSetPartitioner();
+        partitioner.setPartitions(3);
+        int[] expected = new int[3];
+        EventGenerationHelper eventHelper = new EventGenerationHelper();
+        LogConnection conn = thl.connect(false);
+        for (int i = 0; i < 60; i++)
+        {
+            ReplDBMSEvent rde = eventHelper.eventFromRowInsert(i, "db0", "t1",
+                    new String[]{"id", "v"}, new Object[]{i % 10, i}, 0, true,
+                    new Timestamp(System.currentTimeMillis()));
+            OneRowChange orc = ((RowChangeData) rde.getData().get(0))
+                    .getRowChanges().get(0);
+            orc.getKeySpec().add(orc.getColumnSpec().get(0));
+            orc.getKeyValues().add(new ArrayList<ColumnVal>());
+            PartitionerResponse response = partitioner.partition(rde, 0);
+            Assert.assertFalse("Insert is not critical", response.isCritical());
+            expected[response.getPartition()]++;
+
+            THLEvent thlEvent = new THLEvent(rde.getSourceId(), rde);
+            conn.store(thlEvent, false);
+        }
+        conn.commit();
+        thl.disconnect(conn);
+
+        // Confirm that each channel gets its events in order and that every
+        // event for a key arrives on the same channel.
+        String[] keyChannels = new String[10];
+        for (int q = 0; q < 3; q++)
+        {
+            long seqno = -1;
+            for (int i = 0; i < expected[q]; i++)
+            {
+                ReplDBMSEvent rde2 = (ReplDBMSEvent) mq.get(q);
+                Assert.assertTrue("Seqno increases due to partial order",
+                        rde2.getSeqno() > seqno);
+                seqno = rde2.getSeqno();
+                int key = (int) (seqno % 10);
+                if (keyChannels[key] == null)
+                    keyChannels[key] = "q" + q;
+                Assert.assertEquals("Key stays on one channel: key=" + key,
+                        keyChannels[key], "q" + q);
+            }
+        }
+    }
+
     /**
      * Verify that a parallel THL with multiple channels properly do not commit
      * additional transactions after a failure. This includes not committing any
@@ -294,10 +294,13 @@ public class THLParallelQueueIntervalTest
         Assert.assertNotNull("db2 should commit immediately", rde2);
         Assert.assertEquals("Checking seqno", 4, rde2.getSeqno());
 
-        // Read the shard 0 transaction.
+        // Read the shard 0 transaction and wait for shard 0 to go idle, so
+        // that the shard 1 transaction is the lowest one in the interval
+        // guard.
         ReplDBMSEvent rde = mq.get(0);
         Assert.assertEquals("Checking first seqno", 0, rde.getSeqno());
         confirmCommitted(1, 1000);
+        confirmLowSeqno(tpq, 3, 2000);
 
         // Load up another transaction on shard 2. This should not commit
         // because the transaction on shard 1 has a very old timestamp.
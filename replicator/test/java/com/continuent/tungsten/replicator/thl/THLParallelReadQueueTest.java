@@ -76,6 +76,54 @@ public class THLParallelReadQueueTest
         this.checkEvents(prq, 50, 0);
     }
 
+    /**
+     * Verify that a read queue with a byte limit makes posts wait once the
+     * estimated bytes of queued events reach the limit, except that an empty
+     * queue accepts an event larger than the limit.
+     */
+    @Test
+    public void testMaxBytes() throws Exception
+    {
+        logger.info("##### testMaxBytes #####");
+        final THLParallelReadQueue prq = new THLParallelReadQueue(0, 100,
+                1000, 100, -1, 100, null, new AtomicIntervalGuard<Object>(1));
+
+        // An event larger than the limit fits in the empty queue.
+        final THLEvent big = genEvent(0, (short) 0, true, "db0");
+        big.getReplEvent().setEstimatedSize(5000);
+        prq.post(big);
+        Assert.assertEquals(5000, prq.getBytes());
+
+        // The next event waits until the big one is taken.
+        final THLEvent small = genEvent(1, (short) 0, true, "db0");
+        small.getReplEvent().setEstimatedSize(600);
+        Thread poster = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    prq.post(small);
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        };
+        poster.start();
+        poster.join(200);
+        Assert.assertTrue("Post waits for bytes", poster.isAlive());
+
+        Assert.assertEquals(0, ((ReplDBMSEvent) prq.take()).getSeqno());
+        poster.join(5000);
+        Assert.assertFalse("Post continues once bytes are free",
+                poster.isAlive());
+        Assert.assertEquals(600, prq.getBytes());
+        Assert.assertEquals(1, ((ReplDBMSEvent) prq.take()).getSeqno());
+        Assert.assertEquals(0, prq.getBytes());
+        prq.release();
+    }
+
     /**
      * Verify that a read queue correctly adds control events at the right
      * points in the event flow.
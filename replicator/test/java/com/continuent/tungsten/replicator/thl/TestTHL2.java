@@ -22,9 +22,13 @@
 
 package com.continuent.tungsten.replicator.thl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -51,9 +55,12 @@ import com.continuent.tungsten.replicator.management.MockEventDispatcher;
 import com.continuent.tungsten.replicator.management.MockOpenReplicatorContext;
 import com.continuent.tungsten.replicator.pipeline.Pipeline;
 import com.continuent.tungsten.replicator.pipeline.PipelineConfigBuilder;
+import com.continuent.tungsten.replicator.pipeline.SampleFilter;
 import com.continuent.tungsten.replicator.storage.InMemoryQueueAdapter;
 import com.continuent.tungsten.replicator.storage.InMemoryQueueStore;
 import com.continuent.tungsten.replicator.storage.Store;
+import com.continuent.tungsten.replicator.thl.log.LogConnection;
+import com.continuent.tungsten.replicator.thl.log.LogEventReplReader;
 
 /**
  * Implements a test of THL. This test implements a practical test of the
@@ -331,6 +338,541 @@ public class TestTHL2
         serverRuntime.release();
     }
 
+    /**
+     * Verify that when master and slave agree to ship stored log records, the
+     * slave stores the records it receives as is, including fragmented
+     * transactions. Serialization is not repeatable, so equal CRCs show that
+     * the slave did not serialize the events again.
+     */
+    @Test
+    public void testRawRecordShipping() throws Exception
+    {
+        logger.info("##### testRawRecordShipping #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testRawRecordShipping", true, 0, 3, props(),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+    }
+
+    /**
+     * Verify that slaves that do not accept stored log records still receive
+     * and store all events.
+     */
+    @Test
+    public void testRawRecordShippingDisabled() throws Exception
+    {
+        logger.info("##### testRawRecordShippingDisabled #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testRawRecordShippingDisabled", false, 0, 3,
+                props(), serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Expected 10x3 records", 30, clientCrcs.size());
+    }
+
+    /**
+     * Verify that a master serving slaves from selector worker threads
+     * delivers all events, both as stored log records and as events.
+     */
+    @Test
+    public void testSelectorServer() throws Exception
+    {
+        logger.info("##### testSelectorServer #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testSelectorServer", true, 2, 3, props(),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testSelectorServerEvents", false, 2, 3, props(),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, clientCrcs.size());
+    }
+
+    /**
+     * Verify that unfragmented transactions, which masters serve from the
+     * event cache once slaves catch up, reach the slave intact both as stored
+     * log records and as events.
+     */
+    @Test
+    public void testEventCacheServing() throws Exception
+    {
+        logger.info("##### testEventCacheServing #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testEventCacheServing", true, 0, 1, props(),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10 records", 10, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testEventCacheServingEvents", false, 0, 1, props(),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10 records", 10, clientCrcs.size());
+    }
+
+    /**
+     * Verify that a slave that requests transactions in small prefetch windows
+     * with several windows in flight receives all transactions, both as stored
+     * log records and as events, and also from selector worker threads.
+     */
+    @Test
+    public void testPrefetchWindows() throws Exception
+    {
+        logger.info("##### testPrefetchWindows #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testPrefetchWindows", true, 0, 3,
+                props("prefetchRange", "3", "prefetchWindows", "2"), serverCrcs,
+                clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testPrefetchWindowsEvents", false, 0, 1,
+                props("prefetchRange", "3", "prefetchWindows", "2"),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10 records", 10, clientCrcs.size());
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testPrefetchWindowsSelector", true, 2, 3,
+                props("prefetchRange", "3", "prefetchWindows", "2"), serverCrcs,
+                clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testPrefetchWindowsSelectorEvents", false, 2, 1,
+                props("prefetchRange", "1", "prefetchWindows", "1"),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10 records", 10, clientCrcs.size());
+    }
+
+    /**
+     * Verify that a slave with a single small prefetch window receives all
+     * transactions when the master log contains filtered events, both as
+     * stored log records and as events, and also from selector worker
+     * threads. Master and slave must count a filtered event against the
+     * window the same way or the slave stops receiving.
+     */
+    @Test
+    public void testPrefetchWindowsFiltered() throws Exception
+    {
+        logger.info("##### testPrefetchWindowsFiltered #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+
+        // Seqnos 2 to 6 become a single filtered event on the master.
+        Map<String, String> filterProps = props("skipSeqnoStart", "2",
+                "skipSeqnoRange", "5");
+        runChainedPipelines("testPrefetchWindowsFiltered", true, 0, 1,
+                props("prefetchRange", "2", "prefetchWindows", "1"),
+                filterProps, 6, false, serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 6 records", 6, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testPrefetchWindowsFilteredEvents", false, 0, 1,
+                props("prefetchRange", "2", "prefetchWindows", "1"),
+                filterProps, 6, false, serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 6 records", 6, clientCrcs.size());
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testPrefetchWindowsFilteredSelector", false, 2,
+                1, props("prefetchRange", "2", "prefetchWindows", "1"),
+                filterProps, 6, false, serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 6 records", 6, clientCrcs.size());
+    }
+
+    /**
+     * Verify that a slave that asks for compressed transfer receives all
+     * transactions intact, both as stored log records and as events, and also
+     * from selector worker threads.
+     */
+    @Test
+    public void testWireCompression() throws Exception
+    {
+        logger.info("##### testWireCompression #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testWireCompression", true, 0, 3,
+                props("wireCompression", "deflate"), serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testWireCompressionEvents", false, 0, 3,
+                props("wireCompression", "deflate", "prefetchRange", "3"),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, clientCrcs.size());
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testWireCompressionSelector", true, 2, 3,
+                props("wireCompression", "deflate"), serverCrcs, clientCrcs);
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+    }
+
+    /**
+     * Verify that a slave that decodes events on several threads stores them
+     * in order and intact, both as stored log records and as events, with and
+     * without limited prefetch windows.
+     */
+    @Test
+    public void testParallelDecoding() throws Exception
+    {
+        logger.info("##### testParallelDecoding #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testParallelDecoding", true, 0, 3,
+                props("decodeThreads", "3"), serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testParallelDecodingWindows", true, 0, 3,
+                props("decodeThreads", "3", "prefetchRange", "2"),
+                serverCrcs, clientCrcs);
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testParallelDecodingEvents", false, 0, 3,
+                props("decodeThreads", "2"), serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, clientCrcs.size());
+    }
+
+    /**
+     * Verify that a slave that starts behind the master catches up over
+     * several connections and ends up with the same log as the master, also
+     * when selector worker threads serve the segments.
+     */
+    @Test
+    public void testParallelCatchUp() throws Exception
+    {
+        logger.info("##### testParallelCatchUp #####");
+        List<Long> serverCrcs = new ArrayList<Long>();
+        List<Long> clientCrcs = new ArrayList<Long>();
+        runChainedPipelines("testParallelCatchUp", true, 0, 3,
+                props("catchUpConnections", "3", "catchUpSegmentSize", "2"),
+                true, serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+
+        // Segments that do not divide the range evenly, with events decoded
+        // on the master.
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testParallelCatchUpEvents", false, 0, 2,
+                props("catchUpConnections", "2", "catchUpSegmentSize", "3"),
+                true, serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x2 records", 20, clientCrcs.size());
+
+        serverCrcs.clear();
+        clientCrcs.clear();
+        runChainedPipelines("testParallelCatchUpSelector", true, 2, 3,
+                props("catchUpConnections", "3", "catchUpSegmentSize", "2"),
+                true, serverCrcs, clientCrcs);
+        Assert.assertEquals("Expected 10x3 records", 30, serverCrcs.size());
+        Assert.assertEquals("Slave log records must match master",
+                serverCrcs, clientCrcs);
+    }
+
+    /**
+     * Verify that the server protocol sizes batches by bytes: small records
+     * are put in larger batches, large records in smaller ones, and a record
+     * over the byte limit goes out at once.
+     */
+    @Test
+    public void testAdaptiveBatching() throws Exception
+    {
+        logger.info("##### testAdaptiveBatching #####");
+        TungstenProperties conf = new TungstenProperties();
+        conf.setInt(ReplicatorConf.THL_PROTOCOL_BUFFER_SIZE, 4);
+        conf.setInt(ReplicatorConf.THL_PROTOCOL_BUFFER_BYTES, 1000);
+        conf.setInt(ReplicatorConf.THL_PROTOCOL_BUFFER_LATENCY, 0);
+        ReplicatorRuntime runtime = new ReplicatorRuntime(conf,
+                new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Protocol protocol = new Protocol(runtime, null, 1, out);
+        Assert.assertEquals("Initial limit", 4, protocol.getBatchLimit());
+
+        // Small records: a full batch doubles the limit.
+        long seqno = 0;
+        int written = out.size();
+        for (int i = 0; i < 3; i++)
+            protocol.sendReplRecord(newRecord(seqno++, 10), false);
+        Assert.assertEquals("Records are buffered", written, out.size());
+        protocol.sendReplRecord(newRecord(seqno++, 10), false);
+        Assert.assertTrue("Batch is sent", out.size() > written);
+        Assert.assertEquals("Limit grows", 8, protocol.getBatchLimit());
+        for (int i = 0; i < 8; i++)
+            protocol.sendReplRecord(newRecord(seqno++, 10), false);
+        Assert.assertEquals("Limit grows", 16, protocol.getBatchLimit());
+
+        // Large records: the byte limit ends the batch first.
+        written = out.size();
+        protocol.sendReplRecord(newRecord(seqno++, 600), false);
+        Assert.assertEquals("Record is buffered", written, out.size());
+        protocol.sendReplRecord(newRecord(seqno++, 600), false);
+        Assert.assertTrue("Batch is sent", out.size() > written);
+        Assert.assertEquals("Limit shrinks", 2, protocol.getBatchLimit());
+
+        // A record over the byte limit goes out alone.
+        written = out.size();
+        protocol.sendReplRecord(newRecord(seqno++, 2000), false);
+        Assert.assertTrue("Record is sent", out.size() > written);
+        Assert.assertEquals("Limit shrinks", 1, protocol.getBatchLimit());
+
+        // A forced send ends the batch regardless of size.
+        protocol.sendReplRecord(newRecord(seqno++, 10), false);
+        written = out.size();
+        protocol.sendReplRecord(newRecord(seqno++, 10), true);
+        Assert.assertTrue("Batch is sent", out.size() > written);
+        protocol.release();
+    }
+
+    // Returns a stored record with the given amount of data.
+    private ProtocolReplRecord newRecord(long seqno, int size)
+    {
+        return new ProtocolReplRecord(seqno, (short) 0, true, new byte[size],
+                (byte) 0, 0);
+    }
+
+    // Returns remote extractor properties from name/value pairs.
+    private Map<String, String> props(String... nameValues)
+    {
+        Map<String, String> props = new HashMap<String, String>();
+        for (int i = 0; i < nameValues.length; i += 2)
+            props.put(nameValues[i], nameValues[i + 1]);
+        return props;
+    }
+
+    // Replicates 10 transactions of nFrags fragments each from a master THL to
+    // a slave THL and returns the CRCs of the records in each log. Extra
+    // properties are set on the slave's remote extractor.
+    private void runChainedPipelines(String name, boolean rawRecords,
+            int serverWorkers, int nFrags, Map<String, String> extractorProps,
+            List<Long> serverCrcs, List<Long> clientCrcs) throws Exception
+    {
+        runChainedPipelines(name, rawRecords, serverWorkers, nFrags,
+                extractorProps, false, serverCrcs, clientCrcs);
+    }
+
+    // Same as above. If serverFirst is true, the slave starts only after the
+    // master has stored all transactions, so it starts out behind.
+    private void runChainedPipelines(String name, boolean rawRecords,
+            int serverWorkers, int nFrags, Map<String, String> extractorProps,
+            boolean serverFirst, List<Long> serverCrcs, List<Long> clientCrcs)
+            throws Exception
+    {
+        runChainedPipelines(name, rawRecords, serverWorkers, nFrags,
+                extractorProps, new HashMap<String, String>(), 10 * nFrags,
+                serverFirst, serverCrcs, clientCrcs);
+    }
+
+    // Same as above. If there are filter properties, a sample filter with
+    // these properties runs on the master, which then stores the given number
+    // of records.
+    private void runChainedPipelines(String name, boolean rawRecords,
+            int serverWorkers, int nFrags, Map<String, String> extractorProps,
+            Map<String, String> filterProps, int records, boolean serverFirst,
+            List<Long> serverCrcs, List<Long> clientCrcs) throws Exception
+    {
+        prepareLogDir(name + "1");
+        prepareLogDir(name + "2");
+
+        PipelineConfigBuilder builder = new PipelineConfigBuilder();
+        builder.setProperty(ReplicatorConf.SERVICE_NAME, "test");
+        builder.setRole("master");
+        builder.setProperty(ReplicatorConf.METADATA_SCHEMA, name + "1");
+        builder.addPipeline("master", "extract-s", "thl");
+        builder.addStage("extract-s", "dummy", "thl-apply",
+                filterProps.isEmpty() ? null : "sample-filter");
+        builder.addComponent("extractor", "dummy", DummyExtractor.class);
+        builder.addProperty("extractor", "dummy", "nFrags",
+                Integer.toString(nFrags));
+        if (!filterProps.isEmpty())
+        {
+            builder.addComponent("filter", "sample-filter", SampleFilter.class);
+            for (Map.Entry<String, String> prop : filterProps.entrySet())
+            {
+                builder.addProperty("filter", "sample-filter", prop.getKey(),
+                        prop.getValue());
+            }
+        }
+        builder.addComponent("applier", "thl-apply", THLStoreApplier.class);
+        builder.addProperty("applier", "thl-apply", "storeName", "thl");
+        builder.addComponent("store", "thl", THL.class);
+        builder.addProperty("store", "thl", "logDir", name + "1");
+        builder.addProperty("store", "thl", "storageListenerUri",
+                "thl://localhost:2112/");
+        builder.addProperty("store", "thl", "serverWorkers",
+                Integer.toString(serverWorkers));
+
+        PipelineConfigBuilder builder2 = new PipelineConfigBuilder();
+        builder2.setProperty(ReplicatorConf.SERVICE_NAME, "test");
+        builder2.setRole("slave");
+        builder2.setProperty(ReplicatorConf.METADATA_SCHEMA, name + "2");
+        builder2.addPipeline("slave", "extract-c", "thl");
+        builder2.addStage("extract-c", "thl-remote-extractor", "thl-apply",
+                null);
+        builder2.addComponent("extractor", "thl-remote-extractor",
+                RemoteTHLExtractor.class);
+        builder2.addProperty("extractor", "thl-remote-extractor", "connectUri",
+                "thl://localhost:2112/");
+        builder2.addProperty("extractor", "thl-remote-extractor",
+                "rawRecords", Boolean.toString(rawRecords));
+        for (Map.Entry<String, String> prop : extractorProps.entrySet())
+        {
+            builder2.addProperty("extractor", "thl-remote-extractor",
+                    prop.getKey(), prop.getValue());
+        }
+        builder2.addComponent("applier", "thl-apply", THLStoreApplier.class);
+        builder2.addProperty("applier", "thl-apply", "storeName", "thl");
+        builder2.addComponent("store", "thl", THL.class);
+        builder2.addProperty("store", "thl", "logDir", name + "2");
+        builder2.addProperty("store", "thl", "storageListenerUri",
+                "thl://localhost:2113/");
+
+        ReplicatorRuntime serverRuntime = new ReplicatorRuntime(
+                builder.getConfig(), new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        serverRuntime.configure();
+        serverRuntime.prepare();
+        Pipeline serverPipeline = serverRuntime.getPipeline();
+
+        ReplicatorRuntime clientRuntime = new ReplicatorRuntime(
+                builder2.getConfig(), new MockOpenReplicatorContext(),
+                ReplicatorMonitor.getInstance());
+        clientRuntime.configure();
+        clientRuntime.prepare();
+        Pipeline clientPipeline = clientRuntime.getPipeline();
+
+        try
+        {
+            serverPipeline.start(new MockEventDispatcher());
+            Future<ReplDBMSHeader> waitServer = serverPipeline
+                    .watchForProcessedSequenceNumber(9);
+            ReplDBMSHeader lastServerEvent = null;
+            if (serverFirst)
+            {
+                lastServerEvent = waitServer.get(5, TimeUnit.SECONDS);
+                getRecordCrcs((THL) serverPipeline.getStore("thl"), records);
+            }
+            clientPipeline.start(new MockEventDispatcher());
+
+            Future<ReplDBMSHeader> waitClient = clientPipeline
+                    .watchForProcessedSequenceNumber(9);
+            if (lastServerEvent == null)
+                lastServerEvent = waitServer.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals("Expected 10 server events", 9,
+                    lastServerEvent.getSeqno());
+            Assert.assertEquals("Expected 10 client events", 9, waitClient
+                    .get(5, TimeUnit.SECONDS).getSeqno());
+
+            // The watch fires on the first fragment of the last transaction,
+            // so wait for the remaining fragments to reach the logs.
+            serverCrcs.addAll(getRecordCrcs((THL) serverPipeline
+                    .getStore("thl"), records));
+            clientCrcs.addAll(getRecordCrcs((THL) clientPipeline
+                    .getStore("thl"), records));
+
+            // If the slave caught up in parallel, it must not have fallen back
+            // to a single connection.
+            if (extractorProps.containsKey("catchUpConnections"))
+            {
+                RemoteTHLExtractor extractor = (RemoteTHLExtractor) clientPipeline
+                        .getStage("extract-c").getExtractor0();
+                Assert.assertEquals("Catch-up failures", 0,
+                        extractor.getCatchUpFailures());
+            }
+
+            // If the slave asked for compression, both ends must use it.
+            if ("deflate".equals(extractorProps.get("wireCompression")))
+            {
+                RemoteTHLExtractor extractor = (RemoteTHLExtractor) clientPipeline
+                        .getStage("extract-c").getExtractor0();
+                Assert.assertTrue("Slave reads compressed events",
+                        extractor.isWireCompressed());
+                List<ConnectorHandler> handlers = new ArrayList<ConnectorHandler>(
+                        ((THL) serverPipeline.getStore("thl")).getServer()
+                                .getClients());
+                Assert.assertFalse("Master has clients", handlers.isEmpty());
+                for (ConnectorHandler handler : handlers)
+                    Assert.assertTrue("Master sends compressed events",
+                            handler.isWireCompressed());
+            }
+        }
+        finally
+        {
+            clientPipeline.shutdown(true);
+            serverPipeline.shutdown(true);
+            clientRuntime.release();
+            serverRuntime.release();
+        }
+    }
+
+    // Returns the CRCs of all event records in a THL, waiting up to 5 seconds
+    // for the log to contain the expected number of records.
+    private List<Long> getRecordCrcs(THL thl, int expected) throws Exception
+    {
+        List<Long> crcs = getRecordCrcs(thl);
+        for (int i = 0; i < 50 && crcs.size() < expected; i++)
+        {
+            Thread.sleep(100);
+            crcs = getRecordCrcs(thl);
+        }
+        return crcs;
+    }
+
+    // Returns the CRCs of all event records in a THL.
+    private List<Long> getRecordCrcs(THL thl) throws Exception
+    {
+        List<Long> crcs = new ArrayList<Long>();
+        LogConnection conn = thl.connect(true);
+        try
+        {
+            Assert.assertTrue("Seek to start of log", conn.seek(0));
+            LogEventReplReader eventReader;
+            while ((eventReader = conn.nextRecord(false)) != null)
+            {
+                crcs.add(eventReader.getLogRecord().getCrc());
+                eventReader.done();
+            }
+        }
+        finally
+        {
+            thl.disconnect(conn);
+        }
+        return crcs;
+    }
+
     /**
      * Verify that multiple pipelines work slave pipeline extracts from the
      * master pipeline.
@@ -1491,6 +1491,242 @@ public class DiskLogTest extends TestCase
         log2.release();
     }
 
+    /**
+     * Confirm that we can read and seek across multiple logs when rotated log
+     * files are memory-mapped.
+     */
+    public void testMultipleLogsMappedReads() throws Exception
+    {
+        // Create the log and write multiple events.
+        File logDir = prepareLogDir("testMultipleLogsMappedReads");
+        DiskLog log = openLog(logDir, false, 3000);
+        log.setMappedReads(true);
+        writeEventsToLog(log, 200);
+        assertTrue("More than one log file", log.fileCount() > 1);
+
+        // Read back everything, then seek into the middle and read to the
+        // end, which crosses from mapped to unmapped files.
+        readBackStoredEvents(log, 0, 200);
+        readBackStoredEvents(log, 57, 143);
+
+        // Add more events, which makes the previous last file mappable, and
+        // confirm we can read them as well.
+        writeEventsToLog(log, 200, 50);
+        readBackStoredEvents(log, 150, 100);
+        log.release();
+    }
+
+    /**
+     * Confirm that a log with fsync and group commit enabled stores and reads
+     * back events across multiple files.
+     */
+    public void testGroupCommit() throws Exception
+    {
+        File logDir = prepareLogDir("testGroupCommit");
+        DiskLog log = new DiskLog();
+        log.setDoChecksum(true);
+        log.setReadOnly(false);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(3000);
+        log.setFsyncOnFlush(true);
+        log.setGroupCommit(true);
+        log.prepare();
+        assertTrue("Group commit enabled", log.isGroupCommit());
+
+        // Write events committing each one, then read them back.
+        LogConnection conn = log.connect(false);
+        for (int i = 0; i < 100; i++)
+        {
+            conn.store(createTHLEvent(i), true);
+        }
+        conn.release();
+        assertTrue("More than one log file", log.fileCount() > 1);
+        readBackStoredEvents(log, 0, 100);
+        log.release();
+
+        // Reopen and confirm events are present.
+        DiskLog log2 = openLog(logDir, true);
+        assertEquals("Should have stored 100 events", 99, log2.getMaxSeqno());
+        readBackStoredEvents(log2, 0, 100);
+        log2.release();
+    }
+
+    /**
+     * Confirm that a log may contain a mix of compressed and uncompressed
+     * records and that readers handle both transparently, regardless of the
+     * compression setting of the reading log.
+     */
+    public void testMixedCompression() throws Exception
+    {
+        // Write uncompressed events.
+        File logDir = prepareLogDir("testMixedCompression");
+        DiskLog log = openLog(logDir, false, 3000);
+        writeEventsToLog(log, 100);
+        log.release();
+
+        // Reopen with compression and add more events.
+        DiskLog log2 = new DiskLog();
+        log2.setDoChecksum(true);
+        log2.setReadOnly(false);
+        log2.setEventSerializerClass(this.serializer.getName());
+        log2.setLogDir(logDir.getAbsolutePath());
+        log2.setLogFileSize(3000);
+        log2.setCompression("deflate");
+        log2.prepare();
+        assertEquals("Compression type", LogRecord.COMPRESSION_DEFLATE,
+                log2.getCompressionType());
+        writeEventsToLog(log2, 100, 100);
+        readBackStoredEvents(log2, 0, 200);
+        log2.release();
+
+        // Read back everything using an uncompressed reader.
+        DiskLog log3 = openLog(logDir, true);
+        assertEquals("Should have stored 200 events", 199, log3.getMaxSeqno());
+        readBackStoredEvents(log3, 0, 200);
+        log3.release();
+
+        // Confirm that an invalid compression setting is rejected.
+        DiskLog log4 = new DiskLog();
+        log4.setReadOnly(true);
+        log4.setLogDir(logDir.getAbsolutePath());
+        log4.setCompression("lzma");
+        try
+        {
+            log4.prepare();
+            throw new Exception("Able to prepare log with bad compression");
+        }
+        catch (ReplicatorException e)
+        {
+        }
+    }
+
+    /**
+     * Confirm that rotated log files get a seek index, that seeks using the
+     * index find every sequence number, and that missing, corrupt, or orphaned
+     * index files do not affect correctness.
+     */
+    public void testSeekIndex() throws Exception
+    {
+        // Write enough events to fill several files, each with multiple index
+        // entries.
+        File logDir = prepareLogDir("testSeekIndex");
+        DiskLog log = openSeekIndexLog(logDir, false, 300);
+        writeEventsToLog(log, 500);
+        int fileCount = log.fileCount();
+        assertTrue("More than one log file", fileCount > 1);
+
+        // Every rotated file has an index; the active one is in memory.
+        File[] indexFiles = DiskLog.listLogFiles(logDir, "thl.index.");
+        assertEquals("Index file for each rotated log file", fileCount - 1,
+                indexFiles.length);
+        LogFileIndex firstIndex = log.getSeekIndex(log.getFirstFile());
+        assertNotNull("First file has seek index", firstIndex);
+        assertTrue("First file index has multiple entries",
+                firstIndex.size() > 1);
+        assertTrue("Active file has seek index",
+                log.getSeekIndex(log.getLastFile()).size() > 0);
+
+        // Seek to every sequence number and read a few events.
+        for (long seqno = 0; seqno < 495; seqno += 3)
+            readBackStoredEvents(log, seqno, 5);
+
+        // Replace the first index with one that points into the middle of
+        // records and add an orphaned index file.
+        String firstFile = log.getFirstFile();
+        File corruptIndexFile = new File(logDir, "thl.index."
+                + firstFile.substring(firstFile.lastIndexOf('.') + 1));
+        assertTrue("First file index exists", corruptIndexFile.exists());
+        LogFileIndex corruptIndex = new LogFileIndex(1);
+        for (int i = 1; i < 10; i++)
+            corruptIndex.add(i * 10, LogFile.HEADER_LENGTH + i * 100 + 3);
+        corruptIndex.write(corruptIndexFile);
+        File orphanIndexFile = new File(logDir, "thl.index.9999999");
+        corruptIndex.write(orphanIndexFile);
+        log.release();
+
+        // Confirm that a read-only log still finds every sequence number.
+        DiskLog log2 = openSeekIndexLog(logDir, true, 300);
+        assertEquals("Should have stored 500 events", 499, log2.getMaxSeqno());
+        readBackStoredEvents(log2, 0, 500);
+        for (long seqno = 0; seqno < 495; seqno += 7)
+            readBackStoredEvents(log2, seqno, 5);
+        log2.release();
+        assertTrue("Read-only log leaves files alone", orphanIndexFile.exists());
+
+        // Reopen writable, which cleans up the orphan and rebuilds the index
+        // for the active file, then delete index files and confirm seeks
+        // still work.
+        DiskLog log3 = openSeekIndexLog(logDir, false, 300);
+        assertFalse("Orphan index removed", orphanIndexFile.exists());
+        assertTrue("Active file index rebuilt",
+                log3.getSeekIndex(log3.getLastFile()).size() > 0);
+        writeEventsToLog(log3, 500, 100);
+        for (File f : DiskLog.listLogFiles(logDir, "thl.index."))
+            f.delete();
+        DiskLog log4 = openSeekIndexLog(logDir, true, 300);
+        for (long seqno = 0; seqno < 595; seqno += 11)
+            readBackStoredEvents(log4, seqno, 5);
+        log4.release();
+
+        // Truncate the active file at its last indexed transaction, then
+        // replace the deleted events and confirm seeks find the new ones.
+        LogFileIndex activeIndex = log3.getSeekIndex(log3.getLastFile());
+        long truncateSeqno = activeIndex.findSeqno(Long.MAX_VALUE);
+        int activeEntries = activeIndex.size();
+        LogConnection conn = log3.connect(false);
+        conn.delete(new Long(truncateSeqno), null);
+        conn.release();
+        assertEquals("Log truncated", truncateSeqno - 1, log3.getMaxSeqno());
+        assertEquals("Truncated index entry dropped", activeEntries - 1,
+                activeIndex.size());
+        writeEventsToLog(log3, truncateSeqno, (int) (600 - truncateSeqno));
+        for (long seqno = truncateSeqno - 10; seqno < 595; seqno++)
+            readBackStoredEvents(log3, seqno, 5);
+        log3.release();
+    }
+
+    /**
+     * Confirm that seeks using the seek index find filtered events, including
+     * sequence numbers that fall inside the range of a filtered event.
+     */
+    public void testSeekIndexFiltered() throws Exception
+    {
+        File logDir = prepareLogDir("testSeekIndexFiltered");
+        DiskLog log = openSeekIndexLog(logDir, false, 100);
+        LogConnection conn = log.connect(false);
+        long seqno = 0;
+        for (int i = 0; i < 200; i++)
+        {
+            conn.store(createFilteredTHLEvent(seqno, seqno + 4, (short) 0),
+                    false);
+            seqno += 5;
+        }
+        conn.store(createFilteredTHLEvent(seqno, seqno, (short) 0), false);
+        conn.commit();
+        conn.release();
+        assertTrue("More than one log file", log.fileCount() > 1);
+        log.release();
+
+        // Reopen so that the file index reflects filtered ranges at the end
+        // of files, then seek to each sequence number.
+        DiskLog log2 = openSeekIndexLog(logDir, true, 100);
+        LogConnection conn2 = log2.connect(true);
+        for (int i = 0; i < 200; i++)
+        {
+            long start = i * 5;
+            long end = start + 4;
+            for (long j = start; j <= end; j++)
+            {
+                assertTrue("Find filtered event for seqno: " + j, conn2.seek(j));
+                validateFilteredEvent(conn2.next(false), start, end);
+            }
+        }
+        assertTrue("Find last filtered event", conn2.seek(seqno));
+        validateFilteredEvent(conn2.next(false), seqno, seqno);
+        log2.release();
+    }
+
     /**
      * Confirm that we can write and seek across multiple logs with rotation
      * events when the logs contain only filtered values. This catches possible
@@ -2281,6 +2517,23 @@ public class DiskLogTest extends TestCase
         return log;
     }
 
+    // Open a log with small files and a dense seek index.
+    private DiskLog openSeekIndexLog(File logDir, boolean readonly,
+            int seekIndexInterval) throws ReplicatorException,
+            InterruptedException
+    {
+        DiskLog log = new DiskLog();
+        log.setDoChecksum(true);
+        log.setReadOnly(readonly);
+        log.setEventSerializerClass(this.serializer.getName());
+        log.setLogDir(logDir.getAbsolutePath());
+        log.setLogFileSize(10000);
+        log.setTimeoutMillis(10000);
+        log.setSeekIndexInterval(seekIndexInterval);
+        log.prepare();
+        return log;
+    }
+
     // Default open to create log with 10 second read timeout.
     private DiskLog openLog(File logDir, boolean readonly, int fileSize)
             throws ReplicatorException, InterruptedException
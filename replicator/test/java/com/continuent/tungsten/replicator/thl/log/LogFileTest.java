@@ -23,6 +23,7 @@
 package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.File;
+import java.util.concurrent.CyclicBarrier;
 
 import junit.framework.TestCase;
 
@@ -260,6 +261,67 @@ public class LogFileTest extends TestCase
         tf.close();
     }
 
+    /**
+     * Confirm that a memory-mapped file returns the same records and checksums
+     * as a buffered read and that it falls back to buffered reads when records
+     * are added after the file is mapped.
+     */
+    public void testMappedReads() throws Exception
+    {
+        // Populate file with 100 records containing random data.
+        LogFile tf = LogHelper.createLogFile("testMappedReads.dat", 5);
+        for (int i = 0; i < 100; i++)
+        {
+            byte[] data = new byte[100 + i];
+            for (int j = 0; j < data.length; j++)
+                data[j] = (byte) (Math.random() * 255);
+            LogRecord rec = new LogRecord(tf.getFile(), -1, data,
+                    LogRecord.CRC_TYPE_32, LogRecord.computeCrc32(data));
+            tf.writeRecord(rec, 100000);
+        }
+        tf.flush();
+
+        // Open a buffered and a mapped reader on the file.
+        LogFile buffered = LogHelper.openExistingFileForRead("testMappedReads.dat");
+        LogFile mapped = new LogFile(new File("testMappedReads.dat"));
+        mapped.setMappedReads(true);
+        mapped.openRead();
+        assertTrue("File is mapped", mapped.isMapped());
+        assertEquals("Base seqno from mapped file", 5, mapped.getBaseSeqno());
+
+        // Records and offsets must match.
+        for (int i = 0; i < 100; i++)
+        {
+            LogRecord rec1 = buffered.readRecord(0);
+            LogRecord rec2 = mapped.readRecord(0);
+            assertEquals("Offsets match", buffered.getOffset(),
+                    mapped.getOffset());
+            assertEquals("Record type matches", rec1.getData()[0],
+                    rec2.getRecordType());
+            assertTrue("Mapped CRC is valid", rec2.checkCrc());
+            assertEquals("Record contents match", rec1, rec2);
+        }
+
+        // Add another record. The mapped reader should switch to buffered
+        // reads and find it.
+        byte[] lastBytes = "last bytes".getBytes();
+        LogRecord lastRecord = new LogRecord(tf.getFile(), tf.getOffset(),
+                lastBytes, LogRecord.CRC_TYPE_NONE, 0);
+        tf.writeRecord(lastRecord, 100000);
+        tf.flush();
+        LogRecord rec3 = mapped.readRecord(0);
+        assertFalse("Mapped reader has switched to buffered reads",
+                mapped.isMapped());
+        assertEquals("Record added after map is found", lastRecord, rec3);
+        assertTrue("Nothing after last record", mapped.readRecord(0)
+                .isEmpty());
+
+        // Release resources
+        tf.close();
+        buffered.close();
+        mapped.close();
+    }
+
     /**
      * Confirm that we can write and read concurrently.
      */
@@ -315,4 +377,105 @@ public class LogFileTest extends TestCase
         if (lr.error != null)
             throw lr.error;
     }
-}
\ No newline at end of file
+
+    /**
+     * Confirm that group commit makes data from concurrent writers durable
+     * using shared fsync calls and that commits still succeed after the log
+     * flush task stops.
+     */
+    public void testGroupCommit() throws Exception
+    {
+        // Start a group commit flush task.
+        final LogFlushTask flushTask = new LogFlushTask(0, true);
+        Thread flushThread = new Thread(flushTask, "testGroupCommit-sync");
+        flushThread.start();
+
+        // Create the file with group commit enabled.
+        File logfile = new File("testGroupCommit.dat");
+        logfile.delete();
+        final LogFile tf = new LogFile(logfile);
+        tf.setFsyncOnFlush(true);
+        tf.setGroupCommit(true);
+        tf.setLogSyncTask(flushTask);
+        tf.create(-1);
+
+        // Write and commit records from several threads. Writers commit in
+        // lock step so that each round of commits overlaps.
+        final int writers = 4;
+        final int commitsPerWriter = 200;
+        final CyclicBarrier barrier = new CyclicBarrier(writers);
+        final Throwable[] errors = new Throwable[writers];
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++)
+        {
+            final int writer = t;
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < commitsPerWriter; i++)
+                        {
+                            byte[] data = new byte[100];
+                            LogRecord rec = new LogRecord(tf.getFile(), -1,
+                                    data, LogRecord.CRC_TYPE_32, LogRecord
+                                            .computeCrc32(data));
+                            long end;
+                            barrier.await();
+                            synchronized (tf)
+                            {
+                                tf.writeRecord(rec, 100000000);
+                                end = tf.getOffset();
+                            }
+                            barrier.await();
+                            tf.flush();
+                            assertTrue("Committed data are synced",
+                                    tf.getSyncedOffset() >= end);
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        errors[writer] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (int t = 0; t < writers; t++)
+        {
+            threads[t].join();
+            if (errors[t] != null)
+                throw new Exception("Writer failed: " + t, errors[t]);
+        }
+
+        // Everything is durable and concurrent commits shared fsync rounds.
+        assertEquals("Synced to end of file", tf.getLength(),
+                tf.getSyncedOffset());
+        long syncCount = flushTask.getSyncCount();
+        logger.info("Group commit fsync rounds: " + syncCount);
+        assertTrue("Shared fsync calls", syncCount > 0
+                && syncCount < writers * commitsPerWriter);
+
+        // Stop the flush task and confirm commits sync directly.
+        flushTask.cancel();
+        flushThread.interrupt();
+        flushThread.join(5000);
+        byte[] data = new byte[100];
+        tf.writeRecord(new LogRecord(tf.getFile(), -1, data,
+                LogRecord.CRC_TYPE_32, LogRecord.computeCrc32(data)), 100000000);
+        tf.flush();
+        assertEquals("Synced after task stopped", tf.getLength(),
+                tf.getSyncedOffset());
+        tf.close();
+
+        // Read back all records.
+        LogFile tfro = LogHelper.openExistingFileForRead("testGroupCommit.dat");
+        int count = 0;
+        while (!tfro.readRecord(0).isEmpty())
+            count++;
+        assertEquals("Records read back", writers * commitsPerWriter + 1,
+                count);
+        tfro.close();
+    }
+}
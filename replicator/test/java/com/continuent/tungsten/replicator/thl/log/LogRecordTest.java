@@ -24,6 +24,8 @@ package com.continuent.tungsten.replicator.thl.log;
 
 import java.io.RandomAccessFile;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -31,6 +33,8 @@ import org.apache.log4j.Logger;
 import org.junit.After;
 import org.junit.Before;
 
+import com.continuent.tungsten.replicator.dbms.DBMSData;
+import com.continuent.tungsten.replicator.dbms.StatementData;
 import com.continuent.tungsten.replicator.event.DBMSEvent;
 import com.continuent.tungsten.replicator.event.ReplDBMSEvent;
 import com.continuent.tungsten.replicator.thl.THLEvent;
@@ -119,6 +123,68 @@ public class LogRecordTest extends TestCase
         tfro.close();
     }
 
+    /**
+     * Confirm that we can write and read back a replication event whose
+     * serialized contents are compressed and that compression reduces the
+     * record size for repetitive data.
+     */
+    public void testCompressedReplicationEvents() throws Exception
+    {
+        // Create an event with highly compressible content.
+        Serializer serializer = new ProtobufSerializer();
+        StringBuffer sb = new StringBuffer();
+        for (int i = 0; i < 200; i++)
+            sb.append("insert into foo values(1, 'bar');");
+        ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+        data.add(new StatementData(sb.toString()));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        ReplDBMSEvent replEvent = new ReplDBMSEvent(32, (short) 0, true,
+                "unittest", 1, now, new DBMSEvent("dummy", data, now));
+        THLEvent inputEvent = new THLEvent("dummy", replEvent);
+
+        // Write compressed and uncompressed versions.
+        LogRecord plainRec = new LogEventReplWriter(inputEvent, serializer,
+                true, null).write();
+        LogRecord deflateRec = new LogEventReplWriter(inputEvent, serializer,
+                true, null, LogRecord.COMPRESSION_DEFLATE).write();
+        assertEquals("Compression type", LogRecord.COMPRESSION_DEFLATE,
+                deflateRec.getCompressionType());
+        assertTrue("Compressed record is smaller",
+                deflateRec.getDataLength() < plainRec.getDataLength());
+
+        LogFile tfrw = LogHelper.createLogFile(
+                "testCompressedReplicationEvents.dat", 3);
+        tfrw.writeRecord(deflateRec, 10000);
+        tfrw.writeRecord(plainRec, 10000);
+        tfrw.close();
+
+        // Read both back and confirm that header and event match.
+        LogFile tfro = LogHelper
+                .openExistingFileForRead("testCompressedReplicationEvents.dat");
+        byte[] expectedCompression = {LogRecord.COMPRESSION_DEFLATE,
+                LogRecord.COMPRESSION_NONE};
+        for (int i = 0; i < 2; i++)
+        {
+            LogRecord logRec = tfro.readRecord(0);
+            assertEquals("Stored compression type", expectedCompression[i],
+                    logRec.getCompressionType());
+            assertEquals("Stored CRC type", LogRecord.CRC_TYPE_32,
+                    logRec.getCrcType());
+            LogEventReplReader reader = new LogEventReplReader(logRec,
+                    serializer, true);
+            assertEquals("Checking seqno", 32, reader.getSeqno());
+            THLEvent outputEvent = reader.deserializeEvent();
+            reader.done();
+
+            ReplDBMSEvent outputReplEvent = (ReplDBMSEvent) outputEvent
+                    .getReplEvent();
+            StatementData sd = (StatementData) outputReplEvent.getData().get(0);
+            assertEquals("Query is intact", sb.toString(), sd.getQuery());
+        }
+
+        tfro.close();
+    }
+
     /**
      * Confirm that a record that has corrupted bytes triggers a checksum
      * failure resulting in a LogConsistencyException.
@@ -305,6 +371,103 @@ public class LogRecordTest extends TestCase
         return tfrw;
     }
 
+    /**
+     * Confirm that records written through a reusable record buffer can be
+     * read back with and without compression and checksums, that the CRC
+     * computed while writing matches a CRC computed on the data, and that the
+     * buffer shrinks again after a large record.
+     */
+    public void testRecordBuffer() throws Exception
+    {
+        Serializer serializer = new ProtobufSerializer();
+        LogRecordBuffer buffer = new LogRecordBuffer(64, 4096);
+        LogFile tfrw = LogHelper.createLogFile("testRecordBuffer.dat", 3);
+        byte[] compressionTypes = {LogRecord.COMPRESSION_NONE,
+                LogRecord.COMPRESSION_DEFLATE};
+        boolean[] checkCrcs = {true, false};
+        int[] querySizes = {1, 500, 1};
+        List<Byte> expectedCrcTypes = new ArrayList<Byte>();
+        List<Byte> expectedCompressionTypes = new ArrayList<Byte>();
+        List<String> expectedQueries = new ArrayList<String>();
+        long seqno = 0;
+
+        for (int querySize : querySizes)
+        {
+            StringBuffer sb = new StringBuffer();
+            for (int i = 0; i < querySize; i++)
+                sb.append("insert into foo values(" + i + ", 'bar');");
+            String query = sb.toString();
+            for (byte compressionType : compressionTypes)
+            {
+                for (boolean checkCrc : checkCrcs)
+                {
+                    ArrayList<DBMSData> data = new ArrayList<DBMSData>();
+                    data.add(new StatementData(query));
+                    Timestamp now = new Timestamp(System.currentTimeMillis());
+                    ReplDBMSEvent replEvent = new ReplDBMSEvent(seqno++,
+                            (short) 0, true, "unittest", 1, now,
+                            new DBMSEvent("dummy", data, now));
+                    THLEvent event = new THLEvent("dummy", replEvent);
+
+                    // Write the record and check the incremental CRC.
+                    new LogEventReplWriter(event, serializer, checkCrc, null,
+                            compressionType).write(buffer);
+                    assertEquals("Record length", buffer.getDataLength()
+                            + LogRecord.NON_DATA_BYTES, buffer.getLength());
+                    assertEquals("Record type", LogRecord.EVENT_REPL,
+                            buffer.getRecordType());
+                    if (checkCrc)
+                        assertEquals("CRC",
+                                LogRecord.computeCrc32(buffer.getData()),
+                                buffer.getCrc());
+                    else
+                        assertEquals("No CRC", 0, buffer.getCrc());
+
+                    if (querySize > 1
+                            && compressionType == LogRecord.COMPRESSION_NONE)
+                        assertTrue("Buffer grows for large records",
+                                buffer.getBuffer().length > 4096);
+
+                    tfrw.writeRecord(buffer, 1000000);
+                    expectedCrcTypes.add(checkCrc
+                            ? LogRecord.CRC_TYPE_32
+                            : LogRecord.CRC_TYPE_NONE);
+                    expectedCompressionTypes.add(compressionType);
+                    expectedQueries.add(query);
+                }
+            }
+
+            // The buffer only keeps its capacity up to the retained size.
+            buffer.reset(true);
+            assertTrue("Buffer shrinks after reset",
+                    buffer.getBuffer().length <= 4096);
+        }
+        tfrw.close();
+
+        // Read back and confirm records pass checksums and are readable.
+        LogFile tfro = LogHelper.openExistingFileForRead("testRecordBuffer.dat");
+        for (int i = 0; i < expectedQueries.size(); i++)
+        {
+            LogRecord logRec = tfro.readRecord(0);
+            assertEquals("CRC type", expectedCrcTypes.get(i).byteValue(),
+                    logRec.getCrcType());
+            assertEquals("Compression type", expectedCompressionTypes.get(i)
+                    .byteValue(), logRec.getCompressionType());
+
+            LogEventReplReader reader = new LogEventReplReader(logRec,
+                    serializer, true);
+            THLEvent outputEvent = reader.deserializeEvent();
+            reader.done();
+            ReplDBMSEvent outputReplEvent = (ReplDBMSEvent) outputEvent
+                    .getReplEvent();
+            StatementData sd = (StatementData) outputReplEvent.getData().get(0);
+            assertEquals("Query is intact", expectedQueries.get(i),
+                    sd.getQuery());
+        }
+        assertTrue("End of file", tfro.readRecord(0).isEmpty());
+        tfro.close();
+    }
+
     /**
      * Confirm that we can write and then read back a log rotation event.
      */